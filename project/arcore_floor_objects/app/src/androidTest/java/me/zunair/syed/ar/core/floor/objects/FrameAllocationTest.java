@@ -0,0 +1,60 @@
+package me.zunair.syed.ar.core.floor.objects;
+
+import android.Manifest;
+import android.os.SystemClock;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.rule.GrantPermissionRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.runner.RunWith;
+
+import me.zunair.syed.ar.core.floor.objects.rendering.AllocationGuard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the frame loop on a device and checks that no frame allocates after the warm-up. Needs a
+ * debug build, where the frame loop is guarded, and a device that supports ARCore. The drawing of
+ * the planes and objects is also checked without a device, by {@code SceneRendererTest}; this
+ * test adds the ARCore session, the camera background and the rest of the activity's frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameAllocationTest {
+    private static final int CHECKED_FRAMES = 300;
+    private static final long TIMEOUT_MS = 120000;
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final ActivityTestRule<MainARActivity> mActivityRule =
+        new ActivityTestRule<>(MainARActivity.class);
+
+    // The permissions must be granted before the activity starts.
+    @Rule
+    public final RuleChain mRules = RuleChain
+        .outerRule(GrantPermissionRule.grant(
+            Manifest.permission.CAMERA, Manifest.permission.WRITE_EXTERNAL_STORAGE))
+        .around(mActivityRule);
+
+    @Test
+    public void framesDoNotAllocateAfterWarmUp() {
+        // The activity still asks for the granted permissions, and starts the session when it
+        // resumes from the request.
+        MainARActivity activity = mActivityRule.getActivity();
+
+        AllocationGuard guard = activity.getAllocationGuard();
+        assertNotNull("The frame loop is only guarded in debug builds", guard);
+        int frames = guard.getWarmUpFrames() + CHECKED_FRAMES;
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (guard.getFrameCount() < frames && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+
+        assertTrue("Only " + guard.getFrameCount() + " frames drawn",
+            guard.getFrameCount() >= frames);
+        assertEquals("Frames that allocated after the warm-up", 0, guard.getViolationCount());
+    }
+}
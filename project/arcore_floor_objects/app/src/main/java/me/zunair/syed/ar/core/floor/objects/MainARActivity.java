@@ -2,18 +2,31 @@
 package me.zunair.syed.ar.core.floor.objects;
 
 import me.zunair.syed.ar.core.floor.objects.model.ObjectsModel;
+import me.zunair.syed.ar.core.floor.objects.rendering.AllocationGuard;
 import me.zunair.syed.ar.core.floor.objects.rendering.BackgroundRenderer;
+import me.zunair.syed.ar.core.floor.objects.rendering.CommandQueue;
+import me.zunair.syed.ar.core.floor.objects.rendering.FrameProfiler;
+import me.zunair.syed.ar.core.floor.objects.rendering.FrameSnapshot;
+import me.zunair.syed.ar.core.floor.objects.rendering.GlCapabilities;
+import me.zunair.syed.ar.core.floor.objects.rendering.GlState;
+import me.zunair.syed.ar.core.floor.objects.rendering.GlValidation;
+import me.zunair.syed.ar.core.floor.objects.rendering.GpuTimer;
+import me.zunair.syed.ar.core.floor.objects.rendering.ModelCache;
+import me.zunair.syed.ar.core.floor.objects.rendering.ModelLoader;
 import me.zunair.syed.ar.core.floor.objects.rendering.ObjectRenderer;
-import me.zunair.syed.ar.core.floor.objects.rendering.PlaneAttachment;
+import me.zunair.syed.ar.core.floor.objects.rendering.PlaneHitTester;
+import me.zunair.syed.ar.core.floor.objects.rendering.SceneRenderer;
+import me.zunair.syed.ar.core.floor.objects.rendering.SceneStore;
+import me.zunair.syed.ar.core.floor.objects.rendering.ScreenshotCapture;
+import com.google.ar.core.Anchor;
 import com.google.ar.core.Config;
 import com.google.ar.core.Frame;
 import com.google.ar.core.Frame.TrackingState;
-import com.google.ar.core.HitResult;
 import com.google.ar.core.Plane;
-import com.google.ar.core.PlaneHitResult;
+import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
+import com.google.ar.core.exceptions.NotTrackingException;
 import me.zunair.syed.ar.core.floor.objects.adapter.ModelSelectorAdapter;
-import me.zunair.syed.ar.core.floor.objects.rendering.PlaneRenderer;
 
 import com.mancj.slideup.SlideUp;
 import com.mancj.slideup.SlideUpBuilder;
@@ -30,7 +43,6 @@ import android.net.Uri;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AlertDialog;
@@ -44,23 +56,53 @@ import android.view.View;
 import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.io.Writer;
 import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Locale;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 
-public class MainARActivity extends AppCompatActivity implements GLSurfaceView.Renderer {
+public class MainARActivity extends AppCompatActivity implements GLSurfaceView.Renderer,
+        ModelLoader.Listener, ScreenshotCapture.Listener {
     private static final String TAG = MainARActivity.class.getSimpleName();
-    private static final int LIMIT_OF_OBJECTS = 32;
+    private static final int LIMIT_OF_OBJECTS = 4096;
+    // Anchors tracked at once. Objects placed within ANCHOR_SHARING_RADIUS_M of an anchor on the
+    // same plane share it; 0 gives every object its own anchor.
+    private static final int LIMIT_OF_ANCHORS = 32;
+    private static final float ANCHOR_SHARING_RADIUS_M = 0.5f;
+    // Farthest from the camera an object can be picked by a long press.
+    private static final float MAX_PICK_DISTANCE_M = 20.0f;
+    // User commands that can wait for the GL thread at once.
+    private static final int COMMAND_QUEUE_CAPACITY = 64;
+
+    // Time per frame the GL thread may spend uploading models that finished loading.
+    private static final long MODEL_UPLOAD_BUDGET_NS = 4000000L;
+    // GPU memory kept for models that are not on screen.
+    private static final long MODEL_CACHE_BUDGET_BYTES = 64L * 1024 * 1024;
+    // Frames allowed to allocate while models load and buffers grow, in debug builds.
+    private static final int ALLOCATION_WARM_UP_FRAMES = 300;
+    // How often the profiler overlay is refreshed while shown.
+    private static final long PROFILER_OVERLAY_INTERVAL_NS = 500000000L;
+    // GPU timer sections: the render passes, then one per model.
+    private static final int GPU_SECTION_BACKGROUND = 0;
+    private static final int GPU_SECTION_PLANES = 1;
+    private static final int GPU_SECTION_FIRST_MODEL = 2;
+    // Intent extra overriding the build type's GL error checks: "none", "sampled" or "full",
+    // for example with adb shell am start -e gl_validation full.
+    private static final String EXTRA_GL_VALIDATION = "gl_validation";
+    // Encoding of the shared screenshots, and their largest side in pixels, 0 for full size.
+    private static final Bitmap.CompressFormat SCREENSHOT_FORMAT = Bitmap.CompressFormat.JPEG;
+    private static final int SCREENSHOT_QUALITY = 90;
+    private static final int SCREENSHOT_MAX_SIZE = 0;
 
     // Rendering. The Renderers are created here, and initialized when the GL surface is created.
     private GLSurfaceView mSurfaceView;
@@ -70,7 +112,12 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
     private BackgroundRenderer mBackgroundRenderer = new BackgroundRenderer();
     private GestureDetector mGestureDetector;
     private ScaleGestureDetector mScaleGestureDetector;
-    private PlaneRenderer mPlaneRenderer = new PlaneRenderer();
+    // Draws the planes and the placed objects, created once the model cache is.
+    private SceneRenderer mSceneRenderer;
+    // Planes drawn in the current frame, which taps are tested against.
+    private final PlaneHitTester mPlaneHitTester = new PlaneHitTester();
+    // ARCore's plane and anchor state, read once per frame.
+    private final FrameSnapshot mFrameSnapshot = new FrameSnapshot();
 
 
     private static final String[][] mModelsInfo = new String[][]{
@@ -81,18 +128,38 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
             new String[]{"Spider", "celspder.obj", "celspder.png", "5.0","celspder_preview.png"},
             new String[]{"Android", "andy.obj", "andy.png", "1.0","andy_preview.png"},
     };
-    private ObjectRenderer[] mVirtualObjectArr = new ObjectRenderer[mModelsInfo.length];
     private ObjectsModel[] mModels = new ObjectsModel[mModelsInfo.length];
+    private ModelCache mModelCache;
+    // Only changed on the GL thread, through commands.
     private ObjectsModel mCurrentSelectedModel;
     private float mCurrentScaleFactor = 1.0F;
     private static final float mModelScaleFactorChange = 0.03f;
 
-    // Temporary matrix allocated here to reduce number of allocations for each frame.
-    private final float[] mAnchorMatrix = new float[16];
-
-    // Tap handling and UI.
-    private ArrayBlockingQueue<MotionEvent> mQueuedSingleTaps = new ArrayBlockingQueue<>(16);
-    private ArrayList<PlaneAttachment> mTouches = new ArrayList<>();
+    // Temporary matrices allocated here, as the frame loop must not allocate.
+    private final float[] mPickRay = new float[6];
+    private final float[] mProjectionMatrix = new float[16];
+
+    // Reports frames that allocate in debug builds.
+    private final AllocationGuard mAllocationGuard =
+        BuildConfig.DEBUG ? new AllocationGuard(TAG, ALLOCATION_WARM_UP_FRAMES) : null;
+
+    // Time spent in each stage of the frame. Only touched on the GL thread.
+    private final FrameProfiler mProfiler = new FrameProfiler();
+    private volatile boolean mProfilerOverlayShown;
+    private volatile boolean mProfileDumpRequested;
+    private long mProfilerOverlayUpdateNanos;
+    // GPU time per pass and per model, measured while the profiler overlay is shown. Null if the
+    // GPU cannot measure it.
+    private GpuTimer mGpuTimer;
+    // GL state calls issued and skipped as redundant by GlState in the last frame.
+    private int mIssuedStateCalls;
+    private int mSkippedStateCalls;
+
+    // Tap handling and UI. Taps, gestures and buttons only post commands, which the GL thread
+    // applies at the start of each frame, so the placed objects are only touched on that thread.
+    private final CommandQueue mCommands = new CommandQueue(COMMAND_QUEUE_CAPACITY);
+    private final SceneStore mScene =
+        new SceneStore(LIMIT_OF_OBJECTS, LIMIT_OF_ANCHORS, mModelsInfo.length, mFrameSnapshot);
 
     //Permissions
     private static boolean hasAllPermissionsBeenGranted = false;
@@ -103,8 +170,11 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
             Manifest.permission.CAMERA
     };
 
-    private boolean needSpaceShareImage = false;
-    private Bitmap spaceShareImage;
+    // Set on the UI thread, read on the GL thread, which captures the next frame it draws.
+    private volatile boolean needSpaceShareImage = false;
+    private ScreenshotCapture mScreenshotCapture;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
 
     //Menu
     private ImageView infoIcon;
@@ -118,6 +188,7 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
     private RelativeLayout slideView;
     private SlideUp slideUp;
     private DiscreteScrollView scrollView;
+    private TextView profilerOverlay;
 
 
     @Override
@@ -125,6 +196,8 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        configureGlValidation();
+
         ActivityCompat.requestPermissions(this, PERMISSIONS_REQUIRED,
                 REQUEST_PERMISSIONS_CODE);
 
@@ -136,10 +209,18 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
                     modelInfo[1],
                     modelInfo[2],
                     Float.parseFloat(modelInfo[3]));
+            obj.setId(i);
             obj.setPreview(previewImg);
             mCurrentSelectedModel = obj;
             mModels[i] = obj;
         }
+        mModelCache = new ModelCache(this, mModels, MODEL_CACHE_BUDGET_BYTES, this);
+        mSceneRenderer = new SceneRenderer(
+            GlState.getInstance(), mFrameSnapshot, mScene, mModelCache, mProfiler);
+        mSceneRenderer.setHitTester(mPlaneHitTester);
+        mScreenshotCapture = new ScreenshotCapture(this, this);
+        mScreenshotCapture.setFormat(SCREENSHOT_FORMAT, SCREENSHOT_QUALITY);
+        mScreenshotCapture.setMaxSize(SCREENSHOT_MAX_SIZE);
 
 
         infoIcon = (ImageView) findViewById(R.id.infoIcon);
@@ -155,13 +236,13 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
         resetIcon.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                resetObjects();
+                postCommand(mCommands.offerReset());
             }
         });
         undoIcon.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                undoObject();
+                postCommand(mCommands.offerUndo());
             }
         });
         shareIcon.setOnClickListener(new View.OnClickListener() {
@@ -171,6 +252,22 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
             }
         });
 
+        profilerOverlay = (TextView) findViewById(R.id.profilerOverlay);
+        infoIcon.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                mProfilerOverlayShown = !mProfilerOverlayShown;
+                profilerOverlay.setVisibility(mProfilerOverlayShown ? View.VISIBLE : View.GONE);
+                return true;
+            }
+        });
+        profilerOverlay.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                mProfileDumpRequested = true;
+            }
+        });
+
 
         scrollView = findViewById(R.id.picker);
         cancelCross = (ImageView) findViewById(R.id.cancelModelPicker);
@@ -227,6 +324,11 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
                 return true;
             }
 
+            @Override
+            public void onLongPress(MotionEvent e) {
+                postCommand(mCommands.offerDelete(e.getX(), e.getY()));
+            }
+
             @Override
             public boolean onDown(MotionEvent e) {
                 return true;
@@ -249,13 +351,7 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
             @Override
             public boolean onScale(ScaleGestureDetector detector) {
 
-                float scaleFactor = detector.getScaleFactor();
-
-                if (scaleFactor > 1) {
-                    mCurrentScaleFactor += mCurrentScaleFactor * mModelScaleFactorChange * scaleFactor * scaleFactor;
-                } else {
-                    mCurrentScaleFactor -= mCurrentScaleFactor * mModelScaleFactorChange * scaleFactor * scaleFactor;
-                }
+                postCommand(mCommands.offerScale(detector.getScaleFactor()));
                 return true;
             }
 
@@ -286,7 +382,7 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
         if(hasAllPermissionsBeenGranted){
             mSession.resume(mDefaultConfig);
             mSurfaceView.onResume();
-            resetObjects();
+            postCommand(mCommands.offerReset());
         }
     }
 
@@ -300,6 +396,28 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
         mSession.pause();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mModelCache.shutdown();
+        mScreenshotCapture.shutdown();
+        if (mAllocationGuard != null) {
+            mAllocationGuard.release();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        // GL resources can only be freed on the GL thread.
+        mSurfaceView.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mModelCache.onTrimMemory(level);
+            }
+        });
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] results) {
         boolean tempPermissionBeenGranted = true;
@@ -326,30 +444,48 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
     }
 
     private void onSingleTap(MotionEvent e) {
-        // Queue tap if there is space. Tap is lost if queue is full.
-        mQueuedSingleTaps.offer(e);
+        postCommand(mCommands.offerTap(e.getX(), e.getY()));
+    }
+
+    /** Called on the UI thread with the result of posting a command. */
+    private void postCommand(boolean posted) {
+        if (!posted) {
+            Log.w(TAG, "Command queue full, dropping command");
+        }
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // A new context starts from the default state, whatever was cached for the old one.
+        GlState.getInstance().invalidate();
         GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
 
         // Create the texture and pass it to ARCore session to be filled during update().
         mBackgroundRenderer.createOnGlThread(/*context=*/this);
         mSession.setCameraTextureName(mBackgroundRenderer.getTextureId());
 
-        // Prepare the other rendering objects.
-        try {
-            for (int i = 0; i < mVirtualObjectArr.length; i++) {
-                mVirtualObjectArr[i] = new ObjectRenderer(mModels[i]);
-                mVirtualObjectArr[i].createOnGlThread(/*context=*/this, mModels[i].getObjectFileName(), mModels[i].getDiffuseTextureFileName());
-                mVirtualObjectArr[i].setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to read obj file");
+        // Models are loaded on worker threads the first time they are selected or placed, and
+        // uploaded from onDrawFrame as they finish, so the camera feed shows up right away.
+        mModelCache.clear();
+        mModelCache.request(mCurrentSelectedModel.getId());
+
+        // GPU timer queries belong to the context, so the timer is recreated with it.
+        String[] gpuSectionNames = new String[GPU_SECTION_FIRST_MODEL + mModels.length];
+        gpuSectionNames[GPU_SECTION_BACKGROUND] = "background";
+        gpuSectionNames[GPU_SECTION_PLANES] = "planes";
+        for (int i = 0; i < mModels.length; i++) {
+            gpuSectionNames[GPU_SECTION_FIRST_MODEL + i] = mModels[i].getName();
         }
+        GlCapabilities capabilities = GlCapabilities.query();
+        mGpuTimer = GpuTimer.create(capabilities, gpuSectionNames);
+        mSceneRenderer.setGpuTimer(mGpuTimer, GPU_SECTION_PLANES, GPU_SECTION_FIRST_MODEL);
+
+        // Screenshots are read back through pixel buffers of the context, when it has them.
+        mScreenshotCapture.createOnGlThread(capabilities);
+
+        // Prepare the other rendering objects.
         try {
-            mPlaneRenderer.createOnGlThread(/*context=*/this, "trigrid.png");
+            mSceneRenderer.getPlaneRenderer().createOnGlThread(/*context=*/this, "trigrid.png");
         } catch (IOException e) {
             Log.e(TAG, "Failed to read plane texture");
         }
@@ -359,6 +495,9 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         GLES20.glViewport(0, 0, width, height);
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+        mSceneRenderer.setViewport(width, height);
         // Notify ARCore session that the view size changed so that the perspective matrix and
         // the video background can be properly adjusted.
         mSession.setDisplayGeometry(width, height);
@@ -366,113 +505,381 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        // Clear screen to notify driver it should not load any pixels from previous frame.
+        // Once warmed up, the frame must not allocate.
+        if (mAllocationGuard != null) {
+            mAllocationGuard.begin();
+        }
+        mProfiler.begin(FrameProfiler.STAGE_FRAME);
+        if (mGpuTimer != null) {
+            mGpuTimer.setEnabled(mProfilerOverlayShown);
+            mGpuTimer.beginFrame();
+        }
+
+        // Clear screen to notify driver it should not load any pixels from previous frame. The
+        // masks left by the last draw of the previous frame also apply to the clear.
+        GlState glState = GlState.getInstance();
+        glState.depthMask(true);
+        glState.colorMask(true, true, true, true);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        glState.getValidation().beginFrame();
 
         try {
+            // Hand the screenshots the GPU has finished reading back to the encoder.
+            mScreenshotCapture.beginFrame();
+
+            // Upload the models that finished decoding since the last frame.
+            mModelCache.beginFrame(MODEL_UPLOAD_BUDGET_NS);
+
             // Obtain the current frame from ARSession. When the configuration is set to
             // UpdateMode.BLOCKING (it is by default), this will throttle the rendering to the
             // camera framerate.
+            mProfiler.begin(FrameProfiler.STAGE_SESSION_UPDATE);
+            // ARCore creates a new Frame on every update, which the app cannot avoid.
+            if (mAllocationGuard != null) {
+                mAllocationGuard.pause();
+            }
             Frame frame = mSession.update();
-
-            // Handle taps. Handling only one tap per frame, as taps are usually low frequency
-            // compared to frame rate.
-            MotionEvent tap = mQueuedSingleTaps.poll();
-            if (tap != null && frame.getTrackingState() == TrackingState.TRACKING) {
-                for (HitResult hit : frame.hitTest(tap)) {
-                    // Check if any plane was hit, and if it was hit inside the plane polygon.
-                    if (hit instanceof PlaneHitResult && ((PlaneHitResult) hit).isHitInPolygon()) {
-                        // Cap the number of objects created. This avoids overloading both the
-                        // rendering system and ARCore.
-                        if (mTouches.size() >= LIMIT_OF_OBJECTS) {
-                            mSession.removeAnchors(Arrays.asList(mTouches.get(0).getAnchor()));
-                            mTouches.remove(0);
-                        }
-                        // Adding an Anchor tells ARCore that it should track this position in
-                        // space. This anchor will be used in PlaneAttachment to place the 3d model
-                        // in the correct position relative both to the world and to the plane.
-                        PlaneAttachment planeAttachment = new PlaneAttachment(
-                                ((PlaneHitResult) hit).getPlane(),
-                                mSession.addAnchor(hit.getHitPose()),
-                                mCurrentSelectedModel,
-                                mCurrentSelectedModel.getScaleFactor()
-                        );
-                        mTouches.add(planeAttachment);
-
-                        // Hits are sorted by depth. Consider only closest hit on a plane.
-                        break;
-                    }
-                }
+            if (mAllocationGuard != null) {
+                mAllocationGuard.resume();
             }
+            mFrameSnapshot.update(mSession.getAllPlanes());
+            // ARCore binds the camera texture itself while updating it.
+            glState.invalidateTextureBindings();
+            mProfiler.end(FrameProfiler.STAGE_SESSION_UPDATE);
 
             // Draw background.
+            mProfiler.begin(FrameProfiler.STAGE_BACKGROUND);
+            beginGpuSection(GPU_SECTION_BACKGROUND);
             mBackgroundRenderer.draw(frame);
+            endGpuSection();
+            mProfiler.end(FrameProfiler.STAGE_BACKGROUND);
 
             // If not tracking, don't draw 3d objects.
             if (frame.getTrackingState() == TrackingState.NOT_TRACKING) {
+                applyCommands(false);
                 return;
             }
 
             // Get projection matrix.
-            float[] projmtx = new float[16];
+            float[] projmtx = mProjectionMatrix;
             mSession.getProjectionMatrix(projmtx, 0, 0.1f, 100.0f);
 
-            // Get camera matrix and draw.
-            float[] viewmtx = new float[16];
-            frame.getViewMatrix(viewmtx, 0);
-
             // Compute lighting from average intensity of the image.
             final float lightIntensity = frame.getLightEstimate().getPixelIntensity();
-            
-            // Visualize planes.
-            mPlaneRenderer.drawPlanes(mSession.getAllPlanes(), frame.getPose(), projmtx);
-
-            // Visualize anchors created by touch.
-            for (int i = 0; i < mTouches.size(); i++) {
-                PlaneAttachment touchAttachment = mTouches.get(i);
-                if (!touchAttachment.isTracking()) {
-                    continue;
+
+            // Visualize planes and the anchors created by touch. The planes drawn are also the
+            // ones taps are tested against.
+            mSceneRenderer.setSelectedModel(mCurrentSelectedModel.getId(), mCurrentScaleFactor);
+            mSceneRenderer.drawFrame(frame.getPose(), projmtx, lightIntensity);
+
+            // Apply every command posted since the last frame, in order. Taps are resolved
+            // against the planes just drawn; the objects they place show from the next frame.
+            applyCommands(true);
+
+
+
+            if(needSpaceShareImage){
+                needSpaceShareImage = false;
+                // Only the pixels are copied here. The share sheet opens once they are saved.
+                mProfiler.begin(FrameProfiler.STAGE_SCREENSHOT);
+                boolean capturing = mScreenshotCapture.capture(mSurfaceWidth, mSurfaceHeight);
+                mProfiler.end(FrameProfiler.STAGE_SCREENSHOT);
+                if (!capturing) {
+                    Log.w(TAG, "Still saving the previous screenshots, ignoring share");
+                }
+            }
+
+
+        } catch (Throwable t) {
+            // Avoid crashing the application due to unhandled exceptions.
+            Log.e(TAG, "Exception on the OpenGL thread", t);
+        } finally {
+            glState.getValidation().endFrame();
+            mProfiler.end(FrameProfiler.STAGE_FRAME);
+            mIssuedStateCalls = glState.getIssuedCallCount();
+            mSkippedStateCalls = glState.getSkippedCallCount();
+            glState.resetCallCounts();
+            if (mAllocationGuard != null) {
+                mAllocationGuard.end();
+            }
+            // Formats the overlay and saves reports, which allocates, so it is left out of the
+            // checked frame.
+            publishProfile();
+        }
+    }
+
+    /** Checks the frame loop for allocations in debug builds, null in others. For tests. */
+    AllocationGuard getAllocationGuard() {
+        return mAllocationGuard;
+    }
+
+    /**
+     * Picks which GL errors are checked for: every check in debug builds, a sample in beta
+     * builds and none in release builds, unless the intent asks for another mode.
+     */
+    private void configureGlValidation() {
+        String mode = getIntent().getStringExtra(EXTRA_GL_VALIDATION);
+        if (mode == null) {
+            mode = BuildConfig.GL_VALIDATION;
+        }
+        GlValidation validation = GlState.getInstance().getValidation();
+        try {
+            validation.setMode(GlValidation.parseMode(mode));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring " + EXTRA_GL_VALIDATION + "=" + mode, e);
+            validation.setMode(GlValidation.parseMode(BuildConfig.GL_VALIDATION));
+        }
+        Log.i(TAG, "GL validation: " + GlValidation.getModeName(validation.getMode()));
+    }
+
+    /**
+     * Applies the commands posted by the UI thread since the last frame.
+     *
+     * @param tracking Whether taps can be resolved. They are dropped otherwise.
+     */
+    private void applyCommands(boolean tracking) throws NotTrackingException {
+        mProfiler.begin(FrameProfiler.STAGE_TAPS);
+        int command;
+        while ((command = mCommands.poll()) != CommandQueue.NONE) {
+            switch (command) {
+                case CommandQueue.TAP:
+                    if (tracking) {
+                        handleTap(mCommands.getX(), mCommands.getY());
+                    }
+                    break;
+                case CommandQueue.SCALE:
+                    scaleObject(mCommands.getX());
+                    break;
+                case CommandQueue.UNDO:
+                    undoObject();
+                    break;
+                case CommandQueue.RESET:
+                    resetObjects();
+                    break;
+                case CommandQueue.SELECT_MODEL:
+                    selectModel(mCommands.getArg());
+                    break;
+                case CommandQueue.DELETE:
+                    if (tracking) {
+                        deleteObject(mCommands.getX(), mCommands.getY());
+                    }
+                    break;
+            }
+        }
+        mProfiler.end(FrameProfiler.STAGE_TAPS);
+    }
+
+    private void handleTap(float x, float y) throws NotTrackingException {
+        // Find the closest plane hit inside the plane polygon.
+        if (!mPlaneHitTester.hitTest(x, y)) {
+            return;
+        }
+
+        // Objects are not placed inside each other.
+        Plane plane = mPlaneHitTester.getHitPlane();
+        Pose pose = mPlaneHitTester.getHitPose();
+        if (mScene.overlaps(mCurrentSelectedModel.getId(), pose,
+                mCurrentSelectedModel.getScaleFactor())) {
+            return;
+        }
+
+        // Cap the number of anchors, which are expensive for ARCore to track. Without an anchor
+        // on this plane to share, the object is not placed: anchors on other planes are at
+        // another height, and freeing one could take removing any number of objects.
+        if (!mScene.canAddCluster()
+                && mScene.findCluster(plane, pose.tx(), pose.tz(), Float.MAX_VALUE) < 0) {
+            Log.w(TAG, "No anchor left for another plane, not placing the object");
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(MainARActivity.this,
+                        "Remove objects from other surfaces to place more here",
+                        Toast.LENGTH_LONG).show();
                 }
+            });
+            return;
+        }
 
-                // Get the current combined pose of an Anchor and Plane in world space. The Anchor
-                // and Plane poses are updated during calls to session.update() as ARCore refines
-                // its estimate of the world.
-                touchAttachment.getPose().toMatrix(mAnchorMatrix, 0);
+        // Cap the number of objects created. This avoids overloading the rendering system.
+        if (mScene.isFull()) {
+            removeAnchor(mScene.removeOldest());
+        }
 
-                if(i == mTouches.size() - 1 && touchAttachment.getModel().getName().equals(mCurrentSelectedModel.getName()))
-                    touchAttachment.setScaleFactor(mCurrentScaleFactor);
+        // Objects close to an existing anchor on the same plane share it.
+        int cluster = mScene.findCluster(plane, pose.tx(), pose.tz(), ANCHOR_SHARING_RADIUS_M);
+        if (cluster < 0 && !mScene.canAddCluster()) {
+            // Out of anchors, share the nearest one on the plane, which was found above.
+            cluster = mScene.findCluster(plane, pose.tx(), pose.tz(), Float.MAX_VALUE);
+        }
+        if (cluster < 0) {
+            // Adding an Anchor tells ARCore that it should track this position in
+            // space. This anchor will be used by the scene to place the 3d model
+            // in the correct position relative both to the world and to the plane.
+            cluster = mScene.addCluster(plane, mSession.addAnchor(pose));
+        }
+        mScene.add(
+                cluster,
+                pose,
+                mCurrentSelectedModel.getId(),
+                mCurrentSelectedModel.getScaleFactor()
+        );
+    }
+
+    /** Removes the object under a point of the surface, if any. */
+    private void deleteObject(float x, float y) {
+        if (!mPlaneHitTester.getRay(x, y, mPickRay)) {
+            return;
+        }
+        int slot = mScene.pick(mPickRay, MAX_PICK_DISTANCE_M);
+        if (slot >= 0) {
+            removeAnchor(mScene.remove(slot));
+        }
+    }
+
+    /** Detaches an anchor released by the scene, if any, from the session. */
+    private void removeAnchor(Anchor anchor) {
+        if (anchor != null) {
+            mSession.removeAnchors(Arrays.asList(anchor));
+        }
+    }
+
+    private void scaleObject(float scaleFactor) {
+        if (scaleFactor > 1) {
+            mCurrentScaleFactor += mCurrentScaleFactor * mModelScaleFactorChange * scaleFactor * scaleFactor;
+        } else {
+            mCurrentScaleFactor -= mCurrentScaleFactor * mModelScaleFactorChange * scaleFactor * scaleFactor;
+        }
+    }
+
+    private void selectModel(int modelId) {
+        mCurrentSelectedModel = mModels[modelId];
+        mCurrentScaleFactor = mCurrentSelectedModel.getScaleFactor();
+
+        // Start loading the model so it is ready by the time it is placed.
+        mModelCache.request(modelId);
+    }
+
+    private void beginGpuSection(int section) {
+        if (mGpuTimer != null) {
+            mGpuTimer.begin(section);
+        }
+    }
+
+    private void endGpuSection() {
+        if (mGpuTimer != null) {
+            mGpuTimer.end();
+        }
+    }
+
+    /**
+     * Refreshes the profiler overlay every so often while it is shown, and saves a report when
+     * one was requested. Runs on the GL thread, which owns the profiler.
+     */
+    private void publishProfile() {
+        long now = System.nanoTime();
+        if (mProfilerOverlayShown
+                && now - mProfilerOverlayUpdateNanos >= PROFILER_OVERLAY_INTERVAL_NS) {
+            mProfilerOverlayUpdateNanos = now;
+            final String report = getProfileReport();
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    profilerOverlay.setText(report);
+                }
+            });
+        }
 
-                for(ObjectRenderer virutalObject : mVirtualObjectArr){
-                    if(virutalObject.getModel().getName().equals(touchAttachment.getModel().getName())){
-                        virutalObject.updateModelMatrix(mAnchorMatrix, touchAttachment.getScaleFactor());
-                        virutalObject.draw(viewmtx, projmtx, lightIntensity);
-                        break;
+        if (mProfileDumpRequested) {
+            mProfileDumpRequested = false;
+            File file = new File(getExternalFilesDir(null),
+                "frame_profile_" + System.currentTimeMillis() + ".txt");
+            String message;
+            try {
+                Writer writer = new FileWriter(file);
+                try {
+                    mProfiler.writeReport(writer);
+                    writer.write("\n" + getStateCallReport());
+                    if (mGpuTimer != null) {
+                        writer.write("\n" + mGpuTimer.getReport());
                     }
+                } finally {
+                    writer.close();
                 }
+                message = "Frame profile saved to " + file;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save the frame profile", e);
+                message = "Could not save the frame profile";
             }
+            Log.i(TAG, message);
+            final String toast = message;
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(MainARActivity.this, toast, Toast.LENGTH_LONG).show();
+                }
+            });
+        }
+    }
 
+    private String getProfileReport() {
+        String report = mProfiler.getReport() + "\n" + getStateCallReport();
+        return mGpuTimer != null ? report + "\n" + mGpuTimer.getReport() : report;
+    }
 
+    private String getStateCallReport() {
+        return String.format(Locale.US, "gl state calls  %d issued, %d skipped%n",
+            mIssuedStateCalls, mSkippedStateCalls);
+    }
 
-            if(needSpaceShareImage){
-                needSpaceShareImage = false;
-                spaceShareImage = saveTexture(mSurfaceView.getWidth(), mSurfaceView.getHeight());
+    @Override
+    public void onModelLoaded(int modelIndex, ObjectRenderer renderer) {
+        renderer.setMaterialProperties(0.0f, 3.5f, 1.0f, 6.0f);
+        mScene.setModelBounds(modelIndex, renderer.getBoundsMin(), renderer.getBoundsMax(),
+            renderer.getBoundingRadius());
+    }
+
+    @Override
+    public void onScreenshotSaved(final Uri uri, final String mimeType) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
                 Intent shareIntent = new Intent();
                 shareIntent.setAction(Intent.ACTION_SEND);
-                shareIntent.putExtra(Intent.EXTRA_STREAM, getImageUri(this, spaceShareImage));
-                shareIntent.setType("image/jpeg");
+                shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
+                shareIntent.setType(mimeType);
                 startActivity(Intent.createChooser(shareIntent, "Share With"));
             }
+        });
+    }
 
+    @Override
+    public void onScreenshotFailed(Exception e) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(MainARActivity.this, "Could not save the screenshot",
+                    Toast.LENGTH_LONG).show();
+            }
+        });
+    }
 
-        } catch (Throwable t) {
-            // Avoid crashing the application due to unhandled exceptions.
-            Log.e(TAG, "Exception on the OpenGL thread", t);
-        }
+    /**
+     * Number of placed objects that were skipped in the last frame because they were outside of
+     * the camera's view.
+     */
+    public int getCulledObjectCount() {
+        return mSceneRenderer.getCulledObjectCount();
+    }
+
+    /**
+     * Number of triangles drawn for placed objects in the last frame.
+     */
+    public int getDrawnTriangleCount() {
+        return mSceneRenderer.getDrawnTriangleCount();
     }
 
     public void onClickModel(ObjectsModel obj, int position) {
-        mCurrentSelectedModel = obj;
-        mCurrentScaleFactor = obj.getScaleFactor();
+        postCommand(mCommands.offerSelectModel(obj.getId()));
     }
 
     public static Bitmap getBitmapFromAsset(Context context, String filePath) {
@@ -492,13 +899,14 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
 
 
     private void undoObject(){
-        if(mTouches.size() <= 0) return;
-        mTouches.remove(mTouches.size() - 1);
+        if(mScene.size() <= 0) return;
+        removeAnchor(mScene.removeNewest());
     }
 
     private void resetObjects(){
-        if(mTouches.size() <= 0) return;
-        mTouches.clear();
+        while (mScene.size() > 0) {
+            removeAnchor(mScene.removeNewest());
+        }
     }
 
     private void showInfo(){
@@ -518,35 +926,4 @@ public class MainARActivity extends AppCompatActivity implements GLSurfaceView.R
                 .show();
     }
 
-
-
-    public static Bitmap saveTexture(int width, int height) {
-        ByteBuffer buffer = ByteBuffer.allocate(width * height * 4);
-        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
-        reverseBuffer(buffer, width, height);
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        bitmap.copyPixelsFromBuffer(buffer);
-        return bitmap;
-    }
-
-    private static void reverseBuffer(ByteBuffer buf, int width, int height)
-    {
-        int i = 0;
-        byte[] tmp = new byte[width * 4];
-        while (i++ < height / 2)
-        {
-            buf.get(tmp);
-            System.arraycopy(buf.array(), buf.limit() - buf.position(), buf.array(), buf.position() - width * 4, width * 4);
-            System.arraycopy(tmp, 0, buf.array(), buf.limit() - buf.position(), width * 4);
-        }
-        buf.rewind();
-    }
-
-    public Uri getImageUri(Context inContext, Bitmap inImage) {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        inImage.compress(Bitmap.CompressFormat.JPEG, 100, bytes);
-        String path = MediaStore.Images.Media.insertImage(inContext.getContentResolver(), inImage, "Title", null);
-        return Uri.parse(path);
-    }
-
 }
@@ -8,6 +8,9 @@ import android.graphics.Bitmap;
 
 public class ObjectsModel {
 
+    public static final int NO_ID = -1;
+
+    private int id = NO_ID;
     private String name;
     private String objectFileName;
     private String diffuseTextureFileName;
@@ -22,6 +25,19 @@ public class ObjectsModel {
         this.scaleFactor = scaleFactor;
     }
 
+    /**
+     * The model's index in the catalog, assigned when the model is registered. Used on the render
+     * path to look up the model's renderer directly.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public ObjectsModel setId(int id) {
+        this.id = id;
+        return this;
+    }
+
     public String getName() {
         return name;
     }
@@ -69,6 +85,6 @@ public class ObjectsModel {
 
     @Override
     public String toString() {
-        return (name + " | " + objectFileName + " | " + scaleFactor);
+        return (id + " | " + name + " | " + objectFileName + " | " + scaleFactor);
     }
 }
@@ -0,0 +1,137 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Checks that a section of the frame loop stops allocating once it has warmed up. Every object
+ * allocated per frame is garbage the collector eventually has to pause for, which shows up as
+ * stutter. Counting allocations slows them down, so the guard is meant for debug builds only.
+ *
+ * <p>Wrap the section in {@link #begin()} and {@link #end()} on the same thread. Frames that
+ * allocate after the warm-up are logged and counted in {@link #getViolationCount()}, which the
+ * frame tests require to stay zero. Calls into libraries that allocate by design can be left
+ * out with {@link #pause()} and {@link #resume()}. An occasional allocation when the scene
+ * grows, such as a newly detected plane, is expected; one every frame is a regression.
+ *
+ * <p>On Android the objects allocated are counted with {@link Debug}. Unit tests, which run on
+ * a desktop JVM, pass a {@link Counter} of their own.
+ */
+public class AllocationGuard {
+    /** Counts what the current thread allocates. */
+    public interface Counter {
+        /** Starts counting, for counters that slow allocations down. */
+        void start();
+
+        /** Allocations of the current thread so far, as objects or bytes. */
+        long getThreadAllocations();
+
+        void stop();
+    }
+
+    /** Counts the objects allocated, with the allocation counting of the Android runtime. */
+    private static class DebugCounter implements Counter {
+        @Override
+        public void start() {
+            Debug.startAllocCounting();
+        }
+
+        @Override
+        public long getThreadAllocations() {
+            return Debug.getThreadAllocCount();
+        }
+
+        @Override
+        public void stop() {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private final String mTag;
+    private final int mWarmUpFrames;
+    private final Counter mCounter;
+
+    private boolean mCounting;
+    private long mStartAllocations;
+    private long mPauseAllocations;
+
+    // Written by the thread of the section, read by tests.
+    private volatile int mFrameCount;
+    private volatile int mViolationCount;
+
+    /**
+     * @param tag Log tag for the frames that allocate.
+     * @param warmUpFrames Frames that may allocate while caches and buffers settle.
+     */
+    public AllocationGuard(String tag, int warmUpFrames) {
+        this(tag, warmUpFrames, new DebugCounter());
+    }
+
+    /**
+     * @param tag Log tag for the frames that allocate, or null not to log them.
+     * @param warmUpFrames Frames that may allocate while caches and buffers settle.
+     * @param counter Counts the allocations of the section.
+     */
+    public AllocationGuard(String tag, int warmUpFrames, Counter counter) {
+        mTag = tag;
+        mWarmUpFrames = warmUpFrames;
+        mCounter = counter;
+    }
+
+    public void begin() {
+        if (!mCounting) {
+            mCounter.start();
+            mCounting = true;
+        }
+        mStartAllocations = mCounter.getThreadAllocations();
+    }
+
+    /** Stops counting the allocations of the section until {@link #resume()}. */
+    public void pause() {
+        mPauseAllocations = mCounter.getThreadAllocations();
+    }
+
+    public void resume() {
+        mStartAllocations += mCounter.getThreadAllocations() - mPauseAllocations;
+    }
+
+    /**
+     * Ends the section started by {@link #begin()}.
+     *
+     * @return The allocations in the section, in the unit of the counter.
+     */
+    public long end() {
+        long allocations = mCounter.getThreadAllocations() - mStartAllocations;
+        int frameCount = ++mFrameCount;
+        if (frameCount > mWarmUpFrames && allocations > 0) {
+            mViolationCount++;
+            if (mTag != null) {
+                Log.w(mTag, allocations + " allocations in frame " + frameCount
+                    + " after warm-up");
+            }
+        }
+        return allocations;
+    }
+
+    /** Number of sections ended so far, warm-up included. */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Number of frames that allocated after the warm-up. */
+    public int getViolationCount() {
+        return mViolationCount;
+    }
+
+    public int getWarmUpFrames() {
+        return mWarmUpFrames;
+    }
+
+    /** Stops counting allocations. {@link #begin()} starts again. */
+    public void release() {
+        if (mCounting) {
+            mCounter.stop();
+            mCounting = false;
+        }
+    }
+}
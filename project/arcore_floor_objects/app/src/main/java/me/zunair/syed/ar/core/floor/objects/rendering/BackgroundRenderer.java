@@ -38,9 +38,23 @@ public class BackgroundRenderer {
 
     private int mQuadPositionParam;
     private int mQuadTexCoordParam;
+    private int mQuadAttributeMask;
     private int mTextureId = -1;
     private int mTextureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
+
+    private final GlState mGlState;
+    private final Gl mGl;
+
     public BackgroundRenderer() {
+        this(GlState.getInstance());
+    }
+
+    /**
+     * @param glState The state of the context to draw in, which also gives the GL backend.
+     */
+    public BackgroundRenderer(GlState glState) {
+        mGlState = glState;
+        mGl = glState.getGl();
     }
 
     public int getTextureId() {
@@ -57,13 +71,13 @@ public class BackgroundRenderer {
     public void createOnGlThread(Context context) {
         // Generate the background texture.
         int textures[] = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
+        mGl.glGenTextures(1, textures, 0);
         mTextureId = textures[0];
-        GLES20.glBindTexture(mTextureTarget, mTextureId);
-        GLES20.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        mGlState.bindTexture(mTextureTarget, mTextureId);
+        mGl.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        mGl.glTexParameteri(mTextureTarget, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 
         int numVertices = 4;
         if (numVertices != QUAD_COORDS.length / COORDS_PER_VERTEX) {
@@ -88,23 +102,25 @@ public class BackgroundRenderer {
         bbTexCoordsTransformed.order(ByteOrder.nativeOrder());
         mQuadTexCoordTransformed = bbTexCoordsTransformed.asFloatBuffer();
 
-        int vertexShader = ShaderUtil.loadGLShader(TAG, context,
+        int vertexShader = ShaderUtil.loadGLShader(mGl, TAG, context,
                 GLES20.GL_VERTEX_SHADER, R.raw.screenquad_vertex);
-        int fragmentShader = ShaderUtil.loadGLShader(TAG, context,
+        int fragmentShader = ShaderUtil.loadGLShader(mGl, TAG, context,
                 GLES20.GL_FRAGMENT_SHADER, R.raw.screenquad_fragment_oes);
 
-        mQuadProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mQuadProgram, vertexShader);
-        GLES20.glAttachShader(mQuadProgram, fragmentShader);
-        GLES20.glLinkProgram(mQuadProgram);
-        GLES20.glUseProgram(mQuadProgram);
+        mQuadProgram = mGl.glCreateProgram();
+        mGl.glAttachShader(mQuadProgram, vertexShader);
+        mGl.glAttachShader(mQuadProgram, fragmentShader);
+        mGl.glLinkProgram(mQuadProgram);
+        mGlState.useProgram(mQuadProgram);
 
-        ShaderUtil.checkGLError(TAG, "Program creation");
+        ShaderUtil.checkGLError(mGl, TAG, "Program creation");
 
-        mQuadPositionParam = GLES20.glGetAttribLocation(mQuadProgram, "a_Position");
-        mQuadTexCoordParam = GLES20.glGetAttribLocation(mQuadProgram, "a_TexCoord");
+        mQuadPositionParam = mGl.glGetAttribLocation(mQuadProgram, "a_Position");
+        mQuadTexCoordParam = mGl.glGetAttribLocation(mQuadProgram, "a_TexCoord");
+        mQuadAttributeMask = GlState.attributeBit(mQuadPositionParam)
+            | GlState.attributeBit(mQuadTexCoordParam);
 
-        ShaderUtil.checkGLError(TAG, "Program parameters");
+        ShaderUtil.checkGLError(mGl, TAG, "Program parameters");
     }
 
     /**
@@ -123,37 +139,31 @@ public class BackgroundRenderer {
         }
 
         // No need to test or write depth, the screen quad has arbitrary depth, and is expected
-        // to be drawn first.
-        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-        GLES20.glDepthMask(false);
+        // to be drawn first. The renderers drawn afterwards set the state they need.
+        mGlState.setEnabled(GLES20.GL_DEPTH_TEST, false);
+        mGlState.depthMask(false);
+        mGlState.setEnabled(GLES20.GL_BLEND, false);
 
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        mGlState.activeTexture(GLES20.GL_TEXTURE0);
+        mGlState.bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
 
-        GLES20.glUseProgram(mQuadProgram);
+        mGlState.useProgram(mQuadProgram);
 
-        // Set the vertex positions.
-        GLES20.glVertexAttribPointer(
+        // Set the vertex positions, from client memory.
+        mGlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        mGl.glVertexAttribPointer(
             mQuadPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, mQuadVertices);
 
         // Set the texture coordinates.
-        GLES20.glVertexAttribPointer(mQuadTexCoordParam, TEXCOORDS_PER_VERTEX,
+        mGl.glVertexAttribPointer(mQuadTexCoordParam, TEXCOORDS_PER_VERTEX,
                 GLES20.GL_FLOAT, false, 0, mQuadTexCoordTransformed);
 
         // Enable vertex arrays
-        GLES20.glEnableVertexAttribArray(mQuadPositionParam);
-        GLES20.glEnableVertexAttribArray(mQuadTexCoordParam);
-
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-
-        // Disable vertex arrays
-        GLES20.glDisableVertexAttribArray(mQuadPositionParam);
-        GLES20.glDisableVertexAttribArray(mQuadTexCoordParam);
+        mGlState.setVertexAttribArrays(mQuadAttributeMask);
 
-        // Restore the depth state for further drawing.
-        GLES20.glDepthMask(true);
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        mGl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
-        ShaderUtil.checkGLError(TAG, "Draw");
+        mGlState.getValidation().check(TAG, "Draw");
     }
 
     public static final float[] QUAD_COORDS = new float[]{
@@ -0,0 +1,141 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes user commands from the UI thread to the OpenGL thread without locks or allocation. It
+ * is a ring buffer of primitive records with one producer and one consumer: the producer only
+ * advances the head and the consumer only advances the tail, each publishing its side with an
+ * ordered store, so a record is fully written before the consumer can see it and fully read
+ * before the producer can reuse its slot.
+ *
+ * <p>The {@code offer} methods must only be called from one thread, and {@link #poll()} from
+ * one other thread.
+ */
+public class CommandQueue {
+    /** Returned by {@link #poll()} when the queue is empty. */
+    public static final int NONE = 0;
+    /** A tap on the surface, at {@link #getX()}, {@link #getY()}. */
+    public static final int TAP = 1;
+    /** A pinch, scaling the current object by {@link #getX()}. */
+    public static final int SCALE = 2;
+    /** Remove the last placed object. */
+    public static final int UNDO = 3;
+    /** Remove every placed object. */
+    public static final int RESET = 4;
+    /** Place objects of model {@link #getArg()} from now on. */
+    public static final int SELECT_MODEL = 5;
+    /** Remove the object at {@link #getX()}, {@link #getY()} on the surface. */
+    public static final int DELETE = 6;
+
+    private final int mMask;
+    private final int[] mTypes;
+    private final float[] mXs;
+    private final float[] mYs;
+    private final int[] mArgs;
+
+    // Next record to write, only advanced by the producer, and next record to read, only
+    // advanced by the consumer.
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    // Last value seen of the other side's index, so that it is only read again when needed.
+    private long mProducerTail;
+    private long mConsumerHead;
+
+    // The record returned by the last poll, copied out of its slot.
+    private float mX;
+    private float mY;
+    private int mArg;
+
+    /** @param capacity Records the queue can hold, rounded up to a power of two. */
+    public CommandQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mMask = size - 1;
+        mTypes = new int[size];
+        mXs = new float[size];
+        mYs = new float[size];
+        mArgs = new int[size];
+    }
+
+    /** @return False if the queue is full, in which case the tap is dropped. */
+    public boolean offerTap(float x, float y) {
+        return offer(TAP, x, y, 0);
+    }
+
+    /** @return False if the queue is full, in which case the scale is dropped. */
+    public boolean offerScale(float scaleFactor) {
+        return offer(SCALE, scaleFactor, 0, 0);
+    }
+
+    /** @return False if the queue is full, in which case the undo is dropped. */
+    public boolean offerUndo() {
+        return offer(UNDO, 0, 0, 0);
+    }
+
+    /** @return False if the queue is full, in which case the reset is dropped. */
+    public boolean offerReset() {
+        return offer(RESET, 0, 0, 0);
+    }
+
+    /** @return False if the queue is full, in which case the selection is dropped. */
+    public boolean offerSelectModel(int modelId) {
+        return offer(SELECT_MODEL, 0, 0, modelId);
+    }
+
+    /** @return False if the queue is full, in which case the deletion is dropped. */
+    public boolean offerDelete(float x, float y) {
+        return offer(DELETE, x, y, 0);
+    }
+
+    private boolean offer(int type, float x, float y, int arg) {
+        long head = mHead.get();
+        if (head - mProducerTail > mMask) {
+            mProducerTail = mTail.get();
+            if (head - mProducerTail > mMask) {
+                return false;
+            }
+        }
+        int slot = (int) head & mMask;
+        mTypes[slot] = type;
+        mXs[slot] = x;
+        mYs[slot] = y;
+        mArgs[slot] = arg;
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest command off the queue. Its parameters can be read with {@link #getX()},
+     * {@link #getY()} and {@link #getArg()} until the next poll.
+     *
+     * @return The type of the command, or {@link #NONE} if the queue is empty.
+     */
+    public int poll() {
+        long tail = mTail.get();
+        if (tail == mConsumerHead) {
+            mConsumerHead = mHead.get();
+            if (tail == mConsumerHead) {
+                return NONE;
+            }
+        }
+        int slot = (int) tail & mMask;
+        int type = mTypes[slot];
+        mX = mXs[slot];
+        mY = mYs[slot];
+        mArg = mArgs[slot];
+        mTail.lazySet(tail + 1);
+        return type;
+    }
+
+    public float getX() {
+        return mX;
+    }
+
+    public float getY() {
+        return mY;
+    }
+
+    public int getArg() {
+        return mArg;
+    }
+}
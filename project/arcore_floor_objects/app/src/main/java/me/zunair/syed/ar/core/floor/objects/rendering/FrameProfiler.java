@@ -0,0 +1,139 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures how long each stage of a frame takes on the CPU. The last samples of every stage are
+ * kept in fixed-size ring buffers, from which percentiles are computed on demand. Recording a
+ * sample does not allocate, so the profiler can stay on in every build.
+ *
+ * <p>Not thread-safe: record and read on the OpenGL thread. GL calls return before the GPU has
+ * run them, so the draw stages measure command submission, not rendering.
+ */
+public class FrameProfiler {
+    public static final int STAGE_SESSION_UPDATE = 0;
+    public static final int STAGE_TAPS = 1;
+    public static final int STAGE_BACKGROUND = 2;
+    public static final int STAGE_PLANES = 3;
+    public static final int STAGE_OBJECTS = 4;
+    public static final int STAGE_SCREENSHOT = 5;
+    /** The whole of {@code onDrawFrame}, including the stages above. */
+    public static final int STAGE_FRAME = 6;
+    public static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+        "session update", "taps", "background", "planes", "objects", "screenshot", "frame"
+    };
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final int mCapacity;
+    private final long[][] mSamples;
+    private final int[] mSampleCounts = new int[STAGE_COUNT];
+    private final int[] mNextSamples = new int[STAGE_COUNT];
+    private final long[] mStartNanos = new long[STAGE_COUNT];
+
+    // Scratch space for sorting the samples of one stage.
+    private final long[] mSorted;
+
+    public FrameProfiler() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of samples kept per stage. Percentiles cover this many frames.
+     */
+    public FrameProfiler(int capacity) {
+        mCapacity = capacity;
+        mSamples = new long[STAGE_COUNT][capacity];
+        mSorted = new long[capacity];
+    }
+
+    /** Starts timing a stage. */
+    public void begin(int stage) {
+        mStartNanos[stage] = System.nanoTime();
+    }
+
+    /** Stops timing a stage started with {@link #begin(int)} and records the sample. */
+    public void end(int stage) {
+        addSample(stage, System.nanoTime() - mStartNanos[stage]);
+    }
+
+    /** Records a duration measured elsewhere, replacing the oldest sample once full. */
+    public void addSample(int stage, long nanos) {
+        mSamples[stage][mNextSamples[stage]] = nanos;
+        mNextSamples[stage] = (mNextSamples[stage] + 1) % mCapacity;
+        if (mSampleCounts[stage] < mCapacity) {
+            mSampleCounts[stage]++;
+        }
+    }
+
+    /** Number of samples currently kept for a stage. */
+    public int getSampleCount(int stage) {
+        return mSampleCounts[stage];
+    }
+
+    /**
+     * Returns the duration that the given percentage of the kept samples of a stage do not
+     * exceed, using the nearest-rank method, or 0 if there are none.
+     *
+     * @param percentile Between 0 and 100.
+     */
+    public long getPercentileNanos(int stage, float percentile) {
+        int count = mSampleCounts[stage];
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(mSamples[stage], 0, mSorted, 0, count);
+        Arrays.sort(mSorted, 0, count);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return mSorted[Math.max(0, Math.min(count - 1, rank - 1))];
+    }
+
+    /** Forgets every sample. */
+    public void reset() {
+        Arrays.fill(mSampleCounts, 0);
+        Arrays.fill(mNextSamples, 0);
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /** Formats p50, p95 and p99 of every stage in milliseconds, one stage per line. */
+    public String getReport() {
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+            "%-15s %7s %7s %7s %5s%n", "stage (ms)", "p50", "p95", "p99", "n"));
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            report.append(String.format(Locale.US, "%-15s %7.2f %7.2f %7.2f %5d%n",
+                STAGE_NAMES[stage], millis(getPercentileNanos(stage, 50)),
+                millis(getPercentileNanos(stage, 95)), millis(getPercentileNanos(stage, 99)),
+                mSampleCounts[stage]));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes {@link #getReport()} followed by the raw samples of every stage, oldest first, in
+     * nanoseconds. The writer is not closed.
+     */
+    public void writeReport(Writer writer) throws IOException {
+        writer.write(getReport());
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            writer.write("\n" + STAGE_NAMES[stage] + ":");
+            int count = mSampleCounts[stage];
+            int first = count < mCapacity ? 0 : mNextSamples[stage];
+            for (int i = 0; i < count; i++) {
+                writer.write(" " + mSamples[stage][(first + i) % mCapacity]);
+            }
+        }
+        writer.write("\n");
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
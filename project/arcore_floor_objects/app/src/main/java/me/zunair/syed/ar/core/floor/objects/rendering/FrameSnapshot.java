@@ -0,0 +1,300 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+
+import java.nio.FloatBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The state of the session's planes and of the app's anchors, read from ARCore once per
+ * {@code Session.update()} into preallocated arrays. Renderers, hit testing and attachments read
+ * the snapshot instead of calling ARCore, whose getters may cross into native code or allocate a
+ * {@code Pose} on every call.
+ *
+ * <p>Planes and anchors keep a slot for as long as they are in the snapshot, which indexes the
+ * arrays: matrices take 16 floats per slot, rotations 4, translations 3 and extents 2. A plane
+ * keeps its slot until it stops being tracked for good or leaves the session. An anchor keeps
+ * its slot from {@link #addAnchor(Anchor)} to {@link #removeAnchor(int)}. Allocates only when a
+ * plane or anchor is added. Must be used on the OpenGL thread.
+ */
+public class FrameSnapshot {
+    private static final int INITIAL_SLOTS = 16;
+    private static final int INITIAL_POLYGON_FLOATS = 64;
+
+    // Planes, by slot.
+    private final Map<Plane, Integer> mPlaneSlots = new HashMap<>();
+    private Plane[] mPlanes = new Plane[INITIAL_SLOTS];
+    private Plane.Type[] mPlaneTypes = new Plane.Type[INITIAL_SLOTS];
+    private Plane.TrackingState[] mPlaneStates = new Plane.TrackingState[INITIAL_SLOTS];
+    private boolean[] mPlaneSubsumed = new boolean[INITIAL_SLOTS];
+    private float[] mPlaneMatrices = new float[16 * INITIAL_SLOTS];
+    private float[] mPlaneRotations = new float[4 * INITIAL_SLOTS];
+    private float[] mPlaneExtents = new float[2 * INITIAL_SLOTS];
+    private float[][] mPlanePolygons = new float[INITIAL_SLOTS][];
+    private int[] mPlanePolygonLengths = new int[INITIAL_SLOTS];
+    private int[] mPlaneUpdates = new int[INITIAL_SLOTS];
+    private int mPlaneSlotCount;
+    private int[] mFreePlaneSlots = new int[INITIAL_SLOTS];
+    private int mFreePlaneSlotCount;
+    // Slots of the planes in the session, in the session's order.
+    private int[] mPlaneList = new int[INITIAL_SLOTS];
+    private int mPlaneCount;
+
+    // Anchors, by slot.
+    private Anchor[] mAnchors = new Anchor[INITIAL_SLOTS];
+    private Anchor.TrackingState[] mAnchorStates = new Anchor.TrackingState[INITIAL_SLOTS];
+    private float[] mAnchorTranslations = new float[3 * INITIAL_SLOTS];
+    private float[] mAnchorRotations = new float[4 * INITIAL_SLOTS];
+    private int mAnchorSlotCount;
+    private int[] mFreeAnchorSlots = new int[INITIAL_SLOTS];
+    private int mFreeAnchorSlotCount;
+
+    private int mUpdate;
+
+    /**
+     * Reads the state of the session's planes and of every anchor added. Call once after each
+     * {@code Session.update()}.
+     */
+    public void update(Collection<Plane> planes) {
+        mUpdate++;
+        mPlaneCount = 0;
+        // Lists are walked by index, as an iterator would be garbage every frame.
+        if (planes instanceof List && planes instanceof RandomAccess) {
+            List<Plane> planeList = (List<Plane>) planes;
+            for (int i = 0; i < planeList.size(); i++) {
+                updatePlane(planeList.get(i));
+            }
+        } else {
+            for (Plane plane : planes) {
+                updatePlane(plane);
+            }
+        }
+
+        // Planes that left the session or will not be tracked again lose their slot.
+        for (int slot = 0; slot < mPlaneSlotCount; slot++) {
+            Plane plane = mPlanes[slot];
+            if (plane != null && mPlaneUpdates[slot] != mUpdate) {
+                removePlane(slot);
+            }
+        }
+
+        for (int slot = 0; slot < mAnchorSlotCount; slot++) {
+            Anchor anchor = mAnchors[slot];
+            if (anchor == null) {
+                continue;
+            }
+            mAnchorStates[slot] = anchor.getTrackingState();
+            Pose pose = anchor.getPose();
+            pose.getTranslation(mAnchorTranslations, 3 * slot);
+            pose.getRotationQuaternion(mAnchorRotations, 4 * slot);
+        }
+    }
+
+    private void updatePlane(Plane plane) {
+        Plane.TrackingState state = plane.getTrackingState();
+        if (state == Plane.TrackingState.STOPPED_TRACKING) {
+            // Dropped from the snapshot below, as it was not updated.
+            return;
+        }
+        Integer knownSlot = mPlaneSlots.get(plane);
+        int slot;
+        if (knownSlot != null) {
+            slot = knownSlot;
+        } else {
+            slot = allocatePlaneSlot();
+            mPlanes[slot] = plane;
+            mPlaneSlots.put(plane, slot);
+        }
+        mPlaneUpdates[slot] = mUpdate;
+        mPlaneTypes[slot] = plane.getType();
+        mPlaneStates[slot] = state;
+        mPlaneSubsumed[slot] = plane.getSubsumedBy() != null;
+        Pose center = plane.getCenterPose();
+        center.toMatrix(mPlaneMatrices, 16 * slot);
+        center.getRotationQuaternion(mPlaneRotations, 4 * slot);
+        mPlaneExtents[2 * slot] = plane.getExtentX();
+        mPlaneExtents[2 * slot + 1] = plane.getExtentZ();
+
+        FloatBuffer polygon = plane.getPlanePolygon();
+        int length = 0;
+        if (polygon != null) {
+            polygon.rewind();
+            length = polygon.remaining();
+            if (mPlanePolygons[slot] == null || mPlanePolygons[slot].length < length) {
+                mPlanePolygons[slot] = new float[Math.max(length, INITIAL_POLYGON_FLOATS)];
+            }
+            polygon.get(mPlanePolygons[slot], 0, length);
+            polygon.rewind();
+        }
+        mPlanePolygonLengths[slot] = length;
+
+        if (mPlaneCount == mPlaneList.length) {
+            int[] grown = new int[2 * mPlaneList.length];
+            System.arraycopy(mPlaneList, 0, grown, 0, mPlaneCount);
+            mPlaneList = grown;
+        }
+        mPlaneList[mPlaneCount++] = slot;
+    }
+
+    private int allocatePlaneSlot() {
+        if (mFreePlaneSlotCount > 0) {
+            return mFreePlaneSlots[--mFreePlaneSlotCount];
+        }
+        if (mPlaneSlotCount == mPlanes.length) {
+            int capacity = 2 * mPlanes.length;
+            mPlanes = grow(mPlanes, new Plane[capacity]);
+            mPlaneTypes = grow(mPlaneTypes, new Plane.Type[capacity]);
+            mPlaneStates = grow(mPlaneStates, new Plane.TrackingState[capacity]);
+            boolean[] subsumed = new boolean[capacity];
+            System.arraycopy(mPlaneSubsumed, 0, subsumed, 0, mPlaneSubsumed.length);
+            mPlaneSubsumed = subsumed;
+            mPlaneMatrices = grow(mPlaneMatrices, 16 * capacity);
+            mPlaneRotations = grow(mPlaneRotations, 4 * capacity);
+            mPlaneExtents = grow(mPlaneExtents, 2 * capacity);
+            mPlanePolygons = grow(mPlanePolygons, new float[capacity][]);
+            mPlanePolygonLengths = grow(mPlanePolygonLengths, capacity);
+            mPlaneUpdates = grow(mPlaneUpdates, capacity);
+            mFreePlaneSlots = grow(mFreePlaneSlots, capacity);
+        }
+        return mPlaneSlotCount++;
+    }
+
+    private void removePlane(int slot) {
+        mPlaneSlots.remove(mPlanes[slot]);
+        mPlanes[slot] = null;
+        mPlaneTypes[slot] = null;
+        mPlaneStates[slot] = null;
+        mFreePlaneSlots[mFreePlaneSlotCount++] = slot;
+    }
+
+    /**
+     * Starts reading the state of an anchor from the next {@link #update}.
+     *
+     * @return The anchor's slot.
+     */
+    public int addAnchor(Anchor anchor) {
+        int slot;
+        if (mFreeAnchorSlotCount > 0) {
+            slot = mFreeAnchorSlots[--mFreeAnchorSlotCount];
+        } else {
+            if (mAnchorSlotCount == mAnchors.length) {
+                int capacity = 2 * mAnchors.length;
+                mAnchors = grow(mAnchors, new Anchor[capacity]);
+                mAnchorStates = grow(mAnchorStates, new Anchor.TrackingState[capacity]);
+                mAnchorTranslations = grow(mAnchorTranslations, 3 * capacity);
+                mAnchorRotations = grow(mAnchorRotations, 4 * capacity);
+                mFreeAnchorSlots = grow(mFreeAnchorSlots, capacity);
+            }
+            slot = mAnchorSlotCount++;
+        }
+        mAnchors[slot] = anchor;
+        // Not tracking until the next update has read it.
+        mAnchorStates[slot] = null;
+        return slot;
+    }
+
+    /** Stops reading the state of the anchor in a slot, which may then be reused. */
+    public void removeAnchor(int slot) {
+        mAnchors[slot] = null;
+        mAnchorStates[slot] = null;
+        mFreeAnchorSlots[mFreeAnchorSlotCount++] = slot;
+    }
+
+    /** Number of planes in the session. */
+    public int getPlaneCount() {
+        return mPlaneCount;
+    }
+
+    /** Slot of the {@code index}th plane in the session, for {@code index < getPlaneCount()}. */
+    public int getPlaneSlot(int index) {
+        return mPlaneList[index];
+    }
+
+    /** Slot of a plane, or -1 if it is not in the snapshot. */
+    public int findPlaneSlot(Plane plane) {
+        Integer slot = mPlaneSlots.get(plane);
+        return slot != null ? slot : -1;
+    }
+
+    public Plane getPlane(int slot) {
+        return mPlanes[slot];
+    }
+
+    public Plane.Type getPlaneType(int slot) {
+        return mPlaneTypes[slot];
+    }
+
+    public boolean isPlaneTracking(int slot) {
+        return mPlaneStates[slot] == Plane.TrackingState.TRACKING;
+    }
+
+    /** Whether a plane was merged into another one, which now covers its area. */
+    public boolean isPlaneSubsumed(int slot) {
+        return mPlaneSubsumed[slot];
+    }
+
+    /** Center poses of the planes as column-major matrices, 16 floats per slot. */
+    public float[] getPlaneMatrices() {
+        return mPlaneMatrices;
+    }
+
+    /** Rotations of the planes' center poses as x, y, z, w quaternions, 4 floats per slot. */
+    public float[] getPlaneRotations() {
+        return mPlaneRotations;
+    }
+
+    /** Extents of the planes along their X and Z axes, 2 floats per slot. */
+    public float[] getPlaneExtents() {
+        return mPlaneExtents;
+    }
+
+    /**
+     * Boundary polygon of a plane as x, z pairs relative to its center pose. Only the first
+     * {@link #getPlanePolygonLength(int)} floats are valid.
+     */
+    public float[] getPlanePolygon(int slot) {
+        return mPlanePolygons[slot];
+    }
+
+    /** Number of floats in a plane's polygon, twice its number of vertices. */
+    public int getPlanePolygonLength(int slot) {
+        return mPlanePolygonLengths[slot];
+    }
+
+    public boolean isAnchorTracking(int slot) {
+        return mAnchorStates[slot] == Anchor.TrackingState.TRACKING;
+    }
+
+    /** Positions of the anchors, 3 floats per slot. */
+    public float[] getAnchorTranslations() {
+        return mAnchorTranslations;
+    }
+
+    /** Rotations of the anchors as x, y, z, w quaternions, 4 floats per slot. */
+    public float[] getAnchorRotations() {
+        return mAnchorRotations;
+    }
+
+    private static <T> T[] grow(T[] array, T[] grown) {
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
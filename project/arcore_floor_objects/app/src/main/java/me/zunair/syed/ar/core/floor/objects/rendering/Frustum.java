@@ -0,0 +1,92 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+/**
+ * The view frustum of the camera, as six planes in world space. Used to skip drawing objects
+ * that are behind the camera or off screen.
+ */
+public class Frustum {
+    private static final int PLANE_COUNT = 6;
+
+    // {a, b, c, d} per plane, normalized so that a*x + b*y + c*z + d is the signed distance of
+    // a point from the plane, positive inside the frustum.
+    private final float[] mPlanes = new float[4 * PLANE_COUNT];
+
+    /**
+     * Extracts the frustum planes from a combined view-projection matrix.
+     *
+     * @param viewProjection A 4x4 projection * view matrix, in column-major order.
+     */
+    public void update(float[] viewProjection) {
+        // Each plane is the sum or difference of the fourth row and one of the other rows.
+        for (int i = 0; i < PLANE_COUNT; i++) {
+            int row = i / 2;
+            float sign = (i % 2 == 0) ? 1.0f : -1.0f;
+            float a = viewProjection[3] + sign * viewProjection[row];
+            float b = viewProjection[7] + sign * viewProjection[4 + row];
+            float c = viewProjection[11] + sign * viewProjection[8 + row];
+            float d = viewProjection[15] + sign * viewProjection[12 + row];
+            float reciprocalLength = 1.0f / (float) Math.sqrt(a * a + b * b + c * c);
+            mPlanes[4 * i] = a * reciprocalLength;
+            mPlanes[4 * i + 1] = b * reciprocalLength;
+            mPlanes[4 * i + 2] = c * reciprocalLength;
+            mPlanes[4 * i + 3] = d * reciprocalLength;
+        }
+    }
+
+    /**
+     * Tests a world-space sphere against the frustum.
+     *
+     * @return false if the sphere is certainly outside of the frustum.
+     */
+    public boolean intersectsSphere(float x, float y, float z, float radius) {
+        for (int i = 0; i < 4 * PLANE_COUNT; i += 4) {
+            if (mPlanes[i] * x + mPlanes[i + 1] * y + mPlanes[i + 2] * z + mPlanes[i + 3]
+                    < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests a model-space box, transformed into world space, against the frustum.
+     *
+     * @param modelMatrix A 4x4 model-to-world matrix, in column-major order.
+     * @param min Minimum corner of the box in model space.
+     * @param max Maximum corner of the box in model space.
+     * @return false if the box is certainly outside of the frustum.
+     */
+    public boolean intersectsBox(float[] modelMatrix, float[] min, float[] max) {
+        // Transform the box center, and the extents along each world axis.
+        float cx = (min[0] + max[0]) / 2;
+        float cy = (min[1] + max[1]) / 2;
+        float cz = (min[2] + max[2]) / 2;
+        float ex = (max[0] - min[0]) / 2;
+        float ey = (max[1] - min[1]) / 2;
+        float ez = (max[2] - min[2]) / 2;
+
+        float worldX = modelMatrix[0] * cx + modelMatrix[4] * cy + modelMatrix[8] * cz
+            + modelMatrix[12];
+        float worldY = modelMatrix[1] * cx + modelMatrix[5] * cy + modelMatrix[9] * cz
+            + modelMatrix[13];
+        float worldZ = modelMatrix[2] * cx + modelMatrix[6] * cy + modelMatrix[10] * cz
+            + modelMatrix[14];
+        float extentX = Math.abs(modelMatrix[0]) * ex + Math.abs(modelMatrix[4]) * ey
+            + Math.abs(modelMatrix[8]) * ez;
+        float extentY = Math.abs(modelMatrix[1]) * ex + Math.abs(modelMatrix[5]) * ey
+            + Math.abs(modelMatrix[9]) * ez;
+        float extentZ = Math.abs(modelMatrix[2]) * ex + Math.abs(modelMatrix[6]) * ey
+            + Math.abs(modelMatrix[10]) * ez;
+
+        for (int i = 0; i < 4 * PLANE_COUNT; i += 4) {
+            float distance = mPlanes[i] * worldX + mPlanes[i + 1] * worldY
+                + mPlanes[i + 2] * worldZ + mPlanes[i + 3];
+            float radius = Math.abs(mPlanes[i]) * extentX + Math.abs(mPlanes[i + 1]) * extentY
+                + Math.abs(mPlanes[i + 2]) * extentZ;
+            if (distance < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
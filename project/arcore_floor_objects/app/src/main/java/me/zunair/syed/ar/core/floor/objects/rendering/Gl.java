@@ -0,0 +1,119 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.graphics.Bitmap;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES 2.0 functions the renderers use, with the signatures of {@code GLES20}. Renderers
+ * call GL through this interface only, so that they can run against {@link AndroidGl} on a
+ * device, or against {@link RecordingGl} or {@link NoOpGl} without one.
+ *
+ * <p>Constants are still taken from {@code GLES20}.
+ */
+public interface Gl {
+    void glActiveTexture(int texture);
+
+    void glAttachShader(int program, int shader);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBindTexture(int target, int texture);
+
+    void glBlendFunc(int sfactor, int dfactor);
+
+    void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glClear(int mask);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glColorMask(boolean red, boolean green, boolean blue, boolean alpha);
+
+    void glCompileShader(int shader);
+
+    int glCreateProgram();
+
+    int glCreateShader(int type);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteProgram(int program);
+
+    void glDeleteShader(int shader);
+
+    void glDeleteTextures(int n, int[] textures, int offset);
+
+    void glDepthMask(boolean flag);
+
+    void glDisable(int cap);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    /** Draws with indices read from the bound element array buffer, at a byte offset. */
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    /** Draws with indices read from client memory. */
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    void glEnable(int cap);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    void glGenerateMipmap(int target);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetError();
+
+    String glGetShaderInfoLog(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetString(int name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glLinkProgram(int program);
+
+    void glShaderSource(int shader, String string);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glUniform1i(int location, int x);
+
+    void glUniform2fv(int location, int count, float[] v, int offset);
+
+    void glUniform3fv(int location, int count, float[] v, int offset);
+
+    void glUniform4f(int location, float x, float y, float z, float w);
+
+    void glUniform4fv(int location, int count, float[] v, int offset);
+
+    void glUniformMatrix2fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glUseProgram(int program);
+
+    /** Points an attribute at the bound array buffer, at a byte offset. */
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+        int offset);
+
+    /** Points an attribute at client memory. */
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+        Buffer ptr);
+
+    /** Uploads a bitmap to the bound texture, as {@code GLUtils.texImage2D} does. */
+    void texImage2D(int target, int level, Bitmap bitmap, int border);
+}
@@ -0,0 +1,70 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.opengl.GLES20;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Optional OpenGL ES features of the current context.
+ */
+public class GlCapabilities {
+    /** Allows {@code GL_UNSIGNED_INT} indices in ES 2.0. */
+    public static final String OES_ELEMENT_INDEX_UINT = "GL_OES_element_index_uint";
+    /** GPU timer queries, with a flag for results invalidated by frequency changes. */
+    public static final String EXT_DISJOINT_TIMER_QUERY = "GL_EXT_disjoint_timer_query";
+
+    private static final String ES3_VERSION_PREFIX = "OpenGL ES 3";
+
+    private final Set<String> mExtensions;
+    private final String mVersion;
+
+    private GlCapabilities(Set<String> extensions, String version) {
+        mExtensions = extensions;
+        mVersion = version;
+    }
+
+    /**
+     * Reads the capabilities of the context current on this thread. Must be called on the OpenGL
+     * thread; the result may be used on any thread.
+     */
+    public static GlCapabilities query() {
+        return query(AndroidGl.getInstance());
+    }
+
+    /** Reads the capabilities of the context behind a backend. */
+    public static GlCapabilities query(Gl gl) {
+        String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        return new GlCapabilities(extensions == null
+            ? new HashSet<String>()
+            : new HashSet<>(Arrays.asList(extensions.trim().split("\\s+"))),
+            version == null ? "" : version);
+    }
+
+    public boolean hasExtension(String name) {
+        return mExtensions.contains(name);
+    }
+
+    /** Whether meshes can be drawn with 32-bit indices. */
+    public boolean supportsIntIndices() {
+        return hasExtension(OES_ELEMENT_INDEX_UINT);
+    }
+
+    /**
+     * Whether the context is OpenGL ES 3.0 or later. Drivers usually create one even when 2.0
+     * is requested, which makes the {@code GLES30} entry points usable.
+     */
+    public boolean isEs3() {
+        return mVersion.startsWith(ES3_VERSION_PREFIX);
+    }
+
+    /**
+     * Whether GPU time can be measured with {@link GpuTimer}, which issues the extension's
+     * queries through the ES 3.0 query functions.
+     */
+    public boolean supportsTimerQueries() {
+        return isEs3() && hasExtension(EXT_DISJOINT_TIMER_QUERY);
+    }
+}
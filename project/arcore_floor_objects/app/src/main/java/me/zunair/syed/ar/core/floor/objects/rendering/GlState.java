@@ -0,0 +1,353 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+/**
+ * Cache of the OpenGL state the renderers change: current program, texture and buffer
+ * bindings, blending, depth and color writes, and enabled vertex attribute arrays. Calls that
+ * would not change the state are skipped and counted, so renderers can set everything they
+ * depend on before each draw without paying for it, instead of restoring state afterwards.
+ *
+ * <p>Every change to the tracked state must go through this class, or be followed by
+ * {@link #invalidate()}. Must be used on the OpenGL thread only.
+ */
+public class GlState {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+    // Every ES 2.0 context has at least this many. Disabling a location past the context's
+    // limit is an error, so the arrays above it are only disabled once they were enabled here.
+    private static final int MIN_VERTEX_ATTRIBS = 8;
+
+    private static final GlState sInstance = new GlState(AndroidGl.getInstance());
+
+    private final Gl mGl;
+    private final GlValidation mValidation;
+
+    private int mProgram;
+    private int mActiveTexture;
+    private final int[] mTexture2dBindings = new int[MAX_TEXTURE_UNITS];
+    private final int[] mTextureExternalBindings = new int[MAX_TEXTURE_UNITS];
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+
+    // Capabilities and masks: UNKNOWN, 0 or 1.
+    private int mBlend;
+    private int mDepthTest;
+    private int mCullFace;
+    private int mDepthMask;
+    private int mColorMask;
+
+    private int mBlendSrcRgb;
+    private int mBlendDstRgb;
+    private int mBlendSrcAlpha;
+    private int mBlendDstAlpha;
+
+    // Bit i is set if vertex attribute array i is enabled, if its bit in mKnownAttributes is.
+    private int mEnabledAttributes;
+    private int mKnownAttributes;
+
+    private int mIssuedCallCount;
+    private int mSkippedCallCount;
+
+    /**
+     * Creates the state of another context, such as one backed by a {@link RecordingGl} in a test.
+     *
+     * @param gl The backend the calls go to.
+     */
+    public GlState(Gl gl) {
+        mGl = gl;
+        mValidation = new GlValidation(gl);
+        invalidate();
+    }
+
+    /** The state of the app's only GL context, on {@link AndroidGl}. */
+    public static GlState getInstance() {
+        return sInstance;
+    }
+
+    /** The backend the calls go to, for the calls whose state is not tracked here. */
+    public Gl getGl() {
+        return mGl;
+    }
+
+    /** Decides which of the error checks in the frame loop run on this context. */
+    public GlValidation getValidation() {
+        return mValidation;
+    }
+
+    /**
+     * Forgets the cached state, so that the next call for every piece of state is issued. Call
+     * when a context is created, or after code outside of this class changed the state.
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mActiveTexture = UNKNOWN;
+        invalidateTextureBindings();
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        mBlend = UNKNOWN;
+        mDepthTest = UNKNOWN;
+        mCullFace = UNKNOWN;
+        mDepthMask = UNKNOWN;
+        mColorMask = UNKNOWN;
+        mBlendSrcRgb = UNKNOWN;
+        mBlendDstRgb = UNKNOWN;
+        mBlendSrcAlpha = UNKNOWN;
+        mBlendDstAlpha = UNKNOWN;
+        mKnownAttributes = 0;
+    }
+
+    /**
+     * Forgets the texture bindings only, for example after ARCore updated the camera texture,
+     * which binds it natively.
+     */
+    public void invalidateTextureBindings() {
+        for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+            mTexture2dBindings[unit] = UNKNOWN;
+            mTextureExternalBindings[unit] = UNKNOWN;
+        }
+    }
+
+    public void useProgram(int program) {
+        if (mProgram == program) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glUseProgram(program);
+        mProgram = program;
+        mIssuedCallCount++;
+    }
+
+    /** Deletes a program. It stays current, as in GL, until another one is used. */
+    public void deleteProgram(int program) {
+        mGl.glDeleteProgram(program);
+        mIssuedCallCount++;
+    }
+
+    /** @param texture {@code GL_TEXTURE0} or a later unit. */
+    public void activeTexture(int texture) {
+        if (mActiveTexture == texture) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glActiveTexture(texture);
+        mActiveTexture = texture;
+        mIssuedCallCount++;
+    }
+
+    /**
+     * Binds a texture to the active unit. {@code GL_TEXTURE_2D} and
+     * {@code GL_TEXTURE_EXTERNAL_OES} bindings are cached; other targets are always bound.
+     */
+    public void bindTexture(int target, int texture) {
+        int[] bindings = getTextureBindings(target);
+        int unit = mActiveTexture - GLES20.GL_TEXTURE0;
+        boolean tracked = bindings != null && unit >= 0 && unit < MAX_TEXTURE_UNITS;
+        if (tracked && bindings[unit] == texture) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glBindTexture(target, texture);
+        if (tracked) {
+            bindings[unit] = texture;
+        } else if (bindings != null) {
+            // The active unit is unknown, so the binding cannot be attributed to it.
+            invalidateTextureBindings();
+        }
+        mIssuedCallCount++;
+    }
+
+    /** Deletes textures, which unbinds them from every unit they are bound to. */
+    public void deleteTextures(int count, int[] textures, int offset) {
+        mGl.glDeleteTextures(count, textures, offset);
+        for (int i = offset; i < offset + count; i++) {
+            for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+                if (mTexture2dBindings[unit] == textures[i]) {
+                    mTexture2dBindings[unit] = 0;
+                }
+                if (mTextureExternalBindings[unit] == textures[i]) {
+                    mTextureExternalBindings[unit] = 0;
+                }
+            }
+        }
+        mIssuedCallCount++;
+    }
+
+    /** @param target {@code GL_ARRAY_BUFFER} or {@code GL_ELEMENT_ARRAY_BUFFER}. */
+    public void bindBuffer(int target, int buffer) {
+        int current = target == GLES20.GL_ARRAY_BUFFER ? mArrayBuffer : mElementArrayBuffer;
+        if (current == buffer) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glBindBuffer(target, buffer);
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            mArrayBuffer = buffer;
+        } else {
+            mElementArrayBuffer = buffer;
+        }
+        mIssuedCallCount++;
+    }
+
+    /** Deletes buffers, which unbinds them if they are bound. */
+    public void deleteBuffers(int count, int[] buffers, int offset) {
+        mGl.glDeleteBuffers(count, buffers, offset);
+        for (int i = offset; i < offset + count; i++) {
+            if (mArrayBuffer == buffers[i]) {
+                mArrayBuffer = 0;
+            }
+            if (mElementArrayBuffer == buffers[i]) {
+                mElementArrayBuffer = 0;
+            }
+        }
+        mIssuedCallCount++;
+    }
+
+    /**
+     * Enables or disables {@code GL_BLEND}, {@code GL_DEPTH_TEST} or {@code GL_CULL_FACE}.
+     */
+    public void setEnabled(int capability, boolean enabled) {
+        int value = enabled ? 1 : 0;
+        int current;
+        switch (capability) {
+            case GLES20.GL_BLEND:
+                current = mBlend;
+                mBlend = value;
+                break;
+            case GLES20.GL_DEPTH_TEST:
+                current = mDepthTest;
+                mDepthTest = value;
+                break;
+            case GLES20.GL_CULL_FACE:
+                current = mCullFace;
+                mCullFace = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Untracked capability " + capability);
+        }
+        if (current == value) {
+            mSkippedCallCount++;
+            return;
+        }
+        if (enabled) {
+            mGl.glEnable(capability);
+        } else {
+            mGl.glDisable(capability);
+        }
+        mIssuedCallCount++;
+    }
+
+    public void depthMask(boolean flag) {
+        int value = flag ? 1 : 0;
+        if (mDepthMask == value) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glDepthMask(flag);
+        mDepthMask = value;
+        mIssuedCallCount++;
+    }
+
+    public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+        int value = (red ? 1 : 0) | (green ? 2 : 0) | (blue ? 4 : 0) | (alpha ? 8 : 0);
+        if (mColorMask == value) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glColorMask(red, green, blue, alpha);
+        mColorMask = value;
+        mIssuedCallCount++;
+    }
+
+    public void blendFunc(int src, int dst) {
+        if (mBlendSrcRgb == src && mBlendDstRgb == dst
+                && mBlendSrcAlpha == src && mBlendDstAlpha == dst) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glBlendFunc(src, dst);
+        mBlendSrcRgb = src;
+        mBlendDstRgb = dst;
+        mBlendSrcAlpha = src;
+        mBlendDstAlpha = dst;
+        mIssuedCallCount++;
+    }
+
+    public void blendFuncSeparate(int srcRgb, int dstRgb, int srcAlpha, int dstAlpha) {
+        if (mBlendSrcRgb == srcRgb && mBlendDstRgb == dstRgb
+                && mBlendSrcAlpha == srcAlpha && mBlendDstAlpha == dstAlpha) {
+            mSkippedCallCount++;
+            return;
+        }
+        mGl.glBlendFuncSeparate(srcRgb, dstRgb, srcAlpha, dstAlpha);
+        mBlendSrcRgb = srcRgb;
+        mBlendDstRgb = dstRgb;
+        mBlendSrcAlpha = srcAlpha;
+        mBlendDstAlpha = dstAlpha;
+        mIssuedCallCount++;
+    }
+
+    /**
+     * Enables exactly the vertex attribute arrays in {@code mask} and disables the others, so
+     * that no array set up by another renderer is left enabled.
+     *
+     * @param mask Bit i stands for attribute location i; see {@link #attributeBit(int)}.
+     */
+    public void setVertexAttribArrays(int mask) {
+        for (int location = 0; location < MAX_VERTEX_ATTRIBS; location++) {
+            int bit = 1 << location;
+            boolean enabled = (mask & bit) != 0;
+            boolean known = (mKnownAttributes & bit) != 0;
+            if (known && ((mEnabledAttributes & bit) != 0) == enabled
+                    || !known && !enabled && location >= MIN_VERTEX_ATTRIBS) {
+                // Only the arrays asked for count as saved calls.
+                if (enabled) {
+                    mSkippedCallCount++;
+                }
+                continue;
+            }
+            if (enabled) {
+                mGl.glEnableVertexAttribArray(location);
+                mEnabledAttributes |= bit;
+            } else {
+                mGl.glDisableVertexAttribArray(location);
+                mEnabledAttributes &= ~bit;
+            }
+            mKnownAttributes |= bit;
+            mIssuedCallCount++;
+        }
+    }
+
+    /** The bit of an attribute location in a {@link #setVertexAttribArrays} mask. */
+    public static int attributeBit(int location) {
+        return location >= 0 && location < MAX_VERTEX_ATTRIBS ? 1 << location : 0;
+    }
+
+    /** Number of state calls issued to GL since the last {@link #resetCallCounts()}. */
+    public int getIssuedCallCount() {
+        return mIssuedCallCount;
+    }
+
+    /** Number of state calls skipped as redundant since the last {@link #resetCallCounts()}. */
+    public int getSkippedCallCount() {
+        return mSkippedCallCount;
+    }
+
+    public void resetCallCounts() {
+        mIssuedCallCount = 0;
+        mSkippedCallCount = 0;
+    }
+
+    private int[] getTextureBindings(int target) {
+        switch (target) {
+            case GLES20.GL_TEXTURE_2D:
+                return mTexture2dBindings;
+            case GLES11Ext.GL_TEXTURE_EXTERNAL_OES:
+                return mTextureExternalBindings;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Decides which of the GL error checks in the frame loop run. {@code glGetError} can make the
+ * driver wait for the GPU, so checking after every pass is for debug builds only:
+ *
+ * <ul>
+ *   <li>{@link #MODE_FULL} checks at every checkpoint and throws on the first error.
+ *   <li>{@link #MODE_SAMPLED} checks once at the end of every {@link #DEFAULT_SAMPLE_INTERVAL}th
+ *       frame. When that finds an error, the next frames check at a single checkpoint each,
+ *       halving the part of the frame the error can come from, until the checkpoint right after
+ *       it is found and logged. This assumes the error repeats every frame, as errors from a
+ *       broken pass do; an error that does not repeat is logged for the whole frame.
+ *   <li>{@link #MODE_NONE} never checks.
+ * </ul>
+ *
+ * <p>Checkpoints are the {@link #check} calls of a frame, counted from
+ * {@link #beginFrame()}. Must be used on the OpenGL thread.
+ */
+public class GlValidation {
+    public static final int MODE_NONE = 0;
+    public static final int MODE_SAMPLED = 1;
+    public static final int MODE_FULL = 2;
+
+    private static final String[] MODE_NAMES = {"none", "sampled", "full"};
+
+    /** Frames between the error checks of {@link #MODE_SAMPLED}. */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 60;
+
+    // Checkpoints past this many in a frame cannot be told apart while bisecting.
+    private static final int MAX_CHECKPOINTS = 1024;
+
+    private final Gl mGl;
+    private volatile int mMode = MODE_FULL;
+    private int mSampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    private int mFrame;
+    private int mCheckpoint;
+    private final String[] mCheckpointTags = new String[MAX_CHECKPOINTS];
+    private final String[] mCheckpointLabels = new String[MAX_CHECKPOINTS];
+
+    // While bisecting, the error is known to be raised in one of the sections lo to hi, where
+    // section i ends at checkpoint i and the last one at the end of the frame.
+    private boolean mBisecting;
+    private int mSuspectFirst;
+    private int mSuspectLast;
+    private boolean mProbeReached;
+    private boolean mErrorAtProbe;
+
+    private int mErrorCount;
+
+    /** @param gl The backend to check for errors. */
+    public GlValidation(Gl gl) {
+        mGl = gl;
+    }
+
+    /** @param mode {@link #MODE_NONE}, {@link #MODE_SAMPLED} or {@link #MODE_FULL}. */
+    public void setMode(int mode) {
+        mMode = mode;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    /** @param frames Frames between checks in {@link #MODE_SAMPLED}, at least 1. */
+    public void setSampleInterval(int frames) {
+        mSampleInterval = Math.max(1, frames);
+    }
+
+    /**
+     * Parses a mode name: {@code "none"}, {@code "sampled"} or {@code "full"}.
+     *
+     * @throws IllegalArgumentException If the name is none of these.
+     */
+    public static int parseMode(String name) {
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            if (MODE_NAMES[mode].equals(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown GL validation mode " + name);
+    }
+
+    public static String getModeName(int mode) {
+        return MODE_NAMES[mode];
+    }
+
+    /** Number of GL errors found since the validation was created. */
+    public int getErrorCount() {
+        return mErrorCount;
+    }
+
+    /** Starts numbering the checkpoints of a new frame. */
+    public void beginFrame() {
+        mFrame++;
+        mCheckpoint = 0;
+        mProbeReached = false;
+        mErrorAtProbe = false;
+    }
+
+    /**
+     * A checkpoint in the frame loop. Depending on the mode, checks whether a GL error was
+     * raised since the last check.
+     *
+     * @param label Label to report in case of error.
+     * @throws RuntimeException If an error is found in {@link #MODE_FULL}.
+     */
+    public void check(String tag, String label) {
+        int mode = mMode;
+        if (mode == MODE_FULL) {
+            int error = mGl.glGetError();
+            if (error != GLES20.GL_NO_ERROR) {
+                mErrorCount++;
+                Log.e(tag, label + ": glError " + error);
+                throw new RuntimeException(label + ": glError " + error);
+            }
+            return;
+        }
+        if (mode != MODE_SAMPLED) {
+            return;
+        }
+
+        // The checkpoints are counted in every frame, so that a bisection can start from any.
+        int checkpoint = mCheckpoint++;
+        if (checkpoint < MAX_CHECKPOINTS) {
+            mCheckpointTags[checkpoint] = tag;
+            mCheckpointLabels[checkpoint] = label;
+        }
+        if (mBisecting && checkpoint == (mSuspectFirst + mSuspectLast) / 2) {
+            mProbeReached = true;
+            mErrorAtProbe = drainErrors() != GLES20.GL_NO_ERROR;
+        }
+    }
+
+    /** Ends the frame started with {@link #beginFrame()}, checking for errors if it is due. */
+    public void endFrame() {
+        if (mMode != MODE_SAMPLED) {
+            mBisecting = false;
+            return;
+        }
+        if (!mBisecting) {
+            if (mFrame % mSampleInterval != 0) {
+                return;
+            }
+            int error = drainErrors();
+            if (error != GLES20.GL_NO_ERROR) {
+                mErrorCount++;
+                Log.w(GlValidation.class.getSimpleName(), "glError " + error
+                    + " in frame " + mFrame + ", looking for the pass that raised it");
+                mBisecting = true;
+                mSuspectFirst = 0;
+                mSuspectLast = Math.min(mCheckpoint, MAX_CHECKPOINTS);
+            }
+            return;
+        }
+
+        // This frame probed the middle of the suspect sections, unless it ended early, such as
+        // when tracking was lost or a pass threw. Its errors then tell nothing about the probe,
+        // so the next frame probes the same checkpoint again.
+        int probe = (mSuspectFirst + mSuspectLast) / 2;
+        boolean errorAfterProbe = drainErrors() != GLES20.GL_NO_ERROR;
+        if (!mProbeReached) {
+            return;
+        }
+        if (mErrorAtProbe) {
+            mSuspectLast = probe;
+        } else if (errorAfterProbe) {
+            mSuspectFirst = probe + 1;
+        } else {
+            Log.w(GlValidation.class.getSimpleName(),
+                "The GL error of frame " + (mFrame - 1) + " did not repeat");
+            mBisecting = false;
+            return;
+        }
+        // Frames with fewer checkpoints than before cannot hold the error past the last one.
+        mSuspectLast = Math.min(mSuspectLast, Math.min(mCheckpoint, MAX_CHECKPOINTS));
+        mSuspectFirst = Math.min(mSuspectFirst, mSuspectLast);
+        if (mSuspectFirst == mSuspectLast) {
+            reportSection(mSuspectFirst);
+            mBisecting = false;
+        }
+    }
+
+    private void reportSection(int section) {
+        String after = section == 0 ? "the start of the frame"
+            : mCheckpointTags[section - 1] + " \"" + mCheckpointLabels[section - 1] + "\"";
+        String before = section >= Math.min(mCheckpoint, MAX_CHECKPOINTS) ? "the end of the frame"
+            : mCheckpointTags[section] + " \"" + mCheckpointLabels[section] + "\"";
+        Log.e(GlValidation.class.getSimpleName(),
+            "GL error raised between " + after + " and " + before);
+    }
+
+    /** Reads and clears every error flag, returning the first error or GL_NO_ERROR. */
+    private int drainErrors() {
+        int first = GLES20.GL_NO_ERROR;
+        int error;
+        while ((error = mGl.glGetError()) != GLES20.GL_NO_ERROR) {
+            if (first == GLES20.GL_NO_ERROR) {
+                first = error;
+            }
+        }
+        return first;
+    }
+}
@@ -0,0 +1,184 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures how long the GPU spends on sections of a frame, such as a render pass or the
+ * objects of one model, with {@code EXT_disjoint_timer_query}. Results are read back
+ * {@link #FRAMES_IN_FLIGHT} frames after the queries were issued and are dropped if they are not
+ * ready by then, so timing never makes the CPU wait for the GPU.
+ *
+ * <p>Sections are numbered by the caller and cannot nest. Must be used on the OpenGL thread.
+ * Create it with {@link #create} once the context exists.
+ */
+public class GpuTimer {
+    // From EXT_disjoint_timer_query.
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    /** Frames between issuing the queries of a frame and reading their results. */
+    public static final int FRAMES_IN_FLIGHT = 4;
+    private static final int MAX_QUERIES_PER_FRAME = 32;
+
+    private final String[] mSectionNames;
+    private final int[] mQueries = new int[FRAMES_IN_FLIGHT * MAX_QUERIES_PER_FRAME];
+
+    // The section measured by each query of each frame in flight.
+    private final int[] mQuerySections = new int[FRAMES_IN_FLIGHT * MAX_QUERIES_PER_FRAME];
+    private final int[] mFrameQueryCounts = new int[FRAMES_IN_FLIGHT];
+    private int mFrame = -1;
+    private boolean mQueryActive;
+    private boolean mEnabled;
+
+    // Totals since the last reset, per section.
+    private final long[] mTotalNanos;
+    private final int[] mSampleCounts;
+    private int mDroppedFrameCount;
+
+    private final int[] mResult = new int[1];
+
+    private GpuTimer(String[] sectionNames) {
+        mSectionNames = sectionNames;
+        mTotalNanos = new long[sectionNames.length];
+        mSampleCounts = new int[sectionNames.length];
+        GLES30.glGenQueries(mQueries.length, mQueries, 0);
+    }
+
+    /**
+     * Creates a timer if the current context supports timer queries.
+     *
+     * @param sectionNames Names of the sections, for the report. Section numbers index this.
+     * @return The timer, initially disabled, or null if GPU time cannot be measured.
+     */
+    public static GpuTimer create(GlCapabilities capabilities, String[] sectionNames) {
+        if (!capabilities.supportsTimerQueries()) {
+            return null;
+        }
+        return new GpuTimer(sectionNames);
+    }
+
+    /** Frees the queries. The timer cannot be used afterwards. */
+    public void release() {
+        GLES30.glDeleteQueries(mQueries.length, mQueries, 0);
+    }
+
+    /**
+     * Starts or stops issuing queries. Enabling the timer resets its results; results already in
+     * flight when it is disabled are still collected.
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled && !mEnabled) {
+            reset();
+        }
+        mEnabled = enabled;
+    }
+
+    /**
+     * Collects the results of the frame issued {@link #FRAMES_IN_FLIGHT} frames ago and starts a
+     * new frame. Call once per frame, before any section.
+     */
+    public void beginFrame() {
+        // A section left open by a frame that threw must not swallow this one.
+        end();
+        mFrame = (mFrame + 1) % FRAMES_IN_FLIGHT;
+
+        // A disjoint event, such as a GPU frequency change, invalidates every query in flight.
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        if (mResult[0] != 0) {
+            mDroppedFrameCount += countFramesInFlight();
+            Arrays.fill(mFrameQueryCounts, 0);
+            return;
+        }
+
+        int first = mFrame * MAX_QUERIES_PER_FRAME;
+        int count = mFrameQueryCounts[mFrame];
+        if (count == 0) {
+            return;
+        }
+        // Queries complete in order, so the last one being ready means they all are.
+        GLES30.glGetQueryObjectuiv(
+            mQueries[first + count - 1], GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+        if (mResult[0] == 0) {
+            mDroppedFrameCount++;
+        } else {
+            for (int i = first; i < first + count; i++) {
+                GLES30.glGetQueryObjectuiv(mQueries[i], GLES30.GL_QUERY_RESULT, mResult, 0);
+                int section = mQuerySections[i];
+                mTotalNanos[section] += mResult[0] & 0xFFFFFFFFL;
+                mSampleCounts[section]++;
+            }
+        }
+        mFrameQueryCounts[mFrame] = 0;
+    }
+
+    /** Starts measuring a section. Ignored while disabled or while another section is open. */
+    public void begin(int section) {
+        int count = mFrame < 0 ? MAX_QUERIES_PER_FRAME : mFrameQueryCounts[mFrame];
+        if (!mEnabled || mQueryActive || count == MAX_QUERIES_PER_FRAME) {
+            return;
+        }
+        int query = mFrame * MAX_QUERIES_PER_FRAME + count;
+        mQuerySections[query] = section;
+        mFrameQueryCounts[mFrame]++;
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[query]);
+        mQueryActive = true;
+    }
+
+    /** Stops measuring the section started with {@link #begin(int)}. */
+    public void end() {
+        if (mQueryActive) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            mQueryActive = false;
+        }
+    }
+
+    /** Average GPU time of a section since the last reset, or 0 if it was not measured. */
+    public long getAverageNanos(int section) {
+        return mSampleCounts[section] == 0 ? 0 : mTotalNanos[section] / mSampleCounts[section];
+    }
+
+    public int getSampleCount(int section) {
+        return mSampleCounts[section];
+    }
+
+    /** Frames whose results were not ready in time or were invalidated. */
+    public int getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    /** Forgets the collected results. Queries in flight are still collected. */
+    public void reset() {
+        Arrays.fill(mTotalNanos, 0);
+        Arrays.fill(mSampleCounts, 0);
+        mDroppedFrameCount = 0;
+    }
+
+    /** Formats the average GPU time of every measured section in milliseconds. */
+    public String getReport() {
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+            "%-15s %7s %5s%n", "gpu (ms)", "avg", "n"));
+        for (int section = 0; section < mSectionNames.length; section++) {
+            if (mSampleCounts[section] > 0) {
+                report.append(String.format(Locale.US, "%-15s %7.2f %5d%n",
+                    mSectionNames[section], getAverageNanos(section) / 1e6,
+                    mSampleCounts[section]));
+            }
+        }
+        report.append(String.format(Locale.US, "dropped frames %d%n", mDroppedFrameCount));
+        return report.toString();
+    }
+
+    private int countFramesInFlight() {
+        int frames = 0;
+        for (int count : mFrameQueryCounts) {
+            if (count > 0) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,137 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+/**
+ * Matrix helper functions: the part of {@code android.opengl.Matrix} the renderers use, in plain
+ * Java, so that the renderers also run where the Android framework does not, such as in unit
+ * tests against {@link RecordingGl}. Matrices are 4x4 and stored in column-major order.
+ */
+public class MatrixUtil {
+    public static void setIdentityM(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = i % 5 == 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Writes {@code lhs * rhs} to {@code result}, which must not overlap either of them.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+                                  float[] rhs, int rhsOffset) {
+        for (int column = 0; column < 4; column++) {
+            float x = rhs[rhsOffset + 4 * column];
+            float y = rhs[rhsOffset + 4 * column + 1];
+            float z = rhs[rhsOffset + 4 * column + 2];
+            float w = rhs[rhsOffset + 4 * column + 3];
+            for (int row = 0; row < 4; row++) {
+                result[resultOffset + 4 * column + row] = lhs[lhsOffset + row] * x
+                    + lhs[lhsOffset + 4 + row] * y + lhs[lhsOffset + 8 + row] * z
+                    + lhs[lhsOffset + 12 + row] * w;
+            }
+        }
+    }
+
+    /**
+     * Writes {@code lhs * rhs} at {@code offset} of {@code result}, for an {@code rhs} at the
+     * same offset whose last row is 0, 0, 0, 1. {@code result} may be {@code rhs}.
+     */
+    public static void multiplyAffine(float[] result, float[] lhs, float[] rhs, int offset) {
+        // The first three columns have no translation, and the last one no scaling.
+        for (int column = offset; column < offset + 12; column += 4) {
+            float x = rhs[column];
+            float y = rhs[column + 1];
+            float z = rhs[column + 2];
+            result[column] = lhs[0] * x + lhs[4] * y + lhs[8] * z;
+            result[column + 1] = lhs[1] * x + lhs[5] * y + lhs[9] * z;
+            result[column + 2] = lhs[2] * x + lhs[6] * y + lhs[10] * z;
+            result[column + 3] = lhs[3] * x + lhs[7] * y + lhs[11] * z;
+        }
+        int column = offset + 12;
+        float x = rhs[column];
+        float y = rhs[column + 1];
+        float z = rhs[column + 2];
+        result[column] = lhs[0] * x + lhs[4] * y + lhs[8] * z + lhs[12];
+        result[column + 1] = lhs[1] * x + lhs[5] * y + lhs[9] * z + lhs[13];
+        result[column + 2] = lhs[2] * x + lhs[6] * y + lhs[10] * z + lhs[14];
+        result[column + 3] = lhs[3] * x + lhs[7] * y + lhs[11] * z + lhs[15];
+    }
+
+    /**
+     * Writes the inverse of {@code m} to {@code inverse}, which must not overlap it.
+     *
+     * @return False if {@code m} has no inverse, in which case {@code inverse} is unchanged.
+     */
+    public static boolean invertM(float[] inverse, int inverseOffset, float[] m, int offset) {
+        float a00 = m[offset];
+        float a01 = m[offset + 1];
+        float a02 = m[offset + 2];
+        float a03 = m[offset + 3];
+        float a10 = m[offset + 4];
+        float a11 = m[offset + 5];
+        float a12 = m[offset + 6];
+        float a13 = m[offset + 7];
+        float a20 = m[offset + 8];
+        float a21 = m[offset + 9];
+        float a22 = m[offset + 10];
+        float a23 = m[offset + 11];
+        float a30 = m[offset + 12];
+        float a31 = m[offset + 13];
+        float a32 = m[offset + 14];
+        float a33 = m[offset + 15];
+
+        // The 2x2 determinants of the first two and of the last two columns, by Laplace
+        // expansion. The inverse of the transpose is the transpose of the inverse, so the
+        // storage order does not matter.
+        float s0 = a00 * a11 - a10 * a01;
+        float s1 = a00 * a12 - a10 * a02;
+        float s2 = a00 * a13 - a10 * a03;
+        float s3 = a01 * a12 - a11 * a02;
+        float s4 = a01 * a13 - a11 * a03;
+        float s5 = a02 * a13 - a12 * a03;
+        float c0 = a20 * a31 - a30 * a21;
+        float c1 = a20 * a32 - a30 * a22;
+        float c2 = a20 * a33 - a30 * a23;
+        float c3 = a21 * a32 - a31 * a22;
+        float c4 = a21 * a33 - a31 * a23;
+        float c5 = a22 * a33 - a32 * a23;
+        float determinant = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+        if (determinant == 0) {
+            return false;
+        }
+        float d = 1 / determinant;
+
+        int o = inverseOffset;
+        inverse[o] = (a11 * c5 - a12 * c4 + a13 * c3) * d;
+        inverse[o + 1] = (-a01 * c5 + a02 * c4 - a03 * c3) * d;
+        inverse[o + 2] = (a31 * s5 - a32 * s4 + a33 * s3) * d;
+        inverse[o + 3] = (-a21 * s5 + a22 * s4 - a23 * s3) * d;
+        inverse[o + 4] = (-a10 * c5 + a12 * c2 - a13 * c1) * d;
+        inverse[o + 5] = (a00 * c5 - a02 * c2 + a03 * c1) * d;
+        inverse[o + 6] = (-a30 * s5 + a32 * s2 - a33 * s1) * d;
+        inverse[o + 7] = (a20 * s5 - a22 * s2 + a23 * s1) * d;
+        inverse[o + 8] = (a10 * c4 - a11 * c2 + a13 * c0) * d;
+        inverse[o + 9] = (-a00 * c4 + a01 * c2 - a03 * c0) * d;
+        inverse[o + 10] = (a30 * s4 - a31 * s2 + a33 * s0) * d;
+        inverse[o + 11] = (-a20 * s4 + a21 * s2 - a23 * s0) * d;
+        inverse[o + 12] = (-a10 * c3 + a11 * c1 - a12 * c0) * d;
+        inverse[o + 13] = (a00 * c3 - a01 * c1 + a02 * c0) * d;
+        inverse[o + 14] = (-a30 * s3 + a31 * s1 - a32 * s0) * d;
+        inverse[o + 15] = (a20 * s3 - a21 * s1 + a22 * s0) * d;
+        return true;
+    }
+
+    /**
+     * Writes {@code lhs * rhs} to {@code result}, for a 4-element vector {@code rhs}.
+     * {@code result} must not overlap either of them.
+     */
+    public static void multiplyMV(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+                                  float[] rhs, int rhsOffset) {
+        float x = rhs[rhsOffset];
+        float y = rhs[rhsOffset + 1];
+        float z = rhs[rhsOffset + 2];
+        float w = rhs[rhsOffset + 3];
+        for (int row = 0; row < 4; row++) {
+            result[resultOffset + row] = lhs[lhsOffset + row] * x + lhs[lhsOffset + 4 + row] * y
+                + lhs[lhsOffset + 8 + row] * z + lhs[lhsOffset + 12 + row] * w;
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import de.javagl.Obj;
+import de.javagl.ObjData;
+import de.javagl.ObjReader;
+import de.javagl.ObjUtils;
+
+/**
+ * Geometry of a model, laid out exactly as {@link ObjectRenderer} uploads it: one vertex block
+ * and one index block. The vertex block holds either all positions, then all texture
+ * coordinates, then all normals as floats, or, for quantized meshes, 16 bytes per vertex with
+ * the attributes interleaved (see {@link #isQuantized()}). The index block holds one or more
+ * levels of detail, which all index the same vertices.
+ *
+ * <p>Indices are 32-bit for meshes with more than 65536 vertices. Where the GPU cannot draw
+ * those, {@link #splitForShortIndices()} cuts every level of detail into submeshes of at most
+ * 65536 vertices each, with 16-bit indices relative to their own first vertex.
+ *
+ * <p>Meshes are normally read from the binary {@code .mesh} assets produced at build time by the
+ * {@code bakeMeshes} task, which are memory-mapped and handed to GL without any copying. OBJ
+ * assets are still supported as a fallback for models that have not been baked.
+ */
+public class MeshData {
+    private static final String TAG = MeshData.class.getSimpleName();
+
+    // Binary format, see MeshWriter in buildSrc. Keep in sync.
+    private static final int MAGIC = 0x48534D41; // "AMSH", little-endian.
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE_BYTES = 160;
+    private static final int LOD_TABLE_OFFSET = 64;
+    private static final int LOD_ENTRY_SIZE_BYTES = 12;
+    private static final int VERTEX_FORMAT_OFFSET = 112;
+    private static final int VERTEX_FORMAT_FLOAT = 0;
+    private static final int VERTEX_FORMAT_QUANTIZED = 1;
+
+    // Interleaved quantized vertex: 3 shorts of position and 1 of padding, 2 unsigned shorts of
+    // texture coordinates, 2 shorts of octahedral normal.
+    private static final int QUANTIZED_VERTEX_SIZE_BYTES = 16;
+    private static final int QUANTIZED_TEXCOORDS_OFFSET = 8;
+    private static final int QUANTIZED_NORMALS_OFFSET = 12;
+
+    /** Largest number of levels of detail a mesh can have. */
+    public static final int MAX_LODS = 4;
+    private static final String MESH_EXTENSION = ".mesh";
+
+    private static final int COORDS_PER_VERTEX = 3;
+    private static final int TEXCOORDS_PER_VERTEX = 2;
+    private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+    private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+    private static final int BYTES_PER_INT = Integer.SIZE / 8;
+    private static final int MAX_SHORT_INDEX_VERTICES = 0x10000;
+    private static final int FLOAT_VERTEX_SIZE_BYTES = BYTES_PER_FLOAT
+        * (COORDS_PER_VERTEX + TEXCOORDS_PER_VERTEX + COORDS_PER_VERTEX);
+
+    private final ByteBuffer mVertexData;
+    private final int mVertexCount;
+    private final ByteBuffer mIndexData;
+    private final int mIndexCount;
+    private final int mIndexType;
+
+    // Vertex layout within the vertex block.
+    private boolean mQuantized;
+    private int mVertexStride;
+    private int mTexCoordsOffset;
+    private int mNormalsOffset;
+
+    // Dequantization of quantized meshes: attribute = value * scale + offset.
+    private final float[] mPositionScale = new float[3];
+    private final float[] mPositionOffset = new float[3];
+    private final float[] mTexCoordScale = new float[2];
+    private final float[] mTexCoordOffset = new float[2];
+
+    // Bounding volumes in model space: a box, and a sphere centered on the box.
+    private final float[] mBoundsMin = new float[3];
+    private final float[] mBoundsMax = new float[3];
+    private float mBoundingRadius;
+
+    // Levels of detail, from full detail to coarsest, as ranges of the index block.
+    private int mLodCount = 1;
+    private final int[] mLodFirstIndices = new int[MAX_LODS];
+    private final int[] mLodIndexCounts = new int[MAX_LODS];
+    private final float[] mLodErrors = new float[MAX_LODS];
+
+    // Submeshes of split meshes, as ranges of the index block drawn with their own first vertex.
+    // Null if each level of detail is drawn in one piece.
+    private int[] mLodFirstSubmeshes;
+    private int[] mLodSubmeshCounts;
+    private int[] mSubmeshFirstIndices;
+    private int[] mSubmeshIndexCounts;
+    private int[] mSubmeshBaseVertices;
+
+    private MeshData(ByteBuffer vertexData, int vertexCount, ByteBuffer indexData,
+                     int indexCount, int indexType) {
+        mVertexData = vertexData;
+        mVertexCount = vertexCount;
+        mIndexData = indexData;
+        mIndexCount = indexCount;
+        mIndexType = indexType;
+        mLodIndexCounts[0] = indexCount;
+
+        // Separate, tightly packed float blocks unless the baked header says otherwise.
+        mTexCoordsOffset = BYTES_PER_FLOAT * COORDS_PER_VERTEX * vertexCount;
+        mNormalsOffset = mTexCoordsOffset + BYTES_PER_FLOAT * TEXCOORDS_PER_VERTEX * vertexCount;
+    }
+
+    /**
+     * Loads the geometry of a model, preferring the baked mesh next to the OBJ asset.
+     *
+     * @param context Context for loading the assets.
+     * @param objAssetName Name of the OBJ file containing the model geometry.
+     */
+    public static MeshData load(Context context, String objAssetName) throws IOException {
+        String meshAssetName = bakedAssetName(objAssetName);
+        try {
+            return fromBakedAsset(context, meshAssetName);
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, "No baked mesh " + meshAssetName + ", parsing " + objAssetName);
+        } catch (IOException e) {
+            Log.w(TAG, "Unusable baked mesh " + meshAssetName + ", parsing " + objAssetName, e);
+        }
+
+        InputStream objInputStream = context.getAssets().open(objAssetName);
+        try {
+            return fromObj(objInputStream);
+        } finally {
+            objInputStream.close();
+        }
+    }
+
+    /**
+     * Memory-maps a baked mesh asset. The asset must be stored uncompressed in the APK (see
+     * {@code aaptOptions.noCompress} in the app's build.gradle), otherwise it cannot be mapped and
+     * a {@link FileNotFoundException} is thrown.
+     */
+    public static MeshData fromBakedAsset(Context context, String meshAssetName)
+            throws IOException {
+        AssetFileDescriptor fd = context.getAssets().openFd(meshAssetName);
+        try {
+            FileInputStream inputStream = fd.createInputStream();
+            try {
+                // The mapping stays valid after the channel is closed.
+                FileChannel channel = inputStream.getChannel();
+                return fromBakedBuffer(channel.map(
+                    FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()));
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    /**
+     * Wraps a buffer holding a complete baked mesh. The vertex and index blocks are views into
+     * the given buffer; no data is copied.
+     */
+    public static MeshData fromBakedBuffer(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a baked mesh");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported baked mesh version " + buffer.getInt(4));
+        }
+        int vertexCount = buffer.getInt(8);
+        int indexCount = buffer.getInt(12);
+        int indexElementSize = buffer.getInt(16);
+        int vertexBlockOffset = buffer.getInt(20);
+        int vertexBlockSize = buffer.getInt(24);
+        int indexBlockOffset = buffer.getInt(28);
+
+        int vertexFormat = buffer.getInt(VERTEX_FORMAT_OFFSET);
+        int vertexSize;
+        if (vertexFormat == VERTEX_FORMAT_FLOAT) {
+            vertexSize = FLOAT_VERTEX_SIZE_BYTES;
+        } else if (vertexFormat == VERTEX_FORMAT_QUANTIZED) {
+            vertexSize = QUANTIZED_VERTEX_SIZE_BYTES;
+        } else {
+            throw new IOException("Unsupported baked mesh vertex format " + vertexFormat);
+        }
+
+        if ((indexElementSize != BYTES_PER_SHORT && indexElementSize != BYTES_PER_INT)
+                || indexBlockOffset + indexCount * indexElementSize > buffer.limit()
+                || vertexBlockOffset + vertexBlockSize > indexBlockOffset
+                || vertexBlockSize != vertexCount * vertexSize) {
+            throw new IOException("Corrupt baked mesh header");
+        }
+
+        MeshData mesh = new MeshData(
+            slice(buffer, vertexBlockOffset, vertexBlockSize), vertexCount,
+            slice(buffer, indexBlockOffset, indexCount * indexElementSize), indexCount,
+            indexElementSize == BYTES_PER_INT ? GLES20.GL_UNSIGNED_INT : GLES20.GL_UNSIGNED_SHORT);
+        for (int axis = 0; axis < COORDS_PER_VERTEX; axis++) {
+            mesh.mBoundsMin[axis] = buffer.getFloat(32 + BYTES_PER_FLOAT * axis);
+            mesh.mBoundsMax[axis] = buffer.getFloat(44 + BYTES_PER_FLOAT * axis);
+        }
+        mesh.mBoundingRadius = buffer.getFloat(56);
+
+        int lodCount = buffer.getInt(60);
+        if (lodCount < 1 || lodCount > MAX_LODS) {
+            throw new IOException("Corrupt baked mesh header");
+        }
+        mesh.mLodCount = lodCount;
+        for (int lod = 0; lod < lodCount; lod++) {
+            int entry = LOD_TABLE_OFFSET + LOD_ENTRY_SIZE_BYTES * lod;
+            mesh.mLodFirstIndices[lod] = buffer.getInt(entry);
+            mesh.mLodIndexCounts[lod] = buffer.getInt(entry + 4);
+            mesh.mLodErrors[lod] = buffer.getFloat(entry + 8);
+            if (mesh.mLodFirstIndices[lod] + mesh.mLodIndexCounts[lod] > indexCount) {
+                throw new IOException("Corrupt baked mesh header");
+            }
+        }
+
+        if (vertexFormat == VERTEX_FORMAT_QUANTIZED) {
+            mesh.mQuantized = true;
+            mesh.mVertexStride = QUANTIZED_VERTEX_SIZE_BYTES;
+            mesh.mTexCoordsOffset = QUANTIZED_TEXCOORDS_OFFSET;
+            mesh.mNormalsOffset = QUANTIZED_NORMALS_OFFSET;
+            int offset = VERTEX_FORMAT_OFFSET + 4;
+            offset = getFloats(buffer, offset, mesh.mPositionScale);
+            offset = getFloats(buffer, offset, mesh.mPositionOffset);
+            offset = getFloats(buffer, offset, mesh.mTexCoordScale);
+            getFloats(buffer, offset, mesh.mTexCoordOffset);
+        }
+        return mesh;
+    }
+
+    /**
+     * Parses an OBJ file. This is much slower than loading a baked mesh and is kept only as a
+     * fallback. The mesh has no simplified levels of detail.
+     *
+     * @param objInputStream Stream of the OBJ file. Not closed by this method.
+     */
+    public static MeshData fromObj(InputStream objInputStream) throws IOException {
+        Obj obj = ObjReader.read(objInputStream);
+
+        // Prepare the Obj so that its structure is suitable for
+        // rendering with OpenGL:
+        // 1. Triangulate it
+        // 2. Make sure that texture coordinates are not ambiguous
+        // 3. Make sure that normals are not ambiguous
+        // 4. Convert it to single-indexed data
+        obj = ObjUtils.convertToRenderable(obj);
+
+        // Obtain the data from the OBJ, as direct buffers:
+        IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
+        FloatBuffer vertices = ObjData.getVertices(obj);
+        FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
+        FloatBuffer normals = ObjData.getNormals(obj);
+
+        // Lay the attributes out back to back, padding missing ones with zeros, the same way the
+        // baked meshes are written.
+        int vertexCount = vertices.limit() / COORDS_PER_VERTEX;
+        ByteBuffer vertexData = ByteBuffer.allocateDirect(BYTES_PER_FLOAT * vertexCount
+                * (COORDS_PER_VERTEX + TEXCOORDS_PER_VERTEX + COORDS_PER_VERTEX))
+            .order(ByteOrder.nativeOrder());
+        FloatBuffer vertexFloats = vertexData.asFloatBuffer();
+        putPadded(vertexFloats, vertices, vertexCount * COORDS_PER_VERTEX);
+        putPadded(vertexFloats, texCoords, vertexCount * TEXCOORDS_PER_VERTEX);
+        putPadded(vertexFloats, normals, vertexCount * COORDS_PER_VERTEX);
+
+        // Narrow the indices to shorts for GL ES 2.0 compatibility, unless that would wrap them.
+        int indexType;
+        ByteBuffer indexData;
+        if (vertexCount > MAX_SHORT_INDEX_VERTICES) {
+            indexType = GLES20.GL_UNSIGNED_INT;
+            indexData = ByteBuffer.allocateDirect(BYTES_PER_INT * wideIndices.limit())
+                .order(ByteOrder.nativeOrder());
+            indexData.asIntBuffer().put(wideIndices);
+        } else {
+            indexType = GLES20.GL_UNSIGNED_SHORT;
+            indexData = ByteBuffer.allocateDirect(BYTES_PER_SHORT * wideIndices.limit())
+                .order(ByteOrder.nativeOrder());
+            ShortBuffer indices = indexData.asShortBuffer();
+            while (wideIndices.hasRemaining()) {
+                indices.put((short) wideIndices.get());
+            }
+        }
+
+        MeshData mesh = new MeshData(vertexData, vertexCount, indexData, wideIndices.limit(),
+            indexType);
+        mesh.computeBounds(vertices);
+        return mesh;
+    }
+
+    /**
+     * Returns a copy of this mesh that can be drawn with 16-bit indices, or this mesh if it
+     * already is. Each level of detail is cut, in triangle order, into submeshes that reference
+     * at most 65536 vertices; the vertices shared by several submeshes are duplicated. The index
+     * ranges of the levels of detail are unchanged.
+     */
+    public MeshData splitForShortIndices() {
+        if (mIndexType == GLES20.GL_UNSIGNED_SHORT) {
+            return this;
+        }
+        IntBuffer indices = mIndexData.duplicate().order(mIndexData.order()).asIntBuffer();
+
+        // Each index adds at most one vertex to its submesh.
+        short[] localIndices = new short[mIndexCount];
+        int[] sourceVertices = new int[mIndexCount];
+        int splitVertexCount = 0;
+
+        // The submesh each source vertex was last added to, and its index there.
+        int[] vertexSubmeshes = new int[mVertexCount];
+        int[] vertexLocalIndices = new int[mVertexCount];
+        Arrays.fill(vertexSubmeshes, -1);
+
+        int[] lodFirstSubmeshes = new int[MAX_LODS];
+        int[] lodSubmeshCounts = new int[MAX_LODS];
+        int[] firstIndices = new int[MAX_LODS];
+        int[] indexCounts = new int[MAX_LODS];
+        int[] baseVertices = new int[MAX_LODS];
+        int submeshCount = 0;
+        for (int lod = 0; lod < mLodCount; lod++) {
+            lodFirstSubmeshes[lod] = submeshCount;
+            int submesh = -1;
+            int end = mLodFirstIndices[lod] + mLodIndexCounts[lod];
+            for (int i = mLodFirstIndices[lod]; i < end; i += 3) {
+                int missing = 0;
+                for (int corner = 0; corner < 3; corner++) {
+                    if (submesh < 0 || vertexSubmeshes[indices.get(i + corner)] != submesh) {
+                        missing++;
+                    }
+                }
+                if (submesh < 0 || splitVertexCount - baseVertices[submesh] + missing
+                        > MAX_SHORT_INDEX_VERTICES) {
+                    if (submeshCount == baseVertices.length) {
+                        firstIndices = Arrays.copyOf(firstIndices, 2 * submeshCount);
+                        indexCounts = Arrays.copyOf(indexCounts, 2 * submeshCount);
+                        baseVertices = Arrays.copyOf(baseVertices, 2 * submeshCount);
+                    }
+                    submesh = submeshCount++;
+                    firstIndices[submesh] = i;
+                    baseVertices[submesh] = splitVertexCount;
+                }
+
+                for (int corner = 0; corner < 3; corner++) {
+                    int vertex = indices.get(i + corner);
+                    if (vertexSubmeshes[vertex] != submesh) {
+                        vertexSubmeshes[vertex] = submesh;
+                        vertexLocalIndices[vertex] = splitVertexCount - baseVertices[submesh];
+                        sourceVertices[splitVertexCount++] = vertex;
+                    }
+                    localIndices[i + corner] = (short) vertexLocalIndices[vertex];
+                }
+                indexCounts[submesh] += 3;
+            }
+            lodSubmeshCounts[lod] = submeshCount - lodFirstSubmeshes[lod];
+        }
+
+        ByteBuffer indexData = ByteBuffer.allocateDirect(BYTES_PER_SHORT * mIndexCount)
+            .order(ByteOrder.nativeOrder());
+        indexData.asShortBuffer().put(localIndices);
+
+        int vertexSize = mQuantized ? QUANTIZED_VERTEX_SIZE_BYTES : FLOAT_VERTEX_SIZE_BYTES;
+        ByteBuffer vertexData = ByteBuffer.allocateDirect(vertexSize * splitVertexCount)
+            .order(mVertexData.order());
+        MeshData split = new MeshData(vertexData, splitVertexCount, indexData, mIndexCount,
+            GLES20.GL_UNSIGNED_SHORT);
+        if (mQuantized) {
+            split.mQuantized = true;
+            split.mVertexStride = mVertexStride;
+            split.mTexCoordsOffset = mTexCoordsOffset;
+            split.mNormalsOffset = mNormalsOffset;
+            copyVertices(mVertexData, 0, vertexData, 0, vertexSize, sourceVertices,
+                splitVertexCount);
+        } else {
+            copyVertices(mVertexData, 0, vertexData, 0, BYTES_PER_FLOAT * COORDS_PER_VERTEX,
+                sourceVertices, splitVertexCount);
+            copyVertices(mVertexData, mTexCoordsOffset, vertexData, split.mTexCoordsOffset,
+                BYTES_PER_FLOAT * TEXCOORDS_PER_VERTEX, sourceVertices, splitVertexCount);
+            copyVertices(mVertexData, mNormalsOffset, vertexData, split.mNormalsOffset,
+                BYTES_PER_FLOAT * COORDS_PER_VERTEX, sourceVertices, splitVertexCount);
+        }
+        System.arraycopy(mPositionScale, 0, split.mPositionScale, 0, mPositionScale.length);
+        System.arraycopy(mPositionOffset, 0, split.mPositionOffset, 0, mPositionOffset.length);
+        System.arraycopy(mTexCoordScale, 0, split.mTexCoordScale, 0, mTexCoordScale.length);
+        System.arraycopy(mTexCoordOffset, 0, split.mTexCoordOffset, 0, mTexCoordOffset.length);
+
+        System.arraycopy(mBoundsMin, 0, split.mBoundsMin, 0, COORDS_PER_VERTEX);
+        System.arraycopy(mBoundsMax, 0, split.mBoundsMax, 0, COORDS_PER_VERTEX);
+        split.mBoundingRadius = mBoundingRadius;
+
+        split.mLodCount = mLodCount;
+        System.arraycopy(mLodFirstIndices, 0, split.mLodFirstIndices, 0, MAX_LODS);
+        System.arraycopy(mLodIndexCounts, 0, split.mLodIndexCounts, 0, MAX_LODS);
+        System.arraycopy(mLodErrors, 0, split.mLodErrors, 0, MAX_LODS);
+
+        split.mLodFirstSubmeshes = lodFirstSubmeshes;
+        split.mLodSubmeshCounts = lodSubmeshCounts;
+        split.mSubmeshFirstIndices = Arrays.copyOf(firstIndices, submeshCount);
+        split.mSubmeshIndexCounts = Arrays.copyOf(indexCounts, submeshCount);
+        split.mSubmeshBaseVertices = Arrays.copyOf(baseVertices, submeshCount);
+        return split;
+    }
+
+    /** Copies one attribute of the given vertices, {@code size} bytes each, in that order. */
+    private static void copyVertices(ByteBuffer source, int sourceOffset, ByteBuffer target,
+                                     int targetOffset, int size, int[] vertices, int count) {
+        ByteBuffer from = source.duplicate();
+        ByteBuffer to = target.duplicate();
+        to.position(targetOffset);
+        byte[] attribute = new byte[size];
+        for (int i = 0; i < count; i++) {
+            from.position(sourceOffset + size * vertices[i]);
+            from.get(attribute);
+            to.put(attribute);
+        }
+    }
+
+    /** Computes the bounding volumes the same way MeshGeometry does for baked meshes. */
+    private void computeBounds(FloatBuffer positions) {
+        for (int axis = 0; axis < COORDS_PER_VERTEX; axis++) {
+            mBoundsMin[axis] = mVertexCount == 0 ? 0 : Float.POSITIVE_INFINITY;
+            mBoundsMax[axis] = mVertexCount == 0 ? 0 : Float.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < mVertexCount * COORDS_PER_VERTEX; i += COORDS_PER_VERTEX) {
+            for (int axis = 0; axis < COORDS_PER_VERTEX; axis++) {
+                mBoundsMin[axis] = Math.min(mBoundsMin[axis], positions.get(i + axis));
+                mBoundsMax[axis] = Math.max(mBoundsMax[axis], positions.get(i + axis));
+            }
+        }
+
+        float maxDistanceSquared = 0;
+        for (int i = 0; i < mVertexCount * COORDS_PER_VERTEX; i += COORDS_PER_VERTEX) {
+            float distanceSquared = 0;
+            for (int axis = 0; axis < COORDS_PER_VERTEX; axis++) {
+                float d = positions.get(i + axis) - (mBoundsMin[axis] + mBoundsMax[axis]) / 2;
+                distanceSquared += d * d;
+            }
+            maxDistanceSquared = Math.max(maxDistanceSquared, distanceSquared);
+        }
+        mBoundingRadius = (float) Math.sqrt(maxDistanceSquared);
+    }
+
+    /** Name of the baked mesh asset generated for an OBJ asset. */
+    public static String bakedAssetName(String objAssetName) {
+        int dot = objAssetName.lastIndexOf('.');
+        return (dot < 0 ? objAssetName : objAssetName.substring(0, dot)) + MESH_EXTENSION;
+    }
+
+    /** Positions, texture coordinates and normals, ready for {@code glBufferData}. */
+    public ByteBuffer getVertexData() {
+        return mVertexData;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    /**
+     * Whether the vertices are interleaved and quantized: positions as three shorts, to be
+     * dequantized with {@link #getPositionScale()} and {@link #getPositionOffset()}, texture
+     * coordinates as two unsigned shorts, to be dequantized with {@link #getTexCoordScale()} and
+     * {@link #getTexCoordOffset()}, and normals as two shorts holding an octahedral encoding
+     * scaled by 32767. Otherwise every attribute is stored as floats.
+     */
+    public boolean isQuantized() {
+        return mQuantized;
+    }
+
+    /** Byte stride between vertices, for {@code glVertexAttribPointer}; 0 if tightly packed. */
+    public int getVertexStride() {
+        return mVertexStride;
+    }
+
+    /** Byte offset of the texture coordinates within {@link #getVertexData()}. */
+    public int getTexCoordsOffset() {
+        return mTexCoordsOffset;
+    }
+
+    /** Byte offset of the normals within {@link #getVertexData()}. */
+    public int getNormalsOffset() {
+        return mNormalsOffset;
+    }
+
+    public float[] getPositionScale() {
+        return mPositionScale;
+    }
+
+    public float[] getPositionOffset() {
+        return mPositionOffset;
+    }
+
+    public float[] getTexCoordScale() {
+        return mTexCoordScale;
+    }
+
+    public float[] getTexCoordOffset() {
+        return mTexCoordOffset;
+    }
+
+    /** Triangle indices, ready for {@code glBufferData}. */
+    public ByteBuffer getIndexData() {
+        return mIndexData;
+    }
+
+    /** Number of indices of all levels of detail together. */
+    public int getIndexCount() {
+        return mIndexCount;
+    }
+
+    /** Number of levels of detail, at least one. Level 0 is the full detail mesh. */
+    public int getLodCount() {
+        return mLodCount;
+    }
+
+    /** Position of the first index of a level of detail in {@link #getIndexData()}. */
+    public int getLodFirstIndex(int lod) {
+        return mLodFirstIndices[lod];
+    }
+
+    public int getLodIndexCount(int lod) {
+        return mLodIndexCounts[lod];
+    }
+
+    /**
+     * Estimated geometric error of a level of detail, relative to
+     * {@link #getBoundingRadius()}. Zero for the full detail level.
+     */
+    public float getLodError(int lod) {
+        return mLodErrors[lod];
+    }
+
+    /**
+     * Number of submeshes a level of detail is drawn in: one, unless the mesh was split with
+     * {@link #splitForShortIndices()}.
+     */
+    public int getSubmeshCount(int lod) {
+        return mSubmeshBaseVertices == null ? 1 : mLodSubmeshCounts[lod];
+    }
+
+    /** Position of the first index of a submesh in {@link #getIndexData()}. */
+    public int getSubmeshFirstIndex(int lod, int submesh) {
+        return mSubmeshBaseVertices == null
+            ? mLodFirstIndices[lod]
+            : mSubmeshFirstIndices[mLodFirstSubmeshes[lod] + submesh];
+    }
+
+    public int getSubmeshIndexCount(int lod, int submesh) {
+        return mSubmeshBaseVertices == null
+            ? mLodIndexCounts[lod]
+            : mSubmeshIndexCounts[mLodFirstSubmeshes[lod] + submesh];
+    }
+
+    /** The vertex that index 0 of a submesh refers to. */
+    public int getSubmeshBaseVertex(int lod, int submesh) {
+        return mSubmeshBaseVertices == null
+            ? 0
+            : mSubmeshBaseVertices[mLodFirstSubmeshes[lod] + submesh];
+    }
+
+    /** Minimum corner of the model-space bounding box. */
+    public float[] getBoundsMin() {
+        return mBoundsMin;
+    }
+
+    /** Maximum corner of the model-space bounding box. */
+    public float[] getBoundsMax() {
+        return mBoundsMax;
+    }
+
+    /** Radius of the bounding sphere centered on the bounding box. */
+    public float getBoundingRadius() {
+        return mBoundingRadius;
+    }
+
+    /**
+     * The GL type of the elements in {@link #getIndexData()}: {@code GL_UNSIGNED_SHORT}, or
+     * {@code GL_UNSIGNED_INT} for meshes with more than 65536 vertices, which need the
+     * {@link GlCapabilities#OES_ELEMENT_INDEX_UINT} extension.
+     */
+    public int getIndexType() {
+        return mIndexType;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int size) {
+        // Baked data is little-endian, like every ABI Android runs on, so GL can read it as is.
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + size);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int getFloats(ByteBuffer buffer, int offset, float[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getFloat(offset + BYTES_PER_FLOAT * i);
+        }
+        return offset + BYTES_PER_FLOAT * values.length;
+    }
+
+    private static void putPadded(FloatBuffer target, FloatBuffer source, int count) {
+        int start = target.position();
+        source.rewind();
+        if (source.limit() > count) {
+            source.limit(count);
+        }
+        target.put(source);
+        target.position(start + count);
+    }
+}
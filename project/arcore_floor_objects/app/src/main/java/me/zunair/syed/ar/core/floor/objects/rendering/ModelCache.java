@@ -0,0 +1,224 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import me.zunair.syed.ar.core.floor.objects.model.ObjectsModel;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Holds the GPU resources of the models in the catalog. A model is only loaded the first time it
+ * is selected or drawn, and the least recently used models are released again once the cache
+ * grows over its byte budget. Models drawn in the current frame are never evicted.
+ *
+ * <p>All methods must be called on the OpenGL thread.
+ */
+public class ModelCache implements ModelLoader.Listener, SceneRenderer.Models {
+    private static final String TAG = ModelCache.class.getSimpleName();
+
+    private static final int NONE = -1;
+
+    private final ModelLoader mLoader;
+    private final ModelLoader.Listener mListener;
+    private final ObjectRenderer[] mRenderers;
+    private final boolean[] mRequested;
+
+    // Loaded models as an intrusive doubly linked list, most recently used first. Indexed by
+    // model index, so that touching an entry every frame does not allocate.
+    private final int[] mPrevious;
+    private final int[] mNext;
+    private int mHead = NONE;
+    private int mTail = NONE;
+
+    private final long[] mLastUsedFrame;
+    private long mFrame;
+
+    private long mBudgetBytes;
+    private long mUsedBytes;
+
+    /**
+     * @param context Context for loading the model assets.
+     * @param models The catalog, indexed by {@link ObjectsModel#getId()}.
+     * @param budgetBytes GPU memory the cache may use for models not drawn in the current frame.
+     * @param listener Notified whenever a model has been (re)loaded.
+     */
+    public ModelCache(Context context, ObjectsModel[] models, long budgetBytes,
+                      ModelLoader.Listener listener) {
+        mLoader = new ModelLoader(context, models, this);
+        mListener = listener;
+        mRenderers = new ObjectRenderer[models.length];
+        mRequested = new boolean[models.length];
+        mPrevious = new int[models.length];
+        mNext = new int[models.length];
+        mLastUsedFrame = new long[models.length];
+        mBudgetBytes = budgetBytes;
+        // The loader reads the capabilities of the GL context, so it is only reset once there
+        // is one, from clear().
+        forgetModels();
+    }
+
+    /**
+     * Forgets every model without freeing GL resources, because the GL context they belonged to
+     * is gone. Call from {@code onSurfaceCreated}.
+     */
+    public void clear() {
+        mLoader.reset();
+        forgetModels();
+    }
+
+    private void forgetModels() {
+        Arrays.fill(mRenderers, null);
+        Arrays.fill(mRequested, false);
+        Arrays.fill(mPrevious, NONE);
+        Arrays.fill(mNext, NONE);
+        mHead = NONE;
+        mTail = NONE;
+        mUsedBytes = 0;
+    }
+
+    /**
+     * Marks the start of a frame and uploads models that finished loading.
+     *
+     * @param uploadBudgetNanos Time that may be spent uploading models in this frame.
+     */
+    public void beginFrame(long uploadBudgetNanos) {
+        mFrame++;
+        mLoader.uploadPending(uploadBudgetNanos);
+    }
+
+    /**
+     * Starts loading a model if it is not loaded or loading yet.
+     */
+    public void request(int modelIndex) {
+        if (!mRequested[modelIndex]) {
+            mRequested[modelIndex] = true;
+            mLoader.load(modelIndex);
+        }
+    }
+
+    /**
+     * Returns the renderer of a model and marks it as used in this frame. If the model is not
+     * loaded, starts loading it and returns null.
+     */
+    @Override
+    public ObjectRenderer get(int modelIndex) {
+        ObjectRenderer renderer = mRenderers[modelIndex];
+        if (renderer == null) {
+            request(modelIndex);
+            return null;
+        }
+        mLastUsedFrame[modelIndex] = mFrame;
+        unlink(modelIndex);
+        linkFirst(modelIndex);
+        return renderer;
+    }
+
+    public boolean isLoaded(int modelIndex) {
+        return mRenderers[modelIndex] != null;
+    }
+
+    @Override
+    public void onModelLoaded(int modelIndex, ObjectRenderer renderer) {
+        if (!mRequested[modelIndex] || mRenderers[modelIndex] != null) {
+            // Already loaded, don't leak the duplicate.
+            renderer.release();
+            return;
+        }
+        mRenderers[modelIndex] = renderer;
+        mUsedBytes += renderer.getGpuBytes();
+        mLastUsedFrame[modelIndex] = mFrame;
+        linkFirst(modelIndex);
+        mListener.onModelLoaded(modelIndex, renderer);
+        trimToSize(mBudgetBytes);
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        trimToSize(mBudgetBytes);
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    /**
+     * Releases least recently used models until the cache uses at most {@code maxBytes}, or only
+     * models drawn in the current frame are left.
+     */
+    public void trimToSize(long maxBytes) {
+        int modelIndex = mTail;
+        while (mUsedBytes > maxBytes && modelIndex != NONE) {
+            int previous = mPrevious[modelIndex];
+            if (mLastUsedFrame[modelIndex] != mFrame) {
+                evict(modelIndex);
+            }
+            modelIndex = previous;
+        }
+    }
+
+    /**
+     * Frees memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mBudgetBytes / 2);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(mBudgetBytes * 3 / 4);
+        }
+    }
+
+    /**
+     * Stops the loader threads. The cache cannot be used afterwards.
+     */
+    public void shutdown() {
+        mLoader.shutdown();
+    }
+
+    private void evict(int modelIndex) {
+        ObjectRenderer renderer = mRenderers[modelIndex];
+        Log.i(TAG, "Evicting " + renderer.getModel().getName() + " ("
+            + renderer.getGpuBytes() / 1024 + " KiB)");
+        mUsedBytes -= renderer.getGpuBytes();
+        renderer.release();
+        mRenderers[modelIndex] = null;
+        mRequested[modelIndex] = false;
+        unlink(modelIndex);
+    }
+
+    private void linkFirst(int modelIndex) {
+        mPrevious[modelIndex] = NONE;
+        mNext[modelIndex] = mHead;
+        if (mHead != NONE) {
+            mPrevious[mHead] = modelIndex;
+        }
+        mHead = modelIndex;
+        if (mTail == NONE) {
+            mTail = modelIndex;
+        }
+    }
+
+    private void unlink(int modelIndex) {
+        int previous = mPrevious[modelIndex];
+        int next = mNext[modelIndex];
+        if (previous != NONE) {
+            mNext[previous] = next;
+        } else if (mHead == modelIndex) {
+            mHead = next;
+        }
+        if (next != NONE) {
+            mPrevious[next] = previous;
+        } else if (mTail == modelIndex) {
+            mTail = previous;
+        }
+        mPrevious[modelIndex] = NONE;
+        mNext[modelIndex] = NONE;
+    }
+}
@@ -0,0 +1,259 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import me.zunair.syed.ar.core.floor.objects.model.ObjectsModel;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads models without stalling the OpenGL thread. Textures are decoded and meshes are read on a
+ * pool of worker threads, one model per core. The OpenGL thread then only uploads the finished
+ * models, within a time budget per frame, so the camera feed keeps rendering and each model
+ * becomes usable as soon as it is ready.
+ */
+public class ModelLoader {
+    private static final String TAG = ModelLoader.class.getSimpleName();
+
+    /**
+     * Notified on the OpenGL thread when a model has been uploaded.
+     */
+    public interface Listener {
+        void onModelLoaded(int modelIndex, ObjectRenderer renderer);
+    }
+
+    /**
+     * A model decoded by a worker, waiting for its upload on the OpenGL thread. A model that
+     * could not be read has no mesh and no texture.
+     */
+    private static class DecodedModel {
+        final int mGeneration;
+        final int mModelIndex;
+        final MeshData mMesh;
+        final Bitmap mTexture;
+        final long mTextureDecodeNanos;
+        final long mMeshLoadNanos;
+
+        DecodedModel(int generation, int modelIndex, MeshData mesh, Bitmap texture,
+                     long textureDecodeNanos, long meshLoadNanos) {
+            mGeneration = generation;
+            mModelIndex = modelIndex;
+            mMesh = mesh;
+            mTexture = texture;
+            mTextureDecodeNanos = textureDecodeNanos;
+            mMeshLoadNanos = meshLoadNanos;
+        }
+    }
+
+    private final Context mContext;
+    private final ObjectsModel[] mModels;
+    private final Listener mListener;
+    private final int mWorkerCount;
+    private final ExecutorService mExecutor;
+    private final ConcurrentLinkedQueue<DecodedModel> mDecoded = new ConcurrentLinkedQueue<>();
+
+    // Bumped whenever the GL context is recreated, so results decoded for an old context are
+    // dropped instead of uploaded.
+    private volatile int mGeneration;
+
+    // Whether the GPU of the current context can draw meshes with 32-bit indices. Meshes that need
+    // them are split on the workers otherwise.
+    private volatile boolean mIntIndicesSupported;
+
+    // Phase timings, reported whenever every requested model has been uploaded. Only touched on
+    // the OpenGL thread, which also drops the results of old generations, so a worker finishing
+    // after a reset cannot count against the models requested since.
+    private int mPendingCount;
+    private int mBatchCount;
+    private long mStartNanos;
+    private long mTotalDecodeNanos;
+    private long mTotalUploadNanos;
+
+    public ModelLoader(Context context, ObjectsModel[] models, Listener listener) {
+        mContext = context.getApplicationContext();
+        mModels = models;
+        mListener = listener;
+        mWorkerCount = Math.max(1,
+            Math.min(Runtime.getRuntime().availableProcessors(), models.length));
+        mExecutor = Executors.newFixedThreadPool(mWorkerCount, new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG + "-" + mThreadCount.incrementAndGet());
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Forgets every model decoded for a previous GL context and reads the capabilities of the
+     * new one. Call from {@code onSurfaceCreated} before requesting models for the new context.
+     */
+    public void reset() {
+        mIntIndicesSupported = GlCapabilities.query().supportsIntIndices();
+        dropDecoded();
+    }
+
+    private void dropDecoded() {
+        mGeneration++;
+        DecodedModel stale;
+        while ((stale = mDecoded.poll()) != null) {
+            recycle(stale);
+        }
+        mPendingCount = 0;
+    }
+
+    /**
+     * Starts decoding one model on the worker pool. The listener is notified from
+     * {@link #uploadPending(long)} once it is ready to draw. Must be called on the OpenGL thread.
+     */
+    public void load(final int modelIndex) {
+        if (mPendingCount++ == 0) {
+            mStartNanos = System.nanoTime();
+            mBatchCount = 0;
+            mTotalDecodeNanos = 0;
+            mTotalUploadNanos = 0;
+        }
+        mBatchCount++;
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                decode(generation, modelIndex);
+            }
+        });
+    }
+
+    private void decode(int generation, int modelIndex) {
+        ObjectsModel model = mModels[modelIndex];
+        try {
+            long start = System.nanoTime();
+            Bitmap texture;
+            InputStream textureInputStream =
+                mContext.getAssets().open(model.getDiffuseTextureFileName());
+            try {
+                texture = BitmapFactory.decodeStream(textureInputStream);
+            } finally {
+                textureInputStream.close();
+            }
+            if (texture == null) {
+                throw new IOException("Could not decode " + model.getDiffuseTextureFileName());
+            }
+            long textureDecoded = System.nanoTime();
+
+            MeshData mesh = MeshData.load(mContext, model.getObjectFileName());
+            if (!mIntIndicesSupported) {
+                mesh = mesh.splitForShortIndices();
+            }
+            long meshLoaded = System.nanoTime();
+
+            mDecoded.add(new DecodedModel(generation, modelIndex, mesh, texture,
+                textureDecoded - start, meshLoaded - textureDecoded));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + model, e);
+            // Still handed to the OpenGL thread, which counts it as done.
+            mDecoded.add(new DecodedModel(generation, modelIndex, null, null, 0, 0));
+        }
+    }
+
+    /**
+     * Uploads decoded models until the time budget is used up. At least one model is uploaded
+     * per call if any is ready, so loading always makes progress. Must be called on the OpenGL
+     * thread, typically once per frame.
+     *
+     * @param budgetNanos Time that may be spent uploading in this call.
+     */
+    public void uploadPending(long budgetNanos) {
+        long start = System.nanoTime();
+        DecodedModel decoded;
+        while ((decoded = mDecoded.poll()) != null) {
+            if (decoded.mGeneration != mGeneration) {
+                recycle(decoded);
+                continue;
+            }
+            if (decoded.mMesh == null) {
+                finishLoad();
+                continue;
+            }
+
+            long uploadStart = System.nanoTime();
+            ObjectRenderer renderer = new ObjectRenderer(mModels[decoded.mModelIndex]);
+            renderer.createOnGlThread(mContext, decoded.mMesh, decoded.mTexture);
+            decoded.mTexture.recycle();
+            long uploadNanos = System.nanoTime() - uploadStart;
+
+            report(decoded, uploadNanos);
+            mListener.onModelLoaded(decoded.mModelIndex, renderer);
+
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+    }
+
+    private void report(DecodedModel decoded, long uploadNanos) {
+        Log.i(TAG, String.format(Locale.US,
+            "%s: texture decode %.1f ms, mesh load %.1f ms, GL upload %.1f ms",
+            mModels[decoded.mModelIndex].getName(), millis(decoded.mTextureDecodeNanos),
+            millis(decoded.mMeshLoadNanos), millis(uploadNanos)));
+
+        mTotalDecodeNanos += decoded.mTextureDecodeNanos + decoded.mMeshLoadNanos;
+        mTotalUploadNanos += uploadNanos;
+        finishLoad();
+    }
+
+    /** Counts a requested model as done, and reports the batch once none is left. */
+    private void finishLoad() {
+        if (--mPendingCount == 0) {
+            // The ratio of decode work to wall time is the speedup gained from the worker pool.
+            Log.i(TAG, String.format(Locale.US,
+                "Loaded %d models in %.1f ms on %d workers (%d cores): "
+                    + "decode work %.1f ms, GL upload %.1f ms",
+                mBatchCount, millis(System.nanoTime() - mStartNanos), mWorkerCount,
+                Runtime.getRuntime().availableProcessors(),
+                millis(mTotalDecodeNanos), millis(mTotalUploadNanos)));
+        }
+    }
+
+    /**
+     * Stops the worker threads. The loader cannot be used afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropDecoded();
+    }
+
+    private static void recycle(DecodedModel decoded) {
+        if (decoded.mTexture != null) {
+            decoded.mTexture.recycle();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,260 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link Gl} that draws nothing, for running the renderers without a GPU. Object names are
+ * handed out in sequence, shaders always compile, and each attribute or uniform name of a program
+ * gets its own location, so that the renderers take the same paths as on a device.
+ *
+ * <p>Like a GL context, it must only be used on one thread.
+ */
+public class NoOpGl implements Gl {
+    /** What {@code glGetString(GL_VERSION)} returns. No extensions are reported. */
+    public static final String VERSION = "OpenGL ES 2.0 NoOpGl";
+
+    private int mLastName;
+    // Locations by program and name.
+    private final Map<String, Integer> mAttributeLocations = new HashMap<>();
+    private final Map<String, Integer> mUniformLocations = new HashMap<>();
+
+    @Override
+    public void glActiveTexture(int texture) {
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+    }
+
+    @Override
+    public void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+    }
+
+    @Override
+    public void glClear(int mask) {
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+    }
+
+    @Override
+    public void glColorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return ++mLastName;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return ++mLastName;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+    }
+
+    @Override
+    public void glDisable(int cap) {
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+    }
+
+    @Override
+    public void glEnable(int cap) {
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        generateNames(n, buffers, offset);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        generateNames(n, textures, offset);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return getLocation(mAttributeLocations, program, name);
+    }
+
+    @Override
+    public int glGetError() {
+        return GLES20.GL_NO_ERROR;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        // Every shader compiles.
+        params[offset] = pname == GLES20.GL_COMPILE_STATUS ? GLES20.GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return name == GLES20.GL_VERSION ? VERSION : "";
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return getLocation(mUniformLocations, program, name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+    }
+
+    @Override
+    public void glUniform2fv(int location, int count, float[] v, int offset) {
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+    }
+
+    @Override
+    public void glUniformMatrix2fv(int location, int count, boolean transpose, float[] value,
+        int offset) {
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+        int offset) {
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+        int stride, int offset) {
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+        int stride, Buffer ptr) {
+    }
+
+    @Override
+    public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+    }
+
+    private void generateNames(int n, int[] names, int offset) {
+        for (int i = offset; i < offset + n; i++) {
+            names[i] = ++mLastName;
+        }
+    }
+
+    private static int getLocation(Map<String, Integer> locations, int program, String name) {
+        String key = program + "/" + name;
+        Integer location = locations.get(key);
+        if (location == null) {
+            // Locations count from 0 within each program, as they do on drivers.
+            int count = 0;
+            String prefix = program + "/";
+            for (String other : locations.keySet()) {
+                if (other.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            location = count;
+            locations.put(key, location);
+        }
+        return location;
+    }
+}
@@ -10,22 +10,11 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
-import android.opengl.Matrix;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
-import de.javagl.Obj;
-import de.javagl.ObjData;
-import de.javagl.ObjReader;
-import de.javagl.ObjUtils;
 
 /**
- * Renders an object loaded from an OBJ file in OpenGL.
+ * Renders an object loaded from an OBJ file, or the mesh baked from it, in OpenGL.
  */
 public class ObjectRenderer {
     private static final String TAG = ObjectRenderer.class.getSimpleName();
@@ -43,6 +32,12 @@ public class ObjectRenderer {
     };
 
     private static final int COORDS_PER_VERTEX = 3;
+    private static final int TEXCOORDS_PER_VERTEX = 2;
+    private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+
+    // A coarser level of detail is only switched to once its error is this much below the limit,
+    // so that objects hovering around a threshold do not pop back and forth.
+    private static final float LOD_HYSTERESIS = 0.75f;
 
     // Note: the last component must be zero to avoid applying the translational part of the matrix.
     private static final float[] LIGHT_DIRECTION = new float[] { 0.0f, 1.0f, 0.0f, 0.0f };
@@ -53,8 +48,36 @@ public class ObjectRenderer {
     private int mVerticesBaseAddress;
     private int mTexCoordsBaseAddress;
     private int mNormalsBaseAddress;
+    private int mVertexStride;
+    private boolean mQuantized;
     private int mIndexBufferId;
     private int mIndexCount;
+    private int mIndexType;
+    private int mIndexSize;
+    private int[] mBuffers = new int[2];
+
+    // Levels of detail, as ranges of the index buffer. Level 0 is the full detail mesh.
+    private int mLodCount;
+    private final int[] mLodIndexCounts = new int[MeshData.MAX_LODS];
+    private final float[] mLodErrors = new float[MeshData.MAX_LODS];
+
+    // Each level of detail is drawn as one or more submeshes, with byte offsets into the index
+    // buffer. Split meshes rebind the vertex attributes at each submesh's base vertex.
+    private final int[] mLodFirstSubmeshes = new int[MeshData.MAX_LODS];
+    private final int[] mLodSubmeshCounts = new int[MeshData.MAX_LODS];
+    private int[] mSubmeshIndexOffsets;
+    private int[] mSubmeshIndexCounts;
+    private int[] mSubmeshBaseVertices;
+    private boolean mSplit;
+
+    // Approximate GPU memory held by this renderer, for the model cache budget.
+    private long mGpuBytes;
+
+    // Model-space bounding volumes, for frustum culling.
+    private final float[] mBoundsMin = new float[3];
+    private final float[] mBoundsMax = new float[3];
+    private float mBoundingRadius;
+    private final float[] mWorldCenter = new float[3];
 
     private int mProgram;
     private int[] mTextures = new int[1];
@@ -67,6 +90,17 @@ public class ObjectRenderer {
     private int mPositionAttribute;
     private int mNormalAttribute;
     private int mTexCoordAttribute;
+    private int mAttributeMask;
+
+    // Shader location: dequantization of quantized meshes.
+    private int mPositionScaleUniform;
+    private int mPositionOffsetUniform;
+    private int mTexCoordScaleUniform;
+    private int mTexCoordOffsetUniform;
+    private final float[] mPositionScale = new float[3];
+    private final float[] mPositionOffset = new float[3];
+    private final float[] mTexCoordScale = new float[2];
+    private final float[] mTexCoordOffset = new float[2];
 
     // Shader location: texture sampler.
     private int mTextureUniform;
@@ -81,9 +115,14 @@ public class ObjectRenderer {
 
     // Temporary matrices allocated here to reduce number of allocations for each frame.
     private float[] mModelMatrix = new float[16];
+    private float mScaleFactor = 1.0f;
     private float[] mModelViewMatrix = new float[16];
     private float[] mModelViewProjectionMatrix = new float[16];
 
+    // Camera matrices of the batch being drawn, between beginDraw() and endDraw().
+    private float[] mCameraView;
+    private float[] mCameraPerspective;
+
     // Set some default material properties to use for lighting.
     private float mAmbient = 0.3f;
     private float mDiffuse = 1.0f;
@@ -92,10 +131,24 @@ public class ObjectRenderer {
 
     private ObjectsModel mModel;
 
-    public ObjectRenderer() {}
+    private final GlState mGlState;
+    private final Gl mGl;
+
+    public ObjectRenderer() {
+        this(null);
+    }
 
     public ObjectRenderer(ObjectsModel model) {
+        this(model, GlState.getInstance());
+    }
+
+    /**
+     * @param glState The state of the context to draw in, which also gives the GL backend.
+     */
+    public ObjectRenderer(ObjectsModel model, GlState glState) {
         mModel = model;
+        mGlState = glState;
+        mGl = glState.getGl();
     }
 
     public ObjectsModel getModel(){
@@ -107,7 +160,8 @@ public class ObjectRenderer {
      * Creates and initializes OpenGL resources needed for rendering the model.
      *
      * @param context Context for loading the shader and below-named model and texture assets.
-     * @param objAssetName  Name of the OBJ file containing the model geometry.
+     * @param objAssetName  Name of the OBJ file containing the model geometry. The mesh baked
+     *     from it at build time is used when present.
      * @param diffuseTextureAssetName  Name of the PNG file containing the diffuse texture map.
      */
     public void createOnGlThread(Context context, String objAssetName,
@@ -116,110 +170,189 @@ public class ObjectRenderer {
         Bitmap textureBitmap = BitmapFactory.decodeStream(
             context.getAssets().open(diffuseTextureAssetName));
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glGenTextures(mTextures.length, mTextures, 0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-            GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-            GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        // Read the mesh. Baked meshes are memory-mapped and uploaded without any copying.
+        MeshData mesh = MeshData.load(context, objAssetName);
 
+        createOnGlThread(context, mesh, textureBitmap);
         textureBitmap.recycle();
+    }
 
-        ShaderUtil.checkGLError(TAG, "Texture loading");
-
-        // Read the obj file.
-        InputStream objInputStream = context.getAssets().open(objAssetName);
-        Obj obj = ObjReader.read(objInputStream);
-
-        // Prepare the Obj so that its structure is suitable for
-        // rendering with OpenGL:
-        // 1. Triangulate it
-        // 2. Make sure that texture coordinates are not ambiguous
-        // 3. Make sure that normals are not ambiguous
-        // 4. Convert it to single-indexed data
-        obj = ObjUtils.convertToRenderable(obj);
-
-        // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
-        // that OpenGL understands.
-
-        // Obtain the data from the OBJ, as direct buffers:
-        IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
-        FloatBuffer vertices = ObjData.getVertices(obj);
-        FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
-        FloatBuffer normals = ObjData.getNormals(obj);
-
-        // Convert int indices to shorts for GL ES 2.0 compatibility
-        ShortBuffer indices = ByteBuffer.allocateDirect(2 * wideIndices.limit())
-            .order(ByteOrder.nativeOrder()).asShortBuffer();
-        while (wideIndices.hasRemaining()) {
-            indices.put((short) wideIndices.get());
+    /**
+     * Creates and initializes OpenGL resources from assets that were already decoded, typically
+     * on another thread by {@link ModelLoader}. Only the GL uploads happen here.
+     *
+     * @param context Context for loading the shader.
+     * @param mesh  The model geometry. Meshes with 32-bit indices are split here if the GPU
+     *     cannot draw them, which {@link ModelLoader} avoids by splitting on its workers.
+     * @param textureBitmap  The diffuse texture map. Not recycled by this method.
+     */
+    public void createOnGlThread(Context context, MeshData mesh, Bitmap textureBitmap) {
+        // Quantized meshes are dequantized in the vertex shader.
+        createOnGlThread(
+            ShaderUtil.readRawTextFile(context,
+                mesh.isQuantized() ? R.raw.object_quantized_vertex : R.raw.object_vertex),
+            ShaderUtil.readRawTextFile(context, R.raw.object_fragment),
+            mesh, textureBitmap);
+    }
+
+    /**
+     * Creates and initializes OpenGL resources from shader sources and assets that were already
+     * read. Calls nothing of the Android framework but {@link Gl}, so that it also runs in unit
+     * tests against {@link RecordingGl}.
+     *
+     * @param vertexShaderCode  Source of {@code object_quantized_vertex} for quantized meshes,
+     *     of {@code object_vertex} otherwise.
+     * @param fragmentShaderCode  Source of {@code object_fragment}.
+     * @param mesh  The model geometry, see {@link #createOnGlThread(Context, MeshData, Bitmap)}.
+     * @param textureBitmap  The diffuse texture map. Not recycled by this method. If null, the
+     *     texture is left without an image.
+     */
+    public void createOnGlThread(String vertexShaderCode, String fragmentShaderCode,
+                                 MeshData mesh, Bitmap textureBitmap) {
+        if (mesh.getIndexType() == GLES20.GL_UNSIGNED_INT
+                && !GlCapabilities.query(mGl).supportsIntIndices()) {
+            mesh = mesh.splitForShortIndices();
+        }
+
+        mGlState.activeTexture(GLES20.GL_TEXTURE0);
+        mGl.glGenTextures(mTextures.length, mTextures, 0);
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+            GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+            GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        if (textureBitmap != null) {
+            mGl.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
+            mGl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
         }
-        indices.rewind();
 
-        int[] buffers = new int[2];
-        GLES20.glGenBuffers(2, buffers, 0);
-        mVertexBufferId = buffers[0];
-        mIndexBufferId = buffers[1];
+        ShaderUtil.checkGLError(mGl, TAG, "Texture loading");
+
+        mGl.glGenBuffers(mBuffers.length, mBuffers, 0);
+        mVertexBufferId = mBuffers[0];
+        mIndexBufferId = mBuffers[1];
 
         // Load vertex buffer
         mVerticesBaseAddress = 0;
-        mTexCoordsBaseAddress = mVerticesBaseAddress + 4 * vertices.limit();
-        mNormalsBaseAddress = mTexCoordsBaseAddress + 4 * texCoords.limit();
-        final int totalBytes = mNormalsBaseAddress + 4 * normals.limit();
-
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, totalBytes, null, GLES20.GL_STATIC_DRAW);
-        GLES20.glBufferSubData(
-            GLES20.GL_ARRAY_BUFFER, mVerticesBaseAddress, 4 * vertices.limit(), vertices);
-        GLES20.glBufferSubData(
-            GLES20.GL_ARRAY_BUFFER, mTexCoordsBaseAddress, 4 * texCoords.limit(), texCoords);
-        GLES20.glBufferSubData(
-            GLES20.GL_ARRAY_BUFFER, mNormalsBaseAddress, 4 * normals.limit(), normals);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        mTexCoordsBaseAddress = mesh.getTexCoordsOffset();
+        mNormalsBaseAddress = mesh.getNormalsOffset();
+        mVertexStride = mesh.getVertexStride();
+        mQuantized = mesh.isQuantized();
+        if (mQuantized) {
+            System.arraycopy(mesh.getPositionScale(), 0, mPositionScale, 0, 3);
+            System.arraycopy(mesh.getPositionOffset(), 0, mPositionOffset, 0, 3);
+            System.arraycopy(mesh.getTexCoordScale(), 0, mTexCoordScale, 0, 2);
+            System.arraycopy(mesh.getTexCoordOffset(), 0, mTexCoordOffset, 0, 2);
+        }
+        ByteBuffer vertexData = mesh.getVertexData();
+
+        mGlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+        mGl.glBufferData(
+            GLES20.GL_ARRAY_BUFFER, vertexData.limit(), vertexData, GLES20.GL_STATIC_DRAW);
 
         // Load index buffer
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
-        mIndexCount = indices.limit();
-        GLES20.glBufferData(
-            GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * mIndexCount, indices, GLES20.GL_STATIC_DRAW);
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        ByteBuffer indexData = mesh.getIndexData();
+        mGlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        mIndexCount = mesh.getIndexCount();
+        mIndexType = mesh.getIndexType();
+        mIndexSize = indexData.limit() / Math.max(mIndexCount, 1);
+        mGl.glBufferData(
+            GLES20.GL_ELEMENT_ARRAY_BUFFER, indexData.limit(), indexData, GLES20.GL_STATIC_DRAW);
+
+        ShaderUtil.checkGLError(mGl, TAG, "OBJ buffer load");
+
+        System.arraycopy(mesh.getBoundsMin(), 0, mBoundsMin, 0, 3);
+        System.arraycopy(mesh.getBoundsMax(), 0, mBoundsMax, 0, 3);
+        mBoundingRadius = mesh.getBoundingRadius();
+
+        mLodCount = mesh.getLodCount();
+        int submeshCount = 0;
+        for (int lod = 0; lod < mLodCount; lod++) {
+            mLodIndexCounts[lod] = mesh.getLodIndexCount(lod);
+            mLodErrors[lod] = mesh.getLodError(lod);
+            mLodFirstSubmeshes[lod] = submeshCount;
+            mLodSubmeshCounts[lod] = mesh.getSubmeshCount(lod);
+            submeshCount += mLodSubmeshCounts[lod];
+        }
+        mSubmeshIndexOffsets = new int[submeshCount];
+        mSubmeshIndexCounts = new int[submeshCount];
+        mSubmeshBaseVertices = new int[submeshCount];
+        mSplit = false;
+        for (int lod = 0; lod < mLodCount; lod++) {
+            for (int i = 0; i < mLodSubmeshCounts[lod]; i++) {
+                int submesh = mLodFirstSubmeshes[lod] + i;
+                mSubmeshIndexOffsets[submesh] = mesh.getSubmeshFirstIndex(lod, i) * mIndexSize;
+                mSubmeshIndexCounts[submesh] = mesh.getSubmeshIndexCount(lod, i);
+                mSubmeshBaseVertices[submesh] = mesh.getSubmeshBaseVertex(lod, i);
+                mSplit |= mSubmeshBaseVertices[submesh] != 0;
+            }
+        }
+
+        // A full mipmap chain adds a third on top of the base level.
+        mGpuBytes = vertexData.limit() + indexData.limit();
+        if (textureBitmap != null) {
+            mGpuBytes += 4L * textureBitmap.getWidth() * textureBitmap.getHeight() * 4 / 3;
+        }
 
-        ShaderUtil.checkGLError(TAG, "OBJ buffer load");
+        final int vertexShader = ShaderUtil.loadGLShader(mGl, TAG,
+                GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+        final int fragmentShader = ShaderUtil.loadGLShader(mGl, TAG,
+                GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
 
-        final int vertexShader = ShaderUtil.loadGLShader(TAG, context,
-                GLES20.GL_VERTEX_SHADER, R.raw.object_vertex);
-        final int fragmentShader = ShaderUtil.loadGLShader(TAG, context,
-                GLES20.GL_FRAGMENT_SHADER, R.raw.object_fragment);
+        mProgram = mGl.glCreateProgram();
+        mGl.glAttachShader(mProgram, vertexShader);
+        mGl.glAttachShader(mProgram, fragmentShader);
+        mGl.glLinkProgram(mProgram);
+        mGlState.useProgram(mProgram);
 
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragmentShader);
-        GLES20.glLinkProgram(mProgram);
-        GLES20.glUseProgram(mProgram);
+        // The shaders are freed together with the program.
+        mGl.glDeleteShader(vertexShader);
+        mGl.glDeleteShader(fragmentShader);
 
-        ShaderUtil.checkGLError(TAG, "Program creation");
+        ShaderUtil.checkGLError(mGl, TAG, "Program creation");
 
-        mModelViewUniform = GLES20.glGetUniformLocation(mProgram, "u_ModelView");
+        mModelViewUniform = mGl.glGetUniformLocation(mProgram, "u_ModelView");
         mModelViewProjectionUniform =
-            GLES20.glGetUniformLocation(mProgram, "u_ModelViewProjection");
+            mGl.glGetUniformLocation(mProgram, "u_ModelViewProjection");
 
-        mPositionAttribute = GLES20.glGetAttribLocation(mProgram, "a_Position");
-        mNormalAttribute = GLES20.glGetAttribLocation(mProgram, "a_Normal");
-        mTexCoordAttribute = GLES20.glGetAttribLocation(mProgram, "a_TexCoord");
+        mPositionAttribute = mGl.glGetAttribLocation(mProgram, "a_Position");
+        mNormalAttribute = mGl.glGetAttribLocation(mProgram, "a_Normal");
+        mTexCoordAttribute = mGl.glGetAttribLocation(mProgram, "a_TexCoord");
+        mAttributeMask = GlState.attributeBit(mPositionAttribute)
+            | GlState.attributeBit(mNormalAttribute) | GlState.attributeBit(mTexCoordAttribute);
 
-        mTextureUniform = GLES20.glGetUniformLocation(mProgram, "u_Texture");
+        mPositionScaleUniform = mGl.glGetUniformLocation(mProgram, "u_PositionScale");
+        mPositionOffsetUniform = mGl.glGetUniformLocation(mProgram, "u_PositionOffset");
+        mTexCoordScaleUniform = mGl.glGetUniformLocation(mProgram, "u_TexCoordScale");
+        mTexCoordOffsetUniform = mGl.glGetUniformLocation(mProgram, "u_TexCoordOffset");
 
-        mLightingParametersUniform = GLES20.glGetUniformLocation(mProgram, "u_LightingParameters");
-        mMaterialParametersUniform = GLES20.glGetUniformLocation(mProgram, "u_MaterialParameters");
+        mTextureUniform = mGl.glGetUniformLocation(mProgram, "u_Texture");
 
-        ShaderUtil.checkGLError(TAG, "Program parameters");
+        mLightingParametersUniform = mGl.glGetUniformLocation(mProgram, "u_LightingParameters");
+        mMaterialParametersUniform = mGl.glGetUniformLocation(mProgram, "u_MaterialParameters");
 
-        Matrix.setIdentityM(mModelMatrix, 0);
+        ShaderUtil.checkGLError(mGl, TAG, "Program parameters");
+
+        MatrixUtil.setIdentityM(mModelMatrix, 0);
+    }
+
+    /**
+     * Frees the OpenGL resources created by {@link #createOnGlThread}. Must be called on the
+     * OpenGL thread. The renderer cannot draw afterwards.
+     */
+    public void release() {
+        mGlState.deleteBuffers(mBuffers.length, mBuffers, 0);
+        mGlState.deleteTextures(mTextures.length, mTextures, 0);
+        mGlState.deleteProgram(mProgram);
+        mGpuBytes = 0;
+    }
+
+    /**
+     * Returns the approximate amount of GPU memory used by the model's buffers and texture.
+     */
+    public long getGpuBytes() {
+        return mGpuBytes;
     }
 
     /**
@@ -232,19 +365,104 @@ public class ObjectRenderer {
     }
 
     /**
-     * Updates the object model matrix and applies scaling.
+     * Sets the object model matrix to one that is already scaled, as computed by
+     * {@link SceneStore#computeTransforms}.
      *
-     * @param modelMatrix A 4x4 model-to-world transformation matrix, stored in column-major order.
-     * @param scaleFactor A separate scaling factor to apply before the {@code modelMatrix}.
-     * @see android.opengl.Matrix
+     * @param modelMatrices 4x4 model-to-world matrices, stored in column-major order.
+     * @param offset Offset of the object's matrix in {@code modelMatrices}.
+     * @param scaleFactor The scaling factor included in the matrix.
      */
-    public void updateModelMatrix(float[] modelMatrix, float scaleFactor) {
-        float[] scaleMatrix = new float[16];
-        Matrix.setIdentityM(scaleMatrix, 0);
-        scaleMatrix[0] = scaleFactor;
-        scaleMatrix[5] = scaleFactor;
-        scaleMatrix[10] = scaleFactor;
-        Matrix.multiplyMM(mModelMatrix, 0, modelMatrix, 0, scaleMatrix, 0);
+    public void setModelMatrix(float[] modelMatrices, int offset, float scaleFactor) {
+        System.arraycopy(modelMatrices, offset, mModelMatrix, 0, 16);
+        mScaleFactor = scaleFactor;
+    }
+
+    /**
+     * Tests the model's bounding volumes, placed with the last {@link #setModelMatrix}, against
+     * the view frustum.
+     *
+     * @return false if the model is certainly not visible and need not be drawn.
+     */
+    public boolean isInFrustum(Frustum frustum) {
+        updateWorldCenter();
+
+        // The cheap sphere test rejects most objects; the box is tighter for the rest.
+        return frustum.intersectsSphere(mWorldCenter[0], mWorldCenter[1], mWorldCenter[2],
+                mBoundingRadius * Math.abs(mScaleFactor))
+            && frustum.intersectsBox(mModelMatrix, mBoundsMin, mBoundsMax);
+    }
+
+    /**
+     * Picks the coarsest level of detail whose error stays below {@code maxScreenError} on
+     * screen, for the model placed with the last {@link #setModelMatrix}.
+     *
+     * @param cameraView  A 4x4 view matrix, in column-major order.
+     * @param cameraPerspective  A 4x4 projection matrix, in column-major order.
+     * @param currentLod  The level this object was drawn with in the previous frame.
+     * @param maxScreenError  Largest error allowed, as a fraction of the viewport height.
+     * @return The level to pass to {@link #drawInstance(int)}.
+     */
+    public int selectLod(float[] cameraView, float[] cameraPerspective, int currentLod,
+                         float maxScreenError) {
+        if (mLodCount <= 1) {
+            return 0;
+        }
+
+        updateWorldCenter();
+        float distance = -(cameraView[2] * mWorldCenter[0] + cameraView[6] * mWorldCenter[1]
+            + cameraView[10] * mWorldCenter[2] + cameraView[14]);
+        float radius = mBoundingRadius * Math.abs(mScaleFactor);
+        if (distance <= radius) {
+            // The camera is inside or right next to the object.
+            return 0;
+        }
+
+        // Projected diameter of the bounding sphere as a fraction of the viewport height, which
+        // the errors are relative to.
+        float screenSize = radius * cameraPerspective[5] / distance;
+        for (int lod = mLodCount - 1; lod > 0; lod--) {
+            float limit = lod > currentLod ? maxScreenError * LOD_HYSTERESIS : maxScreenError;
+            // Errors are relative to the radius, which is half of the projected size.
+            if (mLodErrors[lod] * screenSize / 2 <= limit) {
+                return lod;
+            }
+        }
+        return 0;
+    }
+
+    /** Minimum corner of the model-space bounding box. */
+    public float[] getBoundsMin() {
+        return mBoundsMin;
+    }
+
+    /** Maximum corner of the model-space bounding box. */
+    public float[] getBoundsMax() {
+        return mBoundsMax;
+    }
+
+    /** Radius of the bounding sphere centered on the bounding box. */
+    public float getBoundingRadius() {
+        return mBoundingRadius;
+    }
+
+    public int getLodCount() {
+        return mLodCount;
+    }
+
+    public int getLodTriangleCount(int lod) {
+        return mLodIndexCounts[lod] / 3;
+    }
+
+    private void updateWorldCenter() {
+        float cx = (mBoundsMin[0] + mBoundsMax[0]) / 2;
+        float cy = (mBoundsMin[1] + mBoundsMax[1]) / 2;
+        float cz = (mBoundsMin[2] + mBoundsMax[2]) / 2;
+        mWorldCenter[0] = mModelMatrix[0] * cx + mModelMatrix[4] * cy + mModelMatrix[8] * cz
+            + mModelMatrix[12];
+        mWorldCenter[1] = mModelMatrix[1] * cx + mModelMatrix[5] * cy + mModelMatrix[9] * cz
+            + mModelMatrix[13];
+        mWorldCenter[2] = mModelMatrix[2] * cx + mModelMatrix[6] * cy + mModelMatrix[10] * cz
+            + mModelMatrix[14];
     }
 
     /**
@@ -272,91 +490,175 @@ public class ObjectRenderer {
      * @param lightIntensity  Illumination intensity.  Combined with diffuse and specular material
      *     properties.
      * @see #setBlendMode(BlendMode)
-     * @see #updateModelMatrix(float[], float)
+     * @see #setModelMatrix(float[], int, float)
      * @see #setMaterialProperties(float, float, float, float)
      * @see android.opengl.Matrix
      */
     public void draw(float[] cameraView, float[] cameraPerspective, float lightIntensity) {
+        beginDraw(cameraView, cameraPerspective, lightIntensity);
+        drawInstance();
+        endDraw();
+    }
+
+    /**
+     * Sets up the state shared by every instance of the model: program, texture, vertex
+     * attributes, material, lighting and blending. Follow with one {@link #drawInstance()} per
+     * placed object, then {@link #endDraw()}.
+     *
+     * @param cameraView  A 4x4 view matrix, in column-major order.
+     * @param cameraPerspective  A 4x4 projection matrix, in column-major order.
+     * @param lightIntensity  Illumination intensity.  Combined with diffuse and specular material
+     *     properties.
+     */
+    public void beginDraw(float[] cameraView, float[] cameraPerspective, float lightIntensity) {
 
-        ShaderUtil.checkGLError(TAG, "Before draw");
+        mGlState.getValidation().check(TAG, "Before draw");
 
-        // Build the ModelView and ModelViewProjection matrices
-        // for calculating object position and light.
-        Matrix.multiplyMM(mModelViewMatrix, 0, cameraView, 0, mModelMatrix, 0);
-        Matrix.multiplyMM(mModelViewProjectionMatrix, 0, cameraPerspective, 0, mModelViewMatrix, 0);
+        mCameraView = cameraView;
+        mCameraPerspective = cameraPerspective;
 
-        GLES20.glUseProgram(mProgram);
+        mGlState.useProgram(mProgram);
 
-        // Set the lighting environment properties.
-        Matrix.multiplyMV(mViewLightDirection, 0, mModelViewMatrix, 0, LIGHT_DIRECTION, 0);
+        // Set the lighting environment properties. Objects stand upright on the floor, so the
+        // light direction in view space is the same for all of them.
+        MatrixUtil.multiplyMV(mViewLightDirection, 0, cameraView, 0, LIGHT_DIRECTION, 0);
         normalizeVec3(mViewLightDirection);
-        GLES20.glUniform4f(mLightingParametersUniform,
+        mGl.glUniform4f(mLightingParametersUniform,
             mViewLightDirection[0], mViewLightDirection[1], mViewLightDirection[2], lightIntensity);
 
         // Set the object material properties.
-        GLES20.glUniform4f(mMaterialParametersUniform, mAmbient, mDiffuse, mSpecular,
+        mGl.glUniform4f(mMaterialParametersUniform, mAmbient, mDiffuse, mSpecular,
             mSpecularPower);
 
         // Attach the object texture.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-        GLES20.glUniform1i(mTextureUniform, 0);
+        mGlState.activeTexture(GLES20.GL_TEXTURE0);
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+        mGl.glUniform1i(mTextureUniform, 0);
 
         // Set the vertex attributes.
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
-
-        GLES20.glVertexAttribPointer(
-            mPositionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, mVerticesBaseAddress);
-        GLES20.glVertexAttribPointer(
-            mNormalAttribute, 3, GLES20.GL_FLOAT, false, 0, mNormalsBaseAddress);
-        GLES20.glVertexAttribPointer(
-            mTexCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, mTexCoordsBaseAddress);
-
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-
-        // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(
-            mModelViewUniform, 1, false, mModelViewMatrix, 0);
-        GLES20.glUniformMatrix4fv(
-            mModelViewProjectionUniform, 1, false, mModelViewProjectionMatrix, 0);
+        setVertexAttributes(0);
+        if (mQuantized) {
+            mGl.glUniform3fv(mPositionScaleUniform, 1, mPositionScale, 0);
+            mGl.glUniform3fv(mPositionOffsetUniform, 1, mPositionOffset, 0);
+            mGl.glUniform2fv(mTexCoordScaleUniform, 1, mTexCoordScale, 0);
+            mGl.glUniform2fv(mTexCoordOffsetUniform, 1, mTexCoordOffset, 0);
+        }
 
         // Enable vertex arrays
-        GLES20.glEnableVertexAttribArray(mPositionAttribute);
-        GLES20.glEnableVertexAttribArray(mNormalAttribute);
-        GLES20.glEnableVertexAttribArray(mTexCoordAttribute);
+        mGlState.setVertexAttribArrays(mAttributeMask);
 
+        // Blended models are drawn over the depth buffer without writing to it.
+        mGlState.setEnabled(GLES20.GL_DEPTH_TEST, true);
+        mGlState.depthMask(mBlendMode == null);
+        mGlState.setEnabled(GLES20.GL_BLEND, mBlendMode != null);
         if (mBlendMode != null) {
-            GLES20.glDepthMask(false);
-            GLES20.glEnable(GLES20.GL_BLEND);
             switch (mBlendMode) {
                 case Shadow:
                     // Multiplicative blending function for Shadow.
-                    GLES20.glBlendFunc(GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                    mGlState.blendFunc(GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA);
                     break;
                 case Grid:
                     // Grid, additive blending function.
-                    GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                    mGlState.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
                     break;
             }
         }
 
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount, GLES20.GL_UNSIGNED_SHORT, 0);
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mGlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+    }
 
-        if (mBlendMode != null) {
-            GLES20.glDisable(GLES20.GL_BLEND);
-            GLES20.glDepthMask(true);
+    /**
+     * Draws one instance of the model in full detail, placed with the last
+     * {@link #setModelMatrix}. Must be called between {@link #beginDraw} and
+     * {@link #endDraw()}.
+     */
+    public void drawInstance() {
+        drawInstance(0);
+    }
+
+    /**
+     * Draws one instance of the model, placed with the last {@link #setModelMatrix}. Must be
+     * called between {@link #beginDraw} and {@link #endDraw()}.
+     *
+     * @param lod  The level of detail, see {@link #selectLod}.
+     */
+    public void drawInstance(int lod) {
+        // Build the ModelView and ModelViewProjection matrices
+        // for calculating object position and light.
+        MatrixUtil.multiplyMM(mModelViewMatrix, 0, mCameraView, 0, mModelMatrix, 0);
+        MatrixUtil.multiplyMM(
+            mModelViewProjectionMatrix, 0, mCameraPerspective, 0, mModelViewMatrix, 0);
+        drawInstance(lod, mModelViewMatrix, mModelViewProjectionMatrix, 0);
+    }
+
+    /**
+     * Draws one instance of the model with matrices computed ahead, for example by
+     * {@link SceneStore#computeTransforms}. Must be called between {@link #beginDraw} and
+     * {@link #endDraw()}.
+     *
+     * @param lod  The level of detail, see {@link #selectLod}.
+     * @param modelViewMatrices  4x4 model-view matrices, in column-major order.
+     * @param modelViewProjectionMatrices  4x4 model-view-projection matrices, in column-major
+     *     order.
+     * @param offset  Offset of the instance's matrices in both arrays.
+     */
+    public void drawInstance(int lod, float[] modelViewMatrices,
+                             float[] modelViewProjectionMatrices, int offset) {
+        // Set the ModelViewProjection matrix in the shader.
+        mGl.glUniformMatrix4fv(
+            mModelViewUniform, 1, false, modelViewMatrices, offset);
+        mGl.glUniformMatrix4fv(
+            mModelViewProjectionUniform, 1, false, modelViewProjectionMatrices, offset);
+
+        int first = mLodFirstSubmeshes[lod];
+        for (int submesh = first; submesh < first + mLodSubmeshCounts[lod]; submesh++) {
+            if (mSplit) {
+                setVertexAttributes(mSubmeshBaseVertices[submesh]);
+            }
+            mGl.glDrawElements(GLES20.GL_TRIANGLES, mSubmeshIndexCounts[submesh], mIndexType,
+                mSubmeshIndexOffsets[submesh]);
         }
+    }
 
-        // Disable vertex arrays
-        GLES20.glDisableVertexAttribArray(mPositionAttribute);
-        GLES20.glDisableVertexAttribArray(mNormalAttribute);
-        GLES20.glDisableVertexAttribArray(mTexCoordAttribute);
+    /**
+     * Points the vertex attributes at the vertex buffer, so that index 0 refers to
+     * {@code baseVertex}.
+     */
+    private void setVertexAttributes(int baseVertex) {
+        mGlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+
+        if (mQuantized) {
+            // Interleaved 16-bit attributes, converted to float as is and scaled by the shader.
+            int base = baseVertex * mVertexStride;
+            mGl.glVertexAttribPointer(mPositionAttribute, COORDS_PER_VERTEX, GLES20.GL_SHORT,
+                false, mVertexStride, mVerticesBaseAddress + base);
+            mGl.glVertexAttribPointer(mNormalAttribute, 2, GLES20.GL_SHORT,
+                false, mVertexStride, mNormalsBaseAddress + base);
+            mGl.glVertexAttribPointer(mTexCoordAttribute, 2, GLES20.GL_UNSIGNED_SHORT,
+                false, mVertexStride, mTexCoordsBaseAddress + base);
+        } else {
+            // Each attribute has its own tightly packed block.
+            mGl.glVertexAttribPointer(mPositionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
+                false, mVertexStride,
+                mVerticesBaseAddress + baseVertex * BYTES_PER_FLOAT * COORDS_PER_VERTEX);
+            mGl.glVertexAttribPointer(mNormalAttribute, 3, GLES20.GL_FLOAT, false,
+                mVertexStride,
+                mNormalsBaseAddress + baseVertex * BYTES_PER_FLOAT * COORDS_PER_VERTEX);
+            mGl.glVertexAttribPointer(mTexCoordAttribute, 2, GLES20.GL_FLOAT, false,
+                mVertexStride,
+                mTexCoordsBaseAddress + baseVertex * BYTES_PER_FLOAT * TEXCOORDS_PER_VERTEX);
+        }
+    }
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    /**
+     * Ends the draws started by {@link #beginDraw}. The GL state is left as it is; the next
+     * renderer sets what it needs through {@link GlState}.
+     */
+    public void endDraw() {
+        mCameraView = null;
+        mCameraPerspective = null;
 
-        ShaderUtil.checkGLError(TAG, "After draw");
+        mGlState.getValidation().check(TAG, "After draw");
     }
 
     public static void normalizeVec3(float[] v) {
@@ -0,0 +1,232 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+
+/**
+ * Hit tests screen points against the planes drawn in the current frame on the CPU, without
+ * asking ARCore. {@link PlaneRenderer} lists the planes it draws, whose pose and boundary
+ * polygon are read from the {@link FrameSnapshot}, and each point is then unprojected into a ray
+ * and intersected with those planes, keeping the nearest hit inside a polygon. Any number of
+ * points can be tested per frame, and testing does not allocate.
+ *
+ * <p>Only the planes facing the camera are drawn, so only those can be hit. Must be used on
+ * the OpenGL thread.
+ */
+public class PlaneHitTester {
+    private static final int INITIAL_PLANES = 16;
+
+    // The planes of the frame: snapshot slot and bounding radius.
+    private FrameSnapshot mSnapshot;
+    private int[] mSlots = new int[INITIAL_PLANES];
+    private float[] mRadii = new float[INITIAL_PLANES];
+    private int mPlaneCount;
+
+    private final float[] mViewProjection = new float[16];
+    private final float[] mInverseViewProjection = new float[16];
+    private boolean mCameraValid;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
+    // Scratch space for unprojecting.
+    private final float[] mRay = new float[6];
+    private final float[] mNdcPoint = new float[4];
+    private final float[] mNearPoint = new float[4];
+    private final float[] mFarPoint = new float[4];
+
+    // Result of the last successful hit test.
+    private int mHitPlane;
+    private float mHitDistance;
+    private final float[] mHitPoint = new float[3];
+
+    /**
+     * Forgets the planes of the previous frame and sets the camera of this one.
+     *
+     * @param snapshot The state of the planes in this frame.
+     * @param viewMatrix The view matrix, the inverse of the camera pose.
+     * @param projectionMatrix The projection matrix.
+     * @param viewportWidth Width of the surface, in the pixels of the points to test.
+     * @param viewportHeight Height of the surface, in the pixels of the points to test.
+     */
+    public void beginFrame(FrameSnapshot snapshot, float[] viewMatrix, float[] projectionMatrix,
+                           int viewportWidth, int viewportHeight) {
+        mSnapshot = snapshot;
+        mPlaneCount = 0;
+        mViewportWidth = viewportWidth;
+        mViewportHeight = viewportHeight;
+        MatrixUtil.multiplyMM(mViewProjection, 0, projectionMatrix, 0, viewMatrix, 0);
+        mCameraValid = MatrixUtil.invertM(mInverseViewProjection, 0, mViewProjection, 0);
+    }
+
+    /** Adds a plane of the snapshot to the planes that can be hit in this frame. */
+    public void addPlane(int slot) {
+        int length = mSnapshot.getPlanePolygonLength(slot);
+        if (length < 6) {
+            return;
+        }
+        if (mPlaneCount == mSlots.length) {
+            int[] slots = new int[2 * mSlots.length];
+            System.arraycopy(mSlots, 0, slots, 0, mPlaneCount);
+            mSlots = slots;
+            float[] radii = new float[2 * mRadii.length];
+            System.arraycopy(mRadii, 0, radii, 0, mPlaneCount);
+            mRadii = radii;
+        }
+
+        float[] polygon = mSnapshot.getPlanePolygon(slot);
+        float radiusSquared = 0;
+        for (int i = 0; i < length; i += 2) {
+            float x = polygon[i];
+            float z = polygon[i + 1];
+            radiusSquared = Math.max(radiusSquared, x * x + z * z);
+        }
+        mSlots[mPlaneCount] = slot;
+        mRadii[mPlaneCount] = (float) Math.sqrt(radiusSquared);
+        mPlaneCount++;
+    }
+
+    public int getPlaneCount() {
+        return mPlaneCount;
+    }
+
+    /**
+     * Computes the ray from the camera through a screen point.
+     *
+     * @param x Horizontal position on the surface, in pixels from the left.
+     * @param y Vertical position on the surface, in pixels from the top.
+     * @param ray Receives the origin on the near plane and the normalized direction, 6 floats.
+     * @return False if the camera of the frame is not known.
+     */
+    public boolean getRay(float x, float y, float[] ray) {
+        if (!mCameraValid || mViewportWidth <= 0 || mViewportHeight <= 0) {
+            return false;
+        }
+
+        // The ray goes from the near plane to the far plane through the point.
+        mNdcPoint[0] = 2.0f * x / mViewportWidth - 1.0f;
+        mNdcPoint[1] = 1.0f - 2.0f * y / mViewportHeight;
+        mNdcPoint[3] = 1.0f;
+        mNdcPoint[2] = -1.0f;
+        MatrixUtil.multiplyMV(mNearPoint, 0, mInverseViewProjection, 0, mNdcPoint, 0);
+        mNdcPoint[2] = 1.0f;
+        MatrixUtil.multiplyMV(mFarPoint, 0, mInverseViewProjection, 0, mNdcPoint, 0);
+        float originX = mNearPoint[0] / mNearPoint[3];
+        float originY = mNearPoint[1] / mNearPoint[3];
+        float originZ = mNearPoint[2] / mNearPoint[3];
+        float directionX = mFarPoint[0] / mFarPoint[3] - originX;
+        float directionY = mFarPoint[1] / mFarPoint[3] - originY;
+        float directionZ = mFarPoint[2] / mFarPoint[3] - originZ;
+        float length = (float) Math.sqrt(
+            directionX * directionX + directionY * directionY + directionZ * directionZ);
+        ray[0] = originX;
+        ray[1] = originY;
+        ray[2] = originZ;
+        ray[3] = directionX / length;
+        ray[4] = directionY / length;
+        ray[5] = directionZ / length;
+        return true;
+    }
+
+    /**
+     * Casts a ray from the camera through a screen point, and finds the nearest plane it hits
+     * inside the plane's polygon. The hit can then be read with {@link #getHitPlane()},
+     * {@link #getHitPoint(float[], int)}, {@link #getHitDistance()} and {@link #getHitPose()}.
+     *
+     * @param x Horizontal position on the surface, in pixels from the left.
+     * @param y Vertical position on the surface, in pixels from the top.
+     * @return Whether a plane was hit.
+     */
+    public boolean hitTest(float x, float y) {
+        mHitPlane = -1;
+        if (!getRay(x, y, mRay)) {
+            return false;
+        }
+        float originX = mRay[0];
+        float originY = mRay[1];
+        float originZ = mRay[2];
+        float directionX = mRay[3];
+        float directionY = mRay[4];
+        float directionZ = mRay[5];
+
+        float nearest = Float.MAX_VALUE;
+        float[] m = mSnapshot.getPlaneMatrices();
+        for (int i = 0; i < mPlaneCount; i++) {
+            int slot = mSlots[i];
+            int o = 16 * slot;
+            // The plane's normal is the Y axis of its pose.
+            float denominator =
+                directionX * m[o + 4] + directionY * m[o + 5] + directionZ * m[o + 6];
+            if (Math.abs(denominator) < 1e-6f) {
+                continue;
+            }
+            float t = ((m[o + 12] - originX) * m[o + 4] + (m[o + 13] - originY) * m[o + 5]
+                + (m[o + 14] - originZ) * m[o + 6]) / denominator;
+            if (t < 0 || t >= nearest) {
+                continue;
+            }
+
+            // The hit in the plane's coordinates, along its X and Z axes.
+            float offsetX = originX + t * directionX - m[o + 12];
+            float offsetY = originY + t * directionY - m[o + 13];
+            float offsetZ = originZ + t * directionZ - m[o + 14];
+            float localX = offsetX * m[o] + offsetY * m[o + 1] + offsetZ * m[o + 2];
+            float localZ = offsetX * m[o + 8] + offsetY * m[o + 9] + offsetZ * m[o + 10];
+            float radius = mRadii[i];
+            if (localX * localX + localZ * localZ > radius * radius
+                    || !isInPolygon(mSnapshot.getPlanePolygon(slot),
+                        mSnapshot.getPlanePolygonLength(slot), localX, localZ)) {
+                continue;
+            }
+            nearest = t;
+            mHitPlane = slot;
+        }
+        if (mHitPlane < 0) {
+            return false;
+        }
+
+        mHitDistance = nearest;
+        mHitPoint[0] = originX + nearest * directionX;
+        mHitPoint[1] = originY + nearest * directionY;
+        mHitPoint[2] = originZ + nearest * directionZ;
+        return true;
+    }
+
+    /** The plane of the last hit. */
+    public Plane getHitPlane() {
+        return mSnapshot.getPlane(mHitPlane);
+    }
+
+    /** Distance of the last hit from the camera's near plane, in meters. */
+    public float getHitDistance() {
+        return mHitDistance;
+    }
+
+    /** Writes the world position of the last hit. */
+    public void getHitPoint(float[] point, int offset) {
+        System.arraycopy(mHitPoint, 0, point, offset, 3);
+    }
+
+    /**
+     * Pose of the last hit, at the hit point with the rotation of the plane, as ARCore's plane
+     * hits have. Allocates, so only call it when an anchor is created from the hit.
+     */
+    public Pose getHitPose() {
+        float[] rotation = new float[4];
+        System.arraycopy(mSnapshot.getPlaneRotations(), 4 * mHitPlane, rotation, 0, 4);
+        return new Pose(mHitPoint.clone(), rotation);
+    }
+
+    /** Even-odd test of a point against a polygon of x, z pairs. */
+    private static boolean isInPolygon(float[] p, int length, float x, float z) {
+        boolean inside = false;
+        for (int i = 0, j = length - 2; i < length; j = i, i += 2) {
+            float zi = p[i + 1];
+            float zj = p[j + 1];
+            if ((zi > z) != (zj > z)
+                    && x < (p[j] - p[i]) * (z - zi) / (zj - zi) + p[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -2,9 +2,7 @@
 
 package me.zunair.syed.ar.core.floor.objects.rendering;
 
-import com.google.ar.core.Frame;
 import com.google.ar.core.Plane;
-import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
 
 
@@ -13,8 +11,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
-import android.opengl.Matrix;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -22,11 +18,7 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -41,14 +33,36 @@ public class PlaneRenderer {
 
     private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
     private static final int BYTES_PER_SHORT = Short.SIZE / 8;
-    private static final int COORDS_PER_VERTEX = 3; // x, z, alpha
+
+    // Batched vertex layout: world position, grid texture coordinates and fade alpha, color.
+    private static final int POSITION_FLOATS = 3;
+    private static final int TEXCOORD_ALPHA_FLOATS = 3;
+    private static final int COLOR_FLOATS = 3;
+    private static final int FLOATS_PER_VERTEX =
+        POSITION_FLOATS + TEXCOORD_ALPHA_FLOATS + COLOR_FLOATS;
+    private static final int VERTEX_STRIDE = BYTES_PER_FLOAT * FLOATS_PER_VERTEX;
+    private static final int TEXCOORD_ALPHA_OFFSET = BYTES_PER_FLOAT * POSITION_FLOATS;
+    private static final int COLOR_OFFSET =
+        BYTES_PER_FLOAT * (POSITION_FLOATS + TEXCOORD_ALPHA_FLOATS);
 
     private static final int VERTS_PER_BOUNDARY_VERT = 2;
     private static final int INDICES_PER_BOUNDARY_VERT = 3;
+    // Indices repeated between two planes' strips, forming degenerate triangles.
+    private static final int INDICES_BETWEEN_PLANES = 2;
     private static final int INITIAL_BUFFER_BOUNDARY_VERTS = 64;
+    private static final int INITIAL_SORTED_PLANES = 16;
+    // Vertices addressable with 16-bit indices. Planes past it are not drawn.
+    private static final int MAX_BATCH_VERTICES = 65536;
+    private static final int INITIAL_BATCH_VERTICES =
+        VERTS_PER_BOUNDARY_VERT * INITIAL_BUFFER_BOUNDARY_VERTS;
+    // A plane's range in the vertex buffer leaves room for its polygon to grow by half, in steps
+    // of this many vertices, as ARCore keeps extending the planes it tracks.
+    private static final int VERTEX_RANGE_GRANULE = 32;
+    // Pose differences below this are tracking noise, which does not regenerate a plane.
+    private static final float POSE_EPSILON = 1e-4f;
 
     private static final int INITIAL_VERTEX_BUFFER_SIZE_BYTES =
-        BYTES_PER_FLOAT * COORDS_PER_VERTEX * VERTS_PER_BOUNDARY_VERT *
+        BYTES_PER_FLOAT * FLOATS_PER_VERTEX * VERTS_PER_BOUNDARY_VERT *
             INITIAL_BUFFER_BOUNDARY_VERTS;
 
     private static final int INITIAL_INDEX_BUFFER_SIZE_BYTES =
@@ -69,31 +83,68 @@ public class PlaneRenderer {
     private int mPlaneProgram;
     private int[] mTextures = new int[1];
 
-    private int mPlaneXZPositionAlphaAttribute;
+    private int mPositionAttribute;
+    private int mTexCoordAlphaAttribute;
+    private int mColorAttribute;
+    private int mPlaneAttributeMask;
 
-    private int mPlaneModelUniform;
-    private int mPlaneModelViewProjectionUniform;
+    private int mViewProjectionUniform;
     private int mTextureUniform;
-    private int mLineColorUniform;
-    private int mDotColorUniform;
     private int mGridControlUniform;
-    private int mPlaneUvMatrixUniform;
 
+    // The world space vertices of every plane, and the indices of the visible ones in drawing
+    // order, in one pair of buffer objects.
+    private final int[] mBatchBuffers = new int[2];
     private FloatBuffer mVertexBuffer = ByteBuffer.allocateDirect(INITIAL_VERTEX_BUFFER_SIZE_BYTES)
             .order(ByteOrder.nativeOrder()).asFloatBuffer();
     private ShortBuffer mIndexBuffer = ByteBuffer.allocateDirect(INITIAL_INDEX_BUFFER_SIZE_BYTES)
             .order(ByteOrder.nativeOrder()).asShortBuffer();
+    private int mBatchIndexCount;
+    // Vertices allocated for the vertex buffer, 0 before it is allocated, and the end of the
+    // last range handed out in it. mVertexBuffer mirrors the whole buffer.
+    private int mVertexCapacity;
+    private int mAllocatedVertices;
+    // Whether a plane's vertices changed since they were uploaded.
+    private boolean mVerticesChanged;
+    // Whether a plane's range or boundary vertex count changed since the indices were built.
+    private boolean mIndicesChanged;
+    // The meshes drawn last frame, nearest first, to tell if the index buffer is still valid.
+    private PlaneMesh[] mDrawnMeshes = new PlaneMesh[INITIAL_SORTED_PLANES];
+    private int mDrawnMeshCount;
 
     // Temporary lists/matrices allocated here to reduce number of allocations for each frame.
-    private float[] mModelMatrix = new float[16];
-    private float[] mModelViewMatrix = new float[16];
-    private float[] mModelViewProjectionMatrix = new float[16];
-    private float[] mPlaneColor = new float[4];
-    private float[] mPlaneAngleUvMatrix = new float[4]; // 2x2 rotation matrix applied to uv coords.
+    private float[] mViewProjectionMatrix = new float[16];
+    private SortablePlane[] mSortedPlanes = new SortablePlane[INITIAL_SORTED_PLANES];
+    private int mSortedPlaneCount;
+
+    // Geometry of the planes seen so far. The list holds the same meshes as the map, so that
+    // they can be walked without an iterator.
+    private final Map<Plane, PlaneMesh> mPlaneMeshes = new HashMap<>();
+    private final ArrayList<PlaneMesh> mPlaneMeshList = new ArrayList<>();
+    // Gives each plane its own color and grid angle, in order of detection.
+    private int mNextPlaneIndex;
 
-    private Map<Plane, Integer> mPlaneIndexMap = new HashMap<>();
+    private final GlState mGlState;
+    private final Gl mGl;
+    private PlaneHitTester mHitTester;
 
     public PlaneRenderer() {
+        this(GlState.getInstance());
+    }
+
+    /**
+     * @param glState The state of the context to draw in, which also gives the GL backend.
+     */
+    public PlaneRenderer(GlState glState) {
+        mGlState = glState;
+        mGl = glState.getGl();
+    }
+
+    /**
+     * @param hitTester Cache to fill with the planes drawn in each frame, or null.
+     */
+    public void setHitTester(PlaneHitTester hitTester) {
+        mHitTester = hitTester;
     }
 
     /**
@@ -106,289 +157,577 @@ public class PlaneRenderer {
      */
     public void createOnGlThread(Context context, String gridDistanceTextureName)
             throws IOException {
-        int vertexShader = ShaderUtil.loadGLShader(TAG, context,
-                GLES20.GL_VERTEX_SHADER, R.raw.plane_vertex);
-        int passthroughShader = ShaderUtil.loadGLShader(TAG, context,
-                GLES20.GL_FRAGMENT_SHADER, R.raw.plane_fragment);
-
-        mPlaneProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mPlaneProgram, vertexShader);
-        GLES20.glAttachShader(mPlaneProgram, passthroughShader);
-        GLES20.glLinkProgram(mPlaneProgram);
-        GLES20.glUseProgram(mPlaneProgram);
-
-        ShaderUtil.checkGLError(TAG, "Program creation");
-
-        // Read the texture.
         Bitmap textureBitmap = BitmapFactory.decodeStream(
             context.getAssets().open(gridDistanceTextureName));
+        createOnGlThread(
+            ShaderUtil.readRawTextFile(context, R.raw.plane_batched_vertex),
+            ShaderUtil.readRawTextFile(context, R.raw.plane_batched_fragment),
+            textureBitmap);
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glGenTextures(mTextures.length, mTextures, 0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+    /**
+     * Allocates and initializes the OpenGL resources from shader sources and a texture that were
+     * already read. Calls nothing of the Android framework but {@link Gl}, so that it also runs
+     * in unit tests against {@link RecordingGl}.
+     *
+     * @param vertexShaderCode Source of {@code plane_batched_vertex}.
+     * @param fragmentShaderCode Source of {@code plane_batched_fragment}.
+     * @param textureBitmap The grid texture, or null to leave the texture without an image.
+     */
+    public void createOnGlThread(String vertexShaderCode, String fragmentShaderCode,
+            Bitmap textureBitmap) {
+        // Buffers filled for a previous context are gone with it.
+        mPlaneMeshes.clear();
+        mPlaneMeshList.clear();
+        mDrawnMeshCount = 0;
+        mBatchIndexCount = 0;
+        mVertexCapacity = 0;
+        mAllocatedVertices = 0;
+        mVerticesChanged = false;
+        mIndicesChanged = false;
+
+        int vertexShader = ShaderUtil.loadGLShader(mGl, TAG,
+                GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+        int passthroughShader = ShaderUtil.loadGLShader(mGl, TAG,
+                GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+
+        mPlaneProgram = mGl.glCreateProgram();
+        mGl.glAttachShader(mPlaneProgram, vertexShader);
+        mGl.glAttachShader(mPlaneProgram, passthroughShader);
+        mGl.glLinkProgram(mPlaneProgram);
+        mGlState.useProgram(mPlaneProgram);
+
+        ShaderUtil.checkGLError(mGl, TAG, "Program creation");
+
+        mGlState.activeTexture(GLES20.GL_TEXTURE0);
+        mGl.glGenTextures(mTextures.length, mTextures, 0);
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
             GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
             GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        if (textureBitmap != null) {
+            mGl.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
+            mGl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        }
+
+        ShaderUtil.checkGLError(mGl, TAG, "Texture loading");
 
-        ShaderUtil.checkGLError(TAG, "Texture loading");
+        mGl.glGenBuffers(mBatchBuffers.length, mBatchBuffers, 0);
 
-        mPlaneXZPositionAlphaAttribute = GLES20.glGetAttribLocation(mPlaneProgram,
-            "a_XZPositionAlpha");
+        mPositionAttribute = mGl.glGetAttribLocation(mPlaneProgram, "a_Position");
+        mTexCoordAlphaAttribute = mGl.glGetAttribLocation(mPlaneProgram, "a_TexCoordAlpha");
+        mColorAttribute = mGl.glGetAttribLocation(mPlaneProgram, "a_Color");
+        mPlaneAttributeMask = GlState.attributeBit(mPositionAttribute)
+            | GlState.attributeBit(mTexCoordAlphaAttribute) | GlState.attributeBit(mColorAttribute);
 
-        mPlaneModelUniform = GLES20.glGetUniformLocation(mPlaneProgram, "u_Model");
-        mPlaneModelViewProjectionUniform =
-            GLES20.glGetUniformLocation(mPlaneProgram, "u_ModelViewProjection");
-        mTextureUniform = GLES20.glGetUniformLocation(mPlaneProgram, "u_Texture");
-        mLineColorUniform = GLES20.glGetUniformLocation(mPlaneProgram, "u_lineColor");
-        mDotColorUniform = GLES20.glGetUniformLocation(mPlaneProgram, "u_dotColor");
-        mGridControlUniform = GLES20.glGetUniformLocation(mPlaneProgram, "u_gridControl");
-        mPlaneUvMatrixUniform = GLES20.glGetUniformLocation(mPlaneProgram, "u_PlaneUvMatrix");
+        mViewProjectionUniform = mGl.glGetUniformLocation(mPlaneProgram, "u_ViewProjection");
+        mTextureUniform = mGl.glGetUniformLocation(mPlaneProgram, "u_Texture");
+        mGridControlUniform = mGl.glGetUniformLocation(mPlaneProgram, "u_gridControl");
 
-        ShaderUtil.checkGLError(TAG, "Program parameters");
+        ShaderUtil.checkGLError(mGl, TAG, "Program parameters");
     }
 
     /**
-     * Updates the plane model transform matrix and extents.
+     * Regenerates the world space vertices of a plane if its polygon, extents or pose changed
+     * since they were last generated.
+     *
+     * @param planeMatrices The planes' center poses, this plane's at {@code matrixOffset}.
+     * @param boundary The boundary polygon as x, z pairs, of which {@code boundaryLength}
+     *     floats are valid.
      */
-    private void updatePlaneParameters(float[] planeMatrix, float extentX, float extentZ,
-        FloatBuffer boundary) {
-        System.arraycopy(planeMatrix, 0, mModelMatrix, 0, 16);
-        if (boundary == null) {
-            mVertexBuffer.limit(0);
-            mIndexBuffer.limit(0);
+    private void updatePlaneMesh(PlaneMesh mesh, float[] planeMatrices, int matrixOffset,
+        float extentX, float extentZ, float[] boundary, int boundaryLength) {
+        int hash = 1;
+        for (int i = 0; i < boundaryLength; i++) {
+            hash = 31 * hash + Float.floatToIntBits(boundary[i]);
+        }
+        hash = 31 * (31 * hash + Float.floatToIntBits(extentX)) + Float.floatToIntBits(extentZ);
+        if (mesh.mGenerated && mesh.mHash == hash
+                && samePose(mesh.mPoseMatrix, planeMatrices, matrixOffset)) {
             return;
         }
+        mesh.mGenerated = true;
+        mesh.mHash = hash;
+        System.arraycopy(planeMatrices, matrixOffset, mesh.mPoseMatrix, 0, 16);
+        mesh.mDirty = true;
+        mVerticesChanged = true;
+
+        // Generate a new set of vertices so that the plane boundary polygon has a fading edge.
+        // This is done by making a copy of the boundary polygon vertices and scaling it down
+        // around center to push it inwards. The vertices are moved into world space here, so
+        // that all planes can be drawn together.
+        int boundaryVertices = boundaryLength / 2;
+        int numFloats = boundaryVertices * VERTS_PER_BOUNDARY_VERT * FLOATS_PER_VERTEX;
+        if (mesh.mVertices == null || mesh.mVertices.length < numFloats) {
+            mesh.mVertices = new float[numFloats];
+        }
+        if (mesh.mBoundaryVertexCount != boundaryVertices) {
+            mesh.mBoundaryVertexCount = boundaryVertices;
+            mIndicesChanged = true;
+        }
 
-        // Generate a new set of vertices and a corresponding triangle strip index set so that
-        // the plane boundary polygon has a fading edge. This is done by making a copy of the
-        // boundary polygon vertices and scaling it down around center to push it inwards. Then
-        // the index buffer is setup accordingly.
-        boundary.rewind();
-        int boundaryVertices = boundary.limit() / 2;
-        int numVertices;
-        int numIndices;
+        // Note: when either dimension of the bounding box is smaller than 2*FADE_RADIUS_M we
+        // generate a bunch of 0-area triangles.  These don't get rendered though so it works
+        // out ok.
+        float xScale = Math.max((extentX - 2 * FADE_RADIUS_M) / extentX, 0.0f);
+        float zScale = Math.max((extentZ - 2 * FADE_RADIUS_M) / extentZ, 0.0f);
+
+        int offset = 0;
+        for (int i = 0; i < boundaryLength; i += 2) {
+            float x = boundary[i];
+            float z = boundary[i + 1];
+            offset = putVertex(mesh, offset, x, z, 0.0f);
+            offset = putVertex(mesh, offset, x * xScale, z * zScale, 1.0f);
+        }
+    }
 
-        numVertices = boundaryVertices * VERTS_PER_BOUNDARY_VERT;
-        // drawn as GL_TRIANGLE_STRIP with 3n-2 triangles (n-2 for fill, 2n for perimeter).
-        numIndices = boundaryVertices * INDICES_PER_BOUNDARY_VERT;
+    /** Writes a vertex of a plane, given in the plane's coordinates, in world space. */
+    private static int putVertex(PlaneMesh mesh, int offset, float x, float z, float alpha) {
+        float[] pose = mesh.mPoseMatrix;
+        float worldX = pose[0] * x + pose[8] * z + pose[12];
+        float worldY = pose[1] * x + pose[9] * z + pose[13];
+        float worldZ = pose[2] * x + pose[10] * z + pose[14];
+        float[] vertices = mesh.mVertices;
+        vertices[offset++] = worldX;
+        vertices[offset++] = worldY;
+        vertices[offset++] = worldZ;
+        // The grid is laid out on the world XZ plane, turned by the plane's own angle.
+        float[] uv = mesh.mUvMatrix;
+        vertices[offset++] = uv[0] * worldX + uv[2] * worldZ;
+        vertices[offset++] = uv[1] * worldX + uv[3] * worldZ;
+        vertices[offset++] = alpha;
+        vertices[offset++] = mesh.mColor[0];
+        vertices[offset++] = mesh.mColor[1];
+        vertices[offset++] = mesh.mColor[2];
+        return offset;
+    }
 
-        if (mVertexBuffer.capacity() < numVertices * COORDS_PER_VERTEX) {
-            int size = mVertexBuffer.capacity();
-            while (size < numVertices * COORDS_PER_VERTEX) {
-                size *= 2;
+    private static boolean samePose(float[] a, float[] b, int bOffset) {
+        for (int i = 0; i < 16; i++) {
+            if (Math.abs(a[i] - b[bOffset + i]) > POSE_EPSILON) {
+                return false;
             }
-            mVertexBuffer = ByteBuffer.allocateDirect(BYTES_PER_FLOAT * size)
+        }
+        return true;
+    }
+
+    /**
+     * Uploads the vertices of the planes that changed into their ranges of the batch vertex
+     * buffer. A new plane, or one that outgrew its range, gets a new range past the last one.
+     * Only when the buffer has no room left for it are all ranges laid out again.
+     */
+    private void uploadVertices() {
+        boolean layoutChanged = mVertexCapacity == 0;
+        for (int i = 0; i < mPlaneMeshList.size() && !layoutChanged; i++) {
+            PlaneMesh mesh = mPlaneMeshList.get(i);
+            if (!mesh.mDirty || mesh.getVertexCount() <= mesh.mRangeVertices) {
+                continue;
+            }
+            int rangeVertices = getRangeSize(mesh.getVertexCount());
+            if (mAllocatedVertices + rangeVertices > mVertexCapacity) {
+                layoutChanged = true;
+            } else {
+                // The old range stays unused until the ranges are laid out again.
+                mesh.mBaseVertex = mAllocatedVertices;
+                mesh.mRangeVertices = rangeVertices;
+                mAllocatedVertices += rangeVertices;
+                mIndicesChanged = true;
+            }
+        }
+
+        mGlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mBatchBuffers[0]);
+        if (layoutChanged) {
+            layOutVertices();
+            return;
+        }
+        for (int i = 0; i < mPlaneMeshList.size(); i++) {
+            PlaneMesh mesh = mPlaneMeshList.get(i);
+            if (!mesh.mDirty) {
+                continue;
+            }
+            mesh.mDirty = false;
+            int floats = mesh.getVertexCount() * FLOATS_PER_VERTEX;
+            if (mesh.mBaseVertex < 0 || floats == 0) {
+                continue;
+            }
+            int offset = mesh.mBaseVertex * FLOATS_PER_VERTEX;
+            mVertexBuffer.clear();
+            mVertexBuffer.position(offset);
+            mVertexBuffer.put(mesh.mVertices, 0, floats);
+            mVertexBuffer.position(offset);
+            mGl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, offset * BYTES_PER_FLOAT,
+                floats * BYTES_PER_FLOAT, mVertexBuffer);
+        }
+        mVertexBuffer.clear();
+    }
+
+    /**
+     * Gives every plane a new range in the batch vertex buffer, without the gaps left by planes
+     * that moved or were forgotten, and reallocates and uploads the whole buffer. The buffer
+     * keeps as much room again for planes to come or grow, up to {@link #MAX_BATCH_VERTICES}.
+     */
+    private void layOutVertices() {
+        int totalVertices = 0;
+        for (int i = 0; i < mPlaneMeshList.size(); i++) {
+            totalVertices += getRangeSize(mPlaneMeshList.get(i).getVertexCount());
+        }
+        int capacity = Math.max(mVertexCapacity, INITIAL_BATCH_VERTICES);
+        while (capacity < 2 * totalVertices && capacity < MAX_BATCH_VERTICES) {
+            capacity *= 2;
+        }
+        capacity = Math.min(capacity, MAX_BATCH_VERTICES);
+        if (mVertexBuffer.capacity() < capacity * FLOATS_PER_VERTEX) {
+            mVertexBuffer = ByteBuffer.allocateDirect(VERTEX_STRIDE * capacity)
                     .order(ByteOrder.nativeOrder()).asFloatBuffer();
         }
-        mVertexBuffer.rewind();
-        mVertexBuffer.limit(numVertices * COORDS_PER_VERTEX);
+        mVertexBuffer.clear();
+
+        int baseVertex = 0;
+        for (int i = 0; i < mPlaneMeshList.size(); i++) {
+            PlaneMesh mesh = mPlaneMeshList.get(i);
+            mesh.mDirty = false;
+            int vertexCount = mesh.getVertexCount();
+            if (vertexCount == 0 || baseVertex + vertexCount > capacity) {
+                mesh.mBaseVertex = -1;
+                mesh.mRangeVertices = 0;
+                continue;
+            }
+            mesh.mBaseVertex = baseVertex;
+            mesh.mRangeVertices = Math.min(getRangeSize(vertexCount), capacity - baseVertex);
+            mVertexBuffer.position(baseVertex * FLOATS_PER_VERTEX);
+            mVertexBuffer.put(mesh.mVertices, 0, vertexCount * FLOATS_PER_VERTEX);
+            baseVertex += mesh.mRangeVertices;
+        }
+        mAllocatedVertices = baseVertex;
+        mVertexCapacity = capacity;
+        mIndicesChanged = true;
+
+        mVertexBuffer.position(0);
+        mVertexBuffer.limit(capacity * FLOATS_PER_VERTEX);
+        mGl.glBufferData(GLES20.GL_ARRAY_BUFFER, capacity * VERTEX_STRIDE, mVertexBuffer,
+            GLES20.GL_DYNAMIC_DRAW);
+        mVertexBuffer.clear();
+    }
 
+    /** The size of a new range for a plane of this many vertices, with room to grow by half. */
+    private static int getRangeSize(int vertexCount) {
+        int size = vertexCount + vertexCount / 2;
+        return (size + VERTEX_RANGE_GRANULE - 1) / VERTEX_RANGE_GRANULE * VERTEX_RANGE_GRANULE;
+    }
 
-        if (mIndexBuffer.capacity() < numIndices) {
+    /**
+     * Builds the index buffer of the visible planes, nearest first, as a single triangle strip.
+     * Blending applies the triangles of one draw call in order, so the nearer planes still mask
+     * the farther ones through the alpha channel.
+     */
+    private void uploadIndices() {
+        int totalIndices = 0;
+        for (int i = 0; i < mDrawnMeshCount; i++) {
+            totalIndices += mDrawnMeshes[i].mBoundaryVertexCount * INDICES_PER_BOUNDARY_VERT
+                + INDICES_BETWEEN_PLANES;
+        }
+        if (mIndexBuffer.capacity() < totalIndices) {
             int size = mIndexBuffer.capacity();
-            while (size < numIndices) {
+            while (size < totalIndices) {
                 size *= 2;
             }
             mIndexBuffer = ByteBuffer.allocateDirect(BYTES_PER_SHORT * size)
                 .order(ByteOrder.nativeOrder()).asShortBuffer();
         }
-        mIndexBuffer.rewind();
-        mIndexBuffer.limit(numIndices);
-
-        // Note: when either dimension of the bounding box is smaller than 2*FADE_RADIUS_M we
-        // generate a bunch of 0-area triangles.  These don't get rendered though so it works
-        // out ok.
-        float xScale = Math.max((extentX - 2 * FADE_RADIUS_M) / extentX, 0.0f);
-        float zScale = Math.max((extentZ - 2 * FADE_RADIUS_M) / extentZ, 0.0f);
+        mIndexBuffer.clear();
+
+        for (int m = 0; m < mDrawnMeshCount; m++) {
+            PlaneMesh mesh = mDrawnMeshes[m];
+            int base = mesh.mBaseVertex;
+            int boundaryVertices = mesh.mBoundaryVertexCount;
+            int first = base + (boundaryVertices - 1) * 2;
+            if (m > 0) {
+                // Join the strips with degenerate triangles: repeat the last index of the
+                // previous plane and the first of this one.
+                mIndexBuffer.put(mIndexBuffer.get(mIndexBuffer.position() - 1));
+                mIndexBuffer.put((short) first);
+            }
 
-        while (boundary.hasRemaining()) {
-            float x = boundary.get();
-            float z = boundary.get();
-            mVertexBuffer.put(x);
-            mVertexBuffer.put(z);
-            mVertexBuffer.put(0.0f);
-            mVertexBuffer.put(x * xScale);
-            mVertexBuffer.put(z * zScale);
-            mVertexBuffer.put(1.0f);
+            // step 1, perimeter
+            mIndexBuffer.put((short) first);
+            for (int i = 0; i < boundaryVertices; ++i) {
+                mIndexBuffer.put((short) (base + i * 2));
+                mIndexBuffer.put((short) (base + i * 2 + 1));
+            }
+            mIndexBuffer.put((short) (base + 1));
+            // This leaves us on the interior edge of the perimeter between the inset vertices
+            // for boundary verts n-1 and 0.
+
+            // step 2, interior:
+            for (int i = 1; i < boundaryVertices / 2; ++i) {
+                mIndexBuffer.put((short) (base + (boundaryVertices - 1 - i) * 2 + 1));
+                mIndexBuffer.put((short) (base + i * 2 + 1));
+            }
+            if (boundaryVertices % 2 != 0) {
+                mIndexBuffer.put((short) (base + (boundaryVertices / 2) * 2 + 1));
+            }
         }
+        mIndexBuffer.flip();
+        mBatchIndexCount = mIndexBuffer.limit();
 
-        // step 1, perimeter
-        mIndexBuffer.put((short) ((boundaryVertices - 1) * 2));
-        for (int i = 0; i < boundaryVertices; ++i) {
-            mIndexBuffer.put((short) (i * 2));
-            mIndexBuffer.put((short) (i * 2 + 1));
-        }
-        mIndexBuffer.put((short) 1);
-        // This leaves us on the interior edge of the perimeter between the inset vertices
-        // for boundary verts n-1 and 0.
+        mGlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBatchBuffers[1]);
+        mGl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBatchIndexCount * BYTES_PER_SHORT,
+            mIndexBuffer, GLES20.GL_DYNAMIC_DRAW);
+    }
 
-        // step 2, interior:
-        for (int i = 1; i < boundaryVertices / 2; ++i) {
-            mIndexBuffer.put((short) ((boundaryVertices - 1 - i) * 2 + 1));
-            mIndexBuffer.put((short) (i * 2 + 1));
-        }
-        if (boundaryVertices % 2 != 0) {
-            mIndexBuffer.put((short) ((boundaryVertices / 2) * 2 + 1));
+    /** The world space geometry of one plane, and what it was generated from. */
+    static class PlaneMesh {
+        final Plane mPlane;
+        // Color and grid orientation, which tell the planes apart.
+        final float[] mColor = new float[4];
+        final float[] mUvMatrix = new float[4];
+        final float[] mPoseMatrix = new float[16];
+        boolean mGenerated;
+        int mHash;
+        float[] mVertices;
+        int mBoundaryVertexCount;
+        // Whether mVertices changed since they were uploaded.
+        boolean mDirty;
+        // The plane's range in the batch vertex buffer: its first vertex, or -1 if the plane is
+        // not in it, and its size, which can be more than the plane's vertices.
+        int mBaseVertex = -1;
+        int mRangeVertices;
+
+        PlaneMesh(Plane plane, int planeIndex) {
+            mPlane = plane;
+
+            // Set plane color. Computed deterministically from the Plane index.
+            colorRgbaToFloat(mColor, PLANE_COLORS_RGBA[planeIndex % PLANE_COLORS_RGBA.length]);
+
+            // Each plane will have its own angle offset from others, to make them easier to
+            // distinguish. Compute a 2x2 rotation matrix from the angle.
+            float angleRadians = planeIndex * 0.144f;
+            float uScale = DOTS_PER_METER;
+            float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
+            mUvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
+            mUvMatrix[1] = -(float) Math.sin(angleRadians) * uScale;
+            mUvMatrix[2] = +(float) Math.sin(angleRadians) * vScale;
+            mUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
         }
-    }
 
-    private void draw(float[] cameraView, float[] cameraPerspective) {
-        // Build the ModelView and ModelViewProjection matrices
-        // for calculating cube position and light.
-        Matrix.multiplyMM(mModelViewMatrix, 0, cameraView, 0, mModelMatrix, 0);
-        Matrix.multiplyMM(mModelViewProjectionMatrix, 0, cameraPerspective, 0, mModelViewMatrix, 0);
-
-        // Set the position of the plane
-        mVertexBuffer.rewind();
-        GLES20.glVertexAttribPointer(
-            mPlaneXZPositionAlphaAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
-            BYTES_PER_FLOAT * COORDS_PER_VERTEX, mVertexBuffer);
-
-        // Set the Model and ModelViewProjection matrices in the shader.
-        GLES20.glUniformMatrix4fv(mPlaneModelUniform, 1, false, mModelMatrix, 0);
-        GLES20.glUniformMatrix4fv(
-            mPlaneModelViewProjectionUniform, 1, false, mModelViewProjectionMatrix, 0);
-
-        mIndexBuffer.rewind();
-        GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, mIndexBuffer.limit(),
-            GLES20.GL_UNSIGNED_SHORT, mIndexBuffer);
-        ShaderUtil.checkGLError(TAG, "Drawing plane");
+        int getVertexCount() {
+            return mBoundaryVertexCount * VERTS_PER_BOUNDARY_VERT;
+        }
     }
 
+    /** The snapshot slot of a plane and its distance from the camera. Reused between frames. */
     static class SortablePlane {
-        final float mDistance;
-        final Plane mPlane;
-        public SortablePlane(float distance, Plane plane) {
-            this.mDistance = distance;
-            this.mPlane = plane;
-        }
+        float mDistance;
+        int mSlot;
     }
 
     /**
-     * Draws the collection of tracked planes, with closer planes hiding more distant ones.
+     * Draws the collection of tracked planes, with closer planes hiding more distant ones, in a
+     * single draw call. The world space geometry of each plane is only regenerated when the
+     * plane changes, and then only its range of the vertex buffer is uploaded again. The indices
+     * are only rebuilt when the drawing order or a plane's range changed. Does not allocate
+     * unless a new plane is detected or more planes than ever before are visible.
      *
-     * @param allPlanes The collection of planes to draw.
-     * @param cameraPose The pose of the camera, as returned by {@link Frame#getPose()}
+     * @param snapshot The state of the planes in this frame.
+     * @param cameraView The view matrix, the inverse of the camera pose.
      * @param cameraPerspective The projection matrix, as returned by
      *     {@link Session#getProjectionMatrix(float[], int, float, float)}
      */
-    public void drawPlanes(Collection<Plane> allPlanes, Pose cameraPose,
+    public void drawPlanes(FrameSnapshot snapshot, float[] cameraView,
             float[] cameraPerspective) {
+        // The camera position is the translation of the inverse of the rigid view matrix.
+        float cameraX = -(cameraView[0] * cameraView[12] + cameraView[1] * cameraView[13]
+            + cameraView[2] * cameraView[14]);
+        float cameraY = -(cameraView[4] * cameraView[12] + cameraView[5] * cameraView[13]
+            + cameraView[6] * cameraView[14]);
+        float cameraZ = -(cameraView[8] * cameraView[12] + cameraView[9] * cameraView[13]
+            + cameraView[10] * cameraView[14]);
+
         // Planes must be sorted by distance from camera so that we draw closer planes first, and
         // they occlude the farther planes.
-        List<SortablePlane> sortedPlanes = new ArrayList<>();
-        float[] normal = new float[3];
-        float cameraX = cameraPose.tx();
-        float cameraY = cameraPose.ty();
-        float cameraZ = cameraPose.tz();
-        for (Plane plane : allPlanes) {
-            if (plane.getType() != com.google.ar.core.Plane.Type.HORIZONTAL_UPWARD_FACING ||
-                    plane.getTrackingState() != Plane.TrackingState.TRACKING) {
-                continue;
-            }
+        mSortedPlaneCount = 0;
+        for (int i = 0; i < snapshot.getPlaneCount(); i++) {
+            addSortedPlane(snapshot, snapshot.getPlaneSlot(i), cameraX, cameraY, cameraZ);
+        }
 
-            Pose center = plane.getCenterPose();
-            // Get transformed Y axis of plane's coordinate system.
-            center.getTransformedAxis(1, 1.0f, normal, 0);
-            // Compute dot product of plane's normal with vector from camera to plane center.
-            float distance = (cameraX - center.tx()) * normal[0] +
-                (cameraY - center.ty()) * normal[1] + (cameraZ - center.tz()) * normal[2];
-            if (distance < 0) {  // Plane is back-facing.
-                continue;
+        // Bring the geometry of the visible planes up to date, and hand them to the hit tester.
+        // Only a newly detected plane allocates a mesh here.
+        float[] extents = snapshot.getPlaneExtents();
+        for (int i = 0; i < mSortedPlaneCount; i++) {
+            int slot = mSortedPlanes[i].mSlot;
+            Plane plane = snapshot.getPlane(slot);
+            PlaneMesh mesh = mPlaneMeshes.get(plane);
+            if (mesh == null) {
+                mesh = new PlaneMesh(plane, mNextPlaneIndex++);
+                mPlaneMeshes.put(plane, mesh);
+                mPlaneMeshList.add(mesh);
             }
-            sortedPlanes.add(new SortablePlane(distance, plane));
-        }
-        Collections.sort(sortedPlanes, new Comparator<SortablePlane>() {
-            @Override
-            public int compare(SortablePlane a, SortablePlane b) {
-                return Float.compare(a.mDistance, b.mDistance);
+            updatePlaneMesh(mesh, snapshot.getPlaneMatrices(), 16 * slot, extents[2 * slot],
+                extents[2 * slot + 1], snapshot.getPlanePolygon(slot),
+                snapshot.getPlanePolygonLength(slot));
+            if (mHitTester != null) {
+                mHitTester.addPlane(slot);
             }
-        });
+        }
+        evictPlaneMeshes(snapshot);
 
+        if (mVerticesChanged) {
+            uploadVertices();
+            mVerticesChanged = false;
+        }
+        boolean drawnMeshesChanged = updateDrawnMeshes(snapshot);
+        if (drawnMeshesChanged || mIndicesChanged) {
+            uploadIndices();
+            mIndicesChanged = false;
+        }
 
-        float cameraView[] = new float[16];
-        cameraPose.inverse().toMatrix(cameraView, 0);
+        if (mBatchIndexCount == 0) {
+            return;
+        }
 
         // Planes are drawn with additive blending, masked by the alpha channel for occlusion.
 
         // Start by clearing the alpha channel of the color buffer to 1.0.
-        GLES20.glClearColor(1, 1, 1, 1);
-        GLES20.glColorMask(false, false, false, true);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        GLES20.glColorMask(true, true, true, true);
+        mGl.glClearColor(1, 1, 1, 1);
+        mGlState.colorMask(false, false, false, true);
+        mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mGlState.colorMask(true, true, true, true);
 
-        // Disable depth write.
-        GLES20.glDepthMask(false);
+        // Depth test against the scene, without writing depth.
+        mGlState.setEnabled(GLES20.GL_DEPTH_TEST, true);
+        mGlState.depthMask(false);
 
         // Additive blending, masked by alpha chanel, clearing alpha channel.
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFuncSeparate(
+        mGlState.setEnabled(GLES20.GL_BLEND, true);
+        mGlState.blendFuncSeparate(
             GLES20.GL_DST_ALPHA, GLES20.GL_ONE,              // RGB (src, dest)
             GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA);  // ALPHA (src, dest)
 
         // Set up the shader.
-        GLES20.glUseProgram(mPlaneProgram);
+        mGlState.useProgram(mPlaneProgram);
 
         // Attach the texture.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
-        GLES20.glUniform1i(mTextureUniform, 0);
-
-        // Shared fragment uniforms.
-        GLES20.glUniform4fv(mGridControlUniform, 1, GRID_CONTROL, 0);
-
-        // Enable vertex arrays
-        GLES20.glEnableVertexAttribArray(mPlaneXZPositionAlphaAttribute);
-
-        ShaderUtil.checkGLError(TAG, "Setting up to draw planes");
-
-        for (SortablePlane sortedPlane : sortedPlanes) {
-            Plane plane = sortedPlane.mPlane;
-            float[] planeMatrix = new float[16];
-            plane.getCenterPose().toMatrix(planeMatrix, 0);
-
-            updatePlaneParameters(planeMatrix, plane.getExtentX(),
-                plane.getExtentZ(), plane.getPlanePolygon());
+        mGlState.activeTexture(GLES20.GL_TEXTURE0);
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+        mGl.glUniform1i(mTextureUniform, 0);
+
+        // Shared uniforms. The vertices are already in world space.
+        mGl.glUniform4fv(mGridControlUniform, 1, GRID_CONTROL, 0);
+        MatrixUtil.multiplyMM(mViewProjectionMatrix, 0, cameraPerspective, 0, cameraView, 0);
+        mGl.glUniformMatrix4fv(mViewProjectionUniform, 1, false, mViewProjectionMatrix, 0);
+
+        // Set the vertex attributes.
+        mGlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mBatchBuffers[0]);
+        mGl.glVertexAttribPointer(mPositionAttribute, POSITION_FLOATS, GLES20.GL_FLOAT, false,
+            VERTEX_STRIDE, 0);
+        mGl.glVertexAttribPointer(mTexCoordAlphaAttribute, TEXCOORD_ALPHA_FLOATS,
+            GLES20.GL_FLOAT, false, VERTEX_STRIDE, TEXCOORD_ALPHA_OFFSET);
+        mGl.glVertexAttribPointer(mColorAttribute, COLOR_FLOATS, GLES20.GL_FLOAT, false,
+            VERTEX_STRIDE, COLOR_OFFSET);
+        mGlState.setVertexAttribArrays(mPlaneAttributeMask);
+
+        mGlState.getValidation().check(TAG, "Setting up to draw planes");
+
+        mGlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBatchBuffers[1]);
+        mGl.glDrawElements(GLES20.GL_TRIANGLE_STRIP, mBatchIndexCount,
+            GLES20.GL_UNSIGNED_SHORT, 0);
+
+        mGlState.getValidation().check(TAG, "After drawing planes");
+    }
 
-            // Get plane index. Keep a map to assign same indices to same planes.
-            Integer planeIndex = mPlaneIndexMap.get(plane);
-            if (planeIndex == null) {
-                planeIndex = Integer.valueOf(mPlaneIndexMap.size());
-                mPlaneIndexMap.put(plane, planeIndex);
+    /**
+     * Lists the meshes to draw this frame, nearest first, leaving out the planes without
+     * geometry or without room in the vertex buffer.
+     *
+     * @return Whether the list differs from the last frame's.
+     */
+    private boolean updateDrawnMeshes(FrameSnapshot snapshot) {
+        if (mDrawnMeshes.length < mSortedPlaneCount) {
+            PlaneMesh[] grown = new PlaneMesh[mSortedPlanes.length];
+            System.arraycopy(mDrawnMeshes, 0, grown, 0, mDrawnMeshCount);
+            mDrawnMeshes = grown;
+        }
+        boolean changed = false;
+        int count = 0;
+        for (int i = 0; i < mSortedPlaneCount; i++) {
+            PlaneMesh mesh = mPlaneMeshes.get(snapshot.getPlane(mSortedPlanes[i].mSlot));
+            if (mesh == null || mesh.mBaseVertex < 0 || mesh.mBoundaryVertexCount == 0) {
+                continue;
             }
+            changed |= count >= mDrawnMeshCount || mDrawnMeshes[count] != mesh;
+            mDrawnMeshes[count++] = mesh;
+        }
+        changed |= count != mDrawnMeshCount;
+        for (int i = count; i < mDrawnMeshCount; i++) {
+            mDrawnMeshes[i] = null;
+        }
+        mDrawnMeshCount = count;
+        return changed;
+    }
 
-            // Set plane color. Computed deterministically from the Plane index.
-            int colorIndex = planeIndex % PLANE_COLORS_RGBA.length;
-            colorRgbaToFloat(mPlaneColor, PLANE_COLORS_RGBA[colorIndex]);
-            GLES20.glUniform4fv(mLineColorUniform, 1, mPlaneColor, 0);
-            GLES20.glUniform4fv(mDotColorUniform, 1, mPlaneColor, 0);
-
-            // Each plane will have its own angle offset from others, to make them easier to
-            // distinguish. Compute a 2x2 rotation matrix from the angle.
-            float angleRadians = planeIndex * 0.144f;
-            float uScale = DOTS_PER_METER;
-            float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
-            mPlaneAngleUvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
-            mPlaneAngleUvMatrix[1] = -(float) Math.sin(angleRadians) * uScale;
-            mPlaneAngleUvMatrix[2] = +(float) Math.sin(angleRadians) * vScale;
-            mPlaneAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
-            GLES20.glUniformMatrix2fv(mPlaneUvMatrixUniform, 1, false, mPlaneAngleUvMatrix, 0);
+    /**
+     * Inserts a plane into {@link #mSortedPlanes}, nearest first, unless it is not a tracked,
+     * upward facing plane seen from above. There are few planes, so insertion sort is the
+     * cheapest, and unlike {@code Collections.sort} it needs no temporary storage.
+     */
+    private void addSortedPlane(FrameSnapshot snapshot, int slot, float cameraX, float cameraY,
+        float cameraZ) {
+        // A merged plane is drawn as part of the plane that subsumed it.
+        if (snapshot.getPlaneType(slot) != Plane.Type.HORIZONTAL_UPWARD_FACING
+                || !snapshot.isPlaneTracking(slot) || snapshot.isPlaneSubsumed(slot)) {
+            return;
+        }
 
-            draw(cameraView, cameraPerspective);
+        // The Y axis of the plane's coordinate system is its normal.
+        float[] center = snapshot.getPlaneMatrices();
+        int o = 16 * slot;
+        // Compute dot product of plane's normal with vector from camera to plane center.
+        float distance = (cameraX - center[o + 12]) * center[o + 4] +
+            (cameraY - center[o + 13]) * center[o + 5] + (cameraZ - center[o + 14]) * center[o + 6];
+        if (distance < 0) {  // Plane is back-facing.
+            return;
         }
 
-        // Clean up the state we set
-        GLES20.glDisableVertexAttribArray(mPlaneXZPositionAlphaAttribute);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLES20.glDepthMask(true);
+        if (mSortedPlaneCount == mSortedPlanes.length) {
+            SortablePlane[] grown = new SortablePlane[2 * mSortedPlanes.length];
+            System.arraycopy(mSortedPlanes, 0, grown, 0, mSortedPlaneCount);
+            mSortedPlanes = grown;
+        }
+        SortablePlane inserted = mSortedPlanes[mSortedPlaneCount];
+        if (inserted == null) {
+            inserted = new SortablePlane();
+        }
+        int i = mSortedPlaneCount++;
+        while (i > 0 && mSortedPlanes[i - 1].mDistance > distance) {
+            mSortedPlanes[i] = mSortedPlanes[i - 1];
+            i--;
+        }
+        inserted.mDistance = distance;
+        inserted.mSlot = slot;
+        mSortedPlanes[i] = inserted;
+    }
 
-        ShaderUtil.checkGLError(TAG, "Cleaning up after drawing planes");
+    /**
+     * Forgets the meshes of planes that will not be drawn again: those merged into another
+     * plane, and those that left the snapshot as ARCore stopped tracking them.
+     */
+    private void evictPlaneMeshes(FrameSnapshot snapshot) {
+        for (int i = mPlaneMeshList.size() - 1; i >= 0; i--) {
+            PlaneMesh mesh = mPlaneMeshList.get(i);
+            int slot = snapshot.findPlaneSlot(mesh.mPlane);
+            if (slot >= 0 && !snapshot.isPlaneSubsumed(slot)) {
+                continue;
+            }
+            mPlaneMeshes.remove(mesh.mPlane);
+            // Order does not matter, so the last mesh fills the gap.
+            int last = mPlaneMeshList.size() - 1;
+            mPlaneMeshList.set(i, mPlaneMeshList.get(last));
+            mPlaneMeshList.remove(last);
+            // The other planes keep their ranges. This one's stays unused until the ranges are
+            // laid out again.
+        }
     }
 
     private static void colorRgbaToFloat(float[] planeColor, int colorRgba) {
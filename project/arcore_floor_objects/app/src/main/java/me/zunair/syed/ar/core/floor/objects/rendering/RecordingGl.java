@@ -0,0 +1,429 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.graphics.Bitmap;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link Gl} that records every call before passing it on to another backend, by default a
+ * {@link NoOpGl}. Tests can read back the command stream and the number of draw calls, state
+ * changes, uploaded bytes and error checks, and check them against a budget per scene.
+ *
+ * <p>Recording allocates on every call, so this backend is for tests and diagnostics only.
+ */
+public class RecordingGl implements Gl {
+    /** Calls that change the pipeline state, rather than resources or uniforms. */
+    private static final Set<String> STATE_CHANGES = new HashSet<>(Arrays.asList(
+        "glActiveTexture", "glBindBuffer", "glBindTexture", "glBlendFunc", "glBlendFuncSeparate",
+        "glColorMask", "glDepthMask", "glDisable", "glDisableVertexAttribArray", "glEnable",
+        "glEnableVertexAttribArray", "glUseProgram"));
+
+    private final Gl mDelegate;
+
+    private final List<String> mCommands = new ArrayList<>();
+    private final Map<String, Integer> mCallCounts = new HashMap<>();
+    private int mDrawCallCount;
+    private int mStateChangeCount;
+    private long mUploadedBytes;
+
+    public RecordingGl() {
+        this(new NoOpGl());
+    }
+
+    /** @param delegate The backend that runs the recorded calls. */
+    public RecordingGl(Gl delegate) {
+        mDelegate = delegate;
+    }
+
+    /** Every call since the last {@link #reset()}, with its arguments, oldest first. */
+    public List<String> getCommands() {
+        return Collections.unmodifiableList(mCommands);
+    }
+
+    /** Number of calls to a function, such as {@code "glUniform4fv"}. */
+    public int getCallCount(String function) {
+        Integer count = mCallCounts.get(function);
+        return count == null ? 0 : count;
+    }
+
+    /** Number of {@code glDrawArrays} and {@code glDrawElements} calls. */
+    public int getDrawCallCount() {
+        return mDrawCallCount;
+    }
+
+    /**
+     * Number of calls that change the pipeline state: program, texture and buffer bindings,
+     * capabilities, masks, blend functions and enabled vertex attribute arrays.
+     */
+    public int getStateChangeCount() {
+        return mStateChangeCount;
+    }
+
+    /**
+     * Bytes passed to {@code glBufferData}, {@code glBufferSubData} and {@code texImage2D}.
+     * Vertices drawn from client memory are not counted.
+     */
+    public long getUploadedBytes() {
+        return mUploadedBytes;
+    }
+
+    /** Number of {@code glGetError} calls, each of which can stall a real driver. */
+    public int getErrorCheckCount() {
+        return getCallCount("glGetError");
+    }
+
+    /** Forgets the recorded calls and counts. */
+    public void reset() {
+        mCommands.clear();
+        mCallCounts.clear();
+        mDrawCallCount = 0;
+        mStateChangeCount = 0;
+        mUploadedBytes = 0;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        record("glActiveTexture", texture);
+        mDelegate.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        record("glAttachShader", program, shader);
+        mDelegate.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record("glBindBuffer", target, buffer);
+        mDelegate.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record("glBindTexture", target, texture);
+        mDelegate.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        record("glBlendFunc", sfactor, dfactor);
+        mDelegate.glBlendFunc(sfactor, dfactor);
+    }
+
+    @Override
+    public void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+        record("glBlendFuncSeparate", srcRGB, dstRGB, srcAlpha, dstAlpha);
+        mDelegate.glBlendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        record("glBufferData", target, size, data, usage);
+        mUploadedBytes += size;
+        mDelegate.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        record("glBufferSubData", target, offset, size, data);
+        mUploadedBytes += size;
+        mDelegate.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        record("glClear", mask);
+        mDelegate.glClear(mask);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        record("glClearColor", red, green, blue, alpha);
+        mDelegate.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glColorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+        record("glColorMask", red, green, blue, alpha);
+        mDelegate.glColorMask(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        record("glCompileShader", shader);
+        mDelegate.glCompileShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        record("glCreateProgram");
+        return mDelegate.glCreateProgram();
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        record("glCreateShader", type);
+        return mDelegate.glCreateShader(type);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        record("glDeleteBuffers", n, buffers, offset);
+        mDelegate.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        record("glDeleteProgram", program);
+        mDelegate.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        record("glDeleteShader", shader);
+        mDelegate.glDeleteShader(shader);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        record("glDeleteTextures", n, textures, offset);
+        mDelegate.glDeleteTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        record("glDepthMask", flag);
+        mDelegate.glDepthMask(flag);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        record("glDisable", cap);
+        mDelegate.glDisable(cap);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record("glDisableVertexAttribArray", index);
+        mDelegate.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        record("glDrawArrays", mode, first, count);
+        mDelegate.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        record("glDrawElements", mode, count, type, offset);
+        mDelegate.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        record("glDrawElements", mode, count, type, indices);
+        mDelegate.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        record("glEnable", cap);
+        mDelegate.glEnable(cap);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record("glEnableVertexAttribArray", index);
+        mDelegate.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        record("glGenBuffers", n, buffers, offset);
+        mDelegate.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        record("glGenTextures", n, textures, offset);
+        mDelegate.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        record("glGenerateMipmap", target);
+        mDelegate.glGenerateMipmap(target);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        record("glGetAttribLocation", program, name);
+        return mDelegate.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetError() {
+        record("glGetError");
+        return mDelegate.glGetError();
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        record("glGetShaderInfoLog", shader);
+        return mDelegate.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        record("glGetShaderiv", shader, pname, params, offset);
+        mDelegate.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        record("glGetString", name);
+        return mDelegate.glGetString(name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        record("glGetUniformLocation", program, name);
+        return mDelegate.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        record("glLinkProgram", program);
+        mDelegate.glLinkProgram(program);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        record("glShaderSource", shader, string);
+        mDelegate.glShaderSource(shader, string);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        record("glTexParameteri", target, pname, param);
+        mDelegate.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        record("glUniform1i", location, x);
+        mDelegate.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform2fv(int location, int count, float[] v, int offset) {
+        record("glUniform2fv", location, count, v, offset);
+        mDelegate.glUniform2fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        record("glUniform3fv", location, count, v, offset);
+        mDelegate.glUniform3fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        record("glUniform4f", location, x, y, z, w);
+        mDelegate.glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        record("glUniform4fv", location, count, v, offset);
+        mDelegate.glUniform4fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniformMatrix2fv(int location, int count, boolean transpose, float[] value,
+        int offset) {
+        record("glUniformMatrix2fv", location, count, transpose, value, offset);
+        mDelegate.glUniformMatrix2fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+        int offset) {
+        record("glUniformMatrix4fv", location, count, transpose, value, offset);
+        mDelegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record("glUseProgram", program);
+        mDelegate.glUseProgram(program);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+        int stride, int offset) {
+        record("glVertexAttribPointer", index, size, type, normalized, stride, offset);
+        mDelegate.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+        int stride, Buffer ptr) {
+        record("glVertexAttribPointer", index, size, type, normalized, stride, ptr);
+        mDelegate.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        record("texImage2D", target, level, bitmap, border);
+        mUploadedBytes += bitmap.getByteCount();
+        mDelegate.texImage2D(target, level, bitmap, border);
+    }
+
+    private void record(String function, Object... args) {
+        StringBuilder command = new StringBuilder(function).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                command.append(", ");
+            }
+            command.append(format(args[i]));
+        }
+        mCommands.add(command.append(')').toString());
+
+        mCallCounts.put(function, getCallCount(function) + 1);
+        if (function.startsWith("glDraw")) {
+            mDrawCallCount++;
+        } else if (STATE_CHANGES.contains(function)) {
+            mStateChangeCount++;
+        }
+    }
+
+    private static String format(Object arg) {
+        if (arg instanceof int[]) {
+            return Arrays.toString((int[]) arg);
+        } else if (arg instanceof float[]) {
+            return Arrays.toString((float[]) arg);
+        } else if (arg instanceof Buffer) {
+            return "Buffer[" + ((Buffer) arg).remaining() + "]";
+        } else if (arg instanceof Bitmap) {
+            Bitmap bitmap = (Bitmap) arg;
+            return "Bitmap[" + bitmap.getWidth() + "x" + bitmap.getHeight() + "]";
+        } else if (arg instanceof String) {
+            // Shader sources span many lines.
+            String string = (String) arg;
+            return string.indexOf('\n') < 0
+                ? "\"" + string + "\"" : "String[" + string.length() + "]";
+        }
+        return String.valueOf(arg);
+    }
+}
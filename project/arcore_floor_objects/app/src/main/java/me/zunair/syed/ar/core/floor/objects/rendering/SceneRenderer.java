@@ -0,0 +1,292 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import me.zunair.syed.ar.core.floor.objects.model.ObjectsModel;
+
+import com.google.ar.core.Pose;
+
+import java.util.Arrays;
+
+/**
+ * Draws the planes and the placed objects of a frame, from the {@link FrameSnapshot} and the
+ * camera of the frame. Objects are grouped by model, so that the state shared by all objects of
+ * a model is set up once per frame. Objects outside of the camera's view are skipped, and the
+ * others are drawn at the coarsest level of detail that looks right, within a triangle budget.
+ *
+ * <p>Reads nothing of ARCore but the snapshot and the camera pose, and calls nothing of the
+ * Android framework but the {@link Gl} backend, so that whole frames also run in unit tests
+ * against {@link NoOpGl}. Does not allocate once warmed up. Must be used on the OpenGL thread.
+ */
+public class SceneRenderer {
+    // Largest simplification error allowed on screen, as a fraction of the viewport height.
+    private static final float MAX_LOD_SCREEN_ERROR = 0.001f;
+    // Triangles drawn per frame for placed objects. Past this, coarser levels of detail are
+    // allowed until the count is back within budget.
+    private static final int TRIANGLE_BUDGET = 100000;
+    private static final float MAX_LOD_ERROR_SCALE = 16.0f;
+
+    /** The renderers of the models in the catalog. */
+    public interface Models {
+        /** Returns the renderer of a model, or null while the model is not loaded. */
+        ObjectRenderer get(int modelId);
+    }
+
+    private final FrameSnapshot mSnapshot;
+    private final SceneStore mScene;
+    private final Models mModels;
+    private final int mModelCount;
+    private final FrameProfiler mProfiler;
+    private final PlaneRenderer mPlaneRenderer;
+    private PlaneHitTester mHitTester;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
+    // GPU time of the planes and of each model, or null if not measured.
+    private GpuTimer mGpuTimer;
+    private int mPlanesGpuSection;
+    private int mFirstModelGpuSection;
+
+    // The newest object follows the pinch scale while it is of the selected model.
+    private int mSelectedModelId = ObjectsModel.NO_ID;
+    private float mSelectedScaleFactor = 1.0f;
+
+    private final float[] mCameraMatrix = new float[16];
+    private final float[] mViewMatrix = new float[16];
+    private final float[] mViewProjectionMatrix = new float[16];
+
+    // View frustum culling of the placed objects.
+    private final Frustum mFrustum = new Frustum();
+    private volatile int mCulledObjectCount;
+
+    // Level of detail selection.
+    private float mLodErrorScale = 1.0f;
+    private volatile int mDrawnTriangleCount;
+
+    // Per-frame grouping of the tracked objects by model, allocated once.
+    private final int[] mModelObjectCounts;
+    private final int[] mModelObjectStarts;
+    private final int[] mTrackedModelIndices;
+    private final int[] mTrackedObjectSlots;
+    private final int[] mSortedObjectSlots;
+
+    /**
+     * @param glState The state of the context to draw in, which also gives the GL backend.
+     * @param snapshot The state of the planes and anchors, updated before each frame.
+     * @param scene The placed objects.
+     * @param models The renderers of the models the objects are of.
+     * @param profiler Times the planes and objects stages of each frame.
+     */
+    public SceneRenderer(GlState glState, FrameSnapshot snapshot, SceneStore scene,
+                         Models models, FrameProfiler profiler) {
+        mSnapshot = snapshot;
+        mScene = scene;
+        mModels = models;
+        mModelCount = scene.getModelCount();
+        mProfiler = profiler;
+        mPlaneRenderer = new PlaneRenderer(glState);
+
+        mModelObjectCounts = new int[mModelCount];
+        mModelObjectStarts = new int[mModelCount];
+        mTrackedModelIndices = new int[scene.getCapacity()];
+        mTrackedObjectSlots = new int[scene.getCapacity()];
+        mSortedObjectSlots = new int[scene.getCapacity()];
+    }
+
+    /** The renderer of the planes, whose GL resources are created with the context. */
+    public PlaneRenderer getPlaneRenderer() {
+        return mPlaneRenderer;
+    }
+
+    /**
+     * @param hitTester Filled with the planes drawn in each frame and their camera, or null.
+     */
+    public void setHitTester(PlaneHitTester hitTester) {
+        mHitTester = hitTester;
+        mPlaneRenderer.setHitTester(hitTester);
+    }
+
+    /** Sets the size of the surface, which taps are tested in. */
+    public void setViewport(int width, int height) {
+        mViewportWidth = width;
+        mViewportHeight = height;
+    }
+
+    /**
+     * Measures the GPU time of the planes and of each model.
+     *
+     * @param gpuTimer The timer of the context, or null.
+     * @param planesSection Section of the planes.
+     * @param firstModelSection Section of the model with id 0, followed by the others.
+     */
+    public void setGpuTimer(GpuTimer gpuTimer, int planesSection, int firstModelSection) {
+        mGpuTimer = gpuTimer;
+        mPlanesGpuSection = planesSection;
+        mFirstModelGpuSection = firstModelSection;
+    }
+
+    /** Sets the model and scale of the newest object while it is being pinched. */
+    public void setSelectedModel(int modelId, float scaleFactor) {
+        mSelectedModelId = modelId;
+        mSelectedScaleFactor = scaleFactor;
+    }
+
+    /**
+     * Draws the planes and the tracked objects. Call after the snapshot is updated for the
+     * frame.
+     *
+     * @param cameraPose The pose of the camera in world space.
+     * @param projectionMatrix The projection matrix.
+     * @param lightIntensity Average intensity of the camera image.
+     */
+    public void drawFrame(Pose cameraPose, float[] projectionMatrix, float lightIntensity) {
+        // Frame.getViewMatrix() allocates the inverse pose, so the rigid camera matrix is
+        // inverted here instead.
+        float[] viewmtx = mViewMatrix;
+        float[] projmtx = projectionMatrix;
+        cameraPose.toMatrix(mCameraMatrix, 0);
+        MatrixUtil.invertM(viewmtx, 0, mCameraMatrix, 0);
+
+        // Objects outside of the camera's view are not drawn.
+        MatrixUtil.multiplyMM(mViewProjectionMatrix, 0, projmtx, 0, viewmtx, 0);
+        mFrustum.update(mViewProjectionMatrix);
+        int culledCount = 0;
+        int triangleCount = 0;
+        float maxLodScreenError = MAX_LOD_SCREEN_ERROR * mLodErrorScale;
+
+        // Visualize planes. The planes drawn are also the ones taps are tested against.
+        if (mHitTester != null) {
+            mHitTester.beginFrame(mSnapshot, viewmtx, projmtx, mViewportWidth, mViewportHeight);
+        }
+        mProfiler.begin(FrameProfiler.STAGE_PLANES);
+        beginGpuSection(mPlanesGpuSection);
+        mPlaneRenderer.drawPlanes(mSnapshot, viewmtx, projmtx);
+        endGpuSection();
+        mProfiler.end(FrameProfiler.STAGE_PLANES);
+
+        // Visualize anchors created by touch. Objects are grouped by model, so that the state
+        // shared by all objects of a model is set up once per frame.
+        mProfiler.begin(FrameProfiler.STAGE_OBJECTS);
+        // The anchor and plane poses are updated during calls to session.update() as ARCore
+        // refines its estimate of the world.
+        mScene.update();
+        int trackedCount = 0;
+        Arrays.fill(mModelObjectCounts, 0);
+        for (int i = 0; i < mScene.size(); i++) {
+            int slot = mScene.getSlot(i);
+            if (!mScene.isTracking(slot)) {
+                continue;
+            }
+
+            int modelIndex = mScene.getModelId(slot);
+            if (i == mScene.size() - 1 && modelIndex == mSelectedModelId) {
+                mScene.setScaleFactor(slot, mSelectedScaleFactor);
+            }
+
+            mTrackedModelIndices[trackedCount] = modelIndex;
+            mTrackedObjectSlots[trackedCount] = slot;
+            mModelObjectCounts[modelIndex]++;
+            trackedCount++;
+        }
+
+        // Counting sort of the tracked objects by model.
+        int groupStart = 0;
+        for (int modelIndex = 0; modelIndex < mModelCount; modelIndex++) {
+            mModelObjectStarts[modelIndex] = groupStart;
+            groupStart += mModelObjectCounts[modelIndex];
+        }
+        for (int i = 0; i < trackedCount; i++) {
+            int modelIndex = mTrackedModelIndices[i];
+            mSortedObjectSlots[mModelObjectStarts[modelIndex]
+                + --mModelObjectCounts[modelIndex]] = mTrackedObjectSlots[i];
+        }
+
+        // The matrices of every tracked object, in one pass.
+        mScene.computeTransforms(viewmtx, mViewProjectionMatrix);
+
+        for (int modelIndex = 0; modelIndex < mModelCount; modelIndex++) {
+            int start = mModelObjectStarts[modelIndex];
+            int end = modelIndex + 1 < mModelCount
+                ? mModelObjectStarts[modelIndex + 1] : trackedCount;
+            if (start == end) {
+                continue;
+            }
+
+            // Objects of a model that is still loading show up once it is ready.
+            ObjectRenderer virtualObject = mModels.get(modelIndex);
+            if (virtualObject == null) {
+                continue;
+            }
+
+            boolean drawing = false;
+            for (int i = start; i < end; i++) {
+                int slot = mSortedObjectSlots[i];
+                virtualObject.setModelMatrix(
+                    mScene.getModelMatrices(), 16 * slot, mScene.getScaleFactor(slot));
+                if (!virtualObject.isInFrustum(mFrustum)) {
+                    culledCount++;
+                    continue;
+                }
+
+                // Only set up the model's state if any of its objects is visible.
+                if (!drawing) {
+                    beginGpuSection(mFirstModelGpuSection + modelIndex);
+                    virtualObject.beginDraw(viewmtx, projmtx, lightIntensity);
+                    drawing = true;
+                }
+                int lod = virtualObject.selectLod(
+                    viewmtx, projmtx, mScene.getLod(slot), maxLodScreenError);
+                mScene.setLod(slot, lod);
+                virtualObject.drawInstance(lod, mScene.getModelViewMatrices(),
+                    mScene.getModelViewProjectionMatrices(), 16 * slot);
+                triangleCount += virtualObject.getLodTriangleCount(lod);
+            }
+            if (drawing) {
+                virtualObject.endDraw();
+                endGpuSection();
+            }
+        }
+        mProfiler.end(FrameProfiler.STAGE_OBJECTS);
+        mCulledObjectCount = culledCount;
+        mDrawnTriangleCount = triangleCount;
+        updateLodErrorScale(triangleCount);
+    }
+
+    /**
+     * Number of placed objects that were skipped in the last frame because they were outside of
+     * the camera's view.
+     */
+    public int getCulledObjectCount() {
+        return mCulledObjectCount;
+    }
+
+    /**
+     * Number of triangles drawn for placed objects in the last frame.
+     */
+    public int getDrawnTriangleCount() {
+        return mDrawnTriangleCount;
+    }
+
+    /**
+     * Relaxes the level of detail error limit while the placed objects need more triangles than
+     * the budget, and tightens it again slowly once they fit, so that the level of detail of
+     * every object does not flip each frame.
+     */
+    private void updateLodErrorScale(int triangleCount) {
+        if (triangleCount > TRIANGLE_BUDGET) {
+            mLodErrorScale = Math.min(mLodErrorScale * 1.25f, MAX_LOD_ERROR_SCALE);
+        } else if (triangleCount < TRIANGLE_BUDGET * 3 / 4) {
+            mLodErrorScale = Math.max(mLodErrorScale / 1.05f, 1.0f);
+        }
+    }
+
+    private void beginGpuSection(int section) {
+        if (mGpuTimer != null) {
+            mGpuTimer.begin(section);
+        }
+    }
+
+    private void endGpuSection() {
+        if (mGpuTimer != null) {
+            mGpuTimer.end();
+        }
+    }
+}
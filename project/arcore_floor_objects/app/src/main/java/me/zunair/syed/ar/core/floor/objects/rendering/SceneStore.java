@@ -0,0 +1,591 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+
+/**
+ * The placed objects, kept as a structure of arrays: translations, rotations, scales, model ids
+ * and flags each live in one primitive array, indexed by the object's slot. Each object stays on
+ * the plane it was placed on (in Y direction), while still tracking the XZ changes of its anchor.
+ *
+ * <p>Anchors are expensive for ARCore to track, so objects placed close together on a plane can
+ * share one: they belong to a cluster, which holds the anchor, and keep their pose relative to
+ * it. A cluster's anchor is released once its last object is removed.
+ *
+ * <p>The objects form a ring buffer in the order they were placed, so that the oldest and the
+ * newest can be removed in constant time. {@link #getSlot(int)} maps an object's place in that
+ * order to its slot. An object removed from the middle stays in the ring, marked as removed,
+ * until it reaches either end, or until {@link #add} needs its place and closes the gaps, which
+ * moves the later objects to other slots. Once per frame {@link #update()} reads the poses from the
+ * {@link FrameSnapshot}, and {@link #computeTransforms} then fills the model, model-view and
+ * model-view-projection matrices of every tracked object in one pass, and files its bounding
+ * sphere in a {@link SpatialGrid} for picking and overlap tests. Must be used on the OpenGL
+ * thread.
+ */
+public class SceneStore {
+    // The object's anchor and plane are tracked, so it can be drawn.
+    private static final int FLAG_TRACKING = 1;
+    // The object was removed, but is not at either end of the ring yet.
+    private static final int FLAG_REMOVED = 2;
+    // Smallest side of the spatial grid's cells, in meters. The cells grow with the objects.
+    private static final float GRID_CELL_SIZE_M = 0.25f;
+    // How much the cells grow at least when an object outgrows them, so that scaling an object
+    // up does not file every object again each frame.
+    private static final float GRID_CELL_GROWTH = 1.5f;
+
+    private final FrameSnapshot mSnapshot;
+    private final int mCapacity;
+    // Slot of the oldest object, number of places in the ring, and number of objects not
+    // removed.
+    private int mFirst;
+    private int mCount;
+    private int mLiveCount;
+
+    // Per object slot. The local pose is relative to the cluster's anchor, the other pose is in
+    // world space.
+    private final int[] mClusters;
+    private final int[] mModelIds;
+    private final int[] mFlags;
+    private final int[] mLods;
+    private final float[] mScales;
+    private final float[] mLocalTranslations;
+    private final float[] mLocalRotations;
+    private final float[] mTranslations;
+    private final float[] mRotations;
+    private final float[] mModelMatrices;
+    private final float[] mModelViewMatrices;
+    private final float[] mModelViewProjectionMatrices;
+
+    // Per cluster. A cluster is free while it has no anchor.
+    private final Plane[] mClusterPlanes;
+    private final Anchor[] mClusterAnchors;
+    private final int[] mClusterAnchorSlots;
+    private final int[] mClusterPlaneSlots;
+    private final int[] mClusterObjectCounts;
+    private final boolean[] mClusterTracking;
+    // Last known position of the anchor, and height of the plane.
+    private final float[] mClusterPositions;
+    private int mClusterCount;
+
+    // Per model: center and radius of the model-space bounding sphere, the radius being -1 until
+    // the model is loaded. Objects of a model without bounds are not in the grid.
+    private final float[] mModelBounds;
+    // Largest bounding radius of the models, and largest scale factor of the objects, from which
+    // the grid's cells are sized.
+    private float mMaxModelRadius;
+    private float mMaxScale;
+    private final SpatialGrid mGrid;
+    private final float[] mBoundsOffset = new float[3];
+    private final float[] mBoundsCenter = new float[3];
+
+    /**
+     * @param capacity Most objects that can be placed at once.
+     * @param maxClusters Most anchors that can be tracked at once.
+     * @param modelCount Number of models in the catalog.
+     * @param snapshot The snapshot the anchors' poses are read from.
+     */
+    public SceneStore(int capacity, int maxClusters, int modelCount, FrameSnapshot snapshot) {
+        mSnapshot = snapshot;
+        mCapacity = capacity;
+        mClusters = new int[capacity];
+        mModelIds = new int[capacity];
+        mFlags = new int[capacity];
+        mLods = new int[capacity];
+        mScales = new float[capacity];
+        mLocalTranslations = new float[3 * capacity];
+        mLocalRotations = new float[4 * capacity];
+        mTranslations = new float[3 * capacity];
+        mRotations = new float[4 * capacity];
+        mModelMatrices = new float[16 * capacity];
+        mModelViewMatrices = new float[16 * capacity];
+        mModelViewProjectionMatrices = new float[16 * capacity];
+
+        mClusterPlanes = new Plane[maxClusters];
+        mClusterAnchors = new Anchor[maxClusters];
+        mClusterAnchorSlots = new int[maxClusters];
+        mClusterPlaneSlots = new int[maxClusters];
+        mClusterObjectCounts = new int[maxClusters];
+        mClusterTracking = new boolean[maxClusters];
+        mClusterPositions = new float[3 * maxClusters];
+
+        mModelBounds = new float[4 * modelCount];
+        for (int model = 0; model < modelCount; model++) {
+            mModelBounds[4 * model + 3] = -1;
+        }
+        mGrid = new SpatialGrid(capacity, GRID_CELL_SIZE_M);
+    }
+
+    /**
+     * Sets the bounds of a model, from which its objects are indexed for picking and overlap
+     * tests.
+     *
+     * @param min Minimum corner of the model-space bounding box.
+     * @param max Maximum corner of the model-space bounding box.
+     * @param radius Radius of the bounding sphere centered on the box.
+     */
+    public void setModelBounds(int modelId, float[] min, float[] max, float radius) {
+        for (int i = 0; i < 3; i++) {
+            mModelBounds[4 * modelId + i] = (min[i] + max[i]) / 2;
+        }
+        mModelBounds[4 * modelId + 3] = radius;
+        mMaxModelRadius = Math.max(mMaxModelRadius, radius);
+        growGridCells(0);
+    }
+
+    /**
+     * Makes the grid's cells at least as large as the largest model at the largest scale, so that
+     * objects are filed in cells rather than in the list every query tests.
+     */
+    private void growGridCells(float scaleFactor) {
+        mMaxScale = Math.max(mMaxScale, Math.abs(scaleFactor));
+        float radius = mMaxModelRadius * mMaxScale;
+        float cellSize = mGrid.getCellSize();
+        if (radius > cellSize) {
+            mGrid.setCellSize(Math.max(radius, cellSize * GRID_CELL_GROWTH));
+        }
+    }
+
+    /**
+     * Number of places in the ring, from the oldest object to the newest, including the removed
+     * objects between them.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /** Whether as many objects as the capacity are placed, not counting removed ones. */
+    public boolean isFull() {
+        return mLiveCount == mCapacity;
+    }
+
+    /** Most objects that can be placed at once. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /** Number of models in the catalog, whose ids the objects have. */
+    public int getModelCount() {
+        return mModelBounds.length / 4;
+    }
+
+    /** Number of anchors tracked for the objects. */
+    public int getClusterCount() {
+        return mClusterCount;
+    }
+
+    /** Whether another anchor can be added with {@link #addCluster}. */
+    public boolean canAddCluster() {
+        return mClusterCount < mClusterAnchors.length;
+    }
+
+    /**
+     * Finds the cluster on a plane whose anchor is the closest to a point, along the plane.
+     *
+     * @param maxDistance Farthest the anchor may be from the point, in meters.
+     * @return The cluster, or -1 if none is close enough.
+     */
+    public int findCluster(Plane plane, float x, float z, float maxDistance) {
+        int nearest = -1;
+        float nearestDistanceSquared = maxDistance * maxDistance;
+        for (int cluster = 0; cluster < mClusterAnchors.length; cluster++) {
+            if (mClusterAnchors[cluster] == null || mClusterPlanes[cluster] != plane) {
+                continue;
+            }
+            float dx = mClusterPositions[3 * cluster] - x;
+            float dz = mClusterPositions[3 * cluster + 2] - z;
+            float distanceSquared = dx * dx + dz * dz;
+            if (distanceSquared <= nearestDistanceSquared) {
+                nearest = cluster;
+                nearestDistanceSquared = distanceSquared;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Starts a cluster around a new anchor, which it owns from now on.
+     *
+     * @return The cluster, to pass to {@link #add}.
+     * @throws IllegalStateException if no more anchors can be tracked.
+     */
+    public int addCluster(Plane plane, Anchor anchor) {
+        if (!canAddCluster()) {
+            throw new IllegalStateException("Too many anchors");
+        }
+        int cluster = 0;
+        while (mClusterAnchors[cluster] != null) {
+            cluster++;
+        }
+        mClusterCount++;
+        mClusterPlanes[cluster] = plane;
+        mClusterAnchors[cluster] = anchor;
+        mClusterAnchorSlots[cluster] = mSnapshot.addAnchor(anchor);
+        mClusterPlaneSlots[cluster] = -1;
+        mClusterObjectCounts[cluster] = 0;
+        mClusterTracking[cluster] = false;
+        anchor.getPose().getTranslation(mClusterPositions, 3 * cluster);
+        return cluster;
+    }
+
+    /**
+     * Places an object in a cluster, which is drawn from the next {@link #update()} on. It is
+     * filed in the spatial grid right away, so that objects placed before then do not overlap
+     * it. If removed objects fill the ring, the gaps are closed first, which moves objects to
+     * other slots.
+     *
+     * @param pose The object's pose in world space.
+     * @throws IllegalStateException if the store is full; remove the oldest object first.
+     */
+    public void add(int cluster, Pose pose, int modelId, float scaleFactor) {
+        if (isFull()) {
+            throw new IllegalStateException("Scene is full");
+        }
+        if (mCount == mCapacity) {
+            compact();
+        }
+        int slot = getSlot(mCount);
+        mCount++;
+        mLiveCount++;
+        mClusters[slot] = cluster;
+        mClusterObjectCounts[cluster]++;
+        Pose local = mClusterAnchors[cluster].getPose().inverse().compose(pose);
+        local.getTranslation(mLocalTranslations, 3 * slot);
+        local.getRotationQuaternion(mLocalRotations, 4 * slot);
+        mModelIds[slot] = modelId;
+        mFlags[slot] = 0;
+        mLods[slot] = 0;
+        mScales[slot] = scaleFactor;
+        growGridCells(scaleFactor);
+        float radius = getBoundsCenter(modelId, pose, scaleFactor);
+        if (radius >= 0) {
+            mGrid.update(slot, mBoundsCenter[0], mBoundsCenter[1], mBoundsCenter[2], radius);
+        }
+    }
+
+    /** Moves the objects later in the ring into the places of the removed ones. */
+    private void compact() {
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            int from = getSlot(i);
+            if ((mFlags[from] & FLAG_REMOVED) != 0) {
+                continue;
+            }
+            if (count != i) {
+                moveObject(from, getSlot(count));
+            }
+            count++;
+        }
+        mCount = count;
+    }
+
+    private void moveObject(int from, int to) {
+        mClusters[to] = mClusters[from];
+        mModelIds[to] = mModelIds[from];
+        mFlags[to] = mFlags[from];
+        mLods[to] = mLods[from];
+        mScales[to] = mScales[from];
+        System.arraycopy(mLocalTranslations, 3 * from, mLocalTranslations, 3 * to, 3);
+        System.arraycopy(mLocalRotations, 4 * from, mLocalRotations, 4 * to, 4);
+        System.arraycopy(mTranslations, 3 * from, mTranslations, 3 * to, 3);
+        System.arraycopy(mRotations, 4 * from, mRotations, 4 * to, 4);
+        System.arraycopy(mModelMatrices, 16 * from, mModelMatrices, 16 * to, 16);
+        System.arraycopy(mModelViewMatrices, 16 * from, mModelViewMatrices, 16 * to, 16);
+        System.arraycopy(mModelViewProjectionMatrices, 16 * from,
+            mModelViewProjectionMatrices, 16 * to, 16);
+        mGrid.move(from, to);
+    }
+
+    /**
+     * Removes the object placed first.
+     *
+     * @return The anchor of its cluster if it was the cluster's last object, which the caller
+     *     detaches from the session, or null.
+     */
+    public Anchor removeOldest() {
+        return remove(mFirst);
+    }
+
+    /**
+     * Removes the object placed last.
+     *
+     * @return The anchor of its cluster if it was the cluster's last object, which the caller
+     *     detaches from the session, or null.
+     */
+    public Anchor removeNewest() {
+        return remove(getSlot(mCount - 1));
+    }
+
+    /**
+     * Removes an object, such as one found by {@link #pick}.
+     *
+     * @return The anchor of its cluster if it was the cluster's last object, which the caller
+     *     detaches from the session, or null.
+     */
+    public Anchor remove(int slot) {
+        if (mCount == 0 || (mFlags[slot] & FLAG_REMOVED) != 0) {
+            throw new IllegalStateException("No object in slot " + slot);
+        }
+        mFlags[slot] = FLAG_REMOVED;
+        mLiveCount--;
+        mGrid.remove(slot);
+        Anchor anchor = release(mClusters[slot]);
+
+        // Removed objects at either end leave the ring. The ends are always live objects.
+        while (mCount > 0 && (mFlags[getSlot(mCount - 1)] & FLAG_REMOVED) != 0) {
+            mCount--;
+        }
+        while (mCount > 0 && (mFlags[mFirst] & FLAG_REMOVED) != 0) {
+            mFirst = mFirst + 1 == mCapacity ? 0 : mFirst + 1;
+            mCount--;
+        }
+        if (mCount == 0) {
+            // Also forgets the bounds of the objects that were in the grid.
+            mGrid.clear();
+        }
+        return anchor;
+    }
+
+    private Anchor release(int cluster) {
+        if (--mClusterObjectCounts[cluster] > 0) {
+            return null;
+        }
+        Anchor anchor = mClusterAnchors[cluster];
+        mSnapshot.removeAnchor(mClusterAnchorSlots[cluster]);
+        mClusterPlanes[cluster] = null;
+        mClusterAnchors[cluster] = null;
+        mClusterCount--;
+        return anchor;
+    }
+
+    /** Slot of the {@code index}th object placed, for {@code index < size()}. */
+    public int getSlot(int index) {
+        int slot = mFirst + index;
+        return slot >= mCapacity ? slot - mCapacity : slot;
+    }
+
+    /**
+     * Reads the tracking state and pose of every object from the snapshot. Call once per frame,
+     * after the snapshot is updated.
+     */
+    public void update() {
+        float[] planeMatrices = mSnapshot.getPlaneMatrices();
+        float[] anchorTranslations = mSnapshot.getAnchorTranslations();
+        float[] anchorRotations = mSnapshot.getAnchorRotations();
+        for (int cluster = 0; cluster < mClusterAnchors.length; cluster++) {
+            if (mClusterAnchors[cluster] == null) {
+                continue;
+            }
+            // The plane's slot is looked up again only if it was given to another plane.
+            int planeSlot = mClusterPlaneSlots[cluster];
+            if (planeSlot < 0 || mSnapshot.getPlane(planeSlot) != mClusterPlanes[cluster]) {
+                planeSlot = mSnapshot.findPlaneSlot(mClusterPlanes[cluster]);
+                mClusterPlaneSlots[cluster] = planeSlot;
+            }
+            int anchorSlot = mClusterAnchorSlots[cluster];
+            mClusterTracking[cluster] = planeSlot >= 0 && mSnapshot.isPlaneTracking(planeSlot)
+                && mSnapshot.isAnchorTracking(anchorSlot);
+            if (mClusterTracking[cluster]) {
+                System.arraycopy(
+                    anchorTranslations, 3 * anchorSlot, mClusterPositions, 3 * cluster, 3);
+                mClusterPositions[3 * cluster + 1] = planeMatrices[16 * planeSlot + 13];
+            }
+        }
+
+        float[] lt = mLocalTranslations;
+        float[] lr = mLocalRotations;
+        for (int i = 0; i < mCount; i++) {
+            int slot = getSlot(i);
+            if ((mFlags[slot] & FLAG_REMOVED) != 0) {
+                continue;
+            }
+            int cluster = mClusters[slot];
+            if (!mClusterTracking[cluster]) {
+                mFlags[slot] &= ~FLAG_TRACKING;
+                mGrid.remove(slot);
+                continue;
+            }
+            mFlags[slot] |= FLAG_TRACKING;
+
+            // The anchor's pose composed with the object's local pose.
+            int ao = 4 * mClusterAnchorSlots[cluster];
+            float qx = anchorRotations[ao];
+            float qy = anchorRotations[ao + 1];
+            float qz = anchorRotations[ao + 2];
+            float qw = anchorRotations[ao + 3];
+            int to = 3 * slot;
+            float vx = lt[to];
+            float vy = lt[to + 1];
+            float vz = lt[to + 2];
+            // v + 2 * (w * (q x v) + q x (q x v)), q x v being the cross product.
+            float cx = qy * vz - qz * vy;
+            float cy = qz * vx - qx * vz;
+            float cz = qx * vy - qy * vx;
+            int co = 3 * cluster;
+            mTranslations[to] = mClusterPositions[co]
+                + vx + 2 * (qw * cx + qy * cz - qz * cy);
+            mTranslations[to + 2] = mClusterPositions[co + 2]
+                + vz + 2 * (qw * cz + qx * cy - qy * cx);
+            // Objects stand on the plane.
+            mTranslations[to + 1] = mClusterPositions[co + 1];
+
+            int ro = 4 * slot;
+            float rx = lr[ro];
+            float ry = lr[ro + 1];
+            float rz = lr[ro + 2];
+            float rw = lr[ro + 3];
+            mRotations[ro] = qw * rx + qx * rw + qy * rz - qz * ry;
+            mRotations[ro + 1] = qw * ry - qx * rz + qy * rw + qz * rx;
+            mRotations[ro + 2] = qw * rz + qx * ry - qy * rx + qz * rw;
+            mRotations[ro + 3] = qw * rw - qx * rx - qy * ry - qz * rz;
+        }
+    }
+
+    /**
+     * Computes the model, model-view and model-view-projection matrices of every tracked object,
+     * from its translation, rotation and scale, and moves its bounds in the spatial grid.
+     *
+     * @param view The view matrix, in column-major order.
+     * @param viewProjection The projection * view matrix, in column-major order.
+     */
+    public void computeTransforms(float[] view, float[] viewProjection) {
+        float[] t = mTranslations;
+        float[] r = mRotations;
+        float[] m = mModelMatrices;
+        for (int i = 0; i < mCount; i++) {
+            int slot = getSlot(i);
+            if ((mFlags[slot] & FLAG_TRACKING) == 0) {
+                continue;
+            }
+            int o = 16 * slot;
+            int to = 3 * slot;
+            int ro = 4 * slot;
+            float s = mScales[slot];
+            float x = r[ro];
+            float y = r[ro + 1];
+            float z = r[ro + 2];
+            float w = r[ro + 3];
+            // Rotation of a unit quaternion, scaled, then translated.
+            m[o] = (1 - 2 * (y * y + z * z)) * s;
+            m[o + 1] = 2 * (x * y + z * w) * s;
+            m[o + 2] = 2 * (x * z - y * w) * s;
+            m[o + 3] = 0;
+            m[o + 4] = 2 * (x * y - z * w) * s;
+            m[o + 5] = (1 - 2 * (x * x + z * z)) * s;
+            m[o + 6] = 2 * (y * z + x * w) * s;
+            m[o + 7] = 0;
+            m[o + 8] = 2 * (x * z + y * w) * s;
+            m[o + 9] = 2 * (y * z - x * w) * s;
+            m[o + 10] = (1 - 2 * (x * x + y * y)) * s;
+            m[o + 11] = 0;
+            m[o + 12] = t[to];
+            m[o + 13] = t[to + 1];
+            m[o + 14] = t[to + 2];
+            m[o + 15] = 1;
+
+            MatrixUtil.multiplyAffine(mModelViewMatrices, view, m, o);
+            MatrixUtil.multiplyAffine(mModelViewProjectionMatrices, viewProjection, m, o);
+
+            int bo = 4 * mModelIds[slot];
+            float radius = mModelBounds[bo + 3];
+            if (radius >= 0) {
+                float bx = mModelBounds[bo];
+                float by = mModelBounds[bo + 1];
+                float bz = mModelBounds[bo + 2];
+                mGrid.update(slot,
+                    m[o] * bx + m[o + 4] * by + m[o + 8] * bz + m[o + 12],
+                    m[o + 1] * bx + m[o + 5] * by + m[o + 9] * bz + m[o + 13],
+                    m[o + 2] * bx + m[o + 6] * by + m[o + 10] * bz + m[o + 14],
+                    radius * Math.abs(s));
+            }
+        }
+    }
+
+    /**
+     * Finds the first tracked object whose bounding sphere a ray enters.
+     *
+     * @param ray Origin and normalized direction, as from {@link PlaneHitTester#getRay}.
+     * @param maxDistance Length of the ray, in meters.
+     * @return The object's slot, or -1.
+     */
+    public int pick(float[] ray, float maxDistance) {
+        return mGrid.raycast(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], maxDistance);
+    }
+
+    /**
+     * Whether an object of a model, placed at a pose, would overlap a tracked object or one
+     * placed since the last {@link #computeTransforms}. Objects of models that are not loaded yet
+     * overlap nothing.
+     */
+    public boolean overlaps(int modelId, Pose pose, float scaleFactor) {
+        float radius = getBoundsCenter(modelId, pose, scaleFactor);
+        return radius >= 0
+            && mGrid.overlaps(mBoundsCenter[0], mBoundsCenter[1], mBoundsCenter[2], radius);
+    }
+
+    /**
+     * Computes the world space center of the bounding sphere of an object of a model at a pose
+     * into {@link #mBoundsCenter}.
+     *
+     * @return The sphere's radius, or -1 if the model has no bounds yet.
+     */
+    private float getBoundsCenter(int modelId, Pose pose, float scaleFactor) {
+        int bo = 4 * modelId;
+        float radius = mModelBounds[bo + 3];
+        if (radius < 0) {
+            return -1;
+        }
+        for (int i = 0; i < 3; i++) {
+            mBoundsOffset[i] = mModelBounds[bo + i] * scaleFactor;
+        }
+        pose.transformPoint(mBoundsOffset, 0, mBoundsCenter, 0);
+        return radius * Math.abs(scaleFactor);
+    }
+
+    /** The index of the tracked objects' bounding spheres, by slot. */
+    public SpatialGrid getSpatialGrid() {
+        return mGrid;
+    }
+
+    public boolean isTracking(int slot) {
+        return (mFlags[slot] & FLAG_TRACKING) != 0;
+    }
+
+    /** Catalog id of the object's model, which is also the index of its renderer. */
+    public int getModelId(int slot) {
+        return mModelIds[slot];
+    }
+
+    public float getScaleFactor(int slot) {
+        return mScales[slot];
+    }
+
+    public void setScaleFactor(int slot, float scaleFactor) {
+        mScales[slot] = scaleFactor;
+        growGridCells(scaleFactor);
+    }
+
+    /** Level of detail drawn in the last frame, which the next choice depends on. */
+    public int getLod(int slot) {
+        return mLods[slot];
+    }
+
+    public void setLod(int slot, int lod) {
+        mLods[slot] = lod;
+    }
+
+    /** Model-to-world matrices, scale included, 16 floats per slot in column-major order. */
+    public float[] getModelMatrices() {
+        return mModelMatrices;
+    }
+
+    /** Model-view matrices, 16 floats per slot in column-major order. */
+    public float[] getModelViewMatrices() {
+        return mModelViewMatrices;
+    }
+
+    /** Model-view-projection matrices, 16 floats per slot in column-major order. */
+    public float[] getModelViewProjectionMatrices() {
+        return mModelViewProjectionMatrices;
+    }
+}
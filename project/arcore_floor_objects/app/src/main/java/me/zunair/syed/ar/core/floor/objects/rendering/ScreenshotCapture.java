@@ -0,0 +1,320 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves screenshots of the GL surface without stalling the OpenGL thread, which only copies the
+ * pixels. On ES 3.0 contexts they are read into a pixel buffer object, and copied out in a later
+ * frame once a fence shows the GPU has written them, so the read does not wait for rendering to
+ * finish. On ES 2.0 contexts they are read directly. Either way they land in a pooled buffer, and
+ * flipping, scaling, encoding and saving to MediaStore happen on a background thread.
+ *
+ * <p>{@link #createOnGlThread}, {@link #capture} and {@link #beginFrame()} must be called on the
+ * OpenGL thread; the settings may be changed from any thread.
+ */
+public class ScreenshotCapture {
+    private static final String TAG = ScreenshotCapture.class.getSimpleName();
+
+    /**
+     * Notified on the background thread when a screenshot was saved or could not be.
+     */
+    public interface Listener {
+        void onScreenshotSaved(Uri uri, String mimeType);
+
+        void onScreenshotFailed(Exception e);
+    }
+
+    private static final int BYTES_PER_PIXEL = 4;
+    // Screenshots being read back or saved at once. Further requests are refused until one is
+    // done, which also bounds the pixel buffers and pooled buffers to this many.
+    private static final int MAX_PENDING_CAPTURES = 2;
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final ExecutorService mExecutor;
+
+    private volatile Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+    private volatile int mQuality = 90;
+    private volatile int mMaxSize;
+
+    // Buffers holding the pixels of a screenshot until it is encoded, reused between screenshots.
+    private final ConcurrentLinkedQueue<ByteBuffer> mFreeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+
+    // Pixel buffer objects of the current context, and the reads in flight into them. Only
+    // touched on the OpenGL thread.
+    private boolean mUsePixelBuffers;
+    private final int[] mPixelBuffers = new int[MAX_PENDING_CAPTURES];
+    private final int[] mPixelBufferSizes = new int[MAX_PENDING_CAPTURES];
+    private final long[] mFences = new long[MAX_PENDING_CAPTURES];
+    private final int[] mReadWidths = new int[MAX_PENDING_CAPTURES];
+    private final int[] mReadHeights = new int[MAX_PENDING_CAPTURES];
+    private final boolean[] mReading = new boolean[MAX_PENDING_CAPTURES];
+
+    public ScreenshotCapture(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG);
+            }
+        });
+    }
+
+    /**
+     * @param format Encoding of the saved screenshots.
+     * @param quality 0 to 100, for the lossy formats.
+     */
+    public void setFormat(Bitmap.CompressFormat format, int quality) {
+        mFormat = format;
+        mQuality = Math.max(0, Math.min(100, quality));
+    }
+
+    /**
+     * @param pixels Largest width or height of the saved screenshots, which are scaled down to
+     *     fit. 0 saves them at the size of the surface.
+     */
+    public void setMaxSize(int pixels) {
+        mMaxSize = Math.max(0, pixels);
+    }
+
+    /**
+     * Sets up the pixel buffers of a new context. Reads in flight in the previous context are
+     * lost with it. Call from {@code onSurfaceCreated}.
+     */
+    public void createOnGlThread(GlCapabilities capabilities) {
+        for (int i = 0; i < MAX_PENDING_CAPTURES; i++) {
+            if (mReading[i]) {
+                mReading[i] = false;
+                mPendingCount.decrementAndGet();
+            }
+            mPixelBufferSizes[i] = 0;
+        }
+        mUsePixelBuffers = capabilities.isEs3();
+        if (mUsePixelBuffers) {
+            GLES20.glGenBuffers(mPixelBuffers.length, mPixelBuffers, 0);
+        }
+    }
+
+    /**
+     * Starts reading the pixels of the frame drawn so far. Call after the frame's last draw.
+     *
+     * @return False if too many screenshots are already being saved, in which case nothing is
+     *     read.
+     */
+    public boolean capture(int width, int height) {
+        if (mPendingCount.get() >= MAX_PENDING_CAPTURES) {
+            return false;
+        }
+        int size = width * height * BYTES_PER_PIXEL;
+        if (!mUsePixelBuffers) {
+            ByteBuffer pixels = obtainBuffer(size);
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                pixels);
+            mPendingCount.incrementAndGet();
+            save(pixels, width, height);
+            return true;
+        }
+
+        int slot = 0;
+        while (mReading[slot]) {
+            slot++;
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[slot]);
+        if (mPixelBufferSizes[slot] != size) {
+            GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            mPixelBufferSizes[slot] = size;
+        }
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mFences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        mReadWidths[slot] = width;
+        mReadHeights[slot] = height;
+        mReading[slot] = true;
+        mPendingCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Hands the reads the GPU has finished over to the background thread. Call once per frame.
+     */
+    public void beginFrame() {
+        if (!mUsePixelBuffers) {
+            return;
+        }
+        for (int slot = 0; slot < MAX_PENDING_CAPTURES; slot++) {
+            if (!mReading[slot]) {
+                continue;
+            }
+            // Polls without waiting. The fence was flushed by the swap of the frame it is in.
+            int status = GLES30.glClientWaitSync(mFences[slot], 0, 0);
+            if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+                continue;
+            }
+            GLES30.glDeleteSync(mFences[slot]);
+            mReading[slot] = false;
+
+            int width = mReadWidths[slot];
+            int height = mReadHeights[slot];
+            int size = width * height * BYTES_PER_PIXEL;
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[slot]);
+            Buffer mapped = GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+            if (mapped == null) {
+                GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+                mPendingCount.decrementAndGet();
+                Log.e(TAG, "Failed to map the pixels of a screenshot");
+                mListener.onScreenshotFailed(new IOException("glMapBufferRange failed"));
+                continue;
+            }
+            ByteBuffer pixels = obtainBuffer(size);
+            pixels.put((ByteBuffer) mapped);
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            pixels.rewind();
+            save(pixels, width, height);
+        }
+    }
+
+    /** Stops the background thread once the screenshots being saved are done. */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private static String getMimeType(Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return "image/png";
+            case WEBP:
+                return "image/webp";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    /** Takes a buffer of at least {@code size} bytes from the pool, limited to that size. */
+    private ByteBuffer obtainBuffer(int size) {
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    private void save(final ByteBuffer pixels, final int width, final int height) {
+        final Bitmap.CompressFormat format = mFormat;
+        final int quality = mQuality;
+        final int maxSize = mMaxSize;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Bitmap image = toBitmap(pixels, width, height, maxSize);
+                    try {
+                        mListener.onScreenshotSaved(insert(image, format, quality),
+                            getMimeType(format));
+                    } finally {
+                        image.recycle();
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to save a screenshot", e);
+                    mListener.onScreenshotFailed(e);
+                } finally {
+                    mPendingCount.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Turns the pixels into a bitmap, flipping them as GL rows go bottom up, and scaling them down
+     * to {@code maxSize}. Returns the pixel buffer to the pool.
+     */
+    private Bitmap toBitmap(ByteBuffer pixels, int width, int height, int maxSize) {
+        Bitmap read = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        try {
+            pixels.rewind();
+            read.copyPixelsFromBuffer(pixels);
+        } finally {
+            mFreeBuffers.offer(pixels);
+        }
+
+        float scale = 1.0f;
+        if (maxSize > 0 && Math.max(width, height) > maxSize) {
+            scale = (float) maxSize / Math.max(width, height);
+        }
+        Matrix transform = new Matrix();
+        transform.setScale(scale, -scale);
+        Bitmap image = Bitmap.createBitmap(read, 0, 0, width, height, transform, true);
+        if (image != read) {
+            read.recycle();
+        }
+        return image;
+    }
+
+    /** Encodes an image into a new MediaStore entry. */
+    private Uri insert(Bitmap image, Bitmap.CompressFormat format, int quality)
+            throws IOException {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.TITLE, "Space " + now);
+        values.put(MediaStore.Images.Media.MIME_TYPE, getMimeType(format));
+        values.put(MediaStore.Images.Media.DATE_ADDED, now / 1000);
+
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) {
+            throw new IOException("Failed to create a MediaStore entry");
+        }
+        boolean saved = false;
+        try {
+            OutputStream out = resolver.openOutputStream(uri);
+            if (out == null) {
+                throw new IOException("Failed to open " + uri);
+            }
+            try {
+                if (!image.compress(format, quality, out)) {
+                    throw new IOException("Failed to encode the screenshot");
+                }
+            } finally {
+                out.close();
+            }
+            saved = true;
+            return uri;
+        } finally {
+            if (!saved) {
+                resolver.delete(uri, null, null);
+            }
+        }
+    }
+}
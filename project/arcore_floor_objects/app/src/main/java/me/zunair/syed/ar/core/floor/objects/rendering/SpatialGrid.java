@@ -0,0 +1,433 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the bounding spheres of the placed objects, for finding the objects near a
+ * point or along a ray without testing every object. Objects stand on horizontal planes, so the
+ * grid divides the XZ plane into square cells, and each object is filed under the cell of its
+ * center. The cells are hashed into a fixed table of buckets, each a doubly linked list through
+ * per-object arrays, so moving an object to another cell takes constant time and nothing
+ * allocates after construction. Objects larger than a cell are kept in a list of their own,
+ * which every query tests, so that they do not widen the search around every cell.
+ *
+ * <p>Objects are identified by an id below the capacity, such as their {@link SceneStore} slot.
+ * Must be used on the OpenGL thread.
+ */
+public class SpatialGrid {
+    private static final int NONE = -1;
+    // How far the bounds may be wider than the objects in cells before they are computed again,
+    // so that objects jittering with their anchors do not make every query rescan them.
+    private static final float BOUNDS_SLACK_M = 0.05f;
+
+    private float mCellSize;
+    private final int mBucketMask;
+    // The hashed cells, then the list of large objects.
+    private final int[] mBuckets;
+    private final int mLargeBucket;
+
+    // Per object.
+    private final int[] mNext;
+    private final int[] mPrevious;
+    private final int[] mBucketOf;
+    private final int[] mCellXs;
+    private final int[] mCellZs;
+    private final float[] mCenters;
+    private final float[] mRadii;
+
+    // Largest radius and range of heights of the objects filed in cells, or an empty range if
+    // there are none. Queries look this far into the neighboring cells, as an object may reach
+    // out of its own cell, and rays are only walked where they are within this range of heights.
+    // They grow with every update, and may be up to BOUNDS_SLACK_M wider than the objects. They
+    // are stale once an object near their edge moved further in or left, and computed again by
+    // the next query.
+    private float mMaxRadius;
+    private float mMinY = Float.MAX_VALUE;
+    private float mMaxY = -Float.MAX_VALUE;
+    private boolean mBoundsStale;
+
+    // Distance along the ray of the last hit of raycast.
+    private float mHitDistance;
+    // Objects and slots looked at by the last query.
+    private int mVisitCount;
+
+    /**
+     * @param capacity Ids the grid can hold, from 0 to {@code capacity - 1}.
+     * @param cellSize Side of the cells, in meters. About the size of the objects works best.
+     */
+    public SpatialGrid(int capacity, float cellSize) {
+        mCellSize = cellSize;
+        int bucketCount = Integer.highestOneBit(Math.max(1, 2 * capacity - 1)) << 1;
+        mBucketMask = bucketCount - 1;
+        mBuckets = new int[bucketCount + 1];
+        mLargeBucket = bucketCount;
+        Arrays.fill(mBuckets, NONE);
+        mNext = new int[capacity];
+        mPrevious = new int[capacity];
+        mBucketOf = new int[capacity];
+        Arrays.fill(mBucketOf, NONE);
+        mCellXs = new int[capacity];
+        mCellZs = new int[capacity];
+        mCenters = new float[3 * capacity];
+        mRadii = new float[capacity];
+    }
+
+    /** Files an object under its bounding sphere, or moves it there if it is filed already. */
+    public void update(int id, float x, float y, float z, float radius) {
+        leaveBounds(id, radius <= mCellSize, y, radius);
+        mCenters[3 * id] = x;
+        mCenters[3 * id + 1] = y;
+        mCenters[3 * id + 2] = z;
+        mRadii[id] = radius;
+
+        int cellX = toCell(x);
+        int cellZ = toCell(z);
+        mCellXs[id] = cellX;
+        mCellZs[id] = cellZ;
+        int bucket = mLargeBucket;
+        if (radius <= mCellSize) {
+            bucket = bucket(cellX, cellZ);
+            mMaxRadius = Math.max(mMaxRadius, radius);
+            mMinY = Math.min(mMinY, y);
+            mMaxY = Math.max(mMaxY, y);
+        }
+        if (mBucketOf[id] == bucket) {
+            return;
+        }
+        if (mBucketOf[id] != NONE) {
+            unlink(id);
+        }
+        mBucketOf[id] = bucket;
+        mPrevious[id] = NONE;
+        mNext[id] = mBuckets[bucket];
+        if (mBuckets[bucket] != NONE) {
+            mPrevious[mBuckets[bucket]] = id;
+        }
+        mBuckets[bucket] = id;
+    }
+
+    /** Takes an object out of the grid, if it is in it. */
+    public void remove(int id) {
+        if (mBucketOf[id] != NONE) {
+            leaveBounds(id, false, 0, 0);
+            unlink(id);
+            mBucketOf[id] = NONE;
+        }
+    }
+
+    /** Files an object under another id, taking it out from under the old one. */
+    public void move(int fromId, int toId) {
+        if (mBucketOf[fromId] == NONE) {
+            remove(toId);
+            return;
+        }
+        update(toId, mCenters[3 * fromId], mCenters[3 * fromId + 1], mCenters[3 * fromId + 2],
+            mRadii[fromId]);
+        remove(fromId);
+    }
+
+    public float getCellSize() {
+        return mCellSize;
+    }
+
+    /**
+     * Changes the side of the cells, filing every object again. Objects larger than a cell are
+     * tested by every query, so the cells should be about as large as the largest objects.
+     */
+    public void setCellSize(float cellSize) {
+        mCellSize = cellSize;
+        Arrays.fill(mBuckets, NONE);
+        mMaxRadius = 0;
+        mMinY = Float.MAX_VALUE;
+        mMaxY = -Float.MAX_VALUE;
+        mBoundsStale = false;
+        for (int id = 0; id < mBucketOf.length; id++) {
+            if (mBucketOf[id] != NONE) {
+                mBucketOf[id] = NONE;
+                update(id, mCenters[3 * id], mCenters[3 * id + 1], mCenters[3 * id + 2],
+                    mRadii[id]);
+            }
+        }
+    }
+
+    /** Takes every object out of the grid. */
+    public void clear() {
+        Arrays.fill(mBuckets, NONE);
+        Arrays.fill(mBucketOf, NONE);
+        mMaxRadius = 0;
+        mMinY = Float.MAX_VALUE;
+        mMaxY = -Float.MAX_VALUE;
+        mBoundsStale = false;
+    }
+
+    /**
+     * Marks the bounds stale if an object filed in a cell was near their edge, and either leaves
+     * the cells or moves further in than the slack.
+     *
+     * @param staysInCells Whether the object is filed in a cell again, at height {@code y} and
+     *     with {@code radius}.
+     */
+    private void leaveBounds(int id, boolean staysInCells, float y, float radius) {
+        if (mBucketOf[id] == NONE || mBucketOf[id] == mLargeBucket) {
+            return;
+        }
+        float oldY = mCenters[3 * id + 1];
+        float oldRadius = mRadii[id];
+        if (!staysInCells) {
+            mBoundsStale |= oldRadius >= mMaxRadius - BOUNDS_SLACK_M
+                || oldY >= mMaxY - BOUNDS_SLACK_M || oldY <= mMinY + BOUNDS_SLACK_M;
+            return;
+        }
+        mBoundsStale |=
+            oldRadius >= mMaxRadius - BOUNDS_SLACK_M && radius < mMaxRadius - BOUNDS_SLACK_M
+            || oldY >= mMaxY - BOUNDS_SLACK_M && y < mMaxY - BOUNDS_SLACK_M
+            || oldY <= mMinY + BOUNDS_SLACK_M && y > mMinY + BOUNDS_SLACK_M;
+    }
+
+    /** Computes the bounds again from the objects filed in cells, if they are stale. */
+    private void updateBounds() {
+        if (!mBoundsStale) {
+            return;
+        }
+        mBoundsStale = false;
+        mMaxRadius = 0;
+        mMinY = Float.MAX_VALUE;
+        mMaxY = -Float.MAX_VALUE;
+        mVisitCount += mBucketOf.length;
+        for (int id = 0; id < mBucketOf.length; id++) {
+            if (mBucketOf[id] == NONE || mBucketOf[id] == mLargeBucket) {
+                continue;
+            }
+            float y = mCenters[3 * id + 1];
+            mMaxRadius = Math.max(mMaxRadius, mRadii[id]);
+            mMinY = Math.min(mMinY, y);
+            mMaxY = Math.max(mMaxY, y);
+        }
+    }
+
+    private void unlink(int id) {
+        int previous = mPrevious[id];
+        int next = mNext[id];
+        if (previous != NONE) {
+            mNext[previous] = next;
+        } else {
+            mBuckets[mBucketOf[id]] = next;
+        }
+        if (next != NONE) {
+            mPrevious[next] = previous;
+        }
+    }
+
+    /**
+     * Finds the objects whose bounding sphere intersects a sphere.
+     *
+     * @param results Receives the ids of the objects found, as many as fit.
+     * @return The number of objects found, which may be more than {@code results} holds.
+     */
+    public int queryRadius(float x, float y, float z, float radius, int[] results) {
+        mVisitCount = 0;
+        updateBounds();
+        int count = 0;
+        for (int id = mBuckets[mLargeBucket]; id != NONE; id = mNext[id]) {
+            mVisitCount++;
+            if (intersects(id, x, y, z, radius)) {
+                if (count < results.length) {
+                    results[count] = id;
+                }
+                count++;
+            }
+        }
+        float reach = radius + mMaxRadius;
+        for (int cellX = toCell(x - reach); cellX <= toCell(x + reach); cellX++) {
+            for (int cellZ = toCell(z - reach); cellZ <= toCell(z + reach); cellZ++) {
+                for (int id = mBuckets[bucket(cellX, cellZ)]; id != NONE; id = mNext[id]) {
+                    mVisitCount++;
+                    // Other cells may share the bucket.
+                    if (mCellXs[id] != cellX || mCellZs[id] != cellZ
+                            || !intersects(id, x, y, z, radius)) {
+                        continue;
+                    }
+                    if (count < results.length) {
+                        results[count] = id;
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Whether any object's bounding sphere intersects a sphere. */
+    public boolean overlaps(float x, float y, float z, float radius) {
+        mVisitCount = 0;
+        updateBounds();
+        for (int id = mBuckets[mLargeBucket]; id != NONE; id = mNext[id]) {
+            mVisitCount++;
+            if (intersects(id, x, y, z, radius)) {
+                return true;
+            }
+        }
+        float reach = radius + mMaxRadius;
+        for (int cellX = toCell(x - reach); cellX <= toCell(x + reach); cellX++) {
+            for (int cellZ = toCell(z - reach); cellZ <= toCell(z + reach); cellZ++) {
+                for (int id = mBuckets[bucket(cellX, cellZ)]; id != NONE; id = mNext[id]) {
+                    mVisitCount++;
+                    if (mCellXs[id] == cellX && mCellZs[id] == cellZ
+                            && intersects(id, x, y, z, radius)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean intersects(int id, float x, float y, float z, float radius) {
+        float dx = mCenters[3 * id] - x;
+        float dy = mCenters[3 * id + 1] - y;
+        float dz = mCenters[3 * id + 2] - z;
+        float distance = radius + mRadii[id];
+        return dx * dx + dy * dy + dz * dz <= distance * distance;
+    }
+
+    /**
+     * Finds the first object whose bounding sphere a ray enters. The cells the ray crosses are
+     * walked in order, each with the neighbors an object filed there could reach from.
+     *
+     * @param directionX The ray's direction, normalized, as are the Y and Z components.
+     * @param maxDistance Length of the ray.
+     * @return The id of the object hit, or -1. The distance to the hit is then
+     *     {@link #getHitDistance()}.
+     */
+    public int raycast(float originX, float originY, float originZ,
+                       float directionX, float directionY, float directionZ, float maxDistance) {
+        mVisitCount = 0;
+        updateBounds();
+        int nearest = NONE;
+        float nearestDistance = maxDistance;
+        for (int id = mBuckets[mLargeBucket]; id != NONE; id = mNext[id]) {
+            mVisitCount++;
+            float distance = intersectRay(id, originX, originY, originZ,
+                directionX, directionY, directionZ);
+            if (distance >= 0 && distance < nearestDistance) {
+                nearest = id;
+                nearestDistance = distance;
+            }
+        }
+
+        // Only the part of the ray within the heights of the objects in cells is walked, if there
+        // are any.
+        if (mMinY > mMaxY) {
+            mHitDistance = nearestDistance;
+            return nearest;
+        }
+        float low = mMinY - mMaxRadius;
+        float high = mMaxY + mMaxRadius;
+        float start = 0;
+        float end = nearestDistance;
+        if (directionY != 0) {
+            float lowDistance = (low - originY) / directionY;
+            float highDistance = (high - originY) / directionY;
+            start = Math.max(start, Math.min(lowDistance, highDistance));
+            end = Math.min(end, Math.max(lowDistance, highDistance));
+        } else if (originY < low || originY > high) {
+            end = -1;
+        }
+        if (start > end) {
+            mHitDistance = nearestDistance;
+            return nearest;
+        }
+
+        int reach = (int) Math.ceil(mMaxRadius / mCellSize);
+        int cellX = toCell(originX + start * directionX);
+        int cellZ = toCell(originZ + start * directionZ);
+        int stepX = directionX > 0 ? 1 : -1;
+        int stepZ = directionZ > 0 ? 1 : -1;
+        // Distance along the ray to the next cell boundary on each axis, and between boundaries.
+        float deltaX = directionX != 0 ? mCellSize / Math.abs(directionX) : Float.MAX_VALUE;
+        float deltaZ = directionZ != 0 ? mCellSize / Math.abs(directionZ) : Float.MAX_VALUE;
+        float nextX = directionX != 0
+            ? ((cellX + (stepX > 0 ? 1 : 0)) * mCellSize - originX) / directionX
+            : Float.MAX_VALUE;
+        float nextZ = directionZ != 0
+            ? ((cellZ + (stepZ > 0 ? 1 : 0)) * mCellSize - originZ) / directionZ
+            : Float.MAX_VALUE;
+
+        // A hit at some distance is found from the cell the ray is in there, so the walk stops
+        // at the first cell entered past the nearest hit.
+        float entry = start;
+        while (entry <= Math.min(nearestDistance, end)) {
+            for (int x = cellX - reach; x <= cellX + reach; x++) {
+                for (int z = cellZ - reach; z <= cellZ + reach; z++) {
+                    for (int id = mBuckets[bucket(x, z)]; id != NONE; id = mNext[id]) {
+                        mVisitCount++;
+                        if (mCellXs[id] != x || mCellZs[id] != z) {
+                            continue;
+                        }
+                        float distance = intersectRay(id, originX, originY, originZ,
+                            directionX, directionY, directionZ);
+                        if (distance >= 0 && distance < nearestDistance) {
+                            nearest = id;
+                            nearestDistance = distance;
+                        }
+                    }
+                }
+            }
+            if (nextX == Float.MAX_VALUE && nextZ == Float.MAX_VALUE) {
+                // The ray is vertical and stays in this cell.
+                break;
+            }
+            if (nextX < nextZ) {
+                entry = nextX;
+                nextX += deltaX;
+                cellX += stepX;
+            } else {
+                entry = nextZ;
+                nextZ += deltaZ;
+                cellZ += stepZ;
+            }
+        }
+        mHitDistance = nearestDistance;
+        return nearest;
+    }
+
+    /** Distance along a ray to where it enters an object's sphere, 0 from inside, or -1. */
+    private float intersectRay(int id, float originX, float originY, float originZ,
+                               float directionX, float directionY, float directionZ) {
+        float offsetX = mCenters[3 * id] - originX;
+        float offsetY = mCenters[3 * id + 1] - originY;
+        float offsetZ = mCenters[3 * id + 2] - originZ;
+        float along = offsetX * directionX + offsetY * directionY + offsetZ * directionZ;
+        float distanceSquared = offsetX * offsetX + offsetY * offsetY + offsetZ * offsetZ;
+        float radiusSquared = mRadii[id] * mRadii[id];
+        if (distanceSquared <= radiusSquared) {
+            return 0;
+        }
+        float discriminant = along * along - distanceSquared + radiusSquared;
+        if (along < 0 || discriminant < 0) {
+            return -1;
+        }
+        return along - (float) Math.sqrt(discriminant);
+    }
+
+    /** Distance along the ray to the object found by the last {@link #raycast}. */
+    public float getHitDistance() {
+        return mHitDistance;
+    }
+
+    /**
+     * Number of objects the last query tested, and of slots it scanned to compute the bounds
+     * again, which stays far below the number of objects unless the bounds were stale.
+     */
+    public int getVisitCount() {
+        return mVisitCount;
+    }
+
+    private int toCell(float coordinate) {
+        return (int) Math.floor(coordinate / mCellSize);
+    }
+
+    private int bucket(int cellX, int cellZ) {
+        return (cellX * 73856093 ^ cellZ * 19349663) & mBucketMask;
+    }
+}
@@ -0,0 +1,36 @@
+uniform mat4 u_ModelView;
+uniform mat4 u_ModelViewProjection;
+
+// Dequantization of the mesh: attribute = value * scale + offset.
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionOffset;
+uniform vec2 u_TexCoordScale;
+uniform vec2 u_TexCoordOffset;
+
+attribute vec3 a_Position;  // Signed shorts.
+attribute vec2 a_Normal;    // Octahedral encoding, signed shorts scaled by 32767.
+attribute vec2 a_TexCoord;  // Unsigned shorts.
+
+varying vec3 v_ViewPosition;
+varying vec3 v_ViewNormal;
+varying vec2 v_TexCoord;
+
+vec3 decodeOctahedral(vec2 encoded) {
+    vec3 normal = vec3(encoded, 1.0 - abs(encoded.x) - abs(encoded.y));
+    if (normal.z < 0.0) {
+        vec2 signs = vec2(normal.x >= 0.0 ? 1.0 : -1.0, normal.y >= 0.0 ? 1.0 : -1.0);
+        normal.xy = (1.0 - abs(normal.yx)) * signs;
+    }
+    return normal;
+}
+
+void main() {
+    vec4 position = vec4(a_Position * u_PositionScale + u_PositionOffset, 1.0);
+    vec3 normal = decodeOctahedral(a_Normal * (1.0 / 32767.0));
+
+    v_ViewPosition = (u_ModelView * position).xyz;
+    // The fragment shader normalizes the interpolated normal.
+    v_ViewNormal = (u_ModelView * vec4(normal, 0.0)).xyz;
+    v_TexCoord = a_TexCoord * u_TexCoordScale + u_TexCoordOffset;
+    gl_Position = u_ModelViewProjection * position;
+}
@@ -13,16 +13,17 @@
  * limitations under the License.
  */
 
-uniform mat4 u_Model;
-uniform mat4 u_ModelViewProjection;
-uniform mat2 u_PlaneUvMatrix;
+uniform mat4 u_ViewProjection;
 
-attribute vec3 a_XZPositionAlpha; // (x, z, alpha)
+attribute vec3 a_Position;       // world space
+attribute vec3 a_TexCoordAlpha;  // (u, v, alpha)
+attribute vec3 a_Color;
 
 varying vec3 v_TexCoordAlpha;
+varying vec3 v_Color;
 
 void main() {
-   vec4 position = vec4(a_XZPositionAlpha.x, 0.0, a_XZPositionAlpha.y, 1.0);
-   v_TexCoordAlpha = vec3(u_PlaneUvMatrix * (u_Model * position).xz, a_XZPositionAlpha.z);
-   gl_Position = u_ModelViewProjection * position;
+   v_TexCoordAlpha = a_TexCoordAlpha;
+   v_Color = a_Color;
+   gl_Position = u_ViewProjection * vec4(a_Position, 1.0);
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.google.ar.core;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Tracked ARCore planes and anchors for tests that run without a device. ARCore only creates
+ * them from a session, so their constructors are package-private.
+ */
+public final class ArCoreFakes {
+    private ArCoreFakes() {
+    }
+
+    /** A tracked, upward facing plane, whose polygon is the rectangle of its extents. */
+    public static Plane newPlane(Pose centerPose, float extentX, float extentZ) {
+        float x = extentX / 2;
+        float z = extentZ / 2;
+        return newPlane(centerPose, extentX, extentZ, new float[] {-x, -z, x, -z, x, z, -x, z});
+    }
+
+    /**
+     * A tracked, upward facing plane.
+     *
+     * @param polygon X and Z of the polygon's corners, relative to the center pose.
+     */
+    public static Plane newPlane(Pose centerPose, float extentX, float extentZ, float[] polygon) {
+        Plane plane = new Plane(centerPose, extentX, extentZ, FloatBuffer.wrap(polygon));
+        plane.setTrackingState(Plane.TrackingState.TRACKING);
+        return plane;
+    }
+
+    /** A tracked anchor at a pose in world space. */
+    public static Anchor newAnchor(Pose pose) {
+        Anchor anchor = new Anchor(pose, pose, 0);
+        anchor.setTrackingState(Anchor.TrackingState.TRACKING);
+        return anchor;
+    }
+}
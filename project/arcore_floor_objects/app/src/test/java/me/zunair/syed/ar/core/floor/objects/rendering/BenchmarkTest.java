@@ -0,0 +1,28 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks next to this test, which take minutes, so only when asked to with
+ * {@code ./gradlew testDebugUnitTest -Pbenchmarks}. The results are printed to the test output.
+ */
+public class BenchmarkTest {
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarks"));
+
+        Options options = new OptionsBuilder()
+            .include(BenchmarkTest.class.getPackage().getName() + "\\..*Benchmark")
+            // Gradle starts the test JVM with the classpath of the tests, which a forked JVM
+            // would not have.
+            .forks(0)
+            .shouldFailOnError(true)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,181 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Splitting synthetic meshes too large for 16-bit indices. */
+public class MeshDataTest {
+    // Baked mesh format, see MeshWriter in buildSrc.
+    private static final int MAGIC = 0x48534D41;
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE_BYTES = 160;
+    private static final int LOD_TABLE_OFFSET = 64;
+    private static final int VERTEX_FORMAT_OFFSET = 112;
+    private static final int VERTEX_FORMAT_FLOAT = 0;
+    private static final int VERTEX_FORMAT_QUANTIZED = 1;
+    private static final int FLOAT_VERTEX_SIZE_BYTES = 32;
+    private static final int QUANTIZED_VERTEX_SIZE_BYTES = 16;
+
+    private static final int VERTEX_COUNT = 102400;
+    private static final int[] LOD_TRIANGLE_COUNTS = {80000, 20000, 2000};
+    private static final int MAX_SHORT_INDEX_VERTICES = 0x10000;
+
+    @Test
+    public void splitFloatMesh() throws IOException {
+        checkSplit(bake(VERTEX_FORMAT_FLOAT));
+    }
+
+    @Test
+    public void splitQuantizedMesh() throws IOException {
+        checkSplit(bake(VERTEX_FORMAT_QUANTIZED));
+    }
+
+    @Test
+    public void shortIndexMeshIsNotSplit() throws IOException {
+        MeshData mesh = MeshData.fromBakedBuffer(bake(VERTEX_FORMAT_FLOAT, 1000, 2));
+        assertSame(mesh, mesh.splitForShortIndices());
+    }
+
+    private static void checkSplit(ByteBuffer baked) throws IOException {
+        MeshData mesh = MeshData.fromBakedBuffer(baked);
+        assertEquals(GLES20.GL_UNSIGNED_INT, mesh.getIndexType());
+        MeshData split = mesh.splitForShortIndices();
+
+        assertEquals(GLES20.GL_UNSIGNED_SHORT, split.getIndexType());
+        assertEquals(mesh.isQuantized(), split.isQuantized());
+        assertEquals(mesh.getIndexCount(), split.getIndexCount());
+        assertEquals(mesh.getLodCount(), split.getLodCount());
+        assertTrue(split.getSubmeshCount(0) > 1);
+
+        IntBuffer indices = mesh.getIndexData().duplicate()
+            .order(mesh.getIndexData().order()).asIntBuffer();
+        ShortBuffer localIndices = split.getIndexData().duplicate()
+            .order(split.getIndexData().order()).asShortBuffer();
+        for (int lod = 0; lod < mesh.getLodCount(); lod++) {
+            assertEquals(mesh.getLodFirstIndex(lod), split.getLodFirstIndex(lod));
+            assertEquals(mesh.getLodIndexCount(lod), split.getLodIndexCount(lod));
+
+            // The submeshes cover the level of detail in order, with nothing left out.
+            int next = split.getLodFirstIndex(lod);
+            for (int submesh = 0; submesh < split.getSubmeshCount(lod); submesh++) {
+                int first = split.getSubmeshFirstIndex(lod, submesh);
+                int count = split.getSubmeshIndexCount(lod, submesh);
+                int baseVertex = split.getSubmeshBaseVertex(lod, submesh);
+                assertEquals(next, first);
+                assertEquals(0, count % 3);
+                next += count;
+
+                for (int i = first; i < first + count; i++) {
+                    int local = localIndices.get(i) & 0xFFFF;
+                    assertTrue(local < MAX_SHORT_INDEX_VERTICES);
+                    assertTrue(baseVertex + local < split.getVertexCount());
+                    assertVertexEquals(mesh, indices.get(i), split, baseVertex + local);
+                }
+            }
+            assertEquals(split.getLodFirstIndex(lod) + split.getLodIndexCount(lod), next);
+        }
+    }
+
+    private static void assertVertexEquals(MeshData mesh, int vertex, MeshData split,
+                                           int splitVertex) {
+        if (mesh.isQuantized()) {
+            assertArrayEquals(
+                getBytes(mesh.getVertexData(), QUANTIZED_VERTEX_SIZE_BYTES * vertex,
+                    QUANTIZED_VERTEX_SIZE_BYTES),
+                getBytes(split.getVertexData(), QUANTIZED_VERTEX_SIZE_BYTES * splitVertex,
+                    QUANTIZED_VERTEX_SIZE_BYTES));
+            return;
+        }
+        assertArrayEquals(
+            getBytes(mesh.getVertexData(), 12 * vertex, 12),
+            getBytes(split.getVertexData(), 12 * splitVertex, 12));
+        assertArrayEquals(
+            getBytes(mesh.getVertexData(), mesh.getTexCoordsOffset() + 8 * vertex, 8),
+            getBytes(split.getVertexData(), split.getTexCoordsOffset() + 8 * splitVertex, 8));
+        assertArrayEquals(
+            getBytes(mesh.getVertexData(), mesh.getNormalsOffset() + 12 * vertex, 12),
+            getBytes(split.getVertexData(), split.getNormalsOffset() + 12 * splitVertex, 12));
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer, int offset, int size) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        byte[] bytes = new byte[size];
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer bake(int vertexFormat) {
+        return bake(vertexFormat, VERTEX_COUNT, 4);
+    }
+
+    /**
+     * Writes a baked mesh with distinct data for every vertex, and levels of detail of random
+     * triangles, so that every submesh references vertices from all over the vertex block.
+     */
+    private static ByteBuffer bake(int vertexFormat, int vertexCount, int indexElementSize) {
+        int vertexSize = vertexFormat == VERTEX_FORMAT_QUANTIZED
+            ? QUANTIZED_VERTEX_SIZE_BYTES
+            : FLOAT_VERTEX_SIZE_BYTES;
+        int indexCount = 0;
+        for (int triangles : LOD_TRIANGLE_COUNTS) {
+            indexCount += 3 * triangles;
+        }
+        int vertexBlockSize = vertexSize * vertexCount;
+        int indexBlockOffset = HEADER_SIZE_BYTES + vertexBlockSize;
+        ByteBuffer buffer = ByteBuffer.allocate(indexBlockOffset + indexElementSize * indexCount)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, vertexCount);
+        buffer.putInt(12, indexCount);
+        buffer.putInt(16, indexElementSize);
+        buffer.putInt(20, HEADER_SIZE_BYTES);
+        buffer.putInt(24, vertexBlockSize);
+        buffer.putInt(28, indexBlockOffset);
+        buffer.putFloat(56, 1);
+        buffer.putInt(60, LOD_TRIANGLE_COUNTS.length);
+        buffer.putInt(VERTEX_FORMAT_OFFSET, vertexFormat);
+
+        // Every four bytes of the vertex block hold a value of their own.
+        for (int i = 0; i < vertexBlockSize; i += 4) {
+            if (vertexFormat == VERTEX_FORMAT_QUANTIZED) {
+                buffer.putInt(HEADER_SIZE_BYTES + i, i * 0x01000193);
+            } else {
+                buffer.putFloat(HEADER_SIZE_BYTES + i, i);
+            }
+        }
+
+        Random random = new Random(1);
+        int firstIndex = 0;
+        for (int lod = 0; lod < LOD_TRIANGLE_COUNTS.length; lod++) {
+            int count = 3 * LOD_TRIANGLE_COUNTS[lod];
+            buffer.putInt(LOD_TABLE_OFFSET + 12 * lod, firstIndex);
+            buffer.putInt(LOD_TABLE_OFFSET + 12 * lod + 4, count);
+            for (int i = firstIndex; i < firstIndex + count; i++) {
+                int vertex = random.nextInt(vertexCount);
+                if (indexElementSize == 4) {
+                    buffer.putInt(indexBlockOffset + 4 * i, vertex);
+                } else {
+                    buffer.putShort(indexBlockOffset + 2 * i, (short) vertex);
+                }
+            }
+            firstIndex += count;
+        }
+        return buffer;
+    }
+}
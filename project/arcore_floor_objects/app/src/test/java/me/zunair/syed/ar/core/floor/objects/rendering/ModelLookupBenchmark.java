@@ -0,0 +1,82 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.zunair.syed.ar.core.floor.objects.model.ObjectsModel;
+
+/**
+ * Grouping the placed objects by model per frame, as the catalog grows: by the model's id,
+ * which indexes the catalog, against the search of the catalog by name it replaced, whose cost
+ * grows with the number of models. Run through {@link BenchmarkTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ModelLookupBenchmark {
+    private static final int OBJECTS = 1000;
+
+    @Param({"6", "100", "500"})
+    public int mModelCount;
+
+    private ObjectsModel[] mModels;
+    // The model of each placed object, by reference as the objects held it, and by id.
+    private ObjectsModel[] mObjectModels;
+    private int[] mObjectModelIds;
+    private int[] mModelObjectCounts;
+
+    @Setup
+    public void setUp() {
+        mModels = new ObjectsModel[mModelCount];
+        for (int i = 0; i < mModelCount; i++) {
+            mModels[i] = new ObjectsModel("Model " + i, "model" + i + ".obj", "model" + i + ".png",
+                1.0f).setId(i);
+        }
+        Random random = new Random(1);
+        mObjectModels = new ObjectsModel[OBJECTS];
+        mObjectModelIds = new int[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            mObjectModels[i] = mModels[random.nextInt(mModelCount)];
+            mObjectModelIds[i] = mObjectModels[i].getId();
+        }
+        mModelObjectCounts = new int[mModelCount];
+    }
+
+    @Benchmark
+    public int[] byId() {
+        Arrays.fill(mModelObjectCounts, 0);
+        for (int i = 0; i < OBJECTS; i++) {
+            mModelObjectCounts[mObjectModelIds[i]]++;
+        }
+        return mModelObjectCounts;
+    }
+
+    @Benchmark
+    public int[] byName() {
+        Arrays.fill(mModelObjectCounts, 0);
+        for (int i = 0; i < OBJECTS; i++) {
+            String name = mObjectModels[i].getName();
+            for (int modelIndex = 0; modelIndex < mModels.length; modelIndex++) {
+                if (mModels[modelIndex].getName().equals(name)) {
+                    mModelObjectCounts[modelIndex]++;
+                    break;
+                }
+            }
+        }
+        return mModelObjectCounts;
+    }
+}
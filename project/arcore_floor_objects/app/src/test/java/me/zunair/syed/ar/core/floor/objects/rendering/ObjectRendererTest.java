@@ -0,0 +1,129 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/** Draw calls and state changes of a small scene, recorded without a GPU. */
+public class ObjectRendererTest {
+    // A unit quad on the floor, drawn as two triangles.
+    private static final String QUAD_OBJ = "v -0.5 0 -0.5\nv 0.5 0 -0.5\nv 0.5 0 0.5\n"
+        + "v -0.5 0 0.5\nvt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvn 0 1 0\n"
+        + "f 1/1/1 4/4/1 3/3/1 2/2/1\n";
+    private static final int OBJECTS = 3;
+
+    private RecordingGl mGl;
+    private GlState mGlState;
+    private ObjectRenderer mObject;
+    private ObjectRenderer mShadow;
+
+    private final float[] mView = new float[16];
+    private final float[] mProjection = new float[16];
+    private final float[] mModelMatrices = new float[16 * OBJECTS];
+
+    @Before
+    public void setUp() throws IOException {
+        mGl = new RecordingGl();
+        mGlState = new GlState(mGl);
+
+        mObject = new ObjectRenderer(null, mGlState);
+        mObject.createOnGlThread("object_vertex", "object_fragment", loadQuad(), null);
+        mShadow = new ObjectRenderer(null, mGlState);
+        mShadow.createOnGlThread("object_vertex", "object_fragment", loadQuad(), null);
+        mShadow.setBlendMode(ObjectRenderer.BlendMode.Shadow);
+
+        // The camera 2 m above the origin, looking down, and objects 1 m apart along X.
+        MatrixUtil.setIdentityM(mView, 0);
+        mView[5] = 0;
+        mView[6] = 1;
+        mView[9] = -1;
+        mView[10] = 0;
+        mView[14] = -2;
+        MatrixUtil.setIdentityM(mProjection, 0);
+        mProjection[10] = -1;
+        mProjection[11] = -1;
+        mProjection[14] = -0.2f;
+        mProjection[15] = 0;
+        for (int i = 0; i < OBJECTS; i++) {
+            MatrixUtil.setIdentityM(mModelMatrices, 16 * i);
+            mModelMatrices[16 * i + 12] = i - 1;
+        }
+    }
+
+    @Test
+    public void firstFrameSetsUpEachModelOnce() {
+        mGl.reset();
+        drawScene();
+
+        assertEquals(2 * OBJECTS, mGl.getDrawCallCount());
+        assertEquals(2 * OBJECTS, mGl.getCallCount("glDrawElements"));
+        // The first model sets the depth test, depth writes, blending and the vertex attributes
+        // once, the second shares the attributes and only switches depth writes and blending.
+        // Each binds its program, texture and both buffers.
+        assertEquals(22, mGl.getStateChangeCount());
+        assertEquals(3, mGl.getCallCount("glEnableVertexAttribArray"));
+        assertEquals(1, mGl.getCallCount("glBlendFunc"));
+        assertEquals(0, mGl.getUploadedBytes());
+    }
+
+    @Test
+    public void laterFramesOnlyRebindWhatDiffers() {
+        drawScene();
+        mGl.reset();
+        drawScene();
+
+        assertEquals(2 * OBJECTS, mGl.getDrawCallCount());
+        // Program, texture, vertex and index buffers of each model, and depth writes and
+        // blending back and forth. The blend function is left set for the shadow.
+        assertEquals(12, mGl.getStateChangeCount());
+        assertEquals(0, mGl.getCallCount("glActiveTexture"));
+        assertEquals(0, mGl.getCallCount("glEnableVertexAttribArray"));
+        assertEquals(0, mGl.getCallCount("glBlendFunc"));
+    }
+
+    @Test
+    public void culledObjectsAreNotDrawn() {
+        Frustum frustum = new Frustum();
+        float[] viewProjection = new float[16];
+        MatrixUtil.multiplyMM(viewProjection, 0, mProjection, 0, mView, 0);
+        frustum.update(viewProjection);
+        // Far behind the camera.
+        mModelMatrices[16 + 13] = 10;
+
+        mGl.reset();
+        mObject.beginDraw(mView, mProjection, 1);
+        for (int i = 0; i < OBJECTS; i++) {
+            mObject.setModelMatrix(mModelMatrices, 16 * i, 1);
+            if (mObject.isInFrustum(frustum)) {
+                mObject.drawInstance(0);
+            }
+        }
+        mObject.endDraw();
+
+        assertEquals(OBJECTS - 1, mGl.getDrawCallCount());
+    }
+
+    private void drawScene() {
+        drawModel(mObject);
+        drawModel(mShadow);
+    }
+
+    private void drawModel(ObjectRenderer renderer) {
+        renderer.beginDraw(mView, mProjection, 1);
+        for (int i = 0; i < OBJECTS; i++) {
+            renderer.setModelMatrix(mModelMatrices, 16 * i, 1);
+            renderer.drawInstance(0);
+        }
+        renderer.endDraw();
+    }
+
+    private static MeshData loadQuad() throws IOException {
+        return MeshData.fromObj(new ByteArrayInputStream(
+            QUAD_OBJ.getBytes(Charset.forName("US-ASCII"))));
+    }
+}
@@ -0,0 +1,201 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import com.google.ar.core.ArCoreFakes;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Taps resolved against planes seen by a camera at the origin. Looking straight down, with a 90
+ * degree field of view on a square surface, a tap at {@link #tapX} and {@link #tapY} of a point
+ * 1 m below the camera is known to hit that point.
+ */
+public class PlaneHitTesterTest {
+    private static final int SIZE = 100;
+    private static final float NEAR = 0.1f;
+    private static final float FAR = 100;
+    private static final float EPSILON = 1e-4f;
+    // A rotation of -90 degrees about X, which turns the camera's -Z axis to the floor.
+    private static final float[] LOOKING_DOWN = {(float) -Math.sqrt(0.5), 0, 0,
+        (float) Math.sqrt(0.5)};
+
+    private FrameSnapshot mSnapshot;
+    private PlaneHitTester mHitTester;
+    private final float[] mView = new float[16];
+    private final float[] mProjection = new float[16];
+    private final float[] mRay = new float[6];
+    private final float[] mPoint = new float[3];
+
+    @Before
+    public void setUp() {
+        mSnapshot = new FrameSnapshot();
+        mHitTester = new PlaneHitTester();
+
+        // gluPerspective with a 90 degree field of view and a square aspect.
+        Arrays.fill(mProjection, 0);
+        mProjection[0] = 1;
+        mProjection[5] = 1;
+        mProjection[10] = (FAR + NEAR) / (NEAR - FAR);
+        mProjection[11] = -1;
+        mProjection[14] = 2 * FAR * NEAR / (NEAR - FAR);
+        setCamera(LOOKING_DOWN);
+    }
+
+    @Test
+    public void rayStartsOnTheNearPlane() {
+        beginFrame();
+
+        assertTrue(mHitTester.getRay(SIZE / 2, SIZE / 2, mRay));
+        assertArrayEquals(new float[] {0, -NEAR, 0, 0, -1, 0}, mRay, EPSILON);
+        // At 45 degrees from the view direction at the right edge, with screen up being -Z.
+        assertTrue(mHitTester.getRay(SIZE, SIZE / 2, mRay));
+        float diagonal = (float) Math.sqrt(0.5);
+        assertArrayEquals(new float[] {NEAR, -NEAR, 0, diagonal, -diagonal, 0}, mRay, EPSILON);
+        assertTrue(mHitTester.getRay(SIZE / 2, 0, mRay));
+        assertArrayEquals(new float[] {0, -NEAR, -NEAR, 0, -diagonal, -diagonal}, mRay, EPSILON);
+    }
+
+    @Test
+    public void hitsTheFloorAtTheTappedPoint() {
+        Plane floor = ArCoreFakes.newPlane(Pose.makeTranslation(0, -1, 0), 4, 4);
+        beginFrame(floor);
+
+        assertTrue(mHitTester.hitTest(SIZE / 2, SIZE / 2));
+        assertSame(floor, mHitTester.getHitPlane());
+        assertEquals(1 - NEAR, mHitTester.getHitDistance(), EPSILON);
+        assertHitPoint(0, -1, 0);
+
+        assertTrue(mHitTester.hitTest(tapX(0.5f), tapY(-0.25f)));
+        assertHitPoint(0.5f, -1, -0.25f);
+        Pose pose = mHitTester.getHitPose();
+        assertArrayEquals(new float[] {0.5f, -1, -0.25f},
+            new float[] {pose.tx(), pose.ty(), pose.tz()}, EPSILON);
+        assertArrayEquals(new float[] {0, 0, 0, 1},
+            new float[] {pose.qx(), pose.qy(), pose.qz(), pose.qw()}, EPSILON);
+    }
+
+    @Test
+    public void hitsAreTestedInThePlanesCoordinates() {
+        // A 1 m square turned by 45 degrees about Y reaches 0.71 m along the world axes, and
+        // 0.5 m along the diagonals.
+        float sin = (float) Math.sin(Math.PI / 8);
+        float cos = (float) Math.cos(Math.PI / 8);
+        Plane plane = ArCoreFakes.newPlane(
+            new Pose(new float[] {0, -1, 0}, new float[] {0, sin, 0, cos}), 1, 1);
+        beginFrame(plane);
+
+        assertTrue(mHitTester.hitTest(tapX(0.65f), tapY(0)));
+        assertTrue(mHitTester.hitTest(tapX(0), tapY(-0.65f)));
+        assertFalse(mHitTester.hitTest(tapX(0.4f), tapY(0.4f)));
+        assertFalse(mHitTester.hitTest(tapX(-0.4f), tapY(0.4f)));
+
+        assertTrue(mHitTester.hitTest(tapX(0.2f), tapY(0.2f)));
+        Pose pose = mHitTester.getHitPose();
+        assertArrayEquals(new float[] {0, sin, 0, cos},
+            new float[] {pose.qx(), pose.qy(), pose.qz(), pose.qw()}, EPSILON);
+    }
+
+    @Test
+    public void hitsStopAtThePolygonsEdges() {
+        beginFrame(ArCoreFakes.newPlane(Pose.makeTranslation(0, -1, 0), 1, 1));
+
+        assertTrue(mHitTester.hitTest(tapX(0.49f), tapY(0)));
+        assertFalse(mHitTester.hitTest(tapX(0.51f), tapY(0)));
+        assertTrue(mHitTester.hitTest(tapX(0), tapY(-0.49f)));
+        assertFalse(mHitTester.hitTest(tapX(0), tapY(-0.51f)));
+        assertTrue(mHitTester.hitTest(tapX(-0.49f), tapY(0.49f)));
+        assertFalse(mHitTester.hitTest(tapX(-0.51f), tapY(0.49f)));
+    }
+
+    @Test
+    public void notchesInAPolygonAreNotHit() {
+        // A C shape, open to +X between Z = -0.5 and 0.5.
+        float[] polygon = {-1, -1, 1, -1, 1, -0.5f, -0.5f, -0.5f, -0.5f, 0.5f, 1, 0.5f, 1, 1,
+            -1, 1};
+        beginFrame(ArCoreFakes.newPlane(Pose.makeTranslation(0, -1, 0), 2, 2, polygon));
+
+        assertFalse(mHitTester.hitTest(tapX(0.5f), tapY(0)));
+        assertFalse(mHitTester.hitTest(tapX(-0.45f), tapY(0)));
+        assertTrue(mHitTester.hitTest(tapX(-0.55f), tapY(0)));
+        assertTrue(mHitTester.hitTest(tapX(0.5f), tapY(0.75f)));
+        assertTrue(mHitTester.hitTest(tapX(0.5f), tapY(-0.75f)));
+    }
+
+    @Test
+    public void nearestPlaneIsHit() {
+        Plane floor = ArCoreFakes.newPlane(Pose.makeTranslation(0, -1, 0), 4, 4);
+        Plane table = ArCoreFakes.newPlane(Pose.makeTranslation(0.5f, -0.5f, 0), 0.5f, 0.5f);
+        beginFrame(floor, table);
+
+        // Taps are given for the floor's distance, so the table is hit halfway to the point.
+        assertTrue(mHitTester.hitTest(tapX(1), tapY(0)));
+        assertSame(table, mHitTester.getHitPlane());
+        assertHitPoint(0.5f, -0.5f, 0);
+        assertTrue(mHitTester.hitTest(tapX(-1), tapY(0)));
+        assertSame(floor, mHitTester.getHitPlane());
+        assertHitPoint(-1, -1, 0);
+    }
+
+    @Test
+    public void raysAwayFromOrAlongThePlaneMiss() {
+        // A plane above the camera, which looks down, away from it.
+        beginFrame(ArCoreFakes.newPlane(Pose.makeTranslation(0, 1, 0), 4, 4));
+        assertFalse(mHitTester.hitTest(SIZE / 2, SIZE / 2));
+        assertFalse(mHitTester.hitTest(0, 0));
+
+        // Looking straight ahead, along the floor: only the bottom half of the view sees it.
+        setCamera(new float[] {0, 0, 0, 1});
+        Plane floor = ArCoreFakes.newPlane(Pose.makeTranslation(0, -1, 0), 10, 10);
+        beginFrame(floor);
+        assertFalse(mHitTester.hitTest(SIZE / 2, SIZE / 2));
+        assertFalse(mHitTester.hitTest(SIZE / 2, SIZE / 4));
+        assertTrue(mHitTester.hitTest(SIZE / 2, SIZE));
+        assertHitPoint(0, -1, -1);
+    }
+
+    @Test
+    public void nothingIsHitWithoutAViewport() {
+        mHitTester.beginFrame(mSnapshot, mView, mProjection, 0, 0);
+
+        assertFalse(mHitTester.getRay(0, 0, mRay));
+        assertFalse(mHitTester.hitTest(0, 0));
+    }
+
+    /** Sets the camera at the origin, with a rotation quaternion. */
+    private void setCamera(float[] rotation) {
+        new Pose(new float[] {0, 0, 0}, rotation).inverse().toMatrix(mView, 0);
+    }
+
+    private void beginFrame(Plane... planes) {
+        mSnapshot.update(Arrays.asList(planes));
+        mHitTester.beginFrame(mSnapshot, mView, mProjection, SIZE, SIZE);
+        for (int i = 0; i < mSnapshot.getPlaneCount(); i++) {
+            mHitTester.addPlane(mSnapshot.getPlaneSlot(i));
+        }
+    }
+
+    private void assertHitPoint(float x, float y, float z) {
+        mHitTester.getHitPoint(mPoint, 0);
+        assertArrayEquals(new float[] {x, y, z}, mPoint, EPSILON);
+    }
+
+    /** Horizontal position of a tap on a point 1 m below the camera looking down. */
+    private static float tapX(float x) {
+        return (x + 1) * SIZE / 2;
+    }
+
+    /** Vertical position of a tap on a point 1 m below the camera looking down. */
+    private static float tapY(float z) {
+        return (z + 1) * SIZE / 2;
+    }
+}
@@ -0,0 +1,199 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import com.google.ar.core.ArCoreFakes;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Whole frames of a scene with placed objects, drawn without a GPU while the camera walks around
+ * them and taps are tested, checking that no frame allocates after the warm-up. This is the
+ * frame loop of the activity, less the ARCore session update and the camera background.
+ */
+public class SceneRendererTest {
+    // A unit quad on the floor, drawn as two triangles.
+    private static final String QUAD_OBJ = "v -0.5 0 -0.5\nv 0.5 0 -0.5\nv 0.5 0 0.5\n"
+        + "v -0.5 0 0.5\nvt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvn 0 1 0\n"
+        + "f 1/1/1 4/4/1 3/3/1 2/2/1\n";
+    private static final int MODELS = 2;
+    private static final int OBJECTS = 40;
+    private static final int CAMERA_POSES = 60;
+    private static final int WARM_UP_FRAMES = 1000;
+    private static final int CHECKED_FRAMES = 5 * CAMERA_POSES;
+    private static final int MAX_PASSES = 5;
+    private static final float FLOOR_SIZE_M = 8;
+    private static final int SIZE = 100;
+    private static final float NEAR = 0.1f;
+    private static final float FAR = 100;
+
+    private FrameSnapshot mSnapshot;
+    private SceneStore mScene;
+    private PlaneHitTester mHitTester;
+    private SceneRenderer mRenderer;
+    private List<Plane> mPlanes;
+    private Pose[] mCameraPoses;
+
+    private final ObjectRenderer[] mModels = new ObjectRenderer[MODELS];
+    private final float[] mProjection = new float[16];
+    private final float[] mRay = new float[6];
+
+    @Before
+    public void setUp() throws IOException {
+        GlState glState = new GlState(new NoOpGl());
+        mSnapshot = new FrameSnapshot();
+        mScene = new SceneStore(OBJECTS, OBJECTS, MODELS, mSnapshot);
+        mHitTester = new PlaneHitTester();
+        mRenderer = new SceneRenderer(glState, mSnapshot, mScene, new SceneRenderer.Models() {
+            @Override
+            public ObjectRenderer get(int modelId) {
+                return mModels[modelId];
+            }
+        }, new FrameProfiler());
+        mRenderer.setHitTester(mHitTester);
+        mRenderer.setViewport(SIZE, SIZE);
+        mRenderer.getPlaneRenderer().createOnGlThread("plane_vertex", "plane_fragment", null);
+        for (int i = 0; i < MODELS; i++) {
+            mModels[i] = new ObjectRenderer(null, glState);
+            mModels[i].createOnGlThread("object_vertex", "object_fragment", loadQuad(), null);
+            mScene.setModelBounds(i, mModels[i].getBoundsMin(), mModels[i].getBoundsMax(),
+                mModels[i].getBoundingRadius());
+        }
+
+        // Objects on a floor 1.5 m below the camera, in clusters of four sharing an anchor.
+        Plane floor = ArCoreFakes.newPlane(
+            Pose.makeTranslation(0, -1.5f, 0), FLOOR_SIZE_M, FLOOR_SIZE_M);
+        mPlanes = new ArrayList<>(Arrays.asList(floor,
+            ArCoreFakes.newPlane(Pose.makeTranslation(1, -0.8f, -1), 1, 1)));
+        mSnapshot.update(mPlanes);
+        int cluster = -1;
+        for (int i = 0; i < OBJECTS; i++) {
+            float x = (i % 8 - 3.5f) * 0.8f;
+            float z = (i / 8 - 2) * 0.8f;
+            Pose pose = Pose.makeTranslation(x, -1.5f, z);
+            if (i % 4 == 0) {
+                cluster = mScene.addCluster(floor, ArCoreFakes.newAnchor(pose));
+            }
+            mScene.add(cluster, pose, i % MODELS, 0.3f);
+        }
+
+        // gluPerspective with a 90 degree field of view and a square aspect.
+        mProjection[0] = 1;
+        mProjection[5] = 1;
+        mProjection[10] = (FAR + NEAR) / (NEAR - FAR);
+        mProjection[11] = -1;
+        mProjection[14] = 2 * FAR * NEAR / (NEAR - FAR);
+
+        // A full turn around the Y axis, looking 30 degrees down.
+        float pitch = (float) Math.toRadians(-30);
+        Pose tilt = Pose.makeRotation(
+            (float) Math.sin(pitch / 2), 0, 0, (float) Math.cos(pitch / 2));
+        mCameraPoses = new Pose[CAMERA_POSES];
+        for (int i = 0; i < CAMERA_POSES; i++) {
+            double yaw = 2 * Math.PI * i / CAMERA_POSES;
+            mCameraPoses[i] = Pose.makeRotation(
+                0, (float) Math.sin(yaw / 2), 0, (float) Math.cos(yaw / 2)).compose(tilt);
+        }
+    }
+
+    @Test
+    public void framesDoNotAllocateAfterWarmUp() {
+        for (int frame = 0; frame < WARM_UP_FRAMES; frame++) {
+            drawFrame(frame);
+        }
+
+        // The JVM compiler now and then counts a few bytes to the thread while it optimizes the
+        // frame code, so the frames are checked again if a pass allocated. A frame that
+        // allocates by itself does so in every pass.
+        AllocationGuard guard = null;
+        int drawnFrames = 0;
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            guard = new AllocationGuard(null, 0, new ThreadAllocationCounter());
+            drawnFrames = 0;
+            for (int frame = 0; frame < CHECKED_FRAMES; frame++) {
+                guard.begin();
+                drawFrame(frame);
+                guard.end();
+                if (mRenderer.getDrawnTriangleCount() > 0) {
+                    drawnFrames++;
+                }
+            }
+            if (guard.getViolationCount() == 0) {
+                break;
+            }
+        }
+
+        assertEquals("Frames that allocated after the warm-up", 0, guard.getViolationCount());
+        assertTrue("Only " + drawnFrames + " frames drew objects",
+            drawnFrames > CHECKED_FRAMES / 2);
+    }
+
+    @Test
+    public void allocatingFramesAreCaught() {
+        AllocationGuard guard = new AllocationGuard(null, 1, new ThreadAllocationCounter());
+        List<float[]> garbage = new ArrayList<>();
+        for (int frame = 0; frame < 3; frame++) {
+            guard.begin();
+            drawFrame(frame);
+            garbage.add(new float[16]);
+            guard.end();
+        }
+
+        assertEquals(2, guard.getViolationCount());
+    }
+
+    /** Draws a frame and tests a tap in the middle and one at the bottom of the surface. */
+    private void drawFrame(int frame) {
+        mSnapshot.update(mPlanes);
+        mRenderer.drawFrame(mCameraPoses[frame % CAMERA_POSES], mProjection, 1);
+        mHitTester.hitTest(SIZE / 2, SIZE / 2);
+        if (mHitTester.getRay(SIZE / 2, SIZE, mRay)) {
+            mScene.pick(mRay, FAR);
+        }
+    }
+
+    private static MeshData loadQuad() throws IOException {
+        return MeshData.fromObj(new ByteArrayInputStream(
+            QUAD_OBJ.getBytes(Charset.forName("US-ASCII"))));
+    }
+
+    /**
+     * Counts the bytes the current thread allocates, with the thread allocation counter of the
+     * desktop JVM. Some JVMs allocate to read the counter, which is measured once and taken out.
+     */
+    private static class ThreadAllocationCounter implements AllocationGuard.Counter {
+        private final com.sun.management.ThreadMXBean mThreads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final long mThreadId = Thread.currentThread().getId();
+        private long mReadBytes;
+        private long mReadCount;
+
+        @Override
+        public void start() {
+            long first = mThreads.getThreadAllocatedBytes(mThreadId);
+            long second = mThreads.getThreadAllocatedBytes(mThreadId);
+            mReadBytes = second - first;
+        }
+
+        @Override
+        public long getThreadAllocations() {
+            return mThreads.getThreadAllocatedBytes(mThreadId) - mReadBytes * mReadCount++;
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
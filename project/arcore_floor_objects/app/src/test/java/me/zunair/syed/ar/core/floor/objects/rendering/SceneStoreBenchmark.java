@@ -0,0 +1,115 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.ArCoreFakes;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The matrices of every placed object per frame: the scene store's single pass against the
+ * per-object path it replaced, which turned each anchor's pose into a matrix, scaled it, and
+ * multiplied it by the view, then by the projection. Both read the poses of one anchor per
+ * object. {@link MatrixUtil#multiplyMM} stands in for {@code android.opengl.Matrix}, which is
+ * native on a device. Run through {@link BenchmarkTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SceneStoreBenchmark {
+    private static final float FLOOR_Y = -1.2f;
+    private static final float FLOOR_SIZE_M = 20;
+    private static final float SCALE = 0.5f;
+
+    @Param({"32", "1000", "10000"})
+    public int mObjectCount;
+
+    private FrameSnapshot mSnapshot;
+    private SceneStore mScene;
+    private List<Plane> mPlanes;
+    private Anchor[] mAnchors;
+
+    private final float[] mView = new float[16];
+    private final float[] mProjection = new float[16];
+    private final float[] mViewProjection = new float[16];
+    private final float[] mAnchorMatrix = new float[16];
+    private final float[] mModelMatrix = new float[16];
+    private final float[] mModelViewMatrix = new float[16];
+    private final float[] mModelViewProjectionMatrix = new float[16];
+
+    @Setup
+    public void setUp() {
+        Plane plane = ArCoreFakes.newPlane(
+            Pose.makeTranslation(0, FLOOR_Y, 0), FLOOR_SIZE_M, FLOOR_SIZE_M);
+        mPlanes = Collections.singletonList(plane);
+        mSnapshot = new FrameSnapshot();
+        mScene = new SceneStore(mObjectCount, mObjectCount, 1, mSnapshot);
+        mScene.setModelBounds(0, new float[] {-0.1f, 0, -0.1f}, new float[] {0.1f, 0.2f, 0.1f},
+            0.15f);
+
+        // Objects facing any way, anywhere on the floor, each with its own anchor as before.
+        Random random = new Random(1);
+        mAnchors = new Anchor[mObjectCount];
+        for (int i = 0; i < mObjectCount; i++) {
+            float angle = (float) (random.nextFloat() * Math.PI);
+            Pose pose = new Pose(
+                new float[] {(random.nextFloat() - 0.5f) * FLOOR_SIZE_M, FLOOR_Y,
+                    (random.nextFloat() - 0.5f) * FLOOR_SIZE_M},
+                new float[] {0, (float) Math.sin(angle), 0, (float) Math.cos(angle)});
+            mAnchors[i] = ArCoreFakes.newAnchor(pose);
+            mScene.add(mScene.addCluster(plane, mAnchors[i]), pose, 0, SCALE);
+        }
+
+        // The camera 1.5 m above the floor, looking along -Z, and a 90 degree field of view.
+        Pose.makeTranslation(0, 1.5f, 0).inverse().toMatrix(mView, 0);
+        MatrixUtil.setIdentityM(mProjection, 0);
+        mProjection[10] = -1;
+        mProjection[11] = -1;
+        mProjection[14] = -0.2f;
+        mProjection[15] = 0;
+        MatrixUtil.multiplyMM(mViewProjection, 0, mProjection, 0, mView, 0);
+    }
+
+    @Benchmark
+    public float[] sceneStore() {
+        mSnapshot.update(mPlanes);
+        mScene.update();
+        mScene.computeTransforms(mView, mViewProjection);
+        return mScene.getModelViewProjectionMatrices();
+    }
+
+    @Benchmark
+    public float[] perObject() {
+        for (int i = 0; i < mObjectCount; i++) {
+            // The anchor's matrix, at the height of the plane, then scaled as Matrix.scaleM did.
+            mAnchors[i].getPose().toMatrix(mAnchorMatrix, 0);
+            mAnchorMatrix[13] = FLOOR_Y;
+            for (int j = 0; j < 12; j++) {
+                mModelMatrix[j] = mAnchorMatrix[j] * SCALE;
+            }
+            System.arraycopy(mAnchorMatrix, 12, mModelMatrix, 12, 4);
+
+            MatrixUtil.multiplyMM(mModelViewMatrix, 0, mView, 0, mModelMatrix, 0);
+            MatrixUtil.multiplyMM(
+                mModelViewProjectionMatrix, 0, mProjection, 0, mModelViewMatrix, 0);
+        }
+        return mModelViewProjectionMatrix;
+    }
+}
@@ -0,0 +1,99 @@
+package me.zunair.syed.ar.core.floor.objects.rendering;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Queries of the grid over a floor full of objects, which must only look at the nearby ones. */
+public class SpatialGridTest {
+    private static final int CAPACITY = 4096;
+    private static final int SIDE = 64;
+    private static final float SPACING_M = 0.5f;
+    private static final float RADIUS_M = 0.1f;
+    private static final float CELL_SIZE_M = 0.25f;
+    // Far below the number of objects, as a query only tests those around a few cells.
+    private static final int MAX_VISITS = 64;
+
+    private SpatialGrid mGrid;
+
+    @Before
+    public void setUp() {
+        mGrid = new SpatialGrid(CAPACITY, CELL_SIZE_M);
+        updateAll(new Random(1), 0);
+    }
+
+    @Test
+    public void queriesStayLocalWhileObjectsJitter() {
+        // Every frame moves every object a little, as their anchors are refined.
+        Random random = new Random(2);
+        for (int frame = 0; frame < 10; frame++) {
+            updateAll(random, 0.002f);
+
+            assertTrue(mGrid.overlaps(10, 0, 10, 0.05f));
+            assertTrue(mGrid.getVisitCount() < MAX_VISITS);
+            assertFalse(mGrid.overlaps(10.25f, 0, 10.25f, 0.05f));
+            assertTrue(mGrid.getVisitCount() < MAX_VISITS);
+            int hit = mGrid.raycast(10, 2, 10, 0, -1, 0, 5);
+            assertEquals(index(20, 20), hit);
+            assertTrue(mGrid.getVisitCount() < MAX_VISITS);
+        }
+    }
+
+    @Test
+    public void removingTheHighestObjectShrinksTheBounds() {
+        mGrid.update(0, 0, 3, 0, RADIUS_M);
+        // A slanted ray is walked through the cells within the heights of the objects.
+        mGrid.raycast(-5, 3, 10.1f, 1, 0, 0, 10);
+        int visitsWithHighObject = mGrid.getVisitCount();
+
+        mGrid.remove(0);
+        assertEquals(-1, mGrid.raycast(-5, 3, 10.1f, 1, 0, 0, 10));
+        // The scan of the stale bounds, then nothing, as the ray is above every object.
+        assertEquals(CAPACITY, mGrid.getVisitCount());
+        assertEquals(-1, mGrid.raycast(-5, 3, 10.1f, 1, 0, 0, 10));
+        assertEquals(0, mGrid.getVisitCount());
+        assertTrue(visitsWithHighObject > 0);
+    }
+
+    @Test
+    public void growingTheCellsKeepsTheObjects() {
+        mGrid.setCellSize(2);
+        int[] results = new int[16];
+        int count = mGrid.queryRadius(10, 0, 10, 0.05f, results);
+
+        assertEquals(1, count);
+        assertEquals(index(20, 20), results[0]);
+        assertEquals(index(20, 20), mGrid.raycast(10, 2, 10, 0, -1, 0, 5));
+    }
+
+    @Test
+    public void emptyGridIsNotWalked() {
+        mGrid.clear();
+
+        assertEquals(-1, mGrid.raycast(10, 2, 10, 0.6f, -0.8f, 0, 100));
+        assertEquals(0, mGrid.getVisitCount());
+    }
+
+    /** Files objects on a square lattice on the floor, each moved by up to {@code jitter}. */
+    private void updateAll(Random random, float jitter) {
+        for (int x = 0; x < SIDE; x++) {
+            for (int z = 0; z < SIDE; z++) {
+                mGrid.update(index(x, z), x * SPACING_M + jitter(random, jitter),
+                    jitter(random, jitter), z * SPACING_M + jitter(random, jitter), RADIUS_M);
+            }
+        }
+    }
+
+    private static float jitter(Random random, float jitter) {
+        return (2 * random.nextFloat() - 1) * jitter;
+    }
+
+    private static int index(int x, int z) {
+        return x * SIDE + z;
+    }
+}
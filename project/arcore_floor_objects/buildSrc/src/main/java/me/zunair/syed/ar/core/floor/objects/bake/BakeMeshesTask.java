@@ -0,0 +1,177 @@
+package me.zunair.syed.ar.core.floor.objects.bake;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts OBJ models into the binary mesh format, so that the app can memory-map them instead
+ * of parsing text at startup. Each {@code name.obj} becomes {@code name.mesh} in
+ * {@link #getOutputDir()}.
+ *
+ * <p>Meshes are welded and their triangles and vertices reordered for the GPU's caches (see
+ * {@link MeshOptimizer}). Every mesh also gets simplified levels of detail, which the app draws
+ * instead of the full mesh when the model is small on screen.
+ *
+ * <p>With {@link #setQuantize(boolean) quantize} set, vertices are stored interleaved with 16-bit
+ * attributes, which halves the size of the vertex data both in the APK and on the GPU.
+ */
+public class BakeMeshesTask extends DefaultTask {
+    public static final String MESH_EXTENSION = ".mesh";
+
+    // Post-transform cache size assumed when reporting the average cache miss ratio.
+    private static final int REPORTED_CACHE_SIZE = 16;
+
+    // Triangle count of each simplified level, relative to the full detail mesh.
+    private static final float[] LOD_TRIANGLE_RATIOS = { 0.5f, 0.25f };
+    // Largest error of a simplified level, relative to the model's bounding sphere radius.
+    private static final float MAX_LOD_ERROR = 0.05f;
+    // Meshes this small are cheap enough to always draw in full detail.
+    private static final int MIN_LOD_TRIANGLES = 256;
+    // A level is only kept if it has at most this many of the next finer level's triangles.
+    private static final float MAX_LOD_TRIANGLE_RATIO = 0.8f;
+
+    private FileCollection mSource;
+    private File mOutputDir;
+    private boolean mQuantize;
+
+    @InputFiles
+    public FileCollection getSource() {
+        return mSource;
+    }
+
+    public void setSource(FileCollection source) {
+        mSource = source;
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return mOutputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        mOutputDir = outputDir;
+    }
+
+    @Input
+    public boolean isQuantize() {
+        return mQuantize;
+    }
+
+    public void setQuantize(boolean quantize) {
+        mQuantize = quantize;
+    }
+
+    @TaskAction
+    public void bake() {
+        for (File objFile : mSource.getFiles()) {
+            File meshFile = new File(mOutputDir, bakedName(objFile.getName()));
+            try {
+                bake(objFile, meshFile);
+            } catch (IOException e) {
+                throw new GradleException("Failed to bake " + objFile, e);
+            }
+        }
+    }
+
+    private void bake(File objFile, File meshFile) throws IOException {
+        MeshGeometry source;
+        InputStream in = new BufferedInputStream(new FileInputStream(objFile));
+        try {
+            source = MeshGeometry.fromObj(in);
+        } finally {
+            in.close();
+        }
+
+        MeshGeometry welded = MeshOptimizer.weld(source);
+        List<MeshLod> simplified = buildLods(welded);
+
+        // Every level is ordered for the vertex cache on its own, then the vertices are stored
+        // in the order the levels use them, full detail first.
+        List<int[]> lodIndices = new ArrayList<>();
+        for (MeshLod lod : simplified) {
+            lodIndices.add(optimizeTriangleOrder(welded, lod.indices));
+        }
+        int[] remap = MeshOptimizer.vertexFetchRemap(welded.getVertexCount(), lodIndices);
+        MeshGeometry mesh = MeshOptimizer.remapVertices(new MeshGeometry(
+            welded.positions, welded.texCoords, welded.normals, lodIndices.get(0)), remap);
+        List<MeshLod> lods = new ArrayList<>();
+        for (int i = 0; i < simplified.size(); i++) {
+            lods.add(new MeshLod(MeshOptimizer.remapIndices(lodIndices.get(i), remap),
+                simplified.get(i).error));
+        }
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(meshFile));
+        try {
+            MeshWriter.write(mesh, lods, mQuantize
+                ? MeshWriter.VERTEX_FORMAT_QUANTIZED : MeshWriter.VERTEX_FORMAT_FLOAT, out);
+        } finally {
+            out.close();
+        }
+
+        StringBuilder lodSummary = new StringBuilder();
+        for (int i = 1; i < lods.size(); i++) {
+            lodSummary.append(String.format(Locale.US, ", LOD %d: %d triangles (error %.4f)",
+                i, lods.get(i).getTriangleCount(), lods.get(i).error));
+        }
+        getLogger().info("Baked " + objFile.getName() + ": " + mesh.getVertexCount()
+            + " vertices, " + mesh.getIndexCount() / 3 + " triangles" + lodSummary + ", "
+            + objFile.length() + " -> " + meshFile.length() + " bytes");
+        getLogger().info(String.format(Locale.US,
+            "Optimized %s: %d -> %d vertices, ACMR %.3f -> %.3f (FIFO cache of %d)",
+            objFile.getName(), source.getVertexCount(), mesh.getVertexCount(),
+            MeshOptimizer.computeAcmr(
+                source.indices, source.getVertexCount(), REPORTED_CACHE_SIZE),
+            MeshOptimizer.computeAcmr(mesh.indices, mesh.getVertexCount(), REPORTED_CACHE_SIZE),
+            REPORTED_CACHE_SIZE));
+    }
+
+    /** Orders triangles for the vertex cache first, then for overdraw. */
+    private static int[] optimizeTriangleOrder(MeshGeometry mesh, int[] indices) {
+        return MeshOptimizer.optimizeOverdraw(
+            MeshOptimizer.optimizeVertexCache(indices, mesh.getVertexCount()),
+            mesh.positions, mesh.getVertexCount());
+    }
+
+    private static List<MeshLod> buildLods(MeshGeometry mesh) {
+        List<MeshLod> lods = new ArrayList<>();
+        lods.add(new MeshLod(mesh.indices, 0));
+        int triangleCount = mesh.getIndexCount() / 3;
+        if (triangleCount < MIN_LOD_TRIANGLES) {
+            return lods;
+        }
+
+        MeshSimplifier simplifier = new MeshSimplifier(mesh);
+        for (float ratio : LOD_TRIANGLE_RATIOS) {
+            MeshLod lod = simplifier.simplify((int) (triangleCount * ratio), MAX_LOD_ERROR);
+            MeshLod finer = lods.get(lods.size() - 1);
+            if (lod.getTriangleCount() > finer.getTriangleCount() * MAX_LOD_TRIANGLE_RATIO) {
+                // The error limit was reached; coarser levels would not get any smaller.
+                break;
+            }
+            lods.add(lod);
+        }
+        return lods;
+    }
+
+    private static String bakedName(String objName) {
+        int dot = objName.lastIndexOf('.');
+        return (dot < 0 ? objName : objName.substring(0, dot)) + MESH_EXTENSION;
+    }
+}
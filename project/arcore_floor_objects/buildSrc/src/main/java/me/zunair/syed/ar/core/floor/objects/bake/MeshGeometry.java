@@ -0,0 +1,169 @@
+package me.zunair.syed.ar.core.floor.objects.bake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import de.javagl.Obj;
+import de.javagl.ObjData;
+import de.javagl.ObjReader;
+import de.javagl.ObjUtils;
+
+/**
+ * A single-indexed triangle mesh, in the form it will be rendered in: one position, texture
+ * coordinate and normal per vertex, and three indices per triangle.
+ */
+public class MeshGeometry {
+    public static final int COORDS_PER_VERTEX = 3;
+    public static final int TEXCOORDS_PER_VERTEX = 2;
+    public static final int NORMALS_PER_VERTEX = 3;
+
+    public final float[] positions;
+    public final float[] texCoords;
+    public final float[] normals;
+    public final int[] indices;
+
+    public MeshGeometry(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+        this.positions = positions;
+        this.texCoords = texCoords;
+        this.normals = normals;
+        this.indices = indices;
+    }
+
+    public int getVertexCount() {
+        return positions.length / COORDS_PER_VERTEX;
+    }
+
+    public int getIndexCount() {
+        return indices.length;
+    }
+
+    /** Exact bit pattern of a few floats of a vertex, to find vertices with identical data. */
+    public static class VertexKey {
+        private final int[] mBits;
+
+        VertexKey(int[] bits) {
+            mBits = bits;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof VertexKey && Arrays.equals(mBits, ((VertexKey) other).mBits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(mBits);
+        }
+    }
+
+    /** Key equal for vertices at exactly the same position. */
+    public VertexKey positionKey(int vertex) {
+        int[] bits = new int[COORDS_PER_VERTEX];
+        putBits(bits, 0, positions, COORDS_PER_VERTEX * vertex, COORDS_PER_VERTEX);
+        return new VertexKey(bits);
+    }
+
+    /** Key equal for vertices whose position, texture coordinates and normal are identical. */
+    public VertexKey attributeKey(int vertex) {
+        int[] bits = new int[COORDS_PER_VERTEX + TEXCOORDS_PER_VERTEX + NORMALS_PER_VERTEX];
+        putBits(bits, 0, positions, COORDS_PER_VERTEX * vertex, COORDS_PER_VERTEX);
+        putBits(bits, COORDS_PER_VERTEX,
+            texCoords, TEXCOORDS_PER_VERTEX * vertex, TEXCOORDS_PER_VERTEX);
+        putBits(bits, COORDS_PER_VERTEX + TEXCOORDS_PER_VERTEX,
+            normals, NORMALS_PER_VERTEX * vertex, NORMALS_PER_VERTEX);
+        return new VertexKey(bits);
+    }
+
+    private static void putBits(int[] bits, int bitsOffset, float[] values, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            bits[bitsOffset + i] = Float.floatToIntBits(values[offset + i]);
+        }
+    }
+
+    /**
+     * Computes the unnormalized normal of a triangle, in its winding order.
+     *
+     * @param p0 Offset of the first corner's position in {@code positions}, as are p1 and p2.
+     * @param normal Receives the normal, twice the triangle's area long.
+     */
+    public static void faceNormal(float[] positions, int p0, int p1, int p2, double[] normal) {
+        double ux = positions[p1] - positions[p0];
+        double uy = positions[p1 + 1] - positions[p0 + 1];
+        double uz = positions[p1 + 2] - positions[p0 + 2];
+        double vx = positions[p2] - positions[p0];
+        double vy = positions[p2 + 1] - positions[p0 + 1];
+        double vz = positions[p2 + 2] - positions[p0 + 2];
+        normal[0] = uy * vz - uz * vy;
+        normal[1] = uz * vx - ux * vz;
+        normal[2] = ux * vy - uy * vx;
+    }
+
+    /**
+     * Computes the axis-aligned bounding box of the positions, and the radius of a bounding
+     * sphere centered on the box.
+     *
+     * @param min Receives the minimum corner of the box.
+     * @param max Receives the maximum corner of the box.
+     * @return The bounding sphere radius.
+     */
+    public float computeBounds(float[] min, float[] max) {
+        for (int axis = 0; axis < COORDS_PER_VERTEX; axis++) {
+            min[axis] = getVertexCount() == 0 ? 0 : Float.POSITIVE_INFINITY;
+            max[axis] = getVertexCount() == 0 ? 0 : Float.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < positions.length; i += COORDS_PER_VERTEX) {
+            for (int axis = 0; axis < COORDS_PER_VERTEX; axis++) {
+                min[axis] = Math.min(min[axis], positions[i + axis]);
+                max[axis] = Math.max(max[axis], positions[i + axis]);
+            }
+        }
+
+        float maxDistanceSquared = 0;
+        for (int i = 0; i < positions.length; i += COORDS_PER_VERTEX) {
+            float distanceSquared = 0;
+            for (int axis = 0; axis < COORDS_PER_VERTEX; axis++) {
+                float d = positions[i + axis] - (min[axis] + max[axis]) / 2;
+                distanceSquared += d * d;
+            }
+            maxDistanceSquared = Math.max(maxDistanceSquared, distanceSquared);
+        }
+        return (float) Math.sqrt(maxDistanceSquared);
+    }
+
+    /**
+     * Reads an OBJ file and converts it exactly the way the app used to at runtime, so the baked
+     * mesh renders identically to the OBJ it was made from.
+     *
+     * @param objInputStream Stream of the OBJ file. Not closed by this method.
+     */
+    public static MeshGeometry fromObj(InputStream objInputStream) throws IOException {
+        Obj obj = ObjUtils.convertToRenderable(ObjReader.read(objInputStream));
+
+        IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
+        FloatBuffer vertices = ObjData.getVertices(obj);
+        FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
+        FloatBuffer normals = ObjData.getNormals(obj);
+
+        int vertexCount = vertices.limit() / COORDS_PER_VERTEX;
+        int[] indices = new int[wideIndices.limit()];
+        wideIndices.get(indices);
+
+        // Models without texture coordinates or normals get zero-filled blocks, so that every
+        // attribute block has one entry per vertex.
+        return new MeshGeometry(
+            toArray(vertices, vertexCount * COORDS_PER_VERTEX),
+            toArray(texCoords, vertexCount * TEXCOORDS_PER_VERTEX),
+            toArray(normals, vertexCount * NORMALS_PER_VERTEX),
+            indices);
+    }
+
+    private static float[] toArray(FloatBuffer buffer, int length) {
+        float[] array = new float[length];
+        buffer.rewind();
+        buffer.get(array, 0, Math.min(length, buffer.limit()));
+        return array;
+    }
+}
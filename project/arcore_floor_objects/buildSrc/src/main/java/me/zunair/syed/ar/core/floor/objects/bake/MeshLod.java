@@ -0,0 +1,21 @@
+package me.zunair.syed.ar.core.floor.objects.bake;
+
+/**
+ * One level of detail of a mesh: a triangle list over the vertices of the full detail mesh, and
+ * how far it may deviate from the full detail surface.
+ */
+public class MeshLod {
+    public final int[] indices;
+
+    /** Estimated geometric error, relative to the bounding sphere radius of the mesh. */
+    public final float error;
+
+    public MeshLod(int[] indices, float error) {
+        this.indices = indices;
+        this.error = error;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+}
@@ -0,0 +1,384 @@
+package me.zunair.syed.ar.core.floor.objects.bake;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reorders mesh data for the GPU: duplicate vertices are merged, triangles are ordered so that
+ * the post-transform vertex cache is hit as often as possible and outer surfaces are drawn before
+ * the ones they hide, and vertices are stored in the order they are first used.
+ */
+public class MeshOptimizer {
+    // Forsyth, "Linear-Speed Vertex Cache Optimisation". Scores model an LRU cache of this size,
+    // which works well for the FIFO caches of real GPUs of any size up to it.
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    // Cache model used to split triangles into clusters for overdraw ordering.
+    private static final int CLUSTER_CACHE_SIZE = 16;
+
+    private static final int COORDS = MeshGeometry.COORDS_PER_VERTEX;
+    private static final int TEXCOORDS = MeshGeometry.TEXCOORDS_PER_VERTEX;
+    private static final int NORMALS = MeshGeometry.NORMALS_PER_VERTEX;
+
+    /**
+     * Merges vertices whose position, texture coordinates and normal are all identical. The
+     * triangles are unchanged.
+     */
+    public static MeshGeometry weld(MeshGeometry mesh) {
+        int vertexCount = mesh.getVertexCount();
+        int[] remap = new int[vertexCount];
+        int[] firstVertices = new int[vertexCount];
+        Map<MeshGeometry.VertexKey, Integer> unique = new HashMap<>();
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            MeshGeometry.VertexKey key = mesh.attributeKey(vertex);
+            Integer welded = unique.get(key);
+            if (welded == null) {
+                welded = unique.size();
+                unique.put(key, welded);
+                firstVertices[welded] = vertex;
+            }
+            remap[vertex] = welded;
+        }
+
+        int weldedCount = unique.size();
+        float[] positions = new float[COORDS * weldedCount];
+        float[] texCoords = new float[TEXCOORDS * weldedCount];
+        float[] normals = new float[NORMALS * weldedCount];
+        for (int welded = 0; welded < weldedCount; welded++) {
+            int vertex = firstVertices[welded];
+            System.arraycopy(mesh.positions, COORDS * vertex, positions, COORDS * welded, COORDS);
+            System.arraycopy(
+                mesh.texCoords, TEXCOORDS * vertex, texCoords, TEXCOORDS * welded, TEXCOORDS);
+            System.arraycopy(mesh.normals, NORMALS * vertex, normals, NORMALS * welded, NORMALS);
+        }
+        return new MeshGeometry(positions, texCoords, normals, remapIndices(mesh.indices, remap));
+    }
+
+    /**
+     * Orders triangles so that consecutive triangles share vertices, using Forsyth's greedy
+     * algorithm: the next triangle is always the one whose vertices score highest, where
+     * vertices score by how recently they were used and how few triangles still need them.
+     *
+     * @return The reordered indices; the winding of each triangle is kept.
+     */
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+
+        // Triangles using each vertex, as one array with a range per vertex. The first
+        // remaining[vertex] entries of a range are the triangles not emitted yet.
+        int[] offsets = new int[vertexCount + 1];
+        for (int index : indices) {
+            offsets[index + 1]++;
+        }
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            offsets[vertex + 1] += offsets[vertex];
+        }
+        int[] vertexTriangles = new int[indices.length];
+        int[] remaining = new int[vertexCount];
+        for (int i = 0; i < indices.length; i++) {
+            int vertex = indices[i];
+            vertexTriangles[offsets[vertex] + remaining[vertex]++] = i / 3;
+        }
+
+        int[] cachePositions = new int[vertexCount];
+        Arrays.fill(cachePositions, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            vertexScores[vertex] = vertexScore(-1, remaining[vertex]);
+        }
+        float[] triangleScores = new float[triangleCount];
+        for (int triangle = 0; triangle < triangleCount; triangle++) {
+            triangleScores[triangle] = vertexScores[indices[3 * triangle]]
+                + vertexScores[indices[3 * triangle + 1]] + vertexScores[indices[3 * triangle + 2]];
+        }
+
+        boolean[] emitted = new boolean[triangleCount];
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int[] result = new int[indices.length];
+        int nextUnemitted = 0;
+
+        int best = bestTriangle(triangleScores);
+        for (int output = 0; output < triangleCount; output++) {
+            if (best < 0) {
+                // Nothing in the cache has triangles left; continue with the first triangle not
+                // emitted yet, which keeps the algorithm linear.
+                while (emitted[nextUnemitted]) {
+                    nextUnemitted++;
+                }
+                best = nextUnemitted;
+            }
+            emitted[best] = true;
+            System.arraycopy(indices, 3 * best, result, 3 * output, 3);
+
+            // Move the triangle's vertices to the front of the cache and take the triangle off
+            // their lists.
+            int newCount = 0;
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = indices[3 * best + corner];
+                newCache[newCount++] = vertex;
+                int start = offsets[vertex];
+                int end = start + remaining[vertex];
+                for (int i = start; i < end; i++) {
+                    if (vertexTriangles[i] == best) {
+                        vertexTriangles[i] = vertexTriangles[end - 1];
+                        vertexTriangles[end - 1] = best;
+                        remaining[vertex]--;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < cacheCount; i++) {
+                int vertex = cache[i];
+                if (vertex != newCache[0] && vertex != newCache[1] && vertex != newCache[2]) {
+                    if (newCount < newCache.length) {
+                        newCache[newCount++] = vertex;
+                    } else {
+                        // Evicted.
+                        cachePositions[vertex] = -1;
+                        vertexScores[vertex] = vertexScore(-1, remaining[vertex]);
+                    }
+                }
+            }
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheCount = newCount;
+
+            // Rescore the vertices in the cache and their triangles, and pick the best of those.
+            for (int i = 0; i < cacheCount; i++) {
+                int vertex = cache[i];
+                cachePositions[vertex] = i < CACHE_SIZE ? i : -1;
+                vertexScores[vertex] = vertexScore(cachePositions[vertex], remaining[vertex]);
+            }
+            best = -1;
+            float bestScore = -1;
+            for (int i = 0; i < cacheCount; i++) {
+                int vertex = cache[i];
+                for (int j = offsets[vertex]; j < offsets[vertex] + remaining[vertex]; j++) {
+                    int triangle = vertexTriangles[j];
+                    if (emitted[triangle]) {
+                        // Degenerate triangles are listed twice for the same vertex.
+                        continue;
+                    }
+                    float score = vertexScores[indices[3 * triangle]]
+                        + vertexScores[indices[3 * triangle + 1]]
+                        + vertexScores[indices[3 * triangle + 2]];
+                    triangleScores[triangle] = score;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = triangle;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reorders triangles so that the parts of the mesh facing outwards are drawn first and hide
+     * the parts behind them from the fragment shader. The vertex cache ordering is split into
+     * clusters where it restarts anyway, and only whole clusters are moved, so cache efficiency
+     * is kept (Sander, Nehab and Barczak, "Fast Triangle Reordering for Vertex Locality and
+     * Reduced Overdraw").
+     *
+     * @param indices Indices already ordered by {@link #optimizeVertexCache}.
+     */
+    public static int[] optimizeOverdraw(int[] indices, float[] positions, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        if (triangleCount == 0) {
+            return indices;
+        }
+
+        // A cluster starts wherever a triangle has no vertex in the cache.
+        List<Integer> clusterStarts = new ArrayList<>();
+        int[] cacheTimes = new int[vertexCount];
+        int time = CLUSTER_CACHE_SIZE + 1;
+        for (int triangle = 0; triangle < triangleCount; triangle++) {
+            int misses = 0;
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = indices[3 * triangle + corner];
+                if (time - cacheTimes[vertex] > CLUSTER_CACHE_SIZE) {
+                    cacheTimes[vertex] = time++;
+                    misses++;
+                }
+            }
+            if (triangle == 0 || misses == 3) {
+                clusterStarts.add(triangle);
+            }
+        }
+        clusterStarts.add(triangleCount);
+
+        double[] meshCenter = new double[3];
+        double meshArea = 0;
+        final int clusterCount = clusterStarts.size() - 1;
+        final double[] clusterCenters = new double[3 * clusterCount];
+        final double[] clusterNormals = new double[3 * clusterCount];
+        double[] normal = new double[3];
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            double clusterArea = 0;
+            for (int triangle = clusterStarts.get(cluster);
+                    triangle < clusterStarts.get(cluster + 1); triangle++) {
+                int p0 = COORDS * indices[3 * triangle];
+                int p1 = COORDS * indices[3 * triangle + 1];
+                int p2 = COORDS * indices[3 * triangle + 2];
+                MeshGeometry.faceNormal(positions, p0, p1, p2, normal);
+                double area = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1]
+                    + normal[2] * normal[2]);
+                for (int axis = 0; axis < 3; axis++) {
+                    double center = (positions[p0 + axis] + positions[p1 + axis]
+                        + positions[p2 + axis]) / 3;
+                    clusterCenters[3 * cluster + axis] += center * area;
+                    meshCenter[axis] += center * area;
+                    clusterNormals[3 * cluster + axis] += normal[axis];
+                }
+                clusterArea += area;
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                clusterCenters[3 * cluster + axis] /= Math.max(clusterArea, Double.MIN_NORMAL);
+            }
+            meshArea += clusterArea;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            meshCenter[axis] /= Math.max(meshArea, Double.MIN_NORMAL);
+        }
+
+        // Clusters facing away from the center are on the outside of the mesh.
+        final double[] outwardness = new double[clusterCount];
+        Integer[] order = new Integer[clusterCount];
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            double length = Math.sqrt(clusterNormals[3 * cluster] * clusterNormals[3 * cluster]
+                + clusterNormals[3 * cluster + 1] * clusterNormals[3 * cluster + 1]
+                + clusterNormals[3 * cluster + 2] * clusterNormals[3 * cluster + 2]);
+            for (int axis = 0; axis < 3; axis++) {
+                outwardness[cluster] += (clusterCenters[3 * cluster + axis] - meshCenter[axis])
+                    * clusterNormals[3 * cluster + axis] / Math.max(length, Double.MIN_NORMAL);
+            }
+            order[cluster] = cluster;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(outwardness[second], outwardness[first]);
+            }
+        });
+
+        int[] result = new int[indices.length];
+        int output = 0;
+        for (int cluster : order) {
+            int start = 3 * clusterStarts.get(cluster);
+            int end = 3 * clusterStarts.get(cluster + 1);
+            System.arraycopy(indices, start, result, output, end - start);
+            output += end - start;
+        }
+        return result;
+    }
+
+    /**
+     * Computes a vertex order in which vertices are stored in the order the index lists first
+     * use them, so that vertex fetches walk through memory. Vertices no list uses go last.
+     *
+     * @return For each vertex, its new position.
+     */
+    public static int[] vertexFetchRemap(int vertexCount, List<int[]> indexLists) {
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int[] indices : indexLists) {
+            for (int index : indices) {
+                if (remap[index] < 0) {
+                    remap[index] = next++;
+                }
+            }
+        }
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            if (remap[vertex] < 0) {
+                remap[vertex] = next++;
+            }
+        }
+        return remap;
+    }
+
+    /** Moves every vertex of a mesh to its position in {@code remap}, and updates its indices. */
+    public static MeshGeometry remapVertices(MeshGeometry mesh, int[] remap) {
+        float[] positions = new float[mesh.positions.length];
+        float[] texCoords = new float[mesh.texCoords.length];
+        float[] normals = new float[mesh.normals.length];
+        for (int vertex = 0; vertex < remap.length; vertex++) {
+            int target = remap[vertex];
+            System.arraycopy(mesh.positions, COORDS * vertex, positions, COORDS * target, COORDS);
+            System.arraycopy(
+                mesh.texCoords, TEXCOORDS * vertex, texCoords, TEXCOORDS * target, TEXCOORDS);
+            System.arraycopy(mesh.normals, NORMALS * vertex, normals, NORMALS * target, NORMALS);
+        }
+        return new MeshGeometry(positions, texCoords, normals, remapIndices(mesh.indices, remap));
+    }
+
+    public static int[] remapIndices(int[] indices, int[] remap) {
+        int[] result = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = remap[indices[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Average cache miss ratio: vertices transformed per triangle with a FIFO post-transform
+     * cache of the given size. 3 means no reuse at all; well ordered meshes get below 1.
+     */
+    public static float computeAcmr(int[] indices, int vertexCount, int cacheSize) {
+        if (indices.length == 0) {
+            return 0;
+        }
+        int[] cacheTimes = new int[vertexCount];
+        int time = cacheSize + 1;
+        for (int index : indices) {
+            if (time - cacheTimes[index] > cacheSize) {
+                cacheTimes[index] = time++;
+            }
+        }
+        int misses = time - (cacheSize + 1);
+        return misses / (indices.length / 3.0f);
+    }
+
+    private static float vertexScore(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            // No triangle needs this vertex anymore.
+            return -1;
+        }
+        float score = 0;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // Used by the last triangle. Scored lower, so that the next triangle does not
+                // just go back and forth around the last one.
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                float scale = 1.0f / (CACHE_SIZE - 3);
+                score = (float) Math.pow(1.0f - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+            }
+        }
+        // Vertices with few triangles left are finished first, to avoid leaving lone triangles
+        // behind that would need the vertex again later.
+        return score + VALENCE_BOOST_SCALE
+            * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+    }
+
+    private static int bestTriangle(float[] scores) {
+        int best = -1;
+        for (int triangle = 0; triangle < scores.length; triangle++) {
+            if (best < 0 || scores[triangle] > scores[best]) {
+                best = triangle;
+            }
+        }
+        return best;
+    }
+}
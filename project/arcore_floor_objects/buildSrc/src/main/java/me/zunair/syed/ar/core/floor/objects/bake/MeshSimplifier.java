@@ -0,0 +1,480 @@
+package me.zunair.syed.ar.core.floor.objects.bake;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces the triangle count of a mesh by quadric error edge collapse (Garland and Heckbert,
+ * "Surface Simplification Using Quadric Error Metrics").
+ *
+ * <p>Vertices are only ever collapsed onto other existing vertices, so every simplified level
+ * indexes the vertex block of the full detail mesh and no vertex data has to be added. Vertices
+ * sharing a position but not their texture coordinates or normals (seams) are moved together, and
+ * open borders and seams are weighted so that their outline is kept.
+ *
+ * <p>Simplification is incremental: each call to {@link #simplify} continues from the result of
+ * the previous one, so the levels generated by successive calls get coarser.
+ */
+public class MeshSimplifier {
+    // Weight of the planes keeping borders and seams in place, relative to the face planes.
+    private static final double BORDER_WEIGHT = 10.0;
+
+    // Collapses that turn a face by more than about 80 degrees are rejected, because they would
+    // fold the surface over itself.
+    private static final double MIN_NORMAL_COSINE = 0.2;
+
+    // Coefficients of a symmetric 4x4 quadric: aa, ab, ac, ad, bb, bc, bd, cc, cd, dd, followed
+    // by the total weight of its planes. Planes are weighted by area, and the cost of a collapse
+    // is divided by the total weight, so that it is a mean squared distance to the surface.
+    private static final int QUADRIC_SIZE = 11;
+
+    private static final int COORDS = MeshGeometry.COORDS_PER_VERTEX;
+    private static final int TEXCOORDS = MeshGeometry.TEXCOORDS_PER_VERTEX;
+
+    /** A candidate collapse of every vertex at one position onto the vertices at another. */
+    private static class Collapse implements Comparable<Collapse> {
+        final int mFrom;
+        final int mTo;
+        final double mCost;
+        final int mFromVersion;
+        final int mToVersion;
+
+        Collapse(int from, int to, double cost, int fromVersion, int toVersion) {
+            mFrom = from;
+            mTo = to;
+            mCost = cost;
+            mFromVersion = fromVersion;
+            mToVersion = toVersion;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(mCost, other.mCost);
+        }
+    }
+
+    private final MeshGeometry mMesh;
+    private final float mRadius;
+
+    // Per vertex: the first vertex with identical attributes, and the position cluster.
+    private final int[] mWedges;
+    private final int[] mClusters;
+
+    // Per position cluster.
+    private final int[] mClusterVertices;
+    private final double[] mQuadrics;
+    private final boolean[] mClusterAlive;
+    private final int[] mClusterVersions;
+    private final int[][] mClusterTriangles;
+    private final int[] mClusterTriangleCounts;
+
+    // Per triangle: the current vertex of each corner.
+    private final int[] mCorners;
+    private final boolean[] mTriangleAlive;
+    private int mTriangleCount;
+
+    private final PriorityQueue<Collapse> mQueue = new PriorityQueue<>();
+    private double mMaxCost;
+
+    public MeshSimplifier(MeshGeometry mesh) {
+        mMesh = mesh;
+        mRadius = Math.max(mesh.computeBounds(new float[3], new float[3]), Float.MIN_NORMAL);
+
+        int vertexCount = mesh.getVertexCount();
+        mWedges = new int[vertexCount];
+        mClusters = new int[vertexCount];
+        Map<MeshGeometry.VertexKey, Integer> wedges = new HashMap<>();
+        Map<MeshGeometry.VertexKey, Integer> clusters = new HashMap<>();
+        int[] clusterVertices = new int[vertexCount];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            Integer wedge = wedges.get(mMesh.attributeKey(vertex));
+            if (wedge == null) {
+                wedge = vertex;
+                wedges.put(mMesh.attributeKey(vertex), wedge);
+            }
+            mWedges[vertex] = wedge;
+
+            Integer cluster = clusters.get(mMesh.positionKey(vertex));
+            if (cluster == null) {
+                cluster = clusters.size();
+                clusters.put(mMesh.positionKey(vertex), cluster);
+                clusterVertices[cluster] = vertex;
+            }
+            mClusters[vertex] = cluster;
+        }
+
+        int clusterCount = clusters.size();
+        mClusterVertices = Arrays.copyOf(clusterVertices, clusterCount);
+        mQuadrics = new double[QUADRIC_SIZE * clusterCount];
+        mClusterAlive = new boolean[clusterCount];
+        Arrays.fill(mClusterAlive, true);
+        mClusterVersions = new int[clusterCount];
+        mClusterTriangles = new int[clusterCount][];
+        mClusterTriangleCounts = new int[clusterCount];
+
+        int triangleCount = mesh.getIndexCount() / 3;
+        mCorners = new int[3 * triangleCount];
+        mTriangleAlive = new boolean[triangleCount];
+        for (int triangle = 0; triangle < triangleCount; triangle++) {
+            for (int corner = 0; corner < 3; corner++) {
+                mCorners[3 * triangle + corner] = mWedges[mesh.indices[3 * triangle + corner]];
+            }
+            // Triangles that already have no area are dropped from every simplified level.
+            int c0 = clusterOf(triangle, 0);
+            int c1 = clusterOf(triangle, 1);
+            int c2 = clusterOf(triangle, 2);
+            if (c0 != c1 && c1 != c2 && c2 != c0) {
+                mTriangleAlive[triangle] = true;
+                mTriangleCount++;
+                addClusterTriangle(c0, triangle);
+                addClusterTriangle(c1, triangle);
+                addClusterTriangle(c2, triangle);
+            }
+        }
+
+        addFaceQuadrics();
+        addBorderQuadrics();
+
+        for (int triangle = 0; triangle < triangleCount; triangle++) {
+            if (mTriangleAlive[triangle]) {
+                for (int corner = 0; corner < 3; corner++) {
+                    int from = clusterOf(triangle, corner);
+                    int to = clusterOf(triangle, (corner + 1) % 3);
+                    offerCollapse(from, to);
+                    offerCollapse(to, from);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collapses edges, cheapest first, until at most {@code targetTriangleCount} triangles are
+     * left or the next collapse would exceed {@code maxError}.
+     *
+     * @param targetTriangleCount Triangle count to reduce the mesh to.
+     * @param maxError Largest geometric error allowed, relative to the bounding sphere radius.
+     * @return The simplified level. Its indices refer to the vertices of the original mesh.
+     */
+    public MeshLod simplify(int targetTriangleCount, float maxError) {
+        double maxCost = (double) maxError * mRadius * maxError * mRadius;
+        while (mTriangleCount > targetTriangleCount) {
+            Collapse collapse = mQueue.peek();
+            if (collapse == null || collapse.mCost > maxCost) {
+                break;
+            }
+            mQueue.poll();
+
+            // Collapses queued before either end was changed are stale; the current one was
+            // queued again when the change happened.
+            if (!mClusterAlive[collapse.mFrom] || !mClusterAlive[collapse.mTo]
+                    || mClusterVersions[collapse.mFrom] != collapse.mFromVersion
+                    || mClusterVersions[collapse.mTo] != collapse.mToVersion) {
+                continue;
+            }
+            if (collapse(collapse.mFrom, collapse.mTo)) {
+                mMaxCost = Math.max(mMaxCost, collapse.mCost);
+            }
+        }
+
+        int[] indices = new int[3 * mTriangleCount];
+        int index = 0;
+        for (int triangle = 0; triangle < mTriangleAlive.length; triangle++) {
+            if (mTriangleAlive[triangle]) {
+                for (int corner = 0; corner < 3; corner++) {
+                    indices[index++] = mCorners[3 * triangle + corner];
+                }
+            }
+        }
+        return new MeshLod(indices, (float) (Math.sqrt(mMaxCost) / mRadius));
+    }
+
+    private boolean collapse(int from, int to) {
+        int[] triangles = mClusterTriangles[from];
+        int triangleCount = mClusterTriangleCounts[from];
+
+        // Reject collapses that would flip or squash any face that survives them.
+        for (int i = 0; i < triangleCount; i++) {
+            int triangle = triangles[i];
+            if (mTriangleAlive[triangle] && !hasCluster(triangle, to)
+                    && !keepsOrientation(triangle, from, to)) {
+                return false;
+            }
+        }
+
+        // Each vertex at the old position becomes the vertex at the new position it shares an
+        // edge with, so texture coordinates stay continuous across the faces that are kept.
+        Map<Integer, Integer> wedgeTargets = new HashMap<>();
+        for (int i = 0; i < triangleCount; i++) {
+            int triangle = triangles[i];
+            if (mTriangleAlive[triangle] && hasCluster(triangle, to)) {
+                wedgeTargets.put(cornerIn(triangle, from), cornerIn(triangle, to));
+            }
+        }
+
+        for (int i = 0; i < triangleCount; i++) {
+            int triangle = triangles[i];
+            if (!mTriangleAlive[triangle]) {
+                continue;
+            }
+            if (hasCluster(triangle, to)) {
+                mTriangleAlive[triangle] = false;
+                mTriangleCount--;
+                continue;
+            }
+            for (int corner = 3 * triangle; corner < 3 * triangle + 3; corner++) {
+                if (mClusters[mCorners[corner]] == from) {
+                    Integer target = wedgeTargets.get(mCorners[corner]);
+                    if (target == null) {
+                        target = nearestWedge(mCorners[corner], to);
+                        wedgeTargets.put(mCorners[corner], target);
+                    }
+                    mCorners[corner] = target;
+                }
+            }
+            addClusterTriangle(to, triangle);
+        }
+
+        for (int i = 0; i < QUADRIC_SIZE; i++) {
+            mQuadrics[QUADRIC_SIZE * to + i] += mQuadrics[QUADRIC_SIZE * from + i];
+        }
+        mClusterAlive[from] = false;
+        mClusterTriangles[from] = null;
+        mClusterVersions[to]++;
+
+        // The cost of every edge around the merged vertex changed.
+        int[] merged = mClusterTriangles[to];
+        for (int i = 0; i < mClusterTriangleCounts[to]; i++) {
+            int triangle = merged[i];
+            if (mTriangleAlive[triangle]) {
+                for (int corner = 0; corner < 3; corner++) {
+                    int other = clusterOf(triangle, corner);
+                    if (other != to) {
+                        offerCollapse(to, other);
+                        offerCollapse(other, to);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Whether a face keeps facing the same way when its corner at {@code from} moves. */
+    private boolean keepsOrientation(int triangle, int from, int to) {
+        float[] positions = mMesh.positions;
+        double[] before = new double[3];
+        double[] after = new double[3];
+        int[] points = new int[3];
+        for (int corner = 0; corner < 3; corner++) {
+            points[corner] = COORDS * mCorners[3 * triangle + corner];
+        }
+        MeshGeometry.faceNormal(positions, points[0], points[1], points[2], before);
+        for (int corner = 0; corner < 3; corner++) {
+            if (clusterOf(triangle, corner) == from) {
+                points[corner] = COORDS * mClusterVertices[to];
+            }
+        }
+        MeshGeometry.faceNormal(positions, points[0], points[1], points[2], after);
+
+        double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+        double lengths = Math.sqrt(before[0] * before[0] + before[1] * before[1]
+            + before[2] * before[2]) * Math.sqrt(after[0] * after[0] + after[1] * after[1]
+            + after[2] * after[2]);
+        return lengths > 0 && dot >= MIN_NORMAL_COSINE * lengths;
+    }
+
+    /** The vertex at the cluster's position with the closest texture coordinates. */
+    private int nearestWedge(int wedge, int cluster) {
+        float[] texCoords = mMesh.texCoords;
+        int best = mClusterVertices[cluster];
+        float bestDistance = Float.POSITIVE_INFINITY;
+        int[] triangles = mClusterTriangles[cluster];
+        for (int i = 0; i < mClusterTriangleCounts[cluster]; i++) {
+            if (!mTriangleAlive[triangles[i]]) {
+                continue;
+            }
+            int candidate = cornerIn(triangles[i], cluster);
+            float du = texCoords[TEXCOORDS * candidate] - texCoords[TEXCOORDS * wedge];
+            float dv = texCoords[TEXCOORDS * candidate + 1] - texCoords[TEXCOORDS * wedge + 1];
+            if (du * du + dv * dv < bestDistance) {
+                bestDistance = du * du + dv * dv;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private void offerCollapse(int from, int to) {
+        float[] positions = mMesh.positions;
+        int p = COORDS * mClusterVertices[to];
+        double x = positions[p];
+        double y = positions[p + 1];
+        double z = positions[p + 2];
+        int a = QUADRIC_SIZE * from;
+        int b = QUADRIC_SIZE * to;
+        double[] q = mQuadrics;
+        double cost = (q[a] + q[b]) * x * x + 2 * (q[a + 1] + q[b + 1]) * x * y
+            + 2 * (q[a + 2] + q[b + 2]) * x * z + 2 * (q[a + 3] + q[b + 3]) * x
+            + (q[a + 4] + q[b + 4]) * y * y + 2 * (q[a + 5] + q[b + 5]) * y * z
+            + 2 * (q[a + 6] + q[b + 6]) * y
+            + (q[a + 7] + q[b + 7]) * z * z + 2 * (q[a + 8] + q[b + 8]) * z
+            + (q[a + 9] + q[b + 9]);
+        double weight = q[a + 10] + q[b + 10];
+        mQueue.add(new Collapse(from, to, weight > 0 ? Math.max(cost, 0) / weight : 0,
+            mClusterVersions[from], mClusterVersions[to]));
+    }
+
+    private void addFaceQuadrics() {
+        float[] positions = mMesh.positions;
+        double[] normal = new double[3];
+        for (int triangle = 0; triangle < mTriangleAlive.length; triangle++) {
+            if (!mTriangleAlive[triangle]) {
+                continue;
+            }
+            int p0 = COORDS * mCorners[3 * triangle];
+            MeshGeometry.faceNormal(positions, p0, COORDS * mCorners[3 * triangle + 1],
+                COORDS * mCorners[3 * triangle + 2], normal);
+            double area = normalize(normal) / 2;
+            if (area > 0) {
+                for (int corner = 0; corner < 3; corner++) {
+                    addPlane(clusterOf(triangle, corner), normal, positions, p0, area);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds planes through the edges that have only one face, or whose faces do not share texture
+     * coordinates or normals, perpendicular to the face. Moving a vertex off such an edge then
+     * costs as much as moving it off the surface.
+     */
+    private void addBorderQuadrics() {
+        // Edge key -> {face count, first face, 1 if the faces do not share their vertices}.
+        Map<Long, int[]> edges = new HashMap<>();
+        for (int triangle = 0; triangle < mTriangleAlive.length; triangle++) {
+            if (!mTriangleAlive[triangle]) {
+                continue;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                long key = edgeKey(
+                    clusterOf(triangle, corner), clusterOf(triangle, (corner + 1) % 3));
+                int[] edge = edges.get(key);
+                if (edge == null) {
+                    edges.put(key, new int[] { 1, triangle, 0 });
+                } else {
+                    edge[0]++;
+                    if (!sharesWedges(edge[1], triangle)) {
+                        edge[2] = 1;
+                    }
+                }
+            }
+        }
+
+        float[] positions = mMesh.positions;
+        double[] normal = new double[3];
+        double[] border = new double[3];
+        for (Map.Entry<Long, int[]> entry : edges.entrySet()) {
+            if (entry.getValue()[0] == 2 && entry.getValue()[2] == 0) {
+                continue;
+            }
+            int first = (int) (entry.getKey() >>> 32);
+            int second = (int) (long) entry.getKey();
+            int triangle = entry.getValue()[1];
+            MeshGeometry.faceNormal(positions, COORDS * mCorners[3 * triangle],
+                COORDS * mCorners[3 * triangle + 1], COORDS * mCorners[3 * triangle + 2], normal);
+
+            int p0 = COORDS * mClusterVertices[first];
+            int p1 = COORDS * mClusterVertices[second];
+            double ex = positions[p1] - positions[p0];
+            double ey = positions[p1 + 1] - positions[p0 + 1];
+            double ez = positions[p1 + 2] - positions[p0 + 2];
+            border[0] = ey * normal[2] - ez * normal[1];
+            border[1] = ez * normal[0] - ex * normal[2];
+            border[2] = ex * normal[1] - ey * normal[0];
+            if (normalize(border) > 0) {
+                double weight = BORDER_WEIGHT * (ex * ex + ey * ey + ez * ez);
+                addPlane(first, border, positions, p0, weight);
+                addPlane(second, border, positions, p0, weight);
+            }
+        }
+    }
+
+    /** Whether two faces sharing an edge use the same vertices along it. */
+    private boolean sharesWedges(int triangle, int other) {
+        for (int corner = 0; corner < 3; corner++) {
+            int cluster = clusterOf(triangle, corner);
+            if (hasCluster(other, cluster)
+                    && cornerIn(other, cluster) != mCorners[3 * triangle + corner]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addPlane(int cluster, double[] normal, float[] positions, int point,
+                          double weight) {
+        double a = normal[0];
+        double b = normal[1];
+        double c = normal[2];
+        double d = -(a * positions[point] + b * positions[point + 1] + c * positions[point + 2]);
+        int q = QUADRIC_SIZE * cluster;
+        mQuadrics[q] += weight * a * a;
+        mQuadrics[q + 1] += weight * a * b;
+        mQuadrics[q + 2] += weight * a * c;
+        mQuadrics[q + 3] += weight * a * d;
+        mQuadrics[q + 4] += weight * b * b;
+        mQuadrics[q + 5] += weight * b * c;
+        mQuadrics[q + 6] += weight * b * d;
+        mQuadrics[q + 7] += weight * c * c;
+        mQuadrics[q + 8] += weight * c * d;
+        mQuadrics[q + 9] += weight * d * d;
+        mQuadrics[q + 10] += weight;
+    }
+
+    private void addClusterTriangle(int cluster, int triangle) {
+        int[] triangles = mClusterTriangles[cluster];
+        int count = mClusterTriangleCounts[cluster];
+        if (triangles == null) {
+            triangles = new int[8];
+        } else if (count == triangles.length) {
+            triangles = Arrays.copyOf(triangles, 2 * count);
+        }
+        triangles[count] = triangle;
+        mClusterTriangles[cluster] = triangles;
+        mClusterTriangleCounts[cluster] = count + 1;
+    }
+
+    private int clusterOf(int triangle, int corner) {
+        return mClusters[mCorners[3 * triangle + corner]];
+    }
+
+    private boolean hasCluster(int triangle, int cluster) {
+        return clusterOf(triangle, 0) == cluster || clusterOf(triangle, 1) == cluster
+            || clusterOf(triangle, 2) == cluster;
+    }
+
+    private int cornerIn(int triangle, int cluster) {
+        for (int corner = 3 * triangle; corner < 3 * triangle + 3; corner++) {
+            if (mClusters[mCorners[corner]] == cluster) {
+                return mCorners[corner];
+            }
+        }
+        throw new IllegalArgumentException("Triangle " + triangle + " is not at " + cluster);
+    }
+
+    private static long edgeKey(int first, int second) {
+        return ((long) Math.min(first, second) << 32) | Math.max(first, second);
+    }
+
+    /** Normalizes a vector, unless it is zero, and returns its original length. */
+    private static double normalize(double[] v) {
+        double length = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        if (length > 0) {
+            v[0] /= length;
+            v[1] /= length;
+            v[2] /= length;
+        }
+        return length;
+    }
+}
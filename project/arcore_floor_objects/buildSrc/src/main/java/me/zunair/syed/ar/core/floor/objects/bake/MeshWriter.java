@@ -0,0 +1,268 @@
+package me.zunair.syed.ar.core.floor.objects.bake;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes the binary mesh format read by {@code rendering.MeshData} in the app. All values are
+ * little-endian.
+ *
+ * <pre>
+ * header (160 bytes):
+ *   int magic             "AMSH"
+ *   int version
+ *   int vertexCount
+ *   int indexCount        of all levels of detail together
+ *   int indexElementSize  bytes per index
+ *   int vertexBlockOffset
+ *   int vertexBlockSize
+ *   int indexBlockOffset
+ *   float[3] boundsMin    axis-aligned bounding box
+ *   float[3] boundsMax
+ *   float boundingRadius  radius of the bounding sphere centered on the box
+ *   int lodCount
+ *   lod[4]:               levels of detail, from full detail to coarsest; unused entries are 0
+ *     int firstIndex      in elements, from the start of the index block
+ *     int indexCount
+ *     float error         estimated geometric error, relative to boundingRadius
+ *   int vertexFormat      VERTEX_FORMAT_FLOAT or VERTEX_FORMAT_QUANTIZED
+ *   float[3] positionScale    quantized formats only: position = value * scale + offset
+ *   float[3] positionOffset
+ *   float[2] texCoordScale    quantized formats only: texCoord = value * scale + offset
+ *   float[2] texCoordOffset
+ *   int reserved
+ * vertex block, VERTEX_FORMAT_FLOAT: all positions (3 floats), then all texture coordinates
+ *   (2 floats), then all normals (3 floats).
+ * vertex block, VERTEX_FORMAT_QUANTIZED: 16 bytes per vertex, interleaved: position (3 shorts
+ *   and one of padding), texture coordinates (2 unsigned shorts), normal (2 shorts, octahedral
+ *   encoding, scaled by 32767).
+ *   Either way the vertex block is uploaded to the VBO as is.
+ * index block: triangle indices of every level of detail, one after the other, starting on a
+ *   4 byte boundary. All levels index the same vertex block. Indices are unsigned shorts, or
+ *   unsigned ints for meshes with more than 65536 vertices.
+ * </pre>
+ *
+ * Keep in sync with {@code MeshData} in the app module.
+ */
+public class MeshWriter {
+    public static final int MAGIC = 0x48534D41; // "AMSH", little-endian.
+    public static final int VERSION = 4;
+    public static final int HEADER_SIZE_BYTES = 160;
+    public static final int MAX_LODS = 4;
+
+    public static final int VERTEX_FORMAT_FLOAT = 0;
+    public static final int VERTEX_FORMAT_QUANTIZED = 1;
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+    private static final int BYTES_PER_INT = 4;
+    private static final int MAX_SHORT_INDEX = 0xFFFF;
+    private static final int QUANTIZED_VERTEX_SIZE_BYTES = 16;
+    private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+    private static final int SIGNED_SHORT_BIAS = 0x8000;
+    private static final int MAX_SIGNED_SHORT = 0x7FFF;
+
+    /** Writes a mesh with a single, full detail level and float attributes. */
+    public static void write(MeshGeometry mesh, OutputStream out) throws IOException {
+        write(mesh, Collections.singletonList(new MeshLod(mesh.indices, 0)),
+            VERTEX_FORMAT_FLOAT, out);
+    }
+
+    /**
+     * Writes a mesh with several levels of detail.
+     *
+     * @param lods The levels of detail, from full detail to coarsest. Their indices refer to the
+     *     vertices of {@code mesh}; the indices of {@code mesh} itself are not written.
+     * @param vertexFormat {@link #VERTEX_FORMAT_FLOAT} to keep the attributes as they are, or
+     *     {@link #VERTEX_FORMAT_QUANTIZED} to store half as many bytes per vertex.
+     */
+    public static void write(MeshGeometry mesh, List<MeshLod> lods, int vertexFormat,
+                             OutputStream out) throws IOException {
+        int vertexCount = mesh.getVertexCount();
+        int indexElementSize = vertexCount > MAX_SHORT_INDEX + 1 ? BYTES_PER_INT : BYTES_PER_SHORT;
+        if (lods.isEmpty() || lods.size() > MAX_LODS) {
+            throw new IOException("Mesh has " + lods.size() + " levels of detail, expected 1 to "
+                + MAX_LODS);
+        }
+        if (vertexFormat != VERTEX_FORMAT_FLOAT && vertexFormat != VERTEX_FORMAT_QUANTIZED) {
+            throw new IllegalArgumentException("Unknown vertex format " + vertexFormat);
+        }
+        int indexCount = 0;
+        for (MeshLod lod : lods) {
+            indexCount += lod.indices.length;
+        }
+
+        int vertexBlockOffset = HEADER_SIZE_BYTES;
+        int vertexBlockSize = vertexFormat == VERTEX_FORMAT_QUANTIZED
+            ? QUANTIZED_VERTEX_SIZE_BYTES * vertexCount
+            : BYTES_PER_FLOAT * (mesh.positions.length + mesh.texCoords.length
+                + mesh.normals.length);
+        int indexBlockOffset = align4(vertexBlockOffset + vertexBlockSize);
+        int totalBytes = indexBlockOffset + indexElementSize * indexCount;
+
+        ByteBuffer buffer = ByteBuffer.allocate(totalBytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(vertexCount);
+        buffer.putInt(indexCount);
+        buffer.putInt(indexElementSize);
+        buffer.putInt(vertexBlockOffset);
+        buffer.putInt(vertexBlockSize);
+        buffer.putInt(indexBlockOffset);
+
+        float[] boundsMin = new float[3];
+        float[] boundsMax = new float[3];
+        float boundingRadius = mesh.computeBounds(boundsMin, boundsMax);
+        putFloats(buffer, boundsMin);
+        putFloats(buffer, boundsMax);
+        buffer.putFloat(boundingRadius);
+
+        buffer.putInt(lods.size());
+        int firstIndex = 0;
+        for (int i = 0; i < MAX_LODS; i++) {
+            MeshLod lod = i < lods.size() ? lods.get(i) : null;
+            buffer.putInt(lod != null ? firstIndex : 0);
+            buffer.putInt(lod != null ? lod.indices.length : 0);
+            buffer.putFloat(lod != null ? lod.error : 0);
+            firstIndex += lod != null ? lod.indices.length : 0;
+        }
+
+        buffer.putInt(vertexFormat);
+        if (vertexFormat == VERTEX_FORMAT_QUANTIZED) {
+            writeQuantizedVertices(mesh, boundsMin, boundsMax, buffer, vertexBlockOffset);
+        } else {
+            buffer.position(vertexBlockOffset);
+            putFloats(buffer, mesh.positions);
+            putFloats(buffer, mesh.texCoords);
+            putFloats(buffer, mesh.normals);
+        }
+
+        buffer.position(indexBlockOffset);
+        for (MeshLod lod : lods) {
+            for (int index : lod.indices) {
+                if (indexElementSize == BYTES_PER_INT) {
+                    buffer.putInt(index);
+                } else {
+                    buffer.putShort((short) index);
+                }
+            }
+        }
+
+        out.write(buffer.array());
+    }
+
+    /**
+     * Writes the quantization parameters at the buffer's position, then the interleaved vertices
+     * at {@code vertexBlockOffset}.
+     */
+    private static void writeQuantizedVertices(MeshGeometry mesh, float[] boundsMin,
+                                               float[] boundsMax, ByteBuffer buffer,
+                                               int vertexBlockOffset) {
+        int coords = MeshGeometry.COORDS_PER_VERTEX;
+        int texCoords = MeshGeometry.TEXCOORDS_PER_VERTEX;
+        int normals = MeshGeometry.NORMALS_PER_VERTEX;
+
+        // Positions span the signed short range over the bounding box, so that the shader only
+        // needs one multiply-add per vertex.
+        float[] positionScale = new float[coords];
+        float[] positionOffset = new float[coords];
+        for (int axis = 0; axis < coords; axis++) {
+            positionScale[axis] = (boundsMax[axis] - boundsMin[axis]) / MAX_UNSIGNED_SHORT;
+            positionOffset[axis] = boundsMin[axis] + SIGNED_SHORT_BIAS * positionScale[axis];
+        }
+
+        // Texture coordinates may repeat outside of [0, 1], so they get their own range.
+        float[] texCoordScale = new float[texCoords];
+        float[] texCoordOffset = new float[texCoords];
+        for (int axis = 0; axis < texCoords; axis++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = axis; i < mesh.texCoords.length; i += texCoords) {
+                min = Math.min(min, mesh.texCoords[i]);
+                max = Math.max(max, mesh.texCoords[i]);
+            }
+            if (min > max) {
+                min = 0;
+                max = 0;
+            }
+            texCoordScale[axis] = (max - min) / MAX_UNSIGNED_SHORT;
+            texCoordOffset[axis] = min;
+        }
+
+        putFloats(buffer, positionScale);
+        putFloats(buffer, positionOffset);
+        putFloats(buffer, texCoordScale);
+        putFloats(buffer, texCoordOffset);
+
+        buffer.position(vertexBlockOffset);
+        float[] octahedral = new float[2];
+        for (int vertex = 0; vertex < mesh.getVertexCount(); vertex++) {
+            for (int axis = 0; axis < coords; axis++) {
+                buffer.putShort((short) (quantize(mesh.positions[coords * vertex + axis],
+                    boundsMin[axis], positionScale[axis]) - SIGNED_SHORT_BIAS));
+            }
+            buffer.putShort((short) 0);
+            for (int axis = 0; axis < texCoords; axis++) {
+                buffer.putShort((short) quantize(mesh.texCoords[texCoords * vertex + axis],
+                    texCoordOffset[axis], texCoordScale[axis]));
+            }
+            encodeOctahedral(mesh.normals, normals * vertex, octahedral);
+            buffer.putShort((short) Math.round(octahedral[0] * MAX_SIGNED_SHORT));
+            buffer.putShort((short) Math.round(octahedral[1] * MAX_SIGNED_SHORT));
+        }
+    }
+
+    /** Maps a value to [0, 65535] as {@code round((value - min) / scale)}. */
+    private static int quantize(float value, float min, float scale) {
+        if (scale == 0) {
+            return 0;
+        }
+        int quantized = Math.round((value - min) / scale);
+        return Math.max(0, Math.min(MAX_UNSIGNED_SHORT, quantized));
+    }
+
+    /**
+     * Projects a normal onto the octahedron |x| + |y| + |z| = 1 and unfolds the lower half over
+     * the upper one, which maps it to two values in [-1, 1] with nearly uniform precision. Zero
+     * normals, used to pad models without normals, map to (0, 0).
+     */
+    private static void encodeOctahedral(float[] normals, int offset, float[] encoded) {
+        float x = normals[offset];
+        float y = normals[offset + 1];
+        float z = normals[offset + 2];
+        float sum = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (sum == 0) {
+            encoded[0] = 0;
+            encoded[1] = 0;
+            return;
+        }
+        x /= sum;
+        y /= sum;
+        z /= sum;
+        if (z < 0) {
+            float folded = (1 - Math.abs(y)) * signNotZero(x);
+            y = (1 - Math.abs(x)) * signNotZero(y);
+            x = folded;
+        }
+        encoded[0] = Math.max(-1, Math.min(1, x));
+        encoded[1] = Math.max(-1, Math.min(1, y));
+    }
+
+    private static float signNotZero(float value) {
+        return value >= 0 ? 1 : -1;
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+    }
+
+    private static int align4(int offset) {
+        return (offset + 3) & ~3;
+    }
+}